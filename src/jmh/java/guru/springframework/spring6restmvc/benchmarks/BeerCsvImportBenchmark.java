@@ -0,0 +1,107 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import guru.springframework.spring6restmvc.model.BeerImportReport;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.persistence.DataDirectory;
+import guru.springframework.spring6restmvc.services.BeerCsvImporter;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+
+// one import of a generated catalog file into an empty store per iteration, in memory and with the write ahead
+// log. rows per second is rowCount divided by the time, every thousandth row is rejected
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class BeerCsvImportBenchmark {
+
+    BeerCsvImporter beerCsvImporter;
+
+    DataDirectory   dataDirectory;
+
+    Path            directory;
+
+    @Param({ "false", "true" })
+    boolean         durable;
+
+    Path            file;
+
+    @Param({ "1000000" })
+    int             rowCount;
+
+    @Benchmark
+    public BeerImportReport importFile() throws IOException {
+        return this.beerCsvImporter.importCsv(FileChannel.open(this.file, StandardOpenOption.READ),
+                        this.file.toString());
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        if (this.durable) {
+            this.dataDirectory = new DataDirectory(Files.createTempDirectory(this.directory, "data"),
+                            JsonMapper.builder().findAndAddModules().build(), null);
+        }
+        this.beerCsvImporter = new BeerCsvImporter(new BeerServiceImpl(this.dataDirectory), this.directory);
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("import");
+        this.file = this.directory.resolve("catalog.csv");
+        final BeerStyle[] styles = BeerStyle.values();
+        try (BufferedWriter writer = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8)) {
+            writer.write("beerName,beerStyle,upc,price,quantityOnHand\n");
+            for (int i = 0; i < this.rowCount; i++) {
+                writer.write(i % 1_000 == 999 ? "Broken " + i + ",CIDER," + i + ",1.00,1\n"
+                                : "\"Beer " + i + ", Batch " + i % 97 + "\"," + styles[i % styles.length] + ","
+                                                + (100_000_000L + i) + "," + (i % 5_000) / 100.0 + "," + i % 500
+                                                + "\n");
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        if (this.dataDirectory != null) {
+            this.dataDirectory.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            for (final Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import guru.springframework.spring6restmvc.controller.BeerController;
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+
+// the unfiltered beer list as the controller hands it to spring mvc, from the serialized response cache, right
+// after a write, which serializes again, and serialized per request the way it was done before the cache. the
+// projected one asks only for the fields a list screen shows
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BeerListResponseBenchmark {
+
+    static final String PROJECTED_FIELDS = "id,beerName,price";
+
+    BeerController      beerController;
+
+    ObjectWriter        beerListWriter;
+
+    BeerServiceImpl     beerService;
+
+    @Param({ "100", "10000" })
+    int                 catalogSize;
+
+    UUID[]              ids;
+
+    @Benchmark
+    public Object cachedList() {
+        return this.list(null, null);
+    }
+
+    @Benchmark
+    public Object cachedListGzipped() {
+        return this.list(null, "gzip");
+    }
+
+    @Benchmark
+    public Object listAfterWrite() {
+        this.beerService.patchBeerById(this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)],
+                        Beer.builder().quantityOnHand(ThreadLocalRandom.current().nextInt(1000)).build());
+
+        return this.list(null, null);
+    }
+
+    @Benchmark
+    public Object projectedListAfterWrite() {
+        this.beerService.patchBeerById(this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)],
+                        Beer.builder().quantityOnHand(ThreadLocalRandom.current().nextInt(1000)).build());
+
+        return this.list(BeerListResponseBenchmark.PROJECTED_FIELDS, null);
+    }
+
+    @Setup
+    public void setUp() {
+        final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        this.beerListWriter = objectMapper.writerFor(objectMapper.getTypeFactory()
+                        .constructCollectionType(List.class, Beer.class));
+        this.beerService = new BeerServiceImpl();
+        for (int i = this.beerService.getBeerCount(); i < this.catalogSize; i++) {
+            this.beerService.saveNewBeer(BeerServiceBenchmark.newBeer(i));
+        }
+        this.ids = this.beerService.listBeers().stream().map(Beer::getId).toArray(UUID[]::new);
+        this.beerController = new BeerController(this.beerService, objectMapper);
+    }
+
+    @Benchmark
+    public byte[] uncachedList() throws Exception {
+        return this.beerListWriter.writeValueAsBytes(this.beerService.listBeers());
+    }
+
+    // the whole list, as GET /api/v1/beer with only fields set
+    private Object list(final String fields, final String acceptEncoding) {
+        return this.beerController.getAllBeers(null, null, null, fields, null, null, null, null, null, null, null,
+                        null, null, BeerListResponseBenchmark.request(acceptEncoding)).getBody();
+    }
+
+    private static ServletWebRequest request(final String acceptEncoding) {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        if (acceptEncoding != null) {
+            request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+
+        return new ServletWebRequest(request);
+    }
+}
@@ -0,0 +1,121 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.model.InventoryAggregates;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+import guru.springframework.spring6restmvc.services.ConflictException;
+
+// hot paths of BeerServiceImpl. the catalog is filled once per trial, pick sizes with -p catalogSize=... and
+// the storage with -p columnarStorage=...
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public abstract class BeerServiceBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000", "10000000" })
+    int             catalogSize;
+
+    @Param({ "false", "true" })
+    boolean         columnarStorage;
+
+    BeerServiceImpl beerService;
+
+    UUID[]          ids;
+
+    @Benchmark
+    public Beer getBeerById() {
+        return this.beerService.getBeerById(this.randomId());
+    }
+
+    // flat across catalog sizes, unlike recomputeInventoryAggregates
+    @Benchmark
+    public InventoryAggregates getInventoryAggregates() {
+        return this.beerService.getInventoryAggregates();
+    }
+
+    @Benchmark
+    public int listBeers() {
+        return this.beerService.listBeers().size();
+    }
+
+    // 20 beers from anywhere in the price order, flat across catalog sizes unlike sorting listBeers
+    @Benchmark
+    public List<Beer> listBeersSorted() {
+        return this.beerService.listBeersSorted("price", false, null, null, null, ThreadLocalRandom.current()
+                        .nextInt(this.ids.length), 20);
+    }
+
+    @Benchmark
+    public void patchBeerById(final Blackhole blackhole) {
+        try {
+            this.beerService.patchBeerById(this.randomId(),
+                            Beer.builder().quantityOnHand(ThreadLocalRandom.current().nextInt(1000)).build());
+        } catch (final ConflictException e) {
+            // lost the race against another thread, counts as an operation all the same
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    public InventoryAggregates recomputeInventoryAggregates() {
+        return this.beerService.recomputeInventoryAggregates();
+    }
+
+    // deletes what it saved, so the catalog stays at catalogSize for the whole run
+    @Benchmark
+    public void saveNewBeerThenDelete() {
+        final Beer saved = this.beerService.saveNewBeer(BeerServiceBenchmark.newBeer(-1));
+        this.beerService.deleteBeerById(saved.getId());
+    }
+
+    @Setup
+    public void setUp() {
+        this.beerService = new BeerServiceImpl(null, this.columnarStorage);
+        for (int i = this.beerService.listBeers().size(); i < this.catalogSize; i++) {
+            this.beerService.saveNewBeer(BeerServiceBenchmark.newBeer(i));
+        }
+        this.ids = this.beerService.listBeers().stream().map(Beer::getId).toArray(UUID[]::new);
+    }
+
+    private UUID randomId() {
+        return this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)];
+    }
+
+    static Beer newBeer(final int i) {
+        return Beer.builder().beerName("Beer " + i).beerStyle(BeerStyle.values()[Math.abs(i) % BeerStyle.values().length])
+                        .upc(Integer.toString(100000 + i)).price(new BigDecimal("9.99")).quantityOnHand(i & 0xff).build();
+    }
+
+    @Threads(Threads.MAX)
+    public static class MultiThreaded extends BeerServiceBenchmark {
+    }
+
+    @Threads(1)
+    public static class SingleThreaded extends BeerServiceBenchmark {
+    }
+}
@@ -0,0 +1,104 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+import guru.springframework.spring6restmvc.services.PageCursor;
+
+// heap per beer and gc time of the object and the columnar beer storage. each storage runs in a fresh jvm,
+// which fills the catalog, measures the live heap after a full gc and then times patches and page reads.
+// mvn -Pjmh test-compile exec:exec -Djmh.main=guru.springframework.spring6restmvc.benchmarks.BeerStorageFootprint
+// -Djmh.args="<catalogSize> <operations> <heap>"
+public class BeerStorageFootprint {
+
+    public static void main(final String[] args) throws Exception {
+        final int catalogSize = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int operations = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        final String heap = args.length > 2 ? args[2] : "4g";
+
+        if (args.length > 3) {
+            BeerStorageFootprint.measure(catalogSize, operations, Boolean.parseBoolean(args[3]));
+            return;
+        }
+
+        System.out.println("storage   catalog  bytes/beer  load ms  load gc ms  ops gc ms  ops gc count  ops ms");
+        for (final boolean columnarStorage : new boolean[] { false, true }) {
+            final Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java")
+                            .toString(), "-Xms" + heap, "-Xmx" + heap, "-cp", System.getProperty("java.class.path"),
+                            BeerStorageFootprint.class.getName(), String.valueOf(catalogSize),
+                            String.valueOf(operations), heap, String.valueOf(columnarStorage))
+                                            .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                output.lines().forEach(System.out::println);
+            }
+            process.waitFor();
+        }
+    }
+
+    private static void measure(final int catalogSize, final int operations, final boolean columnarStorage) {
+        final long emptyHeap = BeerStorageFootprint.liveHeap();
+        final long loadGcStart = BeerStorageFootprint.gcMillis();
+        final long loadStart = System.nanoTime();
+
+        final BeerServiceImpl beerService = new BeerServiceImpl(null, columnarStorage);
+        // kept as primitives, so the measurement holds no reference into the store
+        final long[] mostBits = new long[catalogSize];
+        final long[] leastBits = new long[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            final UUID id = beerService.saveNewBeer(BeerServiceBenchmark.newBeer(i)).getId();
+            mostBits[i] = id.getMostSignificantBits();
+            leastBits[i] = id.getLeastSignificantBits();
+        }
+
+        final long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStart);
+        final long loadGcMillis = BeerStorageFootprint.gcMillis() - loadGcStart;
+        final long bytesPerBeer = (BeerStorageFootprint.liveHeap() - emptyHeap - 16L * catalogSize) / catalogSize;
+
+        // mostly patches, which replace a whole beer in the object storage, and a page read every 100
+        final long gcCountStart = BeerStorageFootprint.gcCount();
+        final long gcStart = BeerStorageFootprint.gcMillis();
+        final long start = System.nanoTime();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < operations; i++) {
+            final int index = random.nextInt(catalogSize);
+            if (i % 100 == 0) {
+                beerService.listBeers(PageCursor.encode(new UUID(mostBits[index], leastBits[index])), 100);
+            } else {
+                beerService.patchBeerById(new UUID(mostBits[index], leastBits[index]),
+                                Beer.builder().quantityOnHand(random.nextInt(1000)).build());
+            }
+        }
+        final long operationsMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.printf("%-8s %8d %11d %8d %11d %10d %13d %7d%n", columnarStorage ? "columnar" : "objects",
+                        catalogSize, bytesPerBeer, loadMillis, loadGcMillis, BeerStorageFootprint.gcMillis() - gcStart,
+                        BeerStorageFootprint.gcCount() - gcCountStart, operationsMillis);
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                        .mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                        .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    private static long liveHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,86 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import guru.springframework.spring6restmvc.model.Customer;
+import guru.springframework.spring6restmvc.services.CustomerServiceImpl;
+
+// partial name search over customers named from common first and last names, so popular trigrams have long
+// posting lists. a rare surname, a common one, a first name prefix and a misspelling, against a scan
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CustomerSearchBenchmark {
+
+    private static final String[] FIRST_NAMES = { "James", "Mary", "Robert", "Patricia", "John", "Jennifer",
+                    "Michael", "Linda", "David", "Elizabeth", "William", "Barbara", "Richard", "Susan", "Joseph",
+                    "Jessica", "Thomas", "Sarah", "Charles", "Karen", "Christopher", "Lisa", "Daniel", "Nancy" };
+
+    private static final String[] LAST_NAMES  = { "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia",
+                    "Miller", "Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson",
+                    "Anderson", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Thompson", "White", "Harris" };
+
+    @Param({ "100000", "1000000" })
+    int                           catalogSize;
+
+    CustomerServiceImpl           customerService;
+
+    @Benchmark
+    public List<Customer> commonSurname() {
+        return this.customerService.searchCustomers("johnson", 20);
+    }
+
+    @Benchmark
+    public List<Customer> firstNamePrefix() {
+        return this.customerService.searchCustomers("chri", 20);
+    }
+
+    // what the support desk did before the index, all customers pulled and scanned for the surname
+    @Benchmark
+    public List<Customer> listAndScan() {
+        return this.customerService.listCustomers().stream()
+                        .filter(customer -> customer.getName().toLowerCase(Locale.ROOT).contains("johnson")).limit(20)
+                        .toList();
+    }
+
+    @Benchmark
+    public List<Customer> misspelled() {
+        return this.customerService.searchCustomers("wiliams", 20);
+    }
+
+    @Benchmark
+    public List<Customer> rareSurname() {
+        return this.customerService.searchCustomers("rodriguez-okafor", 20);
+    }
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        this.customerService = new CustomerServiceImpl();
+        for (int i = 0; i < this.catalogSize; i++) {
+            final String lastName = i % 10_000 == 0 ? "Rodriguez-Okafor"
+                            : CustomerSearchBenchmark.LAST_NAMES[random.nextInt(CustomerSearchBenchmark.LAST_NAMES.length)];
+            this.customerService.saveNewCustomer(Customer.builder().name(CustomerSearchBenchmark.FIRST_NAMES[random
+                            .nextInt(CustomerSearchBenchmark.FIRST_NAMES.length)] + " " + lastName + " " + i).build());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import guru.springframework.spring6restmvc.model.Customer;
+import guru.springframework.spring6restmvc.services.ConflictException;
+import guru.springframework.spring6restmvc.services.CustomerServiceImpl;
+
+// same shape as BeerServiceBenchmark, for CustomerServiceImpl
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public abstract class CustomerServiceBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000", "10000000" })
+    int                 catalogSize;
+
+    CustomerServiceImpl customerService;
+
+    UUID[]              ids;
+
+    @Benchmark
+    public Customer getCustomerById() {
+        return this.customerService.getCustomerById(this.randomId());
+    }
+
+    @Benchmark
+    public int listCustomers() {
+        return this.customerService.listCustomers().size();
+    }
+
+    @Benchmark
+    public void patchCustomerById(final Blackhole blackhole) {
+        try {
+            this.customerService.patchCustomerById(this.randomId(),
+                            Customer.builder().name("Name " + ThreadLocalRandom.current().nextInt(1000)).build());
+        } catch (final ConflictException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    public void saveNewCustomerThenDelete() {
+        final Customer saved = this.customerService.saveNewCustomer(Customer.builder().name("New").build());
+        this.customerService.deleteCustomerById(saved.getId());
+    }
+
+    @Setup
+    public void setUp() {
+        this.customerService = new CustomerServiceImpl();
+        for (int i = this.customerService.listCustomers().size(); i < this.catalogSize; i++) {
+            this.customerService.saveNewCustomer(Customer.builder().name("Customer " + i).build());
+        }
+        this.ids = this.customerService.listCustomers().stream().map(Customer::getId).toArray(UUID[]::new);
+    }
+
+    private UUID randomId() {
+        return this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)];
+    }
+
+    @Threads(Threads.MAX)
+    public static class MultiThreaded extends CustomerServiceBenchmark {
+    }
+
+    @Threads(1)
+    public static class SingleThreaded extends CustomerServiceBenchmark {
+    }
+}
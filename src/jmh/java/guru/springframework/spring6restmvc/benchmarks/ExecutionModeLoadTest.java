@@ -0,0 +1,145 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import guru.springframework.spring6restmvc.Spring6RestMvcApplication;
+import guru.springframework.spring6restmvc.controller.BeerController;
+import guru.springframework.spring6restmvc.services.BeerService;
+
+// compares platform and virtual thread request handling. slow clients trickle a request body one byte at a time,
+// which pins a worker thread each, while fast clients measure get latency next to them.
+// mvn -Pjmh test-compile exec:exec -Djmh.main=guru.springframework.spring6restmvc.benchmarks.ExecutionModeLoadTest
+// -Djmh.args="<slowClients> <fastClients> <seconds> <tomcatMaxThreads>"
+public class ExecutionModeLoadTest {
+
+    public static void main(final String[] args) throws Exception {
+        // devtools would otherwise restart main in a new class loader without our arguments
+        System.setProperty("spring.devtools.restart.enabled", "false");
+
+        final int slowClients = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        final int fastClients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+        final int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        // on jdk 21 a blocking servlet read waits inside a monitor and pins its carrier, the scheduler then adds
+        // carriers up to maxPoolSize (256), so leave room for every slow client
+        System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", String.valueOf(slowClients + 256));
+
+        for (final boolean virtualThreads : new boolean[] { false, true }) {
+            // passed as arguments so they win over application.properties
+            final ConfigurableApplicationContext context = new SpringApplicationBuilder(Spring6RestMvcApplication.class)
+                            .run("--server.port=0", "--server.tomcat.threads.max=" + maxThreads,
+                                            "--spring.threads.virtual.enabled=" + virtualThreads,
+                                            "--logging.level.guru.springframework=info");
+            try {
+                final int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+                final String beerId = context.getBean(BeerService.class).listBeers().get(0).getId().toString();
+
+                ExecutionModeLoadTest.run(virtualThreads ? "virtual" : "platform", port, beerId, slowClients, fastClients,
+                                seconds);
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private static void run(final String mode, final int port, final String beerId, final int slowClients,
+                    final int fastClients, final int seconds) throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong errors = new AtomicLong();
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < slowClients; i++) {
+                clients.submit(() -> ExecutionModeLoadTest.slowClient(port, running));
+            }
+            // let the slow clients occupy the workers first
+            Thread.sleep(1000);
+
+            final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                            .connectTimeout(Duration.ofSeconds(5)).build();
+            final HttpRequest request = HttpRequest
+                            .newBuilder(URI.create("http://localhost:" + port + BeerController.BEER_PATH + "/" + beerId))
+                            .timeout(Duration.ofSeconds(5)).build();
+
+            final List<Future<long[]>> results = new ArrayList<>();
+            final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            for (int i = 0; i < fastClients; i++) {
+                results.add(clients.submit(() -> {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    while (System.nanoTime() < end) {
+                        final long start = System.nanoTime();
+                        try {
+                            httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                        } catch (final Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = System.nanoTime() - start;
+                    }
+                    return Arrays.copyOf(latencies, count);
+                }));
+            }
+
+            final List<long[]> perClient = new ArrayList<>();
+            for (final Future<long[]> result : results) {
+                perClient.add(result.get());
+            }
+            running.set(false);
+
+            final long[] all = perClient.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            System.out.printf("%-8s slow=%d fast=%d requests=%d throughput=%.0f/s p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms errors=%d%n",
+                            mode, slowClients, fastClients, all.length, all.length / (double) seconds,
+                            ExecutionModeLoadTest.percentile(all, 0.5), ExecutionModeLoadTest.percentile(all, 0.99),
+                            ExecutionModeLoadTest.percentile(all, 0.999), all.length == 0 ? 0 : all[all.length - 1] / 1e6,
+                            errors.get());
+        }
+    }
+
+    private static double percentile(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)] / 1e6;
+    }
+
+    // declares a large body and sends it one byte every 100ms, a blocking servlet read holds its thread all along
+    private static void slowClient(final int port, final AtomicBoolean running) {
+        try (Socket socket = new Socket("localhost", port)) {
+            final OutputStream out = socket.getOutputStream();
+            out.write(("POST " + BeerController.BEER_PATH + " HTTP/1.1\r\nHost: localhost\r\n"
+                            + "Content-Type: application/json\r\nContent-Length: 1000000\r\n\r\n{")
+                                            .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            while (running.get()) {
+                Thread.sleep(100);
+                out.write(' ');
+                out.flush();
+            }
+        } catch (final Exception e) {
+            // server gave up on us, nothing to measure here
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.Customer;
+
+// json cost of the models, with the object mapper configured the way spring boot does it
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JacksonSerializationBenchmark {
+
+    byte[]       beerJson;
+
+    ObjectWriter beerListWriter;
+
+    List<Beer>   beers;
+
+    Customer     customer;
+
+    byte[]       customerJson;
+
+    @Param({ "1", "100", "10000" })
+    int          listSize;
+
+    ObjectMapper objectMapper;
+
+    @Benchmark
+    public Beer readBeer() throws Exception {
+        return this.objectMapper.readValue(this.beerJson, Beer.class);
+    }
+
+    @Benchmark
+    public Customer readCustomer() throws Exception {
+        return this.objectMapper.readValue(this.customerJson, Customer.class);
+    }
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        this.objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        this.beerListWriter = this.objectMapper.writerFor(this.objectMapper.getTypeFactory()
+                        .constructCollectionType(List.class, Beer.class));
+
+        this.beers = new ArrayList<>(this.listSize);
+        for (int i = 0; i < this.listSize; i++) {
+            final Beer beer = BeerServiceBenchmark.newBeer(i);
+            beer.setId(UUID.randomUUID());
+            beer.setVersion(1);
+            beer.setCreatedDate(LocalDateTime.now());
+            beer.setUpdatedDate(LocalDateTime.now());
+            this.beers.add(beer);
+        }
+        this.customer = Customer.builder().id(UUID.randomUUID()).version(1).name("Customer").createdDate(LocalDateTime.now())
+                        .updatedDate(LocalDateTime.now()).build();
+
+        this.beerJson = this.objectMapper.writeValueAsBytes(this.beers.get(0));
+        this.customerJson = this.objectMapper.writeValueAsBytes(this.customer);
+    }
+
+    @Benchmark
+    public byte[] writeBeer() throws Exception {
+        return this.objectMapper.writeValueAsBytes(this.beers.get(0));
+    }
+
+    @Benchmark
+    public byte[] writeBeerList() throws Exception {
+        return this.beerListWriter.writeValueAsBytes(this.beers);
+    }
+
+    @Benchmark
+    public byte[] writeCustomer() throws Exception {
+        return this.objectMapper.writeValueAsBytes(this.customer);
+    }
+}
@@ -0,0 +1,100 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.CacheStats;
+import guru.springframework.spring6restmvc.persistence.DataDirectory;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+
+// getBeerById over a backend with a millisecond of latency, with and without the read-through cache in front.
+// ids are zipf distributed like most catalog traffic, the cache holds a small share of the catalog. the hit ratio
+// and mean load time are printed after each trial
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Threads(16)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ReadThroughCacheBenchmark {
+
+    static final Duration BACKEND_LATENCY = Duration.ofMillis(1);
+
+    static final int      CATALOG_SIZE    = 100_000;
+
+    static final double   ZIPF_EXPONENT   = 1;
+
+    BeerServiceImpl       beerService;
+
+    @Param({ "0", "1000", "10000" })
+    int                   cacheSize;
+
+    // cumulative probability of the ids up to each rank
+    double[]              distribution;
+
+    UUID[]                ids;
+
+    @Benchmark
+    public Beer getBeerById() {
+        final int rank = Arrays.binarySearch(this.distribution, ThreadLocalRandom.current().nextDouble());
+
+        return this.beerService.getBeerById(this.ids[Math.min(rank < 0 ? -rank - 1 : rank, this.ids.length - 1)]);
+    }
+
+    @Setup
+    public void setUp() {
+        this.beerService = new BeerServiceImpl((DataDirectory) null, false,
+                        ReadThroughCacheBenchmark.BACKEND_LATENCY, this.cacheSize, Duration.ofMinutes(10));
+        this.ids = new UUID[ReadThroughCacheBenchmark.CATALOG_SIZE];
+        // in bulk, one round trip per thousand
+        for (int i = 0; i < this.ids.length; i += 1_000) {
+            final Beer[] batch = new Beer[Math.min(1_000, this.ids.length - i)];
+            Arrays.setAll(batch, j -> Beer.builder().beerName("Beer").build());
+            final List<Beer> saved = this.beerService.saveNewBeers(Arrays.asList(batch));
+            for (int j = 0; j < saved.size(); j++) {
+                this.ids[i + j] = saved.get(j).getId();
+            }
+        }
+
+        this.distribution = new double[this.ids.length];
+        double sum = 0;
+        for (int rank = 0; rank < this.distribution.length; rank++) {
+            sum += 1 / Math.pow(rank + 1, ReadThroughCacheBenchmark.ZIPF_EXPONENT);
+            this.distribution[rank] = sum;
+        }
+        for (int rank = 0; rank < this.distribution.length; rank++) {
+            this.distribution[rank] /= sum;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        final CacheStats stats = this.beerService.getBeerCacheStats();
+        if (stats != null) {
+            System.out.printf("%ncache of %d: hit ratio %.3f, %d loads of %.2f ms on average, %d coalesced%n",
+                            this.cacheSize, stats.hitRatio(), stats.getLoadCount(), stats.meanLoadNanos() / 1e6,
+                            stats.getCoalescedLoadCount());
+        }
+    }
+}
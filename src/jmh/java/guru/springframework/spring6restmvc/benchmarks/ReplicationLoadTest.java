@@ -0,0 +1,108 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.controller.WireFormat;
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.replication.ReplicationClient;
+import guru.springframework.spring6restmvc.replication.ReplicationServer;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+import guru.springframework.spring6restmvc.services.ChangeFeed;
+import guru.springframework.spring6restmvc.services.CustomerServiceImpl;
+
+// two nodes on loopback, writers insert beers on one and the other follows. lag is from just before the insert
+// on the first node to the insert on the second, taken from the beer name. a rate of 0 writes as fast as the
+// writers can, which measures throughput and the lag of a backlog, a rate below that measures the lag alone.
+// mvn -Pjmh test-compile exec:exec -Djmh.main=guru.springframework.spring6restmvc.benchmarks.ReplicationLoadTest
+// -Djmh.args="<writers> <writesPerWriter> <writesPerSecond> <rounds>"
+public class ReplicationLoadTest {
+
+    static final ObjectMapper OBJECT_MAPPER = WireFormat.SMILE.derive(new ObjectMapper().findAndRegisterModules());
+
+    static final List<String> PEERS         = List.of("localhost:0");
+
+    static final String       SECRET        = "load-test";
+
+    public static void main(final String[] args) throws Exception {
+        final int writers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        final int writesPerWriter = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        final int writesPerSecond = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        final int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        System.out.println("writers     writes     ms  writes/s  lag p50 ms  p99 ms  max ms  gaps");
+        for (int round = 0; round < rounds; round++) {
+            ReplicationLoadTest.run(writers, writesPerWriter, writesPerSecond);
+        }
+    }
+
+    private static void run(final int writers, final int writesPerWriter, final int writesPerSecond)
+                    throws Exception {
+        final BeerServiceImpl source = new BeerServiceImpl();
+        final ChangeFeed changeFeed = new ChangeFeed(1 << 16);
+        source.addChangeListener(changeFeed.listener("beer"));
+        final BeerServiceImpl target = new BeerServiceImpl();
+        final int writes = writers * writesPerWriter;
+        final long[] lagNanos = new long[writes];
+        final AtomicInteger received = new AtomicInteger();
+        target.addChangeListener((previous, current) -> {
+            // the seeded beers have names of their own
+            if (previous == null && current != null && current.getBeerName().chars().allMatch(Character::isDigit)) {
+                lagNanos[received.getAndIncrement()] = System.nanoTime() - Long.parseLong(current.getBeerName());
+            }
+        });
+
+        try (ReplicationServer server = new ReplicationServer(InetAddress.getLoopbackAddress(), 0,
+                        ReplicationLoadTest.PEERS, ReplicationLoadTest.SECRET, changeFeed, source,
+                        new CustomerServiceImpl(), ReplicationLoadTest.OBJECT_MAPPER);
+                        ReplicationClient client = new ReplicationClient(List.of("localhost:" + server.port()),
+                                        ReplicationLoadTest.SECRET, target, new CustomerServiceImpl(),
+                                        ReplicationLoadTest.OBJECT_MAPPER)) {
+            // past the snapshot of the seeded beers
+            while (client.snapshotCount() == 0) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final long intervalNanos = writesPerSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(writers) / writesPerSecond;
+            final long begin;
+            try (ExecutorService executor = Executors.newFixedThreadPool(writers)) {
+                for (int i = 0; i < writers; i++) {
+                    executor.submit(() -> {
+                        start.await();
+                        long next = System.nanoTime();
+                        for (int j = 0; j < writesPerWriter; j++) {
+                            if (intervalNanos > 0) {
+                                next += intervalNanos;
+                                LockSupport.parkNanos(next - System.nanoTime());
+                            }
+                            source.saveNewBeer(Beer.builder().beerName(Long.toString(System.nanoTime())).build());
+                        }
+                        return null;
+                    });
+                }
+                begin = System.nanoTime();
+                start.countDown();
+            }
+            while (received.get() < writes) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            }
+            final long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+
+            Arrays.sort(lagNanos);
+            System.out.printf("%7d %10d %6d %9d %11.2f %7.2f %7.2f %5d%n", writers, writes, millis,
+                            writes * 1000L / millis, lagNanos[writes / 2] / 1e6, lagNanos[writes * 99 / 100] / 1e6,
+                            lagNanos[writes - 1] / 1e6, client.gapCount());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import guru.springframework.spring6restmvc.Spring6RestMvcApplication;
+import guru.springframework.spring6restmvc.controller.BeerController;
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.persistence.BeerSnapshotCodec;
+import guru.springframework.spring6restmvc.persistence.DataDirectory;
+import guru.springframework.spring6restmvc.services.EntityStore;
+
+// time from launching Spring6RestMvcApplication in a fresh jvm until it serves its first request, with a beer
+// snapshot of catalogSize entities in its data directory. the heap of the app is set with -p appHeap=...
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class StartupBenchmark {
+
+    @Param({ "8g" })
+    String     appHeap;
+
+    @Param({ "0", "100000", "1000000", "10000000" })
+    int        catalogSize;
+
+    HttpClient client;
+
+    Path       directory;
+
+    Process    process;
+
+    UUID       firstId;
+
+    @Benchmark
+    public int launchUntilFirstRequest() throws Exception {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        this.process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-Xmx" + this.appHeap, "-Dspring.devtools.restart.enabled=false", "-cp",
+                        System.getProperty("java.class.path"), Spring6RestMvcApplication.class.getName(),
+                        "--server.port=" + port, "--app.data.directory=" + this.directory,
+                        "--logging.level.guru.springframework=info").redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                                        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port
+                        + BeerController.BEER_PATH + "/" + this.firstId)).build();
+        while (true) {
+            try {
+                return this.client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (final IOException e) {
+                // not listening yet
+                if (!this.process.isAlive()) {
+                    throw new IllegalStateException("Application exited with " + this.process.exitValue());
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    // the snapshot is written once, every launch maps the same one
+    @Setup
+    public void setUp() throws IOException {
+        this.client = HttpClient.newHttpClient();
+        this.directory = Files.createTempDirectory("startup");
+
+        try (DataDirectory dataDirectory = new DataDirectory(this.directory, JsonMapper.builder().findAndAddModules()
+                        .build(), null)) {
+            final EntityStore<Beer> store = new EntityStore<>();
+            dataDirectory.restore("beer", Beer.class, new BeerSnapshotCodec(), store);
+            // at least one beer, so the services do not seed and there is something to ask for
+            for (int i = 0; i < Math.max(1, this.catalogSize); i++) {
+                final Beer beer = BeerServiceBenchmark.newBeer(i);
+                beer.setId(UUID.randomUUID());
+                beer.setVersion(1);
+                store.insert(beer);
+            }
+            this.firstId = store.values().iterator().next().getId();
+            dataDirectory.checkpoint();
+        }
+    }
+
+    // killed rather than stopped, a graceful shutdown would take a checkpoint and rewrite the snapshot
+    @TearDown(Level.Iteration)
+    public void stopApplication() throws InterruptedException {
+        this.process.destroyForcibly().waitFor();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            for (final Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
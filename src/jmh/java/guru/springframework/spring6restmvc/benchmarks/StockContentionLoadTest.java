@@ -0,0 +1,99 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+import guru.springframework.spring6restmvc.services.ConflictException;
+
+// thousands of threads adjusting the stock of one hot beer. adjustStock is compared to the versioned
+// read-modify-write a client has to do without it, a patch of the new quantity retried on every conflict.
+// writes is the number of store writes, fewer than operations when adjustments were combined.
+// mvn -Pjmh test-compile exec:exec -Djmh.main=guru.springframework.spring6restmvc.benchmarks.StockContentionLoadTest
+// -Djmh.args="<threads> <adjustmentsPerThread> <rounds> <platform|virtual>"
+public class StockContentionLoadTest {
+
+    public static void main(final String[] args) throws Exception {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        final int adjustmentsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        // virtual threads are never preempted, with few cores they rarely collide inside a write
+        final boolean virtualThreads = args.length > 3 && args[3].equals("virtual");
+
+        System.out.println("mode      threads  operations    ms     ops/s   writes  retries  lost");
+        for (int round = 0; round < rounds; round++) {
+            for (final boolean combined : new boolean[] { true, false }) {
+                StockContentionLoadTest.run(combined, threads, adjustmentsPerThread, virtualThreads);
+            }
+        }
+    }
+
+    private static void run(final boolean combined, final int threads, final int adjustmentsPerThread,
+                    final boolean virtualThreads) throws Exception {
+        final BeerServiceImpl beerService = new BeerServiceImpl();
+        final int startQuantity = 1_000_000;
+        final UUID beerId = beerService.saveNewBeer(Beer.builder().beerName("Hot").quantityOnHand(startQuantity).build())
+                        .getId();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Long>> results = new ArrayList<>(threads);
+
+        final long begin;
+        try (ExecutorService executor = virtualThreads ? Executors.newVirtualThreadPerTaskExecutor()
+                        : Executors.newFixedThreadPool(threads)) {
+            for (int i = 0; i < threads; i++) {
+                // every other thread takes stock off, so the quantity ends where it started
+                final int delta = i % 2 == 0 ? 1 : -1;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    long retries = 0;
+                    for (int j = 0; j < adjustmentsPerThread; j++) {
+                        retries += combined ? StockContentionLoadTest.adjust(beerService, beerId, delta)
+                                        : StockContentionLoadTest.patch(beerService, beerId, delta);
+                    }
+                    return retries;
+                }));
+            }
+            begin = System.nanoTime();
+            start.countDown();
+        }
+        final long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+
+        long retries = 0;
+        for (final Future<Long> result : results) {
+            retries += result.get();
+        }
+        final Beer beer = beerService.getBeerById(beerId);
+        final long operations = (long) threads * adjustmentsPerThread;
+        final int expected = startQuantity + (threads % 2) * adjustmentsPerThread;
+        System.out.printf("%-9s %7d %11d %5d %9d %8d %8d %5d%n", combined ? "adjust" : "patch", threads, operations,
+                        millis, operations * 1000 / millis, beer.getVersion() - 1, retries,
+                        Math.abs(expected - beer.getQuantityOnHand()));
+    }
+
+    private static long adjust(final BeerServiceImpl beerService, final UUID beerId, final int delta) {
+        beerService.adjustStock(beerId, delta);
+
+        return 0;
+    }
+
+    private static long patch(final BeerServiceImpl beerService, final UUID beerId, final int delta) {
+        for (long retries = 0;; retries++) {
+            final Beer current = beerService.getBeerById(beerId);
+            try {
+                beerService.patchBeerById(beerId, Beer.builder().version(current.getVersion())
+                                .quantityOnHand(current.getQuantityOnHand() + delta).build());
+                return retries;
+            } catch (final ConflictException e) {
+                // somebody else wrote in between, read again
+            }
+        }
+    }
+}
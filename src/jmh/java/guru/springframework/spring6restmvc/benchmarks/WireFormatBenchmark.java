@@ -0,0 +1,84 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import guru.springframework.spring6restmvc.controller.WireFormat;
+import guru.springframework.spring6restmvc.model.Beer;
+
+// encoding and decoding a beer list in each wire format with the mappers the controllers use. the payload size
+// of every format and list size is printed once per fork, before the warmup
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    ObjectReader beerListReader;
+
+    ObjectWriter beerListWriter;
+
+    List<Beer>   beers;
+
+    byte[]       encoded;
+
+    @Param({ "JSON", "CBOR", "SMILE" })
+    WireFormat   format;
+
+    @Param({ "1", "100", "10000" })
+    int          listSize;
+
+    @Benchmark
+    public List<Beer> readBeerList() throws Exception {
+        return this.beerListReader.readValue(this.encoded);
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        final ObjectMapper mapper = this.format.mapper(Jackson2ObjectMapperBuilder.json().build());
+        this.beerListReader = mapper.readerForListOf(Beer.class);
+        this.beerListWriter = mapper.writerFor(mapper.getTypeFactory().constructCollectionType(List.class, Beer.class));
+
+        this.beers = new ArrayList<>(this.listSize);
+        for (int i = 0; i < this.listSize; i++) {
+            final Beer beer = BeerServiceBenchmark.newBeer(i);
+            beer.setId(UUID.randomUUID());
+            beer.setVersion(1);
+            beer.setCreatedDate(LocalDateTime.now());
+            beer.setUpdatedDate(LocalDateTime.now());
+            this.beers.add(beer);
+        }
+        this.encoded = this.beerListWriter.writeValueAsBytes(this.beers);
+
+        System.out.printf("%n%s, %d beers: %d bytes, %d per beer%n", this.format, this.listSize, this.encoded.length,
+                        this.encoded.length / this.listSize);
+    }
+
+    @Benchmark
+    public byte[] writeBeerList() throws Exception {
+        return this.beerListWriter.writeValueAsBytes(this.beers);
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.persistence.DataDirectory;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+
+// write throughput in memory against the write ahead log. with many writers group commit should share
+// each fsync between them, so the durable numbers should close in on the in memory ones as threads grow
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class WriteAheadLogBenchmark {
+
+    @Param({ "false", "true" })
+    boolean         durable;
+
+    BeerServiceImpl beerService;
+
+    DataDirectory   dataDirectory;
+
+    Path            directory;
+
+    @Benchmark
+    public Beer saveNewBeer() {
+        return this.beerService.saveNewBeer(BeerServiceBenchmark.newBeer(1));
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        if (this.durable) {
+            this.directory = Files.createTempDirectory("wal");
+            this.dataDirectory = new DataDirectory(this.directory, JsonMapper.builder().findAndAddModules().build(),
+                            null);
+        }
+        this.beerService = new BeerServiceImpl(this.dataDirectory);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (this.dataDirectory != null) {
+            this.dataDirectory.close();
+            try (Stream<Path> files = Files.walk(this.directory)) {
+                for (final Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Threads(32)
+    public static class MultiThreaded extends WriteAheadLogBenchmark {
+    }
+
+    @Threads(1)
+    public static class SingleThreaded extends WriteAheadLogBenchmark {
+    }
+}
@@ -0,0 +1,35 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.config;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import guru.springframework.spring6restmvc.services.BeerCsvImporter;
+import guru.springframework.spring6restmvc.services.BeerService;
+
+// csv catalog imports, over http at /api/v1/beer/import or from a local file at startup with
+// --app.import.file=<path>. rejected rows go to a file in app.import.error-directory, the temp directory by default
+@Configuration
+public class BeerImportConfig {
+
+    @Bean
+    public BeerCsvImporter beerCsvImporter(final BeerService beerService,
+                    @Value("${app.import.error-directory:${java.io.tmpdir}}") final String errorDirectory) {
+        return new BeerCsvImporter(beerService, Path.of(errorDirectory));
+    }
+
+    // runs once the services are up, the server keeps running afterwards
+    @Bean
+    @ConditionalOnProperty("app.import.file")
+    public ApplicationRunner beerFileImport(final BeerCsvImporter beerCsvImporter,
+                    @Value("${app.import.file}") final String file) {
+        return arguments -> beerCsvImporter.importCsv(FileChannel.open(Path.of(file), StandardOpenOption.READ), file);
+    }
+}
@@ -0,0 +1,26 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import guru.springframework.spring6restmvc.services.BeerService;
+import guru.springframework.spring6restmvc.services.ChangeFeed;
+import guru.springframework.spring6restmvc.services.CustomerService;
+
+// publishes beer and customer writes on one feed, see /api/v1/changes. writes made while the services start,
+// restoring and seeding the stores, are not published
+@Configuration
+public class ChangeFeedConfig {
+
+    @Bean
+    public ChangeFeed changeFeed(@Value("${app.feed.capacity:65536}") final int capacity,
+                    final BeerService beerService, final CustomerService customerService) {
+        final ChangeFeed changeFeed = new ChangeFeed(capacity);
+        beerService.addChangeListener(changeFeed.listener("beer"));
+        customerService.addChangeListener(changeFeed.listener("customer"));
+
+        return changeFeed;
+    }
+}
@@ -0,0 +1,75 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.config;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.aop.Advisor;
+import org.springframework.aop.ClassFilter;
+import org.springframework.aop.support.ClassFilters;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.RootClassFilter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import guru.springframework.spring6restmvc.services.BeerService;
+import guru.springframework.spring6restmvc.services.CustomerService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// latency, throughput and error metrics for the services, see /actuator/metrics.
+// endpoint latency comes from spring mvc's own http.server.requests timer
+@Configuration
+public class MetricsConfig {
+
+    // static so the advisor is known before the services are created and proxied
+    @Bean
+    public static Advisor serviceMetricsAdvisor(final ObjectProvider<MeterRegistry> meterRegistry) {
+        final ClassFilter services = ClassFilters.union(new RootClassFilter(BeerService.class),
+                        new RootClassFilter(CustomerService.class));
+
+        return new DefaultPointcutAdvisor(new ComposablePointcut(services),
+                        new ServiceMetricsInterceptor(meterRegistry));
+    }
+
+    // hit ratio and backend load latency of the beer cache, see app.beer.cache. cache.gets follows micrometer's
+    // own cache binders
+    @Bean
+    public MeterBinder beerCacheMetrics(final BeerService beerService) {
+        return registry -> {
+            if (beerService.getBeerCacheStats() == null) {
+                return;
+            }
+            FunctionCounter.builder("cache.gets", beerService, service -> service.getBeerCacheStats().getHitCount())
+                            .tag("cache", "beer").tag("result", "hit").register(registry);
+            FunctionCounter.builder("cache.gets", beerService, service -> service.getBeerCacheStats().getMissCount())
+                            .tag("cache", "beer").tag("result", "miss").register(registry);
+            FunctionCounter.builder("cache.evictions", beerService,
+                            service -> service.getBeerCacheStats().getEvictionCount()).tag("cache", "beer")
+                            .register(registry);
+            FunctionCounter.builder("cache.loads.coalesced", beerService,
+                            service -> service.getBeerCacheStats().getCoalescedLoadCount()).tag("cache", "beer")
+                            .register(registry);
+            Gauge.builder("cache.size", beerService, service -> service.getBeerCacheStats().getSize())
+                            .tag("cache", "beer").register(registry);
+            Gauge.builder("cache.hit.ratio", beerService, service -> service.getBeerCacheStats().hitRatio())
+                            .tag("cache", "beer").register(registry);
+            FunctionTimer.builder("cache.loads", beerService, service -> service.getBeerCacheStats().getLoadCount(),
+                            service -> service.getBeerCacheStats().getTotalLoadNanos(), TimeUnit.NANOSECONDS)
+                            .tag("cache", "beer").register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder storeSizeMetrics(final BeerService beerService, final CustomerService customerService) {
+        return registry -> {
+            Gauge.builder("store.size", beerService, BeerService::getBeerCount).tag("store", "beer").register(registry);
+            Gauge.builder("store.size", customerService, CustomerService::getCustomerCount).tag("store", "customer")
+                            .register(registry);
+        };
+    }
+}
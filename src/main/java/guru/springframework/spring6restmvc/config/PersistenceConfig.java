@@ -0,0 +1,28 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.persistence.DataDirectory;
+
+// without app.data.directory the services keep everything in memory only
+@Configuration
+public class PersistenceConfig {
+
+    // closed after the services that write to it, which takes a last checkpoint
+    @Bean
+    @ConditionalOnProperty("app.data.directory")
+    public DataDirectory dataDirectory(@Value("${app.data.directory}") final String directory,
+                    @Value("${app.data.checkpoint-interval:PT5M}") final Duration checkpointInterval,
+                    final ObjectMapper objectMapper) {
+        return new DataDirectory(Path.of(directory), objectMapper, checkpointInterval);
+    }
+}
@@ -0,0 +1,74 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.config;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.controller.WireFormat;
+import guru.springframework.spring6restmvc.replication.ReplicationClient;
+import guru.springframework.spring6restmvc.replication.ReplicationServer;
+import guru.springframework.spring6restmvc.services.BeerService;
+import guru.springframework.spring6restmvc.services.ChangeFeed;
+import guru.springframework.spring6restmvc.services.CustomerService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// sends the writes made here to the other instances and applies theirs, see app.replication. frames are smile
+// encoded with a copy of the application object mapper. there is no default secret, replication does not start
+// without one
+@Configuration
+@ConditionalOnProperty("app.replication.port")
+public class ReplicationConfig {
+
+    // after the change feed, so that /api/v1/changes subscribers see the writes of other instances too
+    @Bean
+    @DependsOn("changeFeed")
+    public ReplicationClient replicationClient(@Value("${app.replication.peers:}") final List<String> peers,
+                    @Value("${app.replication.secret}") final String secret, final BeerService beerService,
+                    final CustomerService customerService, final ObjectMapper objectMapper) {
+        return new ReplicationClient(ReplicationConfig.peers(peers), secret, beerService, customerService,
+                        WireFormat.SMILE.mapper(objectMapper));
+    }
+
+    @Bean
+    public MeterBinder replicationMetrics(final ReplicationClient replicationClient) {
+        return registry -> {
+            FunctionCounter.builder("replication.received", replicationClient, ReplicationClient::receivedCount)
+                            .register(registry);
+            FunctionCounter.builder("replication.applied", replicationClient, ReplicationClient::appliedCount)
+                            .register(registry);
+            FunctionCounter.builder("replication.gaps", replicationClient, ReplicationClient::gapCount)
+                            .register(registry);
+            FunctionCounter.builder("replication.snapshots", replicationClient, ReplicationClient::snapshotCount)
+                            .register(registry);
+            Gauge.builder("replication.lag", replicationClient, ReplicationClient::lagMillis)
+                            .baseUnit("milliseconds").register(registry);
+        };
+    }
+
+    @Bean
+    public ReplicationServer replicationServer(
+                    @Value("${app.replication.bind-address:localhost}") final String bindAddress,
+                    @Value("${app.replication.port}") final int port,
+                    @Value("${app.replication.peers:}") final List<String> peers,
+                    @Value("${app.replication.secret}") final String secret, final ChangeFeed changeFeed,
+                    final BeerService beerService, final CustomerService customerService,
+                    final ObjectMapper objectMapper) throws IOException {
+        return new ReplicationServer(InetAddress.getByName(bindAddress), port, ReplicationConfig.peers(peers),
+                        secret, changeFeed, beerService, customerService, WireFormat.SMILE.mapper(objectMapper));
+    }
+
+    private static List<String> peers(final List<String> peers) {
+        return peers.stream().filter(peer -> !peer.isBlank()).toList();
+    }
+}
@@ -0,0 +1,40 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.config;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.controller.WireFormat;
+
+// cbor and smile on every endpoint, for request bodies by content type and for responses by accept. spring mvc
+// registers its own converters for them with a fresh object mapper, these use the copies of the application one
+// the controllers write their cached bodies with
+@Configuration
+public class WireFormatConfig implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(final List<HttpMessageConverter<?>> converters) {
+        converters.removeIf(converter -> converter instanceof MappingJackson2CborHttpMessageConverter
+                        || converter instanceof MappingJackson2SmileHttpMessageConverter);
+        final int json = converters.stream().filter(MappingJackson2HttpMessageConverter.class::isInstance)
+                        .findFirst().map(converters::indexOf).orElse(-1);
+        if (json < 0) {
+            return;
+        }
+        final ObjectMapper objectMapper = ((MappingJackson2HttpMessageConverter) converters.get(json))
+                        .getObjectMapper();
+
+        // right after json, which stays the default for clients accepting anything
+        converters.addAll(json + 1, List.of(
+                        new MappingJackson2CborHttpMessageConverter(WireFormat.CBOR.mapper(objectMapper)),
+                        new MappingJackson2SmileHttpMessageConverter(WireFormat.SMILE.mapper(objectMapper))));
+    }
+}
@@ -2,11 +2,14 @@
 // * Copyright Alcon 2023 */
 package guru.springframework.spring6restmvc.controller;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -15,10 +18,26 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerBatchOperation;
+import guru.springframework.spring6restmvc.model.BeerBatchResult;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.model.InventoryAggregates;
+import guru.springframework.spring6restmvc.model.StockAdjustment;
+import guru.springframework.spring6restmvc.model.StockLevel;
 import guru.springframework.spring6restmvc.services.BeerService;
+import guru.springframework.spring6restmvc.services.NotFoundException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -29,11 +48,24 @@ import lombok.extern.slf4j.Slf4j;
 public class BeerController {
 
     // paths to utilize here and in tests, DRY
-    public static final String BEER_PATH    = "/api/v1/beer";
+    public static final String      BEER_PATH            = "/api/v1/beer";
+
+    public static final String      BEER_PATH_ID         = BeerController.BEER_PATH + "/{beerId}";
+
+    public static final String      BEER_BATCH_PATH      = BeerController.BEER_PATH + "/batch";
+
+    public static final String      BEER_AGGREGATES_PATH = BeerController.BEER_PATH + "/aggregates";
+
+    public static final String      BEER_STOCK_PATH      = BeerController.BEER_PATH_ID + "/stock";
 
-    public static final String BEER_PATH_ID = BeerController.BEER_PATH + "/{beerId}";
+    private final FieldProjection   beerFields           = new FieldProjection(Beer.class);
 
-    private final BeerService  beerService;
+    // the unfiltered list only, filtered lookups are serialized per request
+    private final ListResponseCache beerListCache        = new ListResponseCache("beers");
+
+    private final BeerService       beerService;
+
+    private final ObjectMapper      objectMapper;
 
     @PostMapping(BeerController.BEER_PATH)
     public ResponseEntity addBeer(@RequestBody final Beer beer) { // request body to post the body given
@@ -46,6 +78,24 @@ public class BeerController {
         return new ResponseEntity(headers, HttpStatus.CREATED);
     }
 
+    // adds delta units to the stock, or takes them off for a negative delta, without going below zero. safe for
+    // many clients changing the same beer at once, unlike putting or patching a new quantityOnHand
+    @PostMapping(BeerController.BEER_STOCK_PATH)
+    public ResponseEntity<StockLevel> adjustStock(@PathVariable("beerId") final UUID beerId,
+                    @RequestBody final StockAdjustment adjustment) {
+        if (adjustment.getDelta() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.ok(this.beerService.adjustStock(beerId, adjustment.getDelta()));
+    }
+
+    // many creates, updates and deletes in one request, each one gets its own status in the response
+    @PostMapping(BeerController.BEER_BATCH_PATH)
+    public ResponseEntity<List<BeerBatchResult>> applyBatch(@RequestBody final List<BeerBatchOperation> operations) {
+        return ResponseEntity.ok(this.beerService.applyBatch(operations));
+    }
+
     @DeleteMapping(BeerController.BEER_PATH_ID)
     public ResponseEntity deleteBeerById(@PathVariable("beerId") final UUID beerId) {
         this.beerService.deleteBeerById(beerId);
@@ -53,17 +103,156 @@ public class BeerController {
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
+    // one handler for every list query, the parameters pick the kind and combinations that mean nothing are a
+    // 400 instead of going to whichever handler spring finds first:
+    // - beerStyle, upc and namePrefix filter the whole list
+    // - changedSince is a delta sync, with cursor and pageSize for the pages of a reset
+    // - pageSize and cursor page through the whole list
+    // - sortBy with descending, min, max, beerStyle, offset and limit sorts it
+    // fields works with all but changedSince
     @GetMapping(BeerController.BEER_PATH) // same as @RequestMapping(method = RequestMethod.GET), method so that it will only be
                                           // invoked if it is a GET
-    public List<Beer> getAllBeers() {
-        return this.beerService.listBeers();
+    public ResponseEntity<?> getAllBeers(
+                    @RequestParam(value = "beerStyle", required = false) final BeerStyle beerStyle,
+                    @RequestParam(value = "upc", required = false) final String upc,
+                    @RequestParam(value = "namePrefix", required = false) final String namePrefix,
+                    @RequestParam(value = "fields", required = false) final String fields,
+                    @RequestParam(value = "changedSince", required = false) final String changedSince,
+                    @RequestParam(value = "pageSize", required = false) final Integer pageSize,
+                    @RequestParam(value = "cursor", required = false) final String cursor,
+                    @RequestParam(value = "sortBy", required = false) final String sortBy,
+                    @RequestParam(value = "descending", required = false) final Boolean descending,
+                    @RequestParam(value = "min", required = false) final String min,
+                    @RequestParam(value = "max", required = false) final String max,
+                    @RequestParam(value = "offset", required = false) final Integer offset,
+                    @RequestParam(value = "limit", required = false) final Integer limit,
+                    final WebRequest webRequest) {
+        final boolean filtered = beerStyle != null || upc != null || namePrefix != null;
+        final boolean paged = pageSize != null || cursor != null;
+        final boolean sorted = sortBy != null || descending != null || min != null || max != null || offset != null
+                        || limit != null;
+        if (changedSince != null) {
+            if (filtered || sorted || fields != null) {
+                throw new UnsupportedParametersException("changedSince takes cursor and pageSize only");
+            }
+            return this.getBeerChanges(changedSince, cursor, pageSize, webRequest);
+        }
+        if (sorted) {
+            if (sortBy == null) {
+                throw new UnsupportedParametersException("descending, min, max, offset and limit need sortBy");
+            }
+            if (upc != null || namePrefix != null || paged) {
+                throw new UnsupportedParametersException("sortBy filters by beerStyle and pages by offset only");
+            }
+            return this.getSortedBeers(sortBy, Boolean.TRUE.equals(descending), min, max, beerStyle, offset, limit,
+                            fields, webRequest);
+        }
+        if (paged) {
+            if (filtered) {
+                throw new UnsupportedParametersException("pageSize and cursor page through every beer");
+            }
+            return this.getBeerPage(pageSize, cursor, fields, webRequest);
+        }
+
+        // fields=id,beerName keeps only those properties of every beer, an unknown one is a 400
+        final FieldProjection.Projection projection = fields == null ? null
+                        : this.beerFields.projection(this.objectMapper, fields);
+        final WireFormat format = WireFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT));
+        // read the counter before the beers, a write in between only makes the tag older than the body
+        final long modificationCount = this.beerService.getModificationCount();
+
+        if (!filtered) {
+            // the tag of the variant the cache would answer with, 304 before anything is loaded or serialized
+            final String eTag = ETags.forCollection("beers", modificationCount, format,
+                            ListResponseCache.acceptsGzip(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)));
+            if (webRequest.checkNotModified(eTag)) {
+                return ETags.notModified(eTag, HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+            }
+            // each format and projection is cached as its own variant of the list
+            if (projection != null) {
+                return this.beerListCache.respond(this.beerListCache.get(format + ":" + projection.key(),
+                                modificationCount, this.beerService::getModificationCount,
+                                () -> projection.write(this.beerService.listBeers(), format)), format, webRequest);
+            }
+            return this.beerListCache.respond(this.beerListCache.get(format.name(), modificationCount,
+                            this.beerService::getModificationCount,
+                            () -> format.mapper(this.objectMapper).writeValueAsBytes(this.beerService.listBeers())),
+                            format, webRequest);
+        }
+
+        final String eTag = ETags.forCollection("beers", modificationCount, format, false);
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag, HttpHeaders.ACCEPT);
+        }
+
+        // filtered lookups go through the secondary indexes instead of a full scan
+        return FieldProjection.ok(this.beerService.findBeers(beerStyle, upc, namePrefix), projection, format, eTag);
+    }
+
+    // newline delimited json, one beer per line written while walking the store, so heap use does not grow with the catalog
+    @GetMapping(value = BeerController.BEER_PATH, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportBeers() {
+        final ObjectWriter beerWriter = this.objectMapper.writerFor(Beer.class).withRootValueSeparator("\n")
+                        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        final StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(outputStream);
+                            Stream<Beer> beers = this.beerService.streamBeers()) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+                final Iterator<Beer> iterator = beers.iterator();
+                if (iterator.hasNext()) {
+                    while (iterator.hasNext()) {
+                        beerWriter.writeValue(generator, iterator.next());
+                    }
+                    // separator only goes between values, terminate the last line too
+                    generator.writeRaw('\n');
+                }
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    // stock value, units and prices per style. recompute=true sums up the whole catalog instead of reading the
+    // running totals, to check them
+    @GetMapping(BeerController.BEER_AGGREGATES_PATH)
+    public ResponseEntity<InventoryAggregates> getInventoryAggregates(
+                    @RequestParam(value = "recompute", defaultValue = "false") final boolean recompute,
+                    final WebRequest webRequest) {
+        final WireFormat format = WireFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT));
+        if (recompute) {
+            return ResponseEntity.ok().contentType(format.mediaType()).varyBy(HttpHeaders.ACCEPT)
+                            .body(this.beerService.recomputeInventoryAggregates());
+        }
+
+        final String eTag = ETags.forCollection("aggregates", this.beerService.getModificationCount(), format,
+                        false);
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag, HttpHeaders.ACCEPT);
+        }
+
+        return ResponseEntity.ok().contentType(format.mediaType()).eTag(eTag).varyBy(HttpHeaders.ACCEPT)
+                        .body(this.beerService.getInventoryAggregates());
     }
 
     @GetMapping(BeerController.BEER_PATH_ID) // same as @RequestMapping(value = "{beerId}", method = RequestMethod.GET)
-    public Beer getBeerById(@PathVariable("beerId") final UUID beerId) { // path variable to bind beer id
+    public ResponseEntity<?> getBeerById(@PathVariable("beerId") final UUID beerId, // path variable to bind beer id
+                    @RequestParam(value = "fields", required = false) final String fields,
+                    @RequestHeader(value = HttpHeaders.ACCEPT, required = false) final String accept) {
         BeerController.log.debug("Get Beer by Id - in controller");
+        final FieldProjection.Projection projection = fields == null ? null
+                        : this.beerFields.projection(this.objectMapper, fields);
+
+        final Beer beer = this.beerService.getBeerById(beerId);
+        if (beer == null) {
+            throw new NotFoundException();
+        }
 
-        return this.beerService.getBeerById(beerId);
+        // spring answers a matching If-None-Match with 304 before the body is serialized
+        final WireFormat format = WireFormat.negotiate(accept);
+
+        return FieldProjection.ok(beer, projection, format, ETags.forEntity(beer, format));
     }
 
     @PatchMapping(BeerController.BEER_PATH_ID)
@@ -80,4 +269,39 @@ public class BeerController {
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
+    // delta sync, pass sequence from the previous change set as changedSince to continue. 0 starts with a reset,
+    // pass its nextCursor as cursor with the same changedSince for the next page of it
+    private ResponseEntity<?> getBeerChanges(final String changedSince, final String cursor, final Integer pageSize,
+                    final WebRequest webRequest) {
+        return FieldProjection.ok(this.beerService.listBeerChanges(changedSince, cursor, pageSize), null,
+                        WireFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT)), null);
+    }
+
+    // keyset pagination, pass nextCursor from the previous page as cursor to continue
+    private ResponseEntity<?> getBeerPage(final Integer pageSize, final String cursor, final String fields,
+                    final WebRequest webRequest) {
+        final FieldProjection.Projection projection = fields == null ? null
+                        : this.beerFields.projection(this.objectMapper, fields);
+
+        return FieldProjection.ok(this.beerService.listBeers(cursor, pageSize), projection,
+                        WireFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT)), null);
+    }
+
+    // beers sorted by beerName, price or quantityOnHand from offset on, descending=true for the highest first.
+    // min and max bound the sort value inclusively: sortBy=price&min=10&max=15 are the beers between $10 and $15,
+    // sortBy=price&beerStyle=PALE_ALE&limit=20 the 20 cheapest pale ales
+    private ResponseEntity<?> getSortedBeers(final String sortBy, final boolean descending, final String min,
+                    final String max, final BeerStyle beerStyle, final Integer offset, final Integer limit,
+                    final String fields, final WebRequest webRequest) {
+        final FieldProjection.Projection projection = fields == null ? null
+                        : this.beerFields.projection(this.objectMapper, fields);
+        final WireFormat format = WireFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT));
+        final String eTag = ETags.forCollection("beers", this.beerService.getModificationCount(), format, false);
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag, HttpHeaders.ACCEPT);
+        }
+
+        return FieldProjection.ok(this.beerService.listBeersSorted(sortBy, descending, min, max, beerStyle, offset,
+                        limit), projection, format, eTag);
+    }
 }
@@ -0,0 +1,29 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import guru.springframework.spring6restmvc.model.BeerImportReport;
+import guru.springframework.spring6restmvc.services.BeerCsvImporter;
+import lombok.RequiredArgsConstructor;
+
+// bulk csv import of a supplier catalog, see BeerCsvImporter for the columns. the body is read while it arrives
+// and the report comes back once all of it is saved, the request stays open for the whole import
+@RequiredArgsConstructor
+@RestController
+public class BeerImportController {
+
+    public static final String    BEER_IMPORT_PATH = BeerController.BEER_PATH + "/import";
+
+    private final BeerCsvImporter beerCsvImporter;
+
+    @PostMapping(value = BeerImportController.BEER_IMPORT_PATH, consumes = "text/csv")
+    public BeerImportReport importBeers(final InputStream body) throws IOException {
+        return this.beerCsvImporter.importCsv(Channels.newChannel(body), "request");
+    }
+}
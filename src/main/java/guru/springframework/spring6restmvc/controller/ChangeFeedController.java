@@ -0,0 +1,112 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import guru.springframework.spring6restmvc.model.ChangeEvent;
+import guru.springframework.spring6restmvc.services.ChangeFeed;
+
+// streams the change feed as server sent events, one "change" event per write with the sequence as its id.
+// a client resumes with the Last-Event-ID header its EventSource sends on reconnect, or with ?from=<sequence>,
+// and without either sees only writes made after it connected. each subscriber is served by its own virtual
+// thread polling the feed, so a slow client only ever slows down itself. one that falls further behind than the
+// feed holds gets an "overrun" event, then is either disconnected or carries on from the oldest event still held
+@RestController
+public class ChangeFeedController {
+
+    public static final String         CHANGES_PATH      = "/api/v1/changes";
+
+    private static final int           BATCH_SIZE        = 256;
+
+    // a comment line every so often finds clients that went away while nothing was written
+    private static final long          HEARTBEAT_NANOS   = TimeUnit.SECONDS.toNanos(15);
+
+    private static final long          MAX_IDLE_NANOS    = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final long          MIN_IDLE_NANOS    = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final ThreadFactory SUBSCRIBERS       = Thread.ofVirtual().name("change-feed-", 0).factory();
+
+    private final ChangeFeed           changeFeed;
+
+    private final boolean              dropSlowConsumers;
+
+    public ChangeFeedController(final ChangeFeed changeFeed,
+                    @Value("${app.feed.drop-slow-consumers:false}") final boolean dropSlowConsumers) {
+        this.changeFeed = changeFeed;
+        this.dropSlowConsumers = dropSlowConsumers;
+    }
+
+    // type is beer or customer, without it both are streamed
+    @GetMapping(value = ChangeFeedController.CHANGES_PATH, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestHeader(value = "Last-Event-ID", required = false) final Long lastEventId,
+                    @RequestParam(value = "from", required = false) final Long from,
+                    @RequestParam(value = "type", required = false) final String type) {
+        final long start = lastEventId != null ? lastEventId + 1 : from != null ? from : this.changeFeed.nextSequence();
+
+        // never times out, the heartbeat notices a client that is gone
+        final SseEmitter emitter = new SseEmitter(0L);
+        final AtomicBoolean open = new AtomicBoolean(true);
+        emitter.onCompletion(() -> open.set(false));
+        emitter.onError(e -> open.set(false));
+        emitter.onTimeout(() -> open.set(false));
+        ChangeFeedController.SUBSCRIBERS.newThread(() -> this.pump(emitter, open, start, type)).start();
+
+        return emitter;
+    }
+
+    // sends batches as long as there are events and backs off up to MAX_IDLE_NANOS while there are none
+    private void pump(final SseEmitter emitter, final AtomicBoolean open, final long start, final String type) {
+        long next = start;
+        long idleNanos = ChangeFeedController.MIN_IDLE_NANOS;
+        long lastSend = System.nanoTime();
+        try {
+            while (open.get()) {
+                final ChangeFeed.Batch batch = this.changeFeed.read(next, ChangeFeedController.BATCH_SIZE);
+                if (batch.missed()) {
+                    emitter.send(SseEmitter.event().name("overrun").data(Map.of("requested", next, "resumedAt",
+                                    batch.events().isEmpty() ? batch.next() : batch.events().get(0).getSequence()),
+                                    MediaType.APPLICATION_JSON));
+                    if (this.dropSlowConsumers) {
+                        emitter.complete();
+                        return;
+                    }
+                }
+                for (final ChangeEvent event : batch.events()) {
+                    if (type == null || type.equals(event.getEntityType())) {
+                        emitter.send(SseEmitter.event().id(String.valueOf(event.getSequence())).name("change")
+                                        .data(event, MediaType.APPLICATION_JSON));
+                        lastSend = System.nanoTime();
+                    }
+                }
+                next = batch.next();
+
+                if (System.nanoTime() - lastSend > ChangeFeedController.HEARTBEAT_NANOS) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                    lastSend = System.nanoTime();
+                }
+                if (!batch.events().isEmpty()) {
+                    idleNanos = ChangeFeedController.MIN_IDLE_NANOS;
+                    continue;
+                }
+                LockSupport.parkNanos(idleNanos);
+                idleNanos = Math.min(idleNanos * 2, ChangeFeedController.MAX_IDLE_NANOS);
+            }
+        } catch (final IOException | IllegalStateException e) {
+            // the client went away or the emitter completed, the container cleans up
+        }
+    }
+}
@@ -1,7 +1,6 @@
 /* Copyright Alcon 2023 */
 package guru.springframework.spring6restmvc.controller;
 
-import java.util.List;
 import java.util.UUID;
 
 import org.springframework.http.HttpHeaders;
@@ -14,21 +13,37 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import guru.springframework.spring6restmvc.model.Customer;
 import guru.springframework.spring6restmvc.services.CustomerService;
+import guru.springframework.spring6restmvc.services.NotFoundException;
 import lombok.RequiredArgsConstructor;
 
 @RequiredArgsConstructor
 @RestController
 public class CustomerController {
 
-    public static final String    CUSTOMER_PATH    = "/api/v1/customers";
+    public static final String      CUSTOMER_PATH        = "/api/v1/customers";
+
+    public static final String      CUSTOMER_PATH_ID     = CustomerController.CUSTOMER_PATH + "/{customerId}";
+
+    public static final int         DEFAULT_SEARCH_LIMIT = 20;
+
+    public static final int         MAX_SEARCH_LIMIT     = 100;
+
+    private final FieldProjection   customerFields       = new FieldProjection(Customer.class);
 
-    public static final String    CUSTOMER_PATH_ID = CustomerController.CUSTOMER_PATH + "/{customerId}";
+    private final ListResponseCache customerListCache    = new ListResponseCache("customers");
 
-    private final CustomerService customerService;
+    private final CustomerService   customerService;
+
+    private final ObjectMapper      objectMapper;
 
     @PostMapping(CustomerController.CUSTOMER_PATH)
     public ResponseEntity addCustomer(@RequestBody final Customer customer) {
@@ -47,14 +62,75 @@ public class CustomerController {
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
+    // one handler for every list query, as for beers, see BeerController.getAllBeers:
+    // - changedSince is a delta sync, with cursor and pageSize for the pages of a reset
+    // - pageSize and cursor page through the whole list
+    // - search with limit finds customers by name
+    // fields works with the whole list and pages
     @GetMapping(CustomerController.CUSTOMER_PATH)
-    public List<Customer> getAllCustomers() {
-        return this.customerService.listCustomers();
+    public ResponseEntity<?> getAllCustomers(
+                    @RequestParam(value = "fields", required = false) final String fields,
+                    @RequestParam(value = "changedSince", required = false) final String changedSince,
+                    @RequestParam(value = "pageSize", required = false) final Integer pageSize,
+                    @RequestParam(value = "cursor", required = false) final String cursor,
+                    @RequestParam(value = "search", required = false) final String search,
+                    @RequestParam(value = "limit", required = false) final Integer limit,
+                    final WebRequest webRequest) {
+        final boolean paged = pageSize != null || cursor != null;
+        if (changedSince != null) {
+            if (search != null || limit != null || fields != null) {
+                throw new UnsupportedParametersException("changedSince takes cursor and pageSize only");
+            }
+            return FieldProjection.ok(this.customerService.listCustomerChanges(changedSince, cursor, pageSize), null,
+                            WireFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT)), null);
+        }
+        if (search != null || limit != null) {
+            if (search == null || paged || fields != null) {
+                throw new UnsupportedParametersException("search takes limit only");
+            }
+            return this.searchCustomers(search, limit, webRequest);
+        }
+        final FieldProjection.Projection projection = fields == null ? null
+                        : this.customerFields.projection(this.objectMapper, fields);
+        final WireFormat format = WireFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT));
+        if (paged) {
+            return FieldProjection.ok(this.customerService.listCustomers(cursor, pageSize), projection, format, null);
+        }
+
+        final long modificationCount = this.customerService.getModificationCount();
+        final String eTag = ETags.forCollection("customers", modificationCount, format,
+                        ListResponseCache.acceptsGzip(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)));
+        if (webRequest.checkNotModified(eTag)) {
+            return ETags.notModified(eTag, HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        if (projection != null) {
+            return this.customerListCache.respond(this.customerListCache.get(format + ":" + projection.key(),
+                            modificationCount, this.customerService::getModificationCount,
+                            () -> projection.write(this.customerService.listCustomers(), format)), format,
+                            webRequest);
+        }
+
+        return this.customerListCache.respond(this.customerListCache.get(format.name(), modificationCount,
+                        this.customerService::getModificationCount,
+                        () -> format.mapper(this.objectMapper).writeValueAsBytes(this.customerService.listCustomers())),
+                        format, webRequest);
     }
 
     @GetMapping(CustomerController.CUSTOMER_PATH_ID)
-    public Customer getCustomerById(@PathVariable("customerId") final UUID customerId) {
-        return this.customerService.getCustomerById(customerId);
+    public ResponseEntity<?> getCustomerById(@PathVariable("customerId") final UUID customerId,
+                    @RequestParam(value = "fields", required = false) final String fields,
+                    @RequestHeader(value = HttpHeaders.ACCEPT, required = false) final String accept) {
+        final FieldProjection.Projection projection = fields == null ? null
+                        : this.customerFields.projection(this.objectMapper, fields);
+        final Customer customer = this.customerService.getCustomerById(customerId);
+        if (customer == null) {
+            throw new NotFoundException();
+        }
+
+        final WireFormat format = WireFormat.negotiate(accept);
+
+        return FieldProjection.ok(customer, projection, format, ETags.forEntity(customer, format));
     }
 
     @PatchMapping(CustomerController.CUSTOMER_PATH_ID)
@@ -72,4 +148,15 @@ public class CustomerController {
 
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
+
+    // partial name search for the support desk, best match first. at least two characters, limit up to 100
+    private ResponseEntity<?> searchCustomers(final String search, final Integer limit, final WebRequest webRequest) {
+        final int searchLimit = limit == null ? CustomerController.DEFAULT_SEARCH_LIMIT : limit;
+        if (search.strip().length() < 2 || searchLimit < 1 || searchLimit > CustomerController.MAX_SEARCH_LIMIT) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return FieldProjection.ok(this.customerService.searchCustomers(search, searchLimit), null,
+                        WireFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT)), null);
+    }
 }
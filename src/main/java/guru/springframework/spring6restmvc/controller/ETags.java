@@ -0,0 +1,38 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import java.util.Locale;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import guru.springframework.spring6restmvc.model.VersionedEntity;
+
+// strong entity tags, an entity keeps its tag until its version changes. every representation of a resource has
+// its own tag, so the wire format and a gzip coding are part of it, and a client holding json never gets a 304
+// for a request answered in cbor
+final class ETags {
+
+    private ETags() {
+    }
+
+    // for a whole collection, the store wide write counter changes whenever any member does. gzip is whether the
+    // client accepts it, known before the body is, see ListResponseCache.respond
+    static String forCollection(final String name, final long modificationCount, final WireFormat format,
+                    final boolean gzip) {
+        return "\"" + name + "-" + modificationCount + ETags.variant(format, gzip) + "\"";
+    }
+
+    static String forEntity(final VersionedEntity entity, final WireFormat format) {
+        return "\"" + entity.getId() + "-" + entity.getVersion() + ETags.variant(format, false) + "\"";
+    }
+
+    // the 304 for a matching If-None-Match, with the tag and vary headers the 200 would have had
+    static <T> ResponseEntity<T> notModified(final String eTag, final String... vary) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(vary).build();
+    }
+
+    private static String variant(final WireFormat format, final boolean gzip) {
+        return "-" + format.name().toLowerCase(Locale.ROOT) + (gzip ? "-gzip" : "");
+    }
+}
@@ -0,0 +1,130 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+// sparse fieldsets, fields=id,beerName,price serializes only those properties of one model class. the writer
+// for a fields parameter is built once and reused, it skips the other properties before their getters are
+// called. the filter sits on a copy of the application object mapper, so every other write is left alone, and
+// on one derived from that for each wire format
+final class FieldProjection {
+
+    // distinct fields parameters kept, further ones are built per request
+    static final int                                MAX_CACHED  = 64;
+
+    private static final String                     FILTER_ID   = "fields";
+
+    // by wire format ordinal
+    private volatile ObjectMapper[]                 mappers;
+
+    private volatile Set<String>                    properties;
+
+    private final ConcurrentMap<String, Projection> projections = new ConcurrentHashMap<>();
+
+    private final Class<?>                          type;
+
+    FieldProjection(final Class<?> type) {
+        this.type = type;
+    }
+
+    // objectMapper is the application one, the first call copies it
+    Projection projection(final ObjectMapper objectMapper, final String fields) {
+        final Projection cached = this.projections.get(fields);
+        if (cached != null) {
+            return cached;
+        }
+
+        final ObjectMapper[] projectionMappers = this.mappers(objectMapper);
+        final Set<String> requested = new TreeSet<>();
+        for (final String field : fields.split(",")) {
+            if (!field.isBlank()) {
+                requested.add(field.strip());
+            }
+        }
+        if (requested.isEmpty() || !this.properties.containsAll(requested)) {
+            throw new InvalidFieldsException("Unknown fields " + fields + ", known are " + this.properties);
+        }
+
+        final SimpleFilterProvider filters = new SimpleFilterProvider().addFilter(FieldProjection.FILTER_ID,
+                        SimpleBeanPropertyFilter.filterOutAllExcept(requested));
+        final ObjectWriter[] writers = new ObjectWriter[projectionMappers.length];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = projectionMappers[i].writer(filters);
+        }
+        final Projection projection = new Projection(String.join(",", requested), writers);
+        if (this.projections.size() < FieldProjection.MAX_CACHED) {
+            this.projections.putIfAbsent(fields, projection);
+        }
+
+        return projection;
+    }
+
+    // the body as it is without a projection, otherwise already serialized in the format with only the requested
+    // fields of every entity in it. either way in the format negotiate picked, which the tag has to be for. eTag
+    // may be null
+    static ResponseEntity<?> ok(final Object body, final FieldProjection.Projection projection,
+                    final WireFormat format, final String eTag) {
+        final ResponseEntity.BodyBuilder builder = ResponseEntity.ok().contentType(format.mediaType()).eTag(eTag)
+                        .varyBy(HttpHeaders.ACCEPT);
+        if (projection == null) {
+            return builder.body(body);
+        }
+
+        return builder.body(projection.write(body, format));
+    }
+
+    private ObjectMapper[] mappers(final ObjectMapper objectMapper) {
+        ObjectMapper[] projectionMappers = this.mappers;
+        if (projectionMappers == null) {
+            synchronized (this) {
+                projectionMappers = this.mappers;
+                if (projectionMappers == null) {
+                    final ObjectMapper jsonMapper = objectMapper.copy().addMixIn(this.type, Filtered.class);
+                    this.properties = jsonMapper.getSerializationConfig()
+                                    .introspect(jsonMapper.constructType(this.type)).findProperties().stream()
+                                    .map(BeanPropertyDefinition::getName).collect(Collectors.toUnmodifiableSet());
+                    projectionMappers = new ObjectMapper[WireFormat.values().length];
+                    for (final WireFormat format : WireFormat.values()) {
+                        projectionMappers[format.ordinal()] = format.derive(jsonMapper);
+                    }
+                    this.mappers = projectionMappers;
+                }
+            }
+        }
+
+        return projectionMappers;
+    }
+
+    @JsonFilter(FieldProjection.FILTER_ID)
+    private interface Filtered {
+    }
+
+    // key is the requested fields sorted, the same for every order they are given in. one writer per wire format
+    // by ordinal
+    record Projection(String key, ObjectWriter[] writers) {
+
+        byte[] write(final Object value, final WireFormat format) {
+            try {
+                return this.writers[format.ordinal()].writeValueAsBytes(value);
+            } catch (final JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.BAD_REQUEST, reason = "Invalid fields")
+public class InvalidFieldsException extends RuntimeException {
+
+    public InvalidFieldsException(final String message) {
+        super(message);
+    }
+}
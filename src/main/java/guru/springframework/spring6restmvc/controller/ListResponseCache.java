@@ -0,0 +1,223 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.WebRequest;
+
+// the serialized body of a whole list, kept until the store it was read from is written again. a request that
+// finds the body up to date copies bytes instead of running jackson over every entity, only the first request
+// after a write serializes again, and concurrent ones wait for it instead of serializing the same list too.
+// the bodies and their gzipped copies together stay under a byte budget, the least recently served variant goes
+// first when a new one does not fit
+final class ListResponseCache {
+
+    // for all variants of one list, e.g. the full one in each wire format and the field projections asked for most
+    static final long                         MAX_BYTES     = 32L * 1024 * 1024;
+
+    // smaller bodies go out uncompressed, gzip would hardly shrink them
+    static final int                          MIN_GZIP_SIZE = 1024;
+
+    // by variant, see get
+    private final ConcurrentMap<String, Body> bodies        = new ConcurrentHashMap<>();
+
+    // of the cached bodies and gzipped copies, changed under rebuildLock
+    private long                              cachedBytes;
+
+    private final long                        maxBytes;
+
+    private final String                      name;
+
+    private final Object                      rebuildLock   = new Object();
+
+    // name is the tag prefix, see ETags.forCollection
+    ListResponseCache(final String name) {
+        this(name, ListResponseCache.MAX_BYTES);
+    }
+
+    ListResponseCache(final String name, final long maxBytes) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+    }
+
+    // the body of the variant, a key for one representation, for the store as of the given count or newer. the
+    // count is read before the list, so a write in between only makes the body newer than its tag, never older
+    Body get(final String variant, final long modificationCount, final LongSupplier currentCount,
+                    final Serializer serializer) {
+        final Body cached = this.bodies.get(variant);
+        if (cached != null && cached.modificationCount >= modificationCount) {
+            cached.lastServed = System.nanoTime();
+            return cached;
+        }
+
+        synchronized (this.rebuildLock) {
+            final Body rebuilt = this.bodies.get(variant);
+            if (rebuilt != null && rebuilt.modificationCount >= modificationCount) {
+                rebuilt.lastServed = System.nanoTime();
+                return rebuilt;
+            }
+            final Body body = ListResponseCache.serialize(currentCount.getAsLong(), serializer);
+            if (rebuilt != null) {
+                this.remove(variant, rebuilt);
+            }
+            // a body bigger than the whole budget is served once and dropped
+            if (body.content.length <= this.maxBytes) {
+                body.cache = this;
+                body.variant = variant;
+                this.bodies.put(variant, body);
+                this.charge(body.content.length);
+            }
+
+            return body;
+        }
+    }
+
+    // of the bodies and gzipped copies cached now
+    long cachedBytes() {
+        synchronized (this.rebuildLock) {
+            return this.cachedBytes;
+        }
+    }
+
+    // 200 with the cached bytes in the format, gzipped if the client accepts it and the body is big enough to be
+    // worth it. the tag names gzip whenever the client accepts it, so a conditional request can be answered
+    // before the body is known
+    ResponseEntity<byte[]> respond(final Body response, final WireFormat format, final WebRequest webRequest) {
+        final boolean gzip = ListResponseCache.acceptsGzip(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        final ResponseEntity.BodyBuilder builder = ResponseEntity.ok().contentType(format.mediaType())
+                        .eTag(ETags.forCollection(this.name, response.modificationCount, format, gzip))
+                        .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (!gzip || response.content.length < ListResponseCache.MIN_GZIP_SIZE) {
+            return builder.body(response.content);
+        }
+
+        return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(response.gzipped());
+    }
+
+    // true unless gzip is missing or refused with q=0
+    static boolean acceptsGzip(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] parts = coding.split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?");
+            }
+        }
+
+        return false;
+    }
+
+    // a gzipped copy counts once it is made, unless the body has been dropped meanwhile
+    private void addGzipped(final Body body, final int length) {
+        synchronized (this.rebuildLock) {
+            if (this.bodies.get(body.variant) == body) {
+                body.gzippedBytes = length;
+                this.charge(length);
+            }
+        }
+    }
+
+    // evicts the least recently served bodies until the cache is back under budget, holding rebuildLock
+    private void charge(final long bytes) {
+        this.cachedBytes += bytes;
+        while (this.cachedBytes > this.maxBytes) {
+            Map.Entry<String, Body> eldest = null;
+            for (final Map.Entry<String, Body> entry : this.bodies.entrySet()) {
+                if (eldest == null || entry.getValue().lastServed < eldest.getValue().lastServed) {
+                    eldest = entry;
+                }
+            }
+            this.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    // holding rebuildLock
+    private void remove(final String variant, final Body body) {
+        this.bodies.remove(variant, body);
+        this.cachedBytes -= body.content.length + body.gzippedBytes;
+    }
+
+    private static Body serialize(final long modificationCount, final Serializer serializer) {
+        try {
+            return new Body(modificationCount, serializer.serialize());
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    interface Serializer {
+
+        byte[] serialize() throws IOException;
+    }
+
+    // never changes once built, except for the gzipped copy made on first demand
+    static final class Body {
+
+        // the one the body is cached in, null if it is served once
+        private ListResponseCache cache;
+
+        private final byte[]      content;
+
+        private volatile byte[]   gzipped;
+
+        // of the gzipped copy once counted against the budget, under rebuildLock
+        private int               gzippedBytes;
+
+        // System.nanoTime of the last request served from the cached body
+        private volatile long     lastServed = System.nanoTime();
+
+        private final long        modificationCount;
+
+        private String            variant;
+
+        Body(final long modificationCount, final byte[] content) {
+            this.modificationCount = modificationCount;
+            this.content = content;
+        }
+
+        byte[] gzipped() {
+            byte[] compressed = this.gzipped;
+            if (compressed == null) {
+                // once per body, so the copy is counted against the budget once
+                synchronized (this) {
+                    compressed = this.gzipped;
+                    if (compressed == null) {
+                        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(this.content.length / 4);
+                        try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                            gzip.write(this.content);
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        compressed = buffer.toByteArray();
+                        this.gzipped = compressed;
+                        if (this.cache != null) {
+                            this.cache.addGzipped(this, compressed.length);
+                        }
+                    }
+                }
+            }
+
+            return compressed;
+        }
+
+        byte[] content() {
+            return this.content;
+        }
+
+        long modificationCount() {
+            return this.modificationCount;
+        }
+    }
+}
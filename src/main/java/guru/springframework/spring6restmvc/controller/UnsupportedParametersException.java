@@ -0,0 +1,14 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// query parameters that each work on their own but not together, e.g. sortBy with cursor
+@ResponseStatus(value = HttpStatus.BAD_REQUEST, reason = "Unsupported combination of parameters")
+public class UnsupportedParametersException extends RuntimeException {
+
+    public UnsupportedParametersException(final String message) {
+        super(message);
+    }
+}
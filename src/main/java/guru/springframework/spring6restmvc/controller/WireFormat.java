@@ -0,0 +1,101 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+// the encodings requests and responses come in, picked by content type and accept. the binary ones are copies
+// of the application object mapper, so they know the same modules and settings. they write uuids as 16 raw bytes,
+// big decimals as decimal fractions and dates as arrays of numbers, and read dates in either form
+public enum WireFormat {
+
+    JSON(MediaType.APPLICATION_JSON, null),
+
+    CBOR(MediaType.APPLICATION_CBOR, CBORFactory::new),
+
+    SMILE(new MediaType("application", "x-jackson-smile"), SmileFactory::new);
+
+    // null for json, which is the application object mapper itself
+    private final Supplier<JsonFactory> factory;
+
+    private final MediaType             mediaType;
+
+    // the mapper copied from the application one last asked for, there is one per application
+    private volatile Derived            derived;
+
+    WireFormat(final MediaType mediaType, final Supplier<JsonFactory> factory) {
+        this.mediaType = mediaType;
+        this.factory = factory;
+    }
+
+    // the format of the best acceptable media type by quality, a concrete one before a wildcard and the first one
+    // listed on a tie. json without an accept header, for one that cannot be parsed or one naming no format here
+    static WireFormat negotiate(final String accept) {
+        if (accept == null || accept.isBlank()) {
+            return WireFormat.JSON;
+        }
+        final List<MediaType> acceptable;
+        try {
+            acceptable = MediaType.parseMediaTypes(accept);
+        } catch (final InvalidMediaTypeException e) {
+            return WireFormat.JSON;
+        }
+
+        WireFormat best = WireFormat.JSON;
+        double bestQuality = 0;
+        boolean bestConcrete = false;
+        for (final MediaType mediaType : acceptable) {
+            final double quality = mediaType.getQualityValue();
+            final boolean concrete = !mediaType.isWildcardType() && !mediaType.isWildcardSubtype();
+            if (quality == 0 || quality < bestQuality || quality == bestQuality && (bestConcrete || !concrete)) {
+                continue;
+            }
+            for (final WireFormat format : WireFormat.values()) {
+                if (mediaType.includes(format.mediaType)) {
+                    best = format;
+                    bestQuality = quality;
+                    bestConcrete = concrete;
+                    break;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    // a new copy of jsonMapper for this format, keeping its modules, mix-ins and settings
+    public ObjectMapper derive(final ObjectMapper jsonMapper) {
+        if (this.factory == null) {
+            return jsonMapper;
+        }
+
+        return jsonMapper.copyWith(this.factory.get()).enable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    // the copy of the application object mapper for this format, made once
+    public ObjectMapper mapper(final ObjectMapper jsonMapper) {
+        Derived current = this.derived;
+        if (current == null || current.source() != jsonMapper) {
+            current = new Derived(jsonMapper, this.derive(jsonMapper));
+            this.derived = current;
+        }
+
+        return current.mapper();
+    }
+
+    public MediaType mediaType() {
+        return this.mediaType;
+    }
+
+    private record Derived(ObjectMapper source, ObjectMapper mapper) {
+    }
+}
@@ -8,9 +8,9 @@ import java.util.UUID;
 import lombok.Builder;
 import lombok.Data;
 
-@Builder
+@Builder(toBuilder = true)
 @Data
-public class Beer {
+public class Beer implements VersionedEntity {
 
     private String        beerName;
 
@@ -0,0 +1,6 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+public enum BeerBatchAction {
+    CREATE, DELETE, UPDATE
+}
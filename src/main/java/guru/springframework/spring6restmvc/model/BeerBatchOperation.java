@@ -0,0 +1,19 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import java.util.UUID;
+
+import lombok.Builder;
+import lombok.Data;
+
+// one entry of a batch request. beer is required for CREATE and UPDATE, beerId for UPDATE and DELETE
+@Builder
+@Data
+public class BeerBatchOperation {
+
+    private BeerBatchAction action;
+
+    private Beer            beer;
+
+    private UUID            beerId;
+}
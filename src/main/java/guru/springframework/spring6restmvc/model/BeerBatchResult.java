@@ -0,0 +1,21 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import java.util.UUID;
+
+import lombok.Builder;
+import lombok.Data;
+
+// outcome of one batch operation, index points back into the request array and status is an http status code
+@Builder
+@Data
+public class BeerBatchResult {
+
+    private UUID   beerId;
+
+    private String error;
+
+    private int    index;
+
+    private int    status;
+}
@@ -0,0 +1,22 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+// outcome of a csv import. rejected rows are written to errorFile with their line number and the reason, it is
+// null when every row was imported
+@Builder
+@Data
+public class BeerImportReport {
+
+    private long   elapsedMillis;
+
+    private String errorFile;
+
+    private long   importedCount;
+
+    private long   rejectedCount;
+
+    private long   rowCount;
+}
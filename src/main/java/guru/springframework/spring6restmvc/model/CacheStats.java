@@ -0,0 +1,38 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+// counts since a read-through cache was created. a miss that joined a load already in flight counts as a miss and
+// as a coalesced load, never as a load of its own
+@Builder
+@Data
+public class CacheStats {
+
+    private long coalescedLoadCount;
+
+    private long evictionCount;
+
+    private long hitCount;
+
+    private long loadCount;
+
+    private long missCount;
+
+    private long size;
+
+    // of every load, failed ones included
+    private long totalLoadNanos;
+
+    // 1 for a cache nobody has asked yet
+    public double hitRatio() {
+        final long requests = this.hitCount + this.missCount;
+
+        return requests == 0 ? 1 : (double) this.hitCount / requests;
+    }
+
+    public double meanLoadNanos() {
+        return this.loadCount == 0 ? 0 : (double) this.totalLoadNanos / this.loadCount;
+    }
+}
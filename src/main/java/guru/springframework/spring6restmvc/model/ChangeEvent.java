@@ -0,0 +1,29 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import java.util.UUID;
+
+import lombok.Builder;
+import lombok.Data;
+
+// one write to a store as published on the change feed. entity is the state after the write, null for a
+// delete, which has its tombstone in deleted instead. sequence numbers are unique and increase by one across all entity types. replicated is set for a
+// write that was made on another node and applied here
+@Builder
+@Data
+public class ChangeEvent {
+
+    private ChangeAction action;
+
+    private Tombstone    deleted;
+
+    private Object       entity;
+
+    private UUID         entityId;
+
+    private String       entityType;
+
+    private boolean      replicated;
+
+    private long         sequence;
+}
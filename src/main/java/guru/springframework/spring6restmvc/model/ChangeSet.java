@@ -0,0 +1,31 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import java.util.List;
+import java.util.UUID;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Builder
+@Data
+public class ChangeSet<T> {
+
+    // inserted or updated after the requested point, as they are now
+    private List<T>    changed;
+
+    // deleted after the requested point
+    private List<UUID> deleted;
+
+    // on a page of a reset, pass back as cursor with sequence as changedSince to get the next page. null once the
+    // reset is complete
+    private String     nextCursor;
+
+    // the requested point is older than what is still tracked, changed then holds one page of every entity by id
+    // and the client replaces what it has with all pages instead of applying the set
+    private boolean    reset;
+
+    // pass back as changedSince to get what changes after this set. the same on every page of a reset, a reset page
+    // with another sequence than the changedSince it was asked with starts the reset over
+    private long       sequence;
+}
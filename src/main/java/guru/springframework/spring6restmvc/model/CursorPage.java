@@ -0,0 +1,19 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Builder
+@Data
+public class CursorPage<T> {
+
+    private List<T> content;
+
+    // opaque, pass back as cursor to get the next page. null on the last page
+    private String  nextCursor;
+
+    private int     pageSize;
+}
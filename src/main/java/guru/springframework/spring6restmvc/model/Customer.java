@@ -7,9 +7,9 @@ import java.util.UUID;
 import lombok.Builder;
 import lombok.Data;
 
-@Builder
+@Builder(toBuilder = true)
 @Data
-public class Customer {
+public class Customer implements VersionedEntity {
 
     LocalDateTime createdDate;
 
@@ -0,0 +1,31 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import java.math.BigDecimal;
+
+import lombok.Builder;
+import lombok.Data;
+
+// stock figures of one beer style, or of the whole catalog when beerStyle is null.
+// prices are over the beers that have one, the stock value over the beers that have a price and a quantity
+@Builder
+@Data
+public class InventoryAggregate {
+
+    // null when no beer has a price
+    private BigDecimal averagePrice;
+
+    private long       beerCount;
+
+    private BeerStyle  beerStyle;
+
+    private BigDecimal maxPrice;
+
+    private BigDecimal minPrice;
+
+    // sum of price times quantity on hand
+    private BigDecimal stockValue;
+
+    // sum of quantity on hand
+    private long       unitCount;
+}
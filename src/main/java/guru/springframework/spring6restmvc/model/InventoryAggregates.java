@@ -0,0 +1,17 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Data;
+
+// one entry per style in declaration order, the total also counts beers without a style
+@Builder
+@Data
+public class InventoryAggregates {
+
+    private List<InventoryAggregate> byStyle;
+
+    private InventoryAggregate       total;
+}
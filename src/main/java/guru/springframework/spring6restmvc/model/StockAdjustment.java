@@ -0,0 +1,17 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// body of a stock adjustment, units to add to quantityOnHand, negative to take them off
+@AllArgsConstructor
+@Builder
+@Data
+@NoArgsConstructor
+public class StockAdjustment {
+
+    private Integer delta;
+}
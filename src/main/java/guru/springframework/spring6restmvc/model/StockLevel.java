@@ -0,0 +1,22 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import java.util.UUID;
+
+import lombok.Builder;
+import lombok.Data;
+
+// outcome of one stock adjustment. appliedDelta differs from the requested delta when the floor of zero cut it
+// short, quantityOnHand is the stock right after this adjustment and version the version of the write carrying it
+@Builder
+@Data
+public class StockLevel {
+
+    private int     appliedDelta;
+
+    private UUID    beerId;
+
+    private int     quantityOnHand;
+
+    private Integer version;
+}
@@ -0,0 +1,46 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// what is left of a deleted entity, versioned like the write that deleted it so that replicated writes of the id
+// can be ordered against the delete. the delete of version n takes version n + 1 and the updatedDate of the state
+// it deleted, so an update made from that same state wins over it on every node, however the two arrive
+public record Tombstone(UUID id, int version, LocalDateTime updatedDate) {
+
+    public static Tombstone of(final VersionedEntity deleted) {
+        return new Tombstone(deleted.getId(), Tombstone.version(deleted) + 1, deleted.getUpdatedDate());
+    }
+
+    // a higher version, or the same version written later
+    public static boolean supersedes(final int version, final LocalDateTime updatedDate, final int storedVersion,
+                    final LocalDateTime storedUpdatedDate) {
+        if (version != storedVersion) {
+            return version > storedVersion;
+        }
+
+        return updatedDate != null && (storedUpdatedDate == null || updatedDate.isAfter(storedUpdatedDate));
+    }
+
+    public static int version(final VersionedEntity entity) {
+        return entity.getVersion() == null ? 0 : entity.getVersion();
+    }
+
+    // whether this delete wins over the stored entity
+    public boolean supersedes(final VersionedEntity stored) {
+        return Tombstone.supersedes(this.version, this.updatedDate, Tombstone.version(stored), stored
+                        .getUpdatedDate());
+    }
+
+    // whether the entity wins over this delete
+    public boolean supersededBy(final VersionedEntity incoming) {
+        return Tombstone.supersedes(Tombstone.version(incoming), incoming.getUpdatedDate(), this.version,
+                        this.updatedDate);
+    }
+
+    // whether this delete wins over an earlier one of the same id
+    public boolean supersedes(final Tombstone stored) {
+        return Tombstone.supersedes(this.version, this.updatedDate, stored.version, stored.updatedDate);
+    }
+}
@@ -0,0 +1,19 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.model;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// implemented by entities kept in an EntityStore, version is used for optimistic locking
+public interface VersionedEntity {
+
+    UUID getId();
+
+    LocalDateTime getUpdatedDate();
+
+    Integer getVersion();
+
+    void setUpdatedDate(LocalDateTime updatedDate);
+
+    void setVersion(Integer version);
+}
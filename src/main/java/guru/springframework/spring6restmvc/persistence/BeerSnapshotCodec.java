@@ -0,0 +1,104 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.persistence;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+
+// flags byte for the nullable fields, then the id and every set field in flag order
+public class BeerSnapshotCodec implements SnapshotCodec<Beer> {
+
+    private static final int         BEER_NAME        = 1;
+
+    private static final int         BEER_STYLE       = 1 << 1;
+
+    private static final int         CREATED_DATE     = 1 << 2;
+
+    private static final int         PRICE            = 1 << 3;
+
+    private static final int         QUANTITY_ON_HAND = 1 << 4;
+
+    private static final int         UPC              = 1 << 5;
+
+    private static final int         UPDATED_DATE     = 1 << 6;
+
+    private static final int         VERSION          = 1 << 7;
+
+    private static final BeerStyle[] STYLES           = BeerStyle.values();
+
+    @Override
+    public Beer read(final ByteBuffer in) {
+        final int flags = in.get() & 0xff;
+        final Beer.BeerBuilder beer = Beer.builder().id(SnapshotEncoding.readUuid(in));
+
+        if (SnapshotEncoding.isSet(flags, BeerSnapshotCodec.BEER_NAME)) {
+            beer.beerName(SnapshotEncoding.readString(in));
+        }
+        if (SnapshotEncoding.isSet(flags, BeerSnapshotCodec.BEER_STYLE)) {
+            beer.beerStyle(BeerSnapshotCodec.STYLES[in.get()]);
+        }
+        if (SnapshotEncoding.isSet(flags, BeerSnapshotCodec.CREATED_DATE)) {
+            beer.createdDate(SnapshotEncoding.readDateTime(in));
+        }
+        if (SnapshotEncoding.isSet(flags, BeerSnapshotCodec.PRICE)) {
+            beer.price(SnapshotEncoding.readDecimal(in));
+        }
+        if (SnapshotEncoding.isSet(flags, BeerSnapshotCodec.QUANTITY_ON_HAND)) {
+            beer.quantityOnHand(in.getInt());
+        }
+        if (SnapshotEncoding.isSet(flags, BeerSnapshotCodec.UPC)) {
+            beer.upc(SnapshotEncoding.readString(in));
+        }
+        if (SnapshotEncoding.isSet(flags, BeerSnapshotCodec.UPDATED_DATE)) {
+            beer.updatedDate(SnapshotEncoding.readDateTime(in));
+        }
+        if (SnapshotEncoding.isSet(flags, BeerSnapshotCodec.VERSION)) {
+            beer.version(in.getInt());
+        }
+
+        return beer.build();
+    }
+
+    @Override
+    public void write(final Beer beer, final DataOutput out) throws IOException {
+        int flags = 0;
+        flags |= beer.getBeerName() != null ? BeerSnapshotCodec.BEER_NAME : 0;
+        flags |= beer.getBeerStyle() != null ? BeerSnapshotCodec.BEER_STYLE : 0;
+        flags |= beer.getCreatedDate() != null ? BeerSnapshotCodec.CREATED_DATE : 0;
+        flags |= beer.getPrice() != null ? BeerSnapshotCodec.PRICE : 0;
+        flags |= beer.getQuantityOnHand() != null ? BeerSnapshotCodec.QUANTITY_ON_HAND : 0;
+        flags |= beer.getUpc() != null ? BeerSnapshotCodec.UPC : 0;
+        flags |= beer.getUpdatedDate() != null ? BeerSnapshotCodec.UPDATED_DATE : 0;
+        flags |= beer.getVersion() != null ? BeerSnapshotCodec.VERSION : 0;
+
+        out.writeByte(flags);
+        SnapshotEncoding.writeUuid(out, beer.getId());
+        if (beer.getBeerName() != null) {
+            SnapshotEncoding.writeString(out, beer.getBeerName());
+        }
+        if (beer.getBeerStyle() != null) {
+            out.writeByte(beer.getBeerStyle().ordinal());
+        }
+        if (beer.getCreatedDate() != null) {
+            SnapshotEncoding.writeDateTime(out, beer.getCreatedDate());
+        }
+        if (beer.getPrice() != null) {
+            SnapshotEncoding.writeDecimal(out, beer.getPrice());
+        }
+        if (beer.getQuantityOnHand() != null) {
+            out.writeInt(beer.getQuantityOnHand());
+        }
+        if (beer.getUpc() != null) {
+            SnapshotEncoding.writeString(out, beer.getUpc());
+        }
+        if (beer.getUpdatedDate() != null) {
+            SnapshotEncoding.writeDateTime(out, beer.getUpdatedDate());
+        }
+        if (beer.getVersion() != null) {
+            out.writeInt(beer.getVersion());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.persistence;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import guru.springframework.spring6restmvc.model.Customer;
+
+// flags byte for the nullable fields, then the id and every set field in flag order
+public class CustomerSnapshotCodec implements SnapshotCodec<Customer> {
+
+    private static final int CREATED_DATE = 1;
+
+    private static final int NAME         = 1 << 1;
+
+    private static final int UPDATED_DATE = 1 << 2;
+
+    private static final int VERSION      = 1 << 3;
+
+    @Override
+    public Customer read(final ByteBuffer in) {
+        final int flags = in.get() & 0xff;
+        final Customer.CustomerBuilder customer = Customer.builder().id(SnapshotEncoding.readUuid(in));
+
+        if (SnapshotEncoding.isSet(flags, CustomerSnapshotCodec.CREATED_DATE)) {
+            customer.createdDate(SnapshotEncoding.readDateTime(in));
+        }
+        if (SnapshotEncoding.isSet(flags, CustomerSnapshotCodec.NAME)) {
+            customer.name(SnapshotEncoding.readString(in));
+        }
+        if (SnapshotEncoding.isSet(flags, CustomerSnapshotCodec.UPDATED_DATE)) {
+            customer.updatedDate(SnapshotEncoding.readDateTime(in));
+        }
+        if (SnapshotEncoding.isSet(flags, CustomerSnapshotCodec.VERSION)) {
+            customer.version(in.getInt());
+        }
+
+        return customer.build();
+    }
+
+    @Override
+    public void write(final Customer customer, final DataOutput out) throws IOException {
+        int flags = 0;
+        flags |= customer.getCreatedDate() != null ? CustomerSnapshotCodec.CREATED_DATE : 0;
+        flags |= customer.getName() != null ? CustomerSnapshotCodec.NAME : 0;
+        flags |= customer.getUpdatedDate() != null ? CustomerSnapshotCodec.UPDATED_DATE : 0;
+        flags |= customer.getVersion() != null ? CustomerSnapshotCodec.VERSION : 0;
+
+        out.writeByte(flags);
+        SnapshotEncoding.writeUuid(out, customer.getId());
+        if (customer.getCreatedDate() != null) {
+            SnapshotEncoding.writeDateTime(out, customer.getCreatedDate());
+        }
+        if (customer.getName() != null) {
+            SnapshotEncoding.writeString(out, customer.getName());
+        }
+        if (customer.getUpdatedDate() != null) {
+            SnapshotEncoding.writeDateTime(out, customer.getUpdatedDate());
+        }
+        if (customer.getVersion() != null) {
+            out.writeInt(customer.getVersion());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.model.VersionedEntity;
+import guru.springframework.spring6restmvc.services.EntityStoreJournal;
+import guru.springframework.spring6restmvc.services.VersionedStore;
+import lombok.extern.slf4j.Slf4j;
+
+// durable home of the entity stores: one snapshot per store plus the write ahead log written since.
+// a checkpoint starts a new log segment, writes fresh snapshots and drops the segments they cover.
+// snapshots are fuzzy, a write can land in the snapshot and in the log after it, which is harmless because
+// replaying a record stores the whole entity
+@Slf4j
+public class DataDirectory implements Closeable {
+
+    private final ScheduledExecutorService checkpoints;
+
+    private final Path                     directory;
+
+    private final List<RestoredStore<?>>   stores = new CopyOnWriteArrayList<>();
+
+    private final WriteAheadLog            writeAheadLog;
+
+    // constructor, a null interval leaves checkpoints to the caller
+    public DataDirectory(final Path directory, final ObjectMapper objectMapper, final Duration checkpointInterval) {
+        this.directory = directory;
+        this.writeAheadLog = new WriteAheadLog(directory, objectMapper);
+
+        if (checkpointInterval == null) {
+            this.checkpoints = null;
+        } else {
+            this.checkpoints = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("checkpoint")
+                            .daemon().factory());
+            this.checkpoints.scheduleWithFixedDelay(this::checkpointQuietly, checkpointInterval.toMillis(),
+                            checkpointInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // every write logged since the last checkpoint goes into new snapshots, so the next start maps those and
+    // replays close to nothing
+    public synchronized void checkpoint() throws IOException {
+        final long started = System.nanoTime();
+        final long segment = this.writeAheadLog.rotate();
+
+        // a write may have logged its record before the rotation without having been published yet
+        for (final RestoredStore<?> store : this.stores) {
+            store.entityStore().awaitWritesInFlight();
+        }
+        for (final RestoredStore<?> store : this.stores) {
+            store.writeSnapshot(this.snapshotPath(store.name()), segment);
+        }
+        this.writeAheadLog.deleteSegmentsBefore(segment);
+
+        log.info("Checkpoint of {} stores at segment {} took {} ms", this.stores.size(), segment,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    // with background checkpoints takes a last one, so the next start does not replay the log
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.checkpoints != null) {
+                this.checkpoints.shutdown();
+                this.checkpoints.awaitTermination(1, TimeUnit.MINUTES);
+                this.checkpoint();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.writeAheadLog.close();
+        }
+    }
+
+    public <T> EntityStoreJournal<T> journal(final String store) {
+        return this.writeAheadLog.journal(store);
+    }
+
+    // loads the snapshot of the store and replays the log written after it, from then on the store is part of
+    // every checkpoint. all stores journaling here must be restored before the first checkpoint
+    public <T extends VersionedEntity> void restore(final String store, final Class<T> type,
+                    final SnapshotCodec<T> codec, final VersionedStore<T> entityStore) {
+        final long started = System.nanoTime();
+        final Path snapshot = this.snapshotPath(store);
+
+        long fromSegment = 0;
+        if (Files.exists(snapshot)) {
+            try {
+                final SnapshotFile.Snapshot<T> loaded = SnapshotFile.read(snapshot, codec);
+                entityStore.load(loaded.entities());
+                fromSegment = loaded.segment();
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Cannot read snapshot " + snapshot, e);
+            }
+        }
+        final int fromSnapshot = entityStore.size();
+        this.writeAheadLog.replay(store, type, fromSegment, entityStore::replay);
+        this.stores.add(new RestoredStore<>(store, codec, entityStore));
+
+        log.info("Restored {} {} entities, {} from the snapshot, in {} ms", entityStore.size(), store, fromSnapshot,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private void checkpointQuietly() {
+        try {
+            this.checkpoint();
+        } catch (final IOException | RuntimeException e) {
+            // the log still has everything, try again next time
+            log.error("Checkpoint failed", e);
+        }
+    }
+
+    private Path snapshotPath(final String store) {
+        return this.directory.resolve(store + ".snapshot");
+    }
+
+    private record RestoredStore<T extends VersionedEntity>(String name, SnapshotCodec<T> codec,
+                    VersionedStore<T> entityStore) {
+
+        void writeSnapshot(final Path path, final long segment) throws IOException {
+            SnapshotFile.write(path, segment, this.codec, this.entityStore.valuesInIdOrder());
+        }
+    }
+}
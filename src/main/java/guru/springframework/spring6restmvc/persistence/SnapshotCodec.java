@@ -0,0 +1,14 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.persistence;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// binary form of one entity in a snapshot, read straight from the mapped file
+public interface SnapshotCodec<T> {
+
+    T read(ByteBuffer in);
+
+    void write(T entity, DataOutput out) throws IOException;
+}
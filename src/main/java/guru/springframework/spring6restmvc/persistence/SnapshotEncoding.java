@@ -0,0 +1,83 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.persistence;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+// field encodings shared by the snapshot codecs. nullable fields are marked in a flags byte written by the
+// codec, so none of these has to encode null
+final class SnapshotEncoding {
+
+    // a decimal whose unscaled value fits a long is read back without a BigInteger
+    private static final int COMPACT = -1;
+
+    private SnapshotEncoding() {
+    }
+
+    static boolean isSet(final int flags, final int flag) {
+        return (flags & flag) != 0;
+    }
+
+    static BigDecimal readDecimal(final ByteBuffer in) {
+        final int scale = in.getInt();
+        final int length = in.getShort();
+        if (length == SnapshotEncoding.COMPACT) {
+            return BigDecimal.valueOf(in.getLong(), scale);
+        }
+        final byte[] unscaled = new byte[length];
+        in.get(unscaled);
+
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    static LocalDateTime readDateTime(final ByteBuffer in) {
+        return LocalDateTime.ofEpochSecond(in.getLong(), in.getInt(), ZoneOffset.UTC);
+    }
+
+    static String readString(final ByteBuffer in) {
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static UUID readUuid(final ByteBuffer in) {
+        return new UUID(in.getLong(), in.getLong());
+    }
+
+    static void writeDecimal(final DataOutput out, final BigDecimal value) throws IOException {
+        final BigInteger unscaled = value.unscaledValue();
+        out.writeInt(value.scale());
+        if (unscaled.bitLength() < Long.SIZE) {
+            out.writeShort(SnapshotEncoding.COMPACT);
+            out.writeLong(unscaled.longValue());
+        } else {
+            final byte[] bytes = unscaled.toByteArray();
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static void writeDateTime(final DataOutput out, final LocalDateTime value) throws IOException {
+        out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(value.getNano());
+    }
+
+    static void writeString(final DataOutput out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeUuid(final DataOutput out, final UUID value) throws IOException {
+        out.writeLong(value.getMostSignificantBits());
+        out.writeLong(value.getLeastSignificantBits());
+    }
+}
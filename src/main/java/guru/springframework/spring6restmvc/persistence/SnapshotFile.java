@@ -0,0 +1,161 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// a store written out at a checkpoint. header [magic][format][segment][count], then blocks of
+// [length][records][crc32c] followed by the encoded records. blocks stay small so each one can be mapped on
+// its own, a mapping is limited to 2GB
+final class SnapshotFile {
+
+    private static final int BLOCK_HEADER_SIZE = 12;
+
+    private static final int BLOCK_SIZE        = 4 << 20;
+
+    private static final int FORMAT            = 1;
+
+    private static final int HEADER_SIZE       = 24;
+
+    private static final int MAGIC             = 0x534e4150;
+
+    private SnapshotFile() {
+    }
+
+    // maps the file and decodes its blocks in parallel, the entities come back in the order they were written
+    static <T> Snapshot<T> read(final Path path, final SnapshotCodec<T> codec) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SnapshotFile.HEADER_SIZE);
+            if (header.getInt() != SnapshotFile.MAGIC || header.getInt() != SnapshotFile.FORMAT) {
+                throw new IOException("Not a snapshot: " + path);
+            }
+            final long segment = header.getLong();
+            final long count = header.getLong();
+
+            // only the block headers are read up front
+            final List<Long> blocks = new ArrayList<>();
+            final ByteBuffer blockHeader = ByteBuffer.allocate(SnapshotFile.BLOCK_HEADER_SIZE);
+            long position = SnapshotFile.HEADER_SIZE;
+            long records = 0;
+            while (records < count) {
+                blockHeader.clear();
+                channel.read(blockHeader, position);
+                blocks.add(position);
+                records += blockHeader.getInt(4);
+                position += SnapshotFile.BLOCK_HEADER_SIZE + blockHeader.getInt(0);
+            }
+
+            final List<List<T>> decoded;
+            try {
+                decoded = blocks.parallelStream().map(block -> SnapshotFile.readBlock(path, channel, block, codec))
+                                .toList();
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            final List<T> entities = new ArrayList<>((int) count);
+            decoded.forEach(entities::addAll);
+
+            return new Snapshot<>(segment, entities);
+        }
+    }
+
+    // writes next to the target and renames it over, so a crash leaves either the old or the new snapshot
+    static <T> void write(final Path path, final long segment, final SnapshotCodec<T> codec,
+                    final Iterable<T> entities) throws IOException {
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(SnapshotFile.HEADER_SIZE);
+
+            final ByteArrayOutputStream block = new ByteArrayOutputStream(SnapshotFile.BLOCK_SIZE + 4096);
+            final DataOutputStream out = new DataOutputStream(block);
+            long count = 0;
+            int records = 0;
+            for (final T entity : entities) {
+                codec.write(entity, out);
+                records++;
+                count++;
+                if (block.size() >= SnapshotFile.BLOCK_SIZE) {
+                    SnapshotFile.writeBlock(channel, block, records);
+                    records = 0;
+                }
+            }
+            if (records > 0) {
+                SnapshotFile.writeBlock(channel, block, records);
+            }
+
+            final ByteBuffer header = ByteBuffer.allocate(SnapshotFile.HEADER_SIZE).putInt(SnapshotFile.MAGIC)
+                            .putInt(SnapshotFile.FORMAT).putLong(segment).putLong(count).flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel directory = FileChannel.open(path.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    private static <T> List<T> readBlock(final Path path, final FileChannel channel, final long position,
+                    final SnapshotCodec<T> codec) {
+        try {
+            final MappedByteBuffer blockHeader = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            SnapshotFile.BLOCK_HEADER_SIZE);
+            final int length = blockHeader.getInt();
+            final int records = blockHeader.getInt();
+            final int crc = blockHeader.getInt();
+
+            final MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY,
+                            position + SnapshotFile.BLOCK_HEADER_SIZE, length);
+            final CRC32C actual = new CRC32C();
+            actual.update(block);
+            if ((int) actual.getValue() != crc) {
+                throw new IOException("Corrupt snapshot block at " + position + " in " + path);
+            }
+
+            block.rewind();
+            final List<T> entities = new ArrayList<>(records);
+            for (int i = 0; i < records; i++) {
+                entities.add(codec.read(block));
+            }
+
+            return entities;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeBlock(final FileChannel channel, final ByteArrayOutputStream block, final int records)
+                    throws IOException {
+        final byte[] bytes = block.toByteArray();
+        final CRC32C crc = new CRC32C();
+        crc.update(bytes);
+
+        final ByteBuffer header = ByteBuffer.allocate(SnapshotFile.BLOCK_HEADER_SIZE).putInt(bytes.length)
+                        .putInt(records).putInt((int) crc.getValue()).flip();
+        channel.write(header);
+        final ByteBuffer body = ByteBuffer.wrap(bytes);
+        while (body.hasRemaining()) {
+            channel.write(body);
+        }
+        block.reset();
+    }
+
+    // the entities of a snapshot and the first log segment they do not cover
+    record Snapshot<T>(long segment, List<T> entities) {
+    }
+}
@@ -0,0 +1,313 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.services.EntityStoreJournal;
+import lombok.extern.slf4j.Slf4j;
+
+// append only log of entity writes, shared by all stores and split into numbered segment files so a checkpoint
+// can drop what its snapshots cover. a record is [length][crc32c][json] and {"store":..,"id":..,"entity":..}
+// with a null entity for a delete.
+// group commit: writers append to a shared buffer and then sync. the first syncing writer writes and fsyncs
+// everything buffered so far, writers arriving meanwhile wait and the next one flushes them all in one go
+@Slf4j
+public class WriteAheadLog implements Closeable {
+
+    private static final int      HEADER_SIZE    = 8;
+
+    private static final String   SEGMENT_PREFIX = "wal-";
+
+    private static final String   SEGMENT_SUFFIX = ".log";
+
+    private final Path            directory;
+
+    private final ReentrantLock   lock           = new ReentrantLock();
+
+    private final Condition       flushed        = this.lock.newCondition();
+
+    private final ObjectMapper    objectMapper;
+
+    // guarded by lock
+    private FileChannel           channel;
+
+    private ByteArrayOutputStream pending        = new ByteArrayOutputStream();
+
+    private long                  appendedCount;
+
+    private long                  durableCount;
+
+    private boolean               flushing;
+
+    private IOException           failure;
+
+    private long                  segment;
+
+    // constructor, cuts off a torn record left at the end of the newest segment by a crash
+    public WriteAheadLog(final Path directory, final ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        try {
+            Files.createDirectories(directory);
+            final List<Long> segments = this.segments();
+            this.segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+            this.channel = FileChannel.open(this.segmentPath(this.segment), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            final long validLength = this.scan(this.channel, null);
+            if (validLength < this.channel.size()) {
+                log.warn("Truncating torn tail of {} at {} of {} bytes", this.segmentPath(this.segment), validLength,
+                                this.channel.size());
+                this.channel.truncate(validLength);
+                this.channel.force(true);
+            }
+            this.channel.position(validLength);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot open write ahead log in " + directory, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.sync();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    // drops the segments a checkpoint no longer needs
+    public void deleteSegmentsBefore(final long keep) throws IOException {
+        for (final long older : this.segments()) {
+            if (older < keep) {
+                Files.delete(this.segmentPath(older));
+            }
+        }
+    }
+
+    // the journal of one store, records of other stores in the same log are left alone
+    public <T> EntityStoreJournal<T> journal(final String store) {
+        return new EntityStoreJournal<>() {
+
+            @Override
+            public void append(final UUID id, final T current) {
+                WriteAheadLog.this.append(new LogRecord<>(store, id, current));
+            }
+
+            @Override
+            public void sync() {
+                WriteAheadLog.this.sync();
+            }
+        };
+    }
+
+    // hands every record of the store from the given segment on to apply in log order, call before the store
+    // takes writes
+    public <T> void replay(final String store, final Class<T> type, final long fromSegment,
+                    final BiConsumer<UUID, T> apply) {
+        try {
+            for (final long replayed : this.segments()) {
+                if (replayed < fromSegment) {
+                    continue;
+                }
+                try (FileChannel segmentChannel = FileChannel.open(this.segmentPath(replayed),
+                                StandardOpenOption.READ)) {
+                    this.scan(segmentChannel, (node) -> {
+                        if (store.equals(node.path("store").asText())) {
+                            final JsonNode entity = node.get("entity");
+                            apply.accept(UUID.fromString(node.get("id").asText()), entity == null || entity.isNull()
+                                            ? null : this.objectMapper.treeToValue(entity, type));
+                        }
+                    });
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot replay write ahead log in " + this.directory, e);
+        }
+    }
+
+    // flushes the current segment and starts a new one, returns the new segment. every record appended before
+    // the call is in an older segment, every record appended after it in the new one or later
+    public long rotate() throws IOException {
+        this.lock.lock();
+        try {
+            final long target = this.appendedCount;
+            while (this.flushing || this.durableCount < target) {
+                if (this.failure != null) {
+                    throw this.failure;
+                }
+                if (this.flushing) {
+                    this.flushed.awaitUninterruptibly();
+                } else {
+                    this.flush();
+                }
+            }
+
+            // nobody is flushing and we hold the lock, so nobody writes to the old segment any more.
+            // whatever was appended meanwhile is still pending and goes to the new one
+            final FileChannel next = FileChannel.open(this.segmentPath(this.segment + 1), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try (FileChannel directoryChannel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+                directoryChannel.force(true);
+            }
+            this.channel.close();
+            this.channel = next;
+            this.segment++;
+
+            return this.segment;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // blocks until everything appended before the call is on disk
+    public void sync() {
+        this.lock.lock();
+        try {
+            final long target = this.appendedCount;
+            while (this.durableCount < target) {
+                if (this.failure != null) {
+                    throw new UncheckedIOException("Write ahead log failed", this.failure);
+                }
+                if (this.flushing) {
+                    this.flushed.awaitUninterruptibly();
+                } else {
+                    this.flush();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void append(final LogRecord<?> record) {
+        final byte[] payload;
+        try {
+            payload = this.objectMapper.writeValueAsBytes(record);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot serialize " + record.id(), e);
+        }
+        final CRC32C crc = new CRC32C();
+        crc.update(payload);
+
+        final ByteBuffer header = ByteBuffer.allocate(WriteAheadLog.HEADER_SIZE).putInt(payload.length)
+                        .putInt((int) crc.getValue());
+
+        this.lock.lock();
+        try {
+            this.pending.writeBytes(header.array());
+            this.pending.writeBytes(payload);
+            this.appendedCount++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // called with the lock held, releases it while writing so other writers can keep appending
+    private void flush() {
+        final ByteBuffer batch = ByteBuffer.wrap(this.pending.toByteArray());
+        final long batchCount = this.appendedCount;
+        final FileChannel target = this.channel;
+        this.pending = new ByteArrayOutputStream();
+        this.flushing = true;
+
+        this.lock.unlock();
+        IOException error = null;
+        try {
+            while (batch.hasRemaining()) {
+                target.write(batch);
+            }
+            target.force(false);
+        } catch (final IOException e) {
+            error = e;
+        } finally {
+            this.lock.lock();
+        }
+
+        this.flushing = false;
+        if (error == null) {
+            this.durableCount = batchCount;
+        } else {
+            this.failure = error;
+        }
+        this.flushed.signalAll();
+    }
+
+    // reads records from the start until the end of the segment or the first incomplete or corrupt one,
+    // returns where that is
+    private long scan(final FileChannel segmentChannel, final RecordHandler handler) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(WriteAheadLog.HEADER_SIZE);
+        final long size = segmentChannel.size();
+        long position = 0;
+
+        while (position + WriteAheadLog.HEADER_SIZE <= size) {
+            header.clear();
+            segmentChannel.read(header, position);
+            final int length = header.getInt(0);
+            if (length <= 0 || position + WriteAheadLog.HEADER_SIZE + length > size) {
+                break;
+            }
+
+            final ByteBuffer payload = ByteBuffer.allocate(length);
+            while (payload.hasRemaining()) {
+                segmentChannel.read(payload, position + WriteAheadLog.HEADER_SIZE + payload.position());
+            }
+            final CRC32C crc = new CRC32C();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+
+            if (handler != null) {
+                handler.handle(this.objectMapper.readTree(payload.array()));
+            }
+            position += WriteAheadLog.HEADER_SIZE + length;
+        }
+
+        return position;
+    }
+
+    private Path segmentPath(final long number) {
+        return this.directory.resolve(String.format("%s%019d%s", WriteAheadLog.SEGMENT_PREFIX, number,
+                        WriteAheadLog.SEGMENT_SUFFIX));
+    }
+
+    // segment numbers in ascending order
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.map(path -> path.getFileName().toString())
+                            .filter(name -> name.startsWith(WriteAheadLog.SEGMENT_PREFIX)
+                                            && name.endsWith(WriteAheadLog.SEGMENT_SUFFIX))
+                            .map(name -> Long.valueOf(name.substring(WriteAheadLog.SEGMENT_PREFIX.length(),
+                                            name.length() - WriteAheadLog.SEGMENT_SUFFIX.length())))
+                            .sorted().toList();
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordHandler {
+
+        void handle(JsonNode record) throws IOException;
+    }
+
+    private record LogRecord<T>(String store, UUID id, T entity) {
+    }
+}
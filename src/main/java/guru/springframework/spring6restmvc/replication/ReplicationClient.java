@@ -0,0 +1,190 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.ChangeEvent;
+import guru.springframework.spring6restmvc.model.Customer;
+import guru.springframework.spring6restmvc.services.BeerService;
+import guru.springframework.spring6restmvc.services.ChangeFeed;
+import guru.springframework.spring6restmvc.services.CustomerService;
+import lombok.extern.slf4j.Slf4j;
+
+// follows the writes made on other nodes, one connection to the ReplicationServer of each peer "host:port". the
+// frames of a peer have to go on exactly from the sequence the last one ended at, a frame that does not is a gap
+// and the connection starts over with a snapshot. a lost connection is made again after RECONNECT_MILLIS and
+// goes on from where the last one stopped. writes are applied as replicated, see VersionedStore.applyReplicated,
+// so a node does not send them on and every node has to list every other one as a peer. nothing is applied from
+// a peer that has not shown it knows the shared secret, see ReplicationHandshake
+@Slf4j
+public class ReplicationClient implements Closeable {
+
+    static final int                   RECONNECT_MILLIS = 1_000;
+
+    // a few missed heartbeats
+    static final int                   TIMEOUT_MILLIS   = 5_000;
+
+    private static final ThreadFactory THREADS          = Thread.ofVirtual().name("replication-client-", 0).factory();
+
+    private final AtomicLong           appliedCount     = new AtomicLong();
+
+    private final BeerService          beerService;
+
+    private volatile boolean           closed;
+
+    private final CustomerService      customerService;
+
+    private final AtomicLong           gapCount         = new AtomicLong();
+
+    private final ReplicationHandshake handshake;
+
+    // between sending a frame and applying it, of the last frame from any peer
+    private volatile long              lagMillis;
+
+    private final ObjectMapper         objectMapper;
+
+    private final AtomicLong           receivedCount    = new AtomicLong();
+
+    private final AtomicLong           snapshotCount    = new AtomicLong();
+
+    private final Set<Socket>          sockets          = ConcurrentHashMap.newKeySet();
+
+    public ReplicationClient(final List<String> peers, final String secret, final BeerService beerService,
+                    final CustomerService customerService, final ObjectMapper objectMapper) {
+        this.handshake = new ReplicationHandshake(secret);
+        this.beerService = beerService;
+        this.customerService = customerService;
+        this.objectMapper = objectMapper;
+        for (final String peer : peers) {
+            ReplicationClient.THREADS.newThread(() -> this.follow(peer.strip())).start();
+        }
+    }
+
+    // writes that changed the store here, older versions and repeats are received but not applied
+    public long appliedCount() {
+        return this.appliedCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        for (final Socket socket : this.sockets) {
+            socket.close();
+        }
+    }
+
+    public long gapCount() {
+        return this.gapCount.get();
+    }
+
+    public long lagMillis() {
+        return this.lagMillis;
+    }
+
+    public long receivedCount() {
+        return this.receivedCount.get();
+    }
+
+    public long snapshotCount() {
+        return this.snapshotCount.get();
+    }
+
+    private void apply(final List<ChangeEvent> events) {
+        ChangeFeed.replicating(() -> {
+            for (final ChangeEvent event : events) {
+                final boolean applied = switch (event.getEntityType()) {
+                    case "beer" -> this.beerService.applyReplicatedBeer(event.getEntityId(),
+                                    this.objectMapper.convertValue(event.getEntity(), Beer.class), event.getDeleted());
+                    case "customer" -> this.customerService.applyReplicatedCustomer(event.getEntityId(),
+                                    this.objectMapper.convertValue(event.getEntity(), Customer.class), event
+                                                    .getDeleted());
+                    default -> false;
+                };
+                if (applied) {
+                    this.appliedCount.incrementAndGet();
+                }
+            }
+        });
+        this.receivedCount.addAndGet(events.size());
+    }
+
+    // the epoch is null until a snapshot of the peer has been applied in full, so a connection lost halfway
+    // through one asks for a new one
+    private void follow(final String peer) {
+        final int colon = peer.lastIndexOf(':');
+        final String host = peer.substring(0, colon);
+        final int port = Integer.parseInt(peer.substring(colon + 1));
+        String epoch = null;
+        long next = 0;
+        while (!this.closed) {
+            try (Socket socket = new Socket()) {
+                this.sockets.add(socket);
+                socket.connect(new InetSocketAddress(host, port), ReplicationClient.TIMEOUT_MILLIS);
+                socket.setSoTimeout(ReplicationClient.TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(),
+                                1 << 16));
+                final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                this.handshake.connect(in, out);
+                ReplicationFrame.hello(epoch, next).write(out, this.objectMapper);
+                ReplicationClient.log.info("Following {} from sequence {} of epoch {}", peer, next, epoch);
+
+                while (!this.closed) {
+                    final ReplicationFrame frame = ReplicationFrame.read(in, this.objectMapper);
+                    if (frame.snapshot()) {
+                        epoch = null;
+                        this.apply(frame.events());
+                        if (frame.next() != 0) {
+                            epoch = frame.epoch();
+                            next = frame.next();
+                            this.snapshotCount.incrementAndGet();
+                            ReplicationClient.log.info("Applied a snapshot of {}, going on from sequence {}", peer,
+                                            next);
+                        }
+                        continue;
+                    }
+                    if (!frame.epoch().equals(epoch) || frame.from() != next) {
+                        ReplicationClient.log.warn("Gap in the writes of {}: expected sequence {} of epoch {}, got"
+                                        + " {} of epoch {}", peer, next, epoch, frame.from(), frame.epoch());
+                        this.gapCount.incrementAndGet();
+                        epoch = null;
+                        break;
+                    }
+                    this.apply(frame.events());
+                    next = frame.next();
+                    this.lagMillis = Math.max(0, System.currentTimeMillis() - frame.sentAtMillis());
+                }
+            } catch (final IOException | RuntimeException e) {
+                if (!this.closed) {
+                    ReplicationClient.log.info("Replication from {} interrupted: {}", peer, e.toString());
+                }
+            } finally {
+                this.sockets.removeIf(Socket::isClosed);
+            }
+            if (!this.closed) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(ReplicationClient.RECONNECT_MILLIS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
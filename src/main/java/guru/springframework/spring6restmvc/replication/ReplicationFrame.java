@@ -0,0 +1,48 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.replication;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.model.ChangeEvent;
+
+// one message on a replication connection, an int length and the encoded frame. the follower opens with a hello
+// naming the epoch of the node it follows and the sequence to go on from, after that only the node it follows
+// sends. a frame covers the writes [from, next) of its change feed and leaves out the ones that were replicated
+// there from elsewhere, an empty one is a heartbeat. a snapshot is a run of frames with every current entity and
+// every tombstone, next is 0 except in the last one, where it is the sequence the feed goes on from
+record ReplicationFrame(String epoch, long from, long next, boolean snapshot, long sentAtMillis,
+                List<ChangeEvent> events) {
+
+    // far above a full batch of entities, a bigger length means the stream is corrupt
+    static final int MAX_LENGTH = 64 << 20;
+
+    static ReplicationFrame hello(final String epoch, final long next) {
+        return new ReplicationFrame(epoch, next, next, false, System.currentTimeMillis(), List.of());
+    }
+
+    static ReplicationFrame read(final DataInputStream in, final ObjectMapper objectMapper) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > ReplicationFrame.MAX_LENGTH) {
+            throw new IOException("Invalid replication frame length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return objectMapper.readValue(bytes, ReplicationFrame.class);
+    }
+
+    // not through a DataOutputStream, its writes are synchronized and would pin a virtual thread blocked on a full
+    // socket buffer to its carrier
+    void write(final OutputStream out, final ObjectMapper objectMapper) throws IOException {
+        final byte[] bytes = objectMapper.writeValueAsBytes(this);
+        out.write(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        out.write(bytes);
+        out.flush();
+    }
+}
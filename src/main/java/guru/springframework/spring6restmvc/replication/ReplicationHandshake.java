@@ -0,0 +1,101 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.replication;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// opens every replication connection, each end proves that it knows the shared secret without sending it. the
+// server sends a random challenge, the client answers with a challenge of its own and the hmac of both, then the
+// server answers with the hmac of both the other way round. a proof only fits the challenges of its connection,
+// so one seen on the wire is no use on another. the frames after it are neither encrypted nor signed, the
+// replication port belongs on a network the nodes trust
+final class ReplicationHandshake {
+
+    private static final String       ALGORITHM        = "HmacSHA256";
+
+    private static final int          CHALLENGE_LENGTH = 32;
+
+    private static final byte[]       CLIENT           = "client".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int          PROOF_LENGTH     = 32;
+
+    private static final SecureRandom RANDOM           = new SecureRandom();
+
+    private static final byte[]       SERVER           = "server".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecretKeySpec       key;
+
+    ReplicationHandshake(final String secret) {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalArgumentException("Replication needs a shared secret, see app.replication.secret");
+        }
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ReplicationHandshake.ALGORITHM);
+    }
+
+    // the server end, returns whether the client knows the secret. the server proves it only to a client that did
+    boolean accept(final DataInputStream in, final OutputStream out) throws IOException {
+        final byte[] serverChallenge = ReplicationHandshake.challenge();
+        out.write(serverChallenge);
+        out.flush();
+        final byte[] clientChallenge = ReplicationHandshake.read(in, ReplicationHandshake.CHALLENGE_LENGTH);
+        final byte[] proof = ReplicationHandshake.read(in, ReplicationHandshake.PROOF_LENGTH);
+        if (!MessageDigest.isEqual(proof, this.proof(ReplicationHandshake.CLIENT, serverChallenge,
+                        clientChallenge))) {
+            return false;
+        }
+        out.write(this.proof(ReplicationHandshake.SERVER, serverChallenge, clientChallenge));
+        out.flush();
+
+        return true;
+    }
+
+    // the client end, throws if the server does not know the secret
+    void connect(final DataInputStream in, final OutputStream out) throws IOException {
+        final byte[] serverChallenge = ReplicationHandshake.read(in, ReplicationHandshake.CHALLENGE_LENGTH);
+        final byte[] clientChallenge = ReplicationHandshake.challenge();
+        out.write(clientChallenge);
+        out.write(this.proof(ReplicationHandshake.CLIENT, serverChallenge, clientChallenge));
+        out.flush();
+        if (!MessageDigest.isEqual(ReplicationHandshake.read(in, ReplicationHandshake.PROOF_LENGTH), this.proof(
+                        ReplicationHandshake.SERVER, serverChallenge, clientChallenge))) {
+            throw new IOException("Replication peer does not know the shared secret");
+        }
+    }
+
+    // the role keeps a proof of one end from being sent back as the proof of the other
+    private byte[] proof(final byte[] role, final byte[] serverChallenge, final byte[] clientChallenge) {
+        try {
+            final Mac mac = Mac.getInstance(ReplicationHandshake.ALGORITHM);
+            mac.init(this.key);
+            mac.update(role);
+            mac.update(serverChallenge);
+            mac.update(clientChallenge);
+            return mac.doFinal();
+        } catch (final GeneralSecurityException e) {
+            // every jdk has HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] challenge() {
+        final byte[] challenge = new byte[ReplicationHandshake.CHALLENGE_LENGTH];
+        ReplicationHandshake.RANDOM.nextBytes(challenge);
+
+        return challenge;
+    }
+
+    private static byte[] read(final DataInputStream in, final int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+}
@@ -0,0 +1,254 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.ChangeAction;
+import guru.springframework.spring6restmvc.model.ChangeEvent;
+import guru.springframework.spring6restmvc.model.Customer;
+import guru.springframework.spring6restmvc.model.Tombstone;
+import guru.springframework.spring6restmvc.model.VersionedEntity;
+import guru.springframework.spring6restmvc.services.BeerService;
+import guru.springframework.spring6restmvc.services.ChangeFeed;
+import guru.springframework.spring6restmvc.services.CustomerService;
+import lombok.extern.slf4j.Slf4j;
+
+// sends the writes made on this node to the nodes following it, see ReplicationClient for the other end. every
+// connection gets a virtual thread that reads the change feed from where the follower asked to go on, like a
+// change feed subscriber, and sends whatever has been written since in one frame. a follower that asks for a
+// sequence the feed no longer holds, or for one of another epoch, gets a snapshot of every beer and customer
+// first, with the tombstone of every deleted one so that the follower drops the ones it missed the delete of.
+// the epoch is new every time the node starts, its feed sequences start again at 1. only the hosts of the listed
+// peers may connect, and only after the handshake has shown they know the shared secret
+@Slf4j
+public class ReplicationServer implements Closeable {
+
+    // the default of ServerSocket
+    private static final int           BACKLOG         = 50;
+
+    static final int                   BATCH_SIZE      = 1_000;
+
+    // an empty frame every so often lets the follower tell a quiet node from a dead connection
+    static final long                  HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long          MAX_IDLE_NANOS  = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static final long          MIN_IDLE_NANOS  = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final ThreadFactory THREADS         = Thread.ofVirtual().name("replication-server-", 0).factory();
+
+    private final BeerService          beerService;
+
+    private final ChangeFeed           changeFeed;
+
+    private final Set<Socket>          connections     = ConcurrentHashMap.newKeySet();
+
+    private final CustomerService      customerService;
+
+    private final String               epoch           = UUID.randomUUID().toString();
+
+    private final ReplicationHandshake handshake;
+
+    private final ObjectMapper         objectMapper;
+
+    // the hosts of the peers, "host:port" like the ones a ReplicationClient follows
+    private final List<String>         peerHosts;
+
+    private final ServerSocket         serverSocket;
+
+    // port 0 picks a free one
+    public ReplicationServer(final InetAddress bindAddress, final int port, final List<String> peers,
+                    final String secret, final ChangeFeed changeFeed, final BeerService beerService,
+                    final CustomerService customerService, final ObjectMapper objectMapper) throws IOException {
+        this.handshake = new ReplicationHandshake(secret);
+        this.peerHosts = peers.stream().map(peer -> peer.strip().substring(0, peer.strip().lastIndexOf(':')))
+                        .toList();
+        this.changeFeed = changeFeed;
+        this.beerService = beerService;
+        this.customerService = customerService;
+        this.objectMapper = objectMapper;
+        this.serverSocket = new ServerSocket(port, ReplicationServer.BACKLOG, bindAddress);
+        ReplicationServer.THREADS.newThread(this::accept).start();
+        ReplicationServer.log.info("Replication listening on {}, epoch {}", this.serverSocket
+                        .getLocalSocketAddress(), this.epoch);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+        for (final Socket socket : this.connections) {
+            socket.close();
+        }
+    }
+
+    public int port() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!this.serverSocket.isClosed()) {
+            try {
+                final Socket socket = this.serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                this.connections.add(socket);
+                ReplicationServer.THREADS.newThread(() -> this.serve(socket)).start();
+            } catch (final IOException e) {
+                if (!this.serverSocket.isClosed()) {
+                    ReplicationServer.log.warn("Replication accept failed", e);
+                }
+            }
+        }
+    }
+
+    private ChangeEvent event(final String entityType, final Tombstone deleted) {
+        return ChangeEvent.builder().action(ChangeAction.DELETED).deleted(deleted).entityId(deleted.id())
+                        .entityType(entityType).build();
+    }
+
+    private ChangeEvent event(final String entityType, final VersionedEntity entity) {
+        return ChangeEvent.builder().action(ChangeAction.UPDATED).entity(entity).entityId(entity.getId())
+                        .entityType(entityType).build();
+    }
+
+    // whether the address is one of a listed peer host, resolved again for every connection
+    private boolean listed(final InetAddress address) {
+        for (final String host : this.peerHosts) {
+            try {
+                if (Arrays.asList(InetAddress.getAllByName(host)).contains(address)) {
+                    return true;
+                }
+            } catch (final UnknownHostException e) {
+                // not resolvable right now, cannot be this one
+            }
+        }
+
+        return false;
+    }
+
+    // backs off up to MAX_IDLE_NANOS while nothing is written, which bounds the lag a quiet node adds
+    private void serve(final Socket socket) {
+        try (socket;
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16)) {
+            if (!this.listed(socket.getInetAddress())) {
+                ReplicationServer.log.warn("Refused replication to {}, not a listed peer", socket
+                                .getRemoteSocketAddress());
+                return;
+            }
+            // the server only reads until the hello, a peer that stops halfway through does not hold a thread
+            socket.setSoTimeout(ReplicationClient.TIMEOUT_MILLIS);
+            if (!this.handshake.accept(in, out)) {
+                ReplicationServer.log.warn("Refused replication to {}, it does not know the shared secret", socket
+                                .getRemoteSocketAddress());
+                return;
+            }
+            final ReplicationFrame hello = ReplicationFrame.read(in, this.objectMapper);
+            ReplicationServer.log.info("Replicating to {} from sequence {} of epoch {}", socket
+                            .getRemoteSocketAddress(), hello.next(), hello.epoch());
+            long next = hello.next();
+            boolean snapshot = !this.epoch.equals(hello.epoch());
+            long idleNanos = ReplicationServer.MIN_IDLE_NANOS;
+            long lastSend = System.nanoTime();
+            while (!socket.isClosed()) {
+                if (snapshot) {
+                    next = this.sendSnapshot(out, socket);
+                    snapshot = false;
+                }
+                final ChangeFeed.Batch batch = this.changeFeed.read(next, ReplicationServer.BATCH_SIZE);
+                if (batch.missed()) {
+                    snapshot = true;
+                    continue;
+                }
+                if (batch.next() > next || System.nanoTime() - lastSend > ReplicationServer.HEARTBEAT_NANOS) {
+                    final List<ChangeEvent> events = new ArrayList<>(batch.events().size());
+                    for (final ChangeEvent event : batch.events()) {
+                        if (!event.isReplicated()) {
+                            events.add(event);
+                        }
+                    }
+                    new ReplicationFrame(this.epoch, next, batch.next(), false, System.currentTimeMillis(), events)
+                                    .write(out, this.objectMapper);
+                    lastSend = System.nanoTime();
+                    next = batch.next();
+                }
+
+                if (!batch.events().isEmpty()) {
+                    idleNanos = ReplicationServer.MIN_IDLE_NANOS;
+                    continue;
+                }
+                LockSupport.parkNanos(idleNanos);
+                idleNanos = Math.min(idleNanos * 2, ReplicationServer.MAX_IDLE_NANOS);
+            }
+        } catch (final IOException e) {
+            ReplicationServer.log.info("Replication to {} ended: {}", socket.getRemoteSocketAddress(), e.toString());
+        } finally {
+            this.connections.remove(socket);
+        }
+    }
+
+    // the sequence is taken before the stores are walked, so a write made during the walk comes again after it
+    // and applying it twice changes nothing. deletes are versioned like updates, so a tombstone never wins over a
+    // later write of the id the follower has already
+    private long sendSnapshot(final OutputStream out, final Socket socket) throws IOException {
+        final long next = this.changeFeed.nextSequence();
+        final List<ChangeEvent> events = new ArrayList<>(ReplicationServer.BATCH_SIZE);
+        long count = 0;
+        try (Stream<Beer> beers = this.beerService.streamBeers()) {
+            count += this.sendSnapshot(out, beers.map(beer -> this.event("beer", beer)).iterator(), events);
+        }
+        count += this.sendSnapshot(out, this.beerService.streamBeerTombstones().map(deleted -> this.event("beer",
+                        deleted)).iterator(), events);
+        try (Stream<Customer> customers = this.customerService.streamCustomers()) {
+            count += this.sendSnapshot(out, customers.map(customer -> this.event("customer", customer)).iterator(),
+                            events);
+        }
+        count += this.sendSnapshot(out, this.customerService.streamCustomerTombstones().map(deleted -> this.event(
+                        "customer", deleted)).iterator(), events);
+        new ReplicationFrame(this.epoch, 0, next, true, System.currentTimeMillis(), events).write(out,
+                        this.objectMapper);
+        ReplicationServer.log.info("Sent a snapshot of {} entities and tombstones to {}, going on from sequence {}",
+                        count, socket.getRemoteSocketAddress(), next);
+
+        return next;
+    }
+
+    // leaves the last batch in events for the frame that ends the snapshot
+    private long sendSnapshot(final OutputStream out, final Iterator<ChangeEvent> snapshot,
+                    final List<ChangeEvent> events) throws IOException {
+        long count = 0;
+        while (snapshot.hasNext()) {
+            if (events.size() == ReplicationServer.BATCH_SIZE) {
+                new ReplicationFrame(this.epoch, 0, 0, true, System.currentTimeMillis(), events).write(out,
+                                this.objectMapper);
+                events.clear();
+            }
+            events.add(snapshot.next());
+            count++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,247 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerImportReport;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import lombok.extern.slf4j.Slf4j;
+
+// bulk import of supplier catalogs. the csv is read as a stream and saved in batches, so memory use is one
+// buffer and one batch whatever the size of the file. the header names the columns in any order, matched
+// ignoring case, spaces and underscores: beerName, beerStyle, upc and price are required, quantityOnHand is
+// optional and other columns are ignored. a row that fails validation is skipped and written to an error file
+// with its line number and the reason, the rest of the file is still imported
+@Slf4j
+public class BeerCsvImporter {
+
+    static final int              BATCH_SIZE        = 1_000;
+
+    static final int              PROGRESS_INTERVAL = 100_000;
+
+    // the required ones first
+    private static final String[] COLUMNS           = { "beername", "beerstyle", "upc", "price", "quantityonhand" };
+
+    private static final int      REQUIRED_COLUMNS  = 4;
+
+    private final BeerService     beerService;
+
+    private final Path            errorDirectory;
+
+    // error files are created in errorDirectory
+    public BeerCsvImporter(final BeerService beerService, final Path errorDirectory) {
+        this.beerService = beerService;
+        this.errorDirectory = errorDirectory;
+    }
+
+    // reads the channel to the end and closes it, source names it in the log. rows saved before an i/o error or
+    // a malformed record stay saved
+    public BeerImportReport importCsv(final ReadableByteChannel channel, final String source) throws IOException {
+        final long start = System.nanoTime();
+        long rowCount = 0;
+        long importedCount = 0;
+        long rejectedCount = 0;
+
+        try (CsvReader reader = new CsvReader(channel); RowErrors errors = new RowErrors()) {
+            final List<String> firstRecord = reader.next();
+            if (firstRecord == null) {
+                throw new InvalidCsvException("Empty input, expected a header row");
+            }
+            // the reader reuses its list
+            final List<String> header = List.copyOf(firstRecord);
+            final int[] columns = BeerCsvImporter.columns(header);
+            errors.header = header;
+
+            final List<Beer> batch = new ArrayList<>(BeerCsvImporter.BATCH_SIZE);
+            List<String> record;
+            while ((record = reader.next()) != null) {
+                if (record.size() == 1 && record.get(0).isBlank()) {
+                    continue;
+                }
+                rowCount++;
+                try {
+                    batch.add(BeerCsvImporter.toBeer(record, header.size(), columns));
+                } catch (final IllegalArgumentException e) {
+                    rejectedCount++;
+                    errors.write(reader.recordLine(), e.getMessage(), record);
+                }
+                if (batch.size() == BeerCsvImporter.BATCH_SIZE) {
+                    importedCount += this.save(batch);
+                }
+                if (rowCount % BeerCsvImporter.PROGRESS_INTERVAL == 0) {
+                    BeerCsvImporter.log.info("Importing beers from {}: {} rows, {} rejected, {} rows/s", source,
+                                    rowCount, rejectedCount, BeerCsvImporter.perSecond(rowCount, start));
+                }
+            }
+            importedCount += this.save(batch);
+
+            final BeerImportReport report = BeerImportReport.builder().rowCount(rowCount).importedCount(importedCount)
+                            .rejectedCount(rejectedCount)
+                            .errorFile(errors.file == null ? null : errors.file.toString())
+                            .elapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).build();
+            BeerCsvImporter.log.info("Imported {} of {} beers from {} in {} ms, {} rows/s{}", importedCount, rowCount,
+                            source, report.getElapsedMillis(), BeerCsvImporter.perSecond(rowCount, start),
+                            errors.file == null ? "" : ", rejected rows in " + errors.file);
+
+            return report;
+        } catch (final IOException | RuntimeException e) {
+            BeerCsvImporter.log.warn("Beer import from {} failed after {} rows, {} imported", source, rowCount,
+                            importedCount);
+            throw e;
+        }
+    }
+
+    // position of each of COLUMNS in a record, -1 for a missing optional one
+    private static int[] columns(final List<String> header) {
+        final int[] columns = new int[BeerCsvImporter.COLUMNS.length];
+        Arrays.fill(columns, -1);
+        for (int i = 0; i < header.size(); i++) {
+            final String name = header.get(i).strip().replace(" ", "").replace("_", "").toLowerCase(Locale.ROOT);
+            final int column = Arrays.asList(BeerCsvImporter.COLUMNS).indexOf(name);
+            if (column >= 0 && columns[column] < 0) {
+                columns[column] = i;
+            }
+        }
+        for (int column = 0; column < BeerCsvImporter.REQUIRED_COLUMNS; column++) {
+            if (columns[column] < 0) {
+                throw new InvalidCsvException("Missing column " + BeerCsvImporter.COLUMNS[column] + " in header "
+                                + header);
+            }
+        }
+
+        return columns;
+    }
+
+    private static long perSecond(final long rows, final long start) {
+        return rows * TimeUnit.SECONDS.toNanos(1) / Math.max(1, System.nanoTime() - start);
+    }
+
+    private static Beer toBeer(final List<String> record, final int fieldCount, final int[] columns) {
+        if (record.size() != fieldCount) {
+            throw new IllegalArgumentException("Expected " + fieldCount + " fields, found " + record.size());
+        }
+
+        final String beerName = record.get(columns[0]).strip();
+        if (beerName.isEmpty()) {
+            throw new IllegalArgumentException("Missing beerName");
+        }
+        final String beerStyle = record.get(columns[1]).strip();
+        final BeerStyle style;
+        try {
+            style = BeerStyle.valueOf(beerStyle.toUpperCase(Locale.ROOT).replace(' ', '_').replace('-', '_'));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown beerStyle " + beerStyle);
+        }
+        final String upc = record.get(columns[2]).strip();
+        if (upc.isEmpty()) {
+            throw new IllegalArgumentException("Missing upc");
+        }
+        final BigDecimal price = BeerCsvImporter.parsePrice(record.get(columns[3]).strip());
+        final String quantity = columns[4] < 0 ? "" : record.get(columns[4]).strip();
+
+        return Beer.builder().beerName(beerName).beerStyle(style).upc(upc).price(price)
+                        .quantityOnHand(quantity.isEmpty() ? null : BeerCsvImporter.parseQuantity(quantity)).build();
+    }
+
+    private static BigDecimal parsePrice(final String price) {
+        try {
+            final BigDecimal parsed = new BigDecimal(price);
+            // at most cents, 12.990 is fine
+            final BigDecimal stripped = parsed.stripTrailingZeros();
+            if (parsed.signum() >= 0 && stripped.scale() <= 2 && stripped.precision() - stripped.scale() <= 10) {
+                return parsed;
+            }
+        } catch (final NumberFormatException e) {
+            // reported below
+        }
+
+        throw new IllegalArgumentException("Invalid price " + price);
+    }
+
+    private static int parseQuantity(final String quantity) {
+        try {
+            final int parsed = Integer.parseInt(quantity);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (final NumberFormatException e) {
+            // reported below
+        }
+
+        throw new IllegalArgumentException("Invalid quantityOnHand " + quantity);
+    }
+
+    private long save(final List<Beer> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        this.beerService.saveNewBeers(batch);
+        final int saved = batch.size();
+        batch.clear();
+
+        return saved;
+    }
+
+    // the error file, created with the first rejected row. csv again, the line number and reason in front of the
+    // fields as they were read, so it can be fixed and imported once more without its first two columns
+    private final class RowErrors implements Closeable {
+
+        Path                   file;
+
+        List<String>           header;
+
+        private BufferedWriter writer;
+
+        @Override
+        public void close() throws IOException {
+            if (this.writer != null) {
+                this.writer.close();
+            }
+        }
+
+        void write(final long line, final String error, final List<String> record) throws IOException {
+            if (this.writer == null) {
+                this.file = Files.createTempFile(BeerCsvImporter.this.errorDirectory, "beer-import-", "-errors.csv");
+                this.writer = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8);
+                this.writeRecord("line", "error", this.header);
+            }
+            this.writeRecord(Long.toString(line), error, record);
+        }
+
+        private void writeField(final String field) throws IOException {
+            if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0
+                            && field.indexOf('\r') < 0) {
+                this.writer.write(field);
+                return;
+            }
+            this.writer.write('"');
+            this.writer.write(field.replace("\"", "\"\""));
+            this.writer.write('"');
+        }
+
+        private void writeRecord(final String line, final String error, final List<String> fields)
+                        throws IOException {
+            this.writeField(line);
+            this.writer.write(',');
+            this.writeField(error);
+            for (final String field : fields) {
+                this.writer.write(',');
+                this.writeField(field);
+            }
+            this.writer.write('\n');
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+
+// secondary indexes over the beer store, kept in step by listening to every write.
+// lookups only narrow down candidate ids, callers must re-check the current beer because an index can
+// briefly hold an id whose beer has already moved on
+class BeerIndexes implements EntityStoreListener<Beer> {
+
+    // one set per style is created up front, so the EnumMap itself is never modified after construction
+    private final Map<BeerStyle, Set<UUID>>                byStyle = new EnumMap<>(BeerStyle.class);
+
+    private final ConcurrentMap<String, Set<UUID>>         byUpc   = new ConcurrentHashMap<>();
+
+    // sorted on lower case name, a prefix lookup is a range scan
+    private final ConcurrentSkipListMap<String, Set<UUID>> byName  = new ConcurrentSkipListMap<>();
+
+    BeerIndexes() {
+        for (final BeerStyle beerStyle : BeerStyle.values()) {
+            this.byStyle.put(beerStyle, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    // returns null when there is nothing to narrow down on
+    Collection<UUID> candidates(final BeerStyle beerStyle, final String upc, final String namePrefix) {
+        // most selective index first
+        if (upc != null) {
+            return this.byUpc.getOrDefault(upc, Collections.emptySet());
+        }
+        if (namePrefix != null) {
+            final String prefix = BeerIndexes.normalize(namePrefix);
+            final Set<UUID> ids = new HashSet<>();
+            this.byName.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values().forEach(ids::addAll);
+            return ids;
+        }
+        if (beerStyle != null) {
+            return this.byStyle.get(beerStyle);
+        }
+
+        return null;
+    }
+
+    // the name index takes the loaded beers in name order, so every insert lands at the end of the skip list
+    // instead of searching it from the top, the bulk of the startup time on a large catalog
+    @Override
+    public void onLoad(final Collection<Beer> loaded) {
+        final List<Map.Entry<String, UUID>> names = new ArrayList<>(loaded.size());
+        for (final Beer beer : loaded) {
+            if (beer.getBeerStyle() != null) {
+                this.byStyle.get(beer.getBeerStyle()).add(beer.getId());
+            }
+            BeerIndexes.add(this.byUpc, beer.getUpc(), beer.getId());
+            if (beer.getBeerName() != null) {
+                names.add(Map.entry(BeerIndexes.normalize(beer.getBeerName()), beer.getId()));
+            }
+        }
+
+        names.sort(Map.Entry.comparingByKey());
+        for (final Map.Entry<String, UUID> name : names) {
+            BeerIndexes.add(this.byName, name.getKey(), name.getValue());
+        }
+    }
+
+    @Override
+    public void onChange(final Beer previous, final Beer current) {
+        final UUID id = previous != null ? previous.getId() : current.getId();
+
+        final BeerStyle oldStyle = previous == null ? null : previous.getBeerStyle();
+        final BeerStyle newStyle = current == null ? null : current.getBeerStyle();
+        if (oldStyle != newStyle) {
+            if (oldStyle != null) {
+                this.byStyle.get(oldStyle).remove(id);
+            }
+            if (newStyle != null) {
+                this.byStyle.get(newStyle).add(id);
+            }
+        }
+
+        final String oldUpc = previous == null ? null : previous.getUpc();
+        final String newUpc = current == null ? null : current.getUpc();
+        if (!Objects.equals(oldUpc, newUpc)) {
+            BeerIndexes.remove(this.byUpc, oldUpc, id);
+            BeerIndexes.add(this.byUpc, newUpc, id);
+        }
+
+        final String oldName = previous == null ? null : BeerIndexes.normalize(previous.getBeerName());
+        final String newName = current == null ? null : BeerIndexes.normalize(current.getBeerName());
+        if (!Objects.equals(oldName, newName)) {
+            BeerIndexes.remove(this.byName, oldName, id);
+            BeerIndexes.add(this.byName, newName, id);
+        }
+    }
+
+    static boolean matches(final Beer beer, final BeerStyle beerStyle, final String upc, final String namePrefix) {
+        return (beerStyle == null || beerStyle == beer.getBeerStyle()) && (upc == null || upc.equals(beer.getUpc()))
+                        && (namePrefix == null || beer.getBeerName() != null
+                                        && BeerIndexes.normalize(beer.getBeerName()).startsWith(BeerIndexes.normalize(namePrefix)));
+    }
+
+    // most upcs and names belong to a single beer, so a key starts out with an immutable singleton and only
+    // gets a concurrent set once a second beer shares it. a concurrent set per key costs a lot of memory and
+    // startup time on a large catalog
+    private static void add(final ConcurrentMap<String, Set<UUID>> index, final String key, final UUID id) {
+        if (key != null) {
+            // inside compute so a concurrent remove cannot drop the set between creating it and adding to it
+            index.compute(key, (k, ids) -> {
+                if (ids == null) {
+                    return Set.of(id);
+                }
+                if (ids instanceof final ConcurrentHashMap.KeySetView<UUID, ?> shared) {
+                    shared.add(id);
+                    return shared;
+                }
+                final Set<UUID> shared = ConcurrentHashMap.newKeySet();
+                shared.addAll(ids);
+                shared.add(id);
+                return shared;
+            });
+        }
+    }
+
+    private static String normalize(final String name) {
+        return name == null ? null : name.toLowerCase(Locale.ROOT);
+    }
+
+    // drops the key once its last id is gone, so the index does not keep every name ever used
+    private static void remove(final ConcurrentMap<String, Set<UUID>> index, final String key, final UUID id) {
+        if (key != null) {
+            index.computeIfPresent(key, (k, ids) -> {
+                if (ids instanceof final ConcurrentHashMap.KeySetView<UUID, ?> shared) {
+                    shared.remove(id);
+                    return shared.isEmpty() ? null : shared;
+                }
+                return ids.contains(id) ? null : ids;
+            });
+        }
+    }
+}
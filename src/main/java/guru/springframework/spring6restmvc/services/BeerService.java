@@ -3,20 +3,84 @@ package guru.springframework.spring6restmvc.services;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerBatchOperation;
+import guru.springframework.spring6restmvc.model.BeerBatchResult;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.model.CacheStats;
+import guru.springframework.spring6restmvc.model.ChangeSet;
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.InventoryAggregates;
+import guru.springframework.spring6restmvc.model.StockLevel;
+import guru.springframework.spring6restmvc.model.Tombstone;
 
 public interface BeerService {
 
+    // called for every write from now on, see EntityStoreListener
+    void addChangeListener(EntityStoreListener<Beer> listener);
+
+    // adds delta to the quantity on hand in one atomic step, never going below zero. concurrent adjustments of
+    // one beer are all applied, unlike a put or patch of the quantity
+    StockLevel adjustStock(UUID beerId, int delta);
+
+    // applies the operations in order, a failing operation does not stop the ones after it
+    List<BeerBatchResult> applyBatch(List<BeerBatchOperation> operations);
+
+    // a write made on another node, beer is null for a delete and deleted set instead. see
+    // VersionedStore.applyReplicated
+    boolean applyReplicatedBeer(UUID beerId, Beer beer, Tombstone deleted);
+
     void deleteBeerById(UUID beerId);
 
+    // any argument may be null, beers have to match all of the given ones
+    List<Beer> findBeers(BeerStyle beerStyle, String upc, String namePrefix);
+
     Beer getBeerById(UUID beerId);
 
+    // hits, misses and load times of the read-through cache of getBeerById, null when there is no cache
+    CacheStats getBeerCacheStats();
+
+    int getBeerCount();
+
+    // stock figures per style, kept up to date on every write so reading them is cheap whatever the catalog size
+    InventoryAggregates getInventoryAggregates();
+
+    // changes on every write, cheap to read, used to tag whole list responses
+    long getModificationCount();
+
+    // beers inserted, updated or deleted after changedSince, which is the sequence of an earlier change set or an
+    // ISO timestamp. costs O(changes), a point from before the service started gives a reset with every beer in
+    // pages of pageSize, cursor continues one. see ChangeSet
+    ChangeSet<Beer> listBeerChanges(String changedSince, String cursor, Integer pageSize);
+
+    // every beer as of one point in time, writes made while it is copied are not part of it
     List<Beer> listBeers();
 
+    CursorPage<Beer> listBeers(String cursor, Integer pageSize);
+
+    // beers ordered by sortBy, one of beerName, price and quantityOnHand, then by id. min and max bound the sort
+    // value inclusively and beerStyle narrows down to one style, any of them may be null. beers without a value to
+    // sort by are left out. kept sorted on every write, so a page costs O(log n + limit) at any offset
+    List<Beer> listBeersSorted(String sortBy, boolean descending, String min, String max, BeerStyle beerStyle,
+                    Integer offset, Integer limit);
+
     void patchBeerById(UUID beerId, Beer beer);
 
+    // the same figures computed from scratch over the whole catalog in parallel, to verify the incremental ones
+    InventoryAggregates recomputeInventoryAggregates();
+
     Beer saveNewBeer(Beer beer);
 
+    // saves them all with one journal sync, far cheaper than one saveNewBeer each. returns the saved beers in order
+    List<Beer> saveNewBeers(List<Beer> beers);
+
+    // lazily walks one snapshot of the store, see VersionedStore.snapshot. close it when done
+    Stream<Beer> streamBeers();
+
+    // the tombstone of every beer deleted since the service started, see VersionedStore.tombstones
+    Stream<Tombstone> streamBeerTombstones();
+
     void updateBeerById(UUID beerId, Beer beer);
 }
@@ -2,28 +2,116 @@
 package guru.springframework.spring6restmvc.services;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerBatchOperation;
+import guru.springframework.spring6restmvc.model.BeerBatchResult;
 import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.model.CacheStats;
+import guru.springframework.spring6restmvc.model.ChangeSet;
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.InventoryAggregates;
+import guru.springframework.spring6restmvc.model.StockLevel;
+import guru.springframework.spring6restmvc.model.Tombstone;
+import guru.springframework.spring6restmvc.persistence.BeerSnapshotCodec;
+import guru.springframework.spring6restmvc.persistence.DataDirectory;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @Service
 public class BeerServiceImpl implements BeerService {
 
-    private final Map<UUID, Beer> beerMap;
+    // null without a cache, otherwise the same as beerStore
+    private final CachingStore<Beer>   beerCache;
 
-    // constructor
+    private final BeerFinder           beerFinder;
+
+    // null with columnar storage, which scans its columns instead
+    private final BeerIndexes          beerIndexes;
+
+    private final BeerSortIndexes      beerSortIndexes     = new BeerSortIndexes();
+
+    private final VersionedStore<Beer> beerStore;
+
+    private final ChangeIndex<Beer>    changeIndex;
+
+    private final InventoryAggregator  inventoryAggregator = new InventoryAggregator();
+
+    private final StockCombiner        stockCombiner;
+
+    // constructor, in memory only
     public BeerServiceImpl() {
-        this.beerMap = new HashMap<>();
+        this((DataDirectory) null);
+    }
+
+    public BeerServiceImpl(final DataDirectory dataDirectory) {
+        this(dataDirectory, false);
+    }
+
+    public BeerServiceImpl(final DataDirectory dataDirectory, final boolean columnarStorage) {
+        this(dataDirectory, columnarStorage, Duration.ZERO, 0, Duration.ZERO);
+    }
+
+    // there is a data directory only with app.data.directory set
+    @Autowired
+    public BeerServiceImpl(final ObjectProvider<DataDirectory> dataDirectory,
+                    @Value("${app.beer.columnar-storage:false}") final boolean columnarStorage,
+                    @Value("${app.beer.backend-latency:PT0S}") final Duration backendLatency,
+                    @Value("${app.beer.cache.maximum-size:0}") final int cacheMaximumSize,
+                    @Value("${app.beer.cache.ttl:PT10M}") final Duration cacheTtl) {
+        this(dataDirectory.getIfAvailable(), columnarStorage, backendLatency, cacheMaximumSize, cacheTtl);
+    }
+
+    // restores the store if there is a data directory, seeds only a store that has never been written.
+    // columnar storage keeps beers in primitive columns, which takes a fraction of the heap of one object
+    // graph per beer. a backend latency puts a LatencyStore over the store as a stand-in for a slower system of
+    // record, a cache size reads beers by id through a CachingStore in front of that
+    public BeerServiceImpl(final DataDirectory dataDirectory, final boolean columnarStorage,
+                    final Duration backendLatency, final int cacheMaximumSize, final Duration cacheTtl) {
+        final EntityStoreJournal<Beer> journal = dataDirectory == null ? null : dataDirectory.journal("beer");
+        final VersionedStore<Beer> store;
+        if (columnarStorage) {
+            final ColumnarBeerStore columnarBeerStore = new ColumnarBeerStore(journal);
+            store = columnarBeerStore;
+            this.beerIndexes = null;
+            this.beerFinder = columnarBeerStore::find;
+        } else {
+            store = new EntityStore<>(journal);
+            this.beerIndexes = new BeerIndexes();
+            store.addListener(this.beerIndexes);
+            this.beerFinder = this::findIndexed;
+        }
+        store.addListener(this.inventoryAggregator);
+        store.addListener(this.beerSortIndexes);
+
+        if (dataDirectory != null) {
+            dataDirectory.restore("beer", Beer.class, new BeerSnapshotCodec(), store);
+        }
+        // the restore and checkpoints go to the store itself, without the latency
+        final VersionedStore<Beer> backend = backendLatency.isZero() ? store : new LatencyStore<>(store,
+                        backendLatency);
+        this.beerCache = cacheMaximumSize > 0 ? new CachingStore<>(backend, cacheMaximumSize, cacheTtl) : null;
+        this.beerStore = this.beerCache == null ? backend : this.beerCache;
+        this.stockCombiner = new StockCombiner(this.beerStore);
+        // after the restore, which would otherwise index every restored beer
+        this.changeIndex = new ChangeIndex<>(this.beerStore);
+        this.beerStore.addListener(this.changeIndex);
+        if (this.beerStore.modificationCount() > 0) {
+            return;
+        }
 
         final Beer beer1 = Beer.builder().id(UUID.randomUUID()).version(1).beerName("Galaxy Cat").beerStyle(BeerStyle.PALE_ALE)
                         .upc("123456").price(new BigDecimal("12.99")).quantityOnHand(122).createdDate(LocalDateTime.now())
@@ -35,77 +123,256 @@ public class BeerServiceImpl implements BeerService {
                         .upc("12356").price(new BigDecimal("13.99")).quantityOnHand(144).createdDate(LocalDateTime.now())
                         .updatedDate(LocalDateTime.now()).build();
 
-        this.beerMap.put(beer1.getId(), beer1);
-        this.beerMap.put(beer2.getId(), beer2);
-        this.beerMap.put(beer3.getId(), beer3);
+        this.beerStore.insert(beer1);
+        this.beerStore.insert(beer2);
+        this.beerStore.insert(beer3);
+    }
+
+    // listener
+    @Override
+    public void addChangeListener(final EntityStoreListener<Beer> listener) {
+        this.beerStore.addListener(listener);
+    }
+
+    // stock, atomic against every other adjustment of the same beer
+    @Override
+    public StockLevel adjustStock(final UUID beerId, final int delta) {
+        return this.stockCombiner.adjust(beerId, delta);
+    }
+
+    // batch
+    @Override
+    public List<BeerBatchResult> applyBatch(final List<BeerBatchOperation> operations) {
+        final List<BeerBatchResult> results = new ArrayList<>(operations.size());
+
+        for (int i = 0; i < operations.size(); i++) {
+            final BeerBatchResult.BeerBatchResultBuilder result = BeerBatchResult.builder().index(i);
+            try {
+                this.applyBatchOperation(operations.get(i), result);
+            } catch (final NotFoundException e) {
+                result.status(HttpStatus.NOT_FOUND.value()).error(e.getMessage());
+            } catch (final ConflictException e) {
+                result.status(HttpStatus.CONFLICT.value()).error(e.getMessage());
+            } catch (final IllegalArgumentException e) {
+                result.status(HttpStatus.BAD_REQUEST.value()).error(e.getMessage());
+            }
+            results.add(result.build());
+        }
+
+        return results;
+    }
+
+    // replication
+    @Override
+    public boolean applyReplicatedBeer(final UUID beerId, final Beer beer, final Tombstone deleted) {
+        return this.beerStore.applyReplicated(beerId, beer, deleted);
     }
 
     // delete
     @Override
     public void deleteBeerById(final UUID beerId) {
-        this.beerMap.remove(beerId);
+        this.beerStore.delete(beerId);
+    }
+
+    // query by secondary indexes
+    @Override
+    public List<Beer> findBeers(final BeerStyle beerStyle, final String upc, final String namePrefix) {
+        if (beerStyle == null && upc == null && namePrefix == null) {
+            return this.listBeers();
+        }
+
+        return this.beerFinder.find(beerStyle, upc, namePrefix);
     }
 
     // get one
     @Override
     public Beer getBeerById(final UUID beerId) {
-        BeerServiceImpl.log.debug("Get Beer by Id - in service. Id: " + beerId.toString());
+        BeerServiceImpl.log.debug("Get Beer by Id - in service. Id: {}", beerId);
 
-        return this.beerMap.get(beerId);
+        return this.beerStore.get(beerId);
+    }
+
+    // null without a cache
+    @Override
+    public CacheStats getBeerCacheStats() {
+        return this.beerCache == null ? null : this.beerCache.stats();
     }
 
-    // get all
+    // size of the store
+    @Override
+    public int getBeerCount() {
+        return this.beerStore.size();
+    }
+
+    // per style totals, maintained by the store listener
+    @Override
+    public InventoryAggregates getInventoryAggregates() {
+        return this.inventoryAggregator.aggregates();
+    }
+
+    // store wide write counter
+    @Override
+    public long getModificationCount() {
+        return this.beerStore.modificationCount();
+    }
+
+    // delta sync
+    @Override
+    public ChangeSet<Beer> listBeerChanges(final String changedSince, final String cursor, final Integer pageSize) {
+        return this.changeIndex.changesSince(ChangeIndex.parseChangedSince(changedSince), cursor, pageSize);
+    }
+
+    // get all, as of one point in time
     @Override
     public List<Beer> listBeers() {
-        return new ArrayList<>(this.beerMap.values());
+        try (Stream<Beer> beers = this.beerStore.snapshot()) {
+            return beers.collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    // get one page, keyset pagination
+    @Override
+    public CursorPage<Beer> listBeers(final String cursor, final Integer pageSize) {
+        return this.beerStore.page(cursor, pageSize);
+    }
+
+    // top-n and range queries on the sort indexes, offset and limit default like a cursor page
+    @Override
+    public List<Beer> listBeersSorted(final String sortBy, final boolean descending, final String min,
+                    final String max, final BeerStyle beerStyle, final Integer offset, final Integer limit) {
+        return this.beerSortIndexes.find(sortBy, descending, min, max, beerStyle, offset == null ? 0
+                        : Math.max(0, offset), PageCursor.clampPageSize(limit), this.beerStore::get);
     }
 
     // patch
     @Override
     public void patchBeerById(final UUID beerId, final Beer beer) {
-        final Beer existingBeer = this.beerMap.get(beerId);
-        // check if property included in beer, and then update it
-        if (beer.getBeerName() != null) {
-            existingBeer.setBeerName(beer.getBeerName());
+        this.beerStore.update(beerId, beer.getVersion(), existingBeer -> {
+            final Beer.BeerBuilder patchedBeer = existingBeer.toBuilder();
+            // check if property included in beer, and then update it
+            if (beer.getBeerName() != null) {
+                patchedBeer.beerName(beer.getBeerName());
+            }
+            if (beer.getPrice() != null) {
+                patchedBeer.price(beer.getPrice());
+            }
+            if (beer.getUpc() != null) {
+                patchedBeer.upc(beer.getUpc());
+            }
+            if (beer.getQuantityOnHand() != null) {
+                patchedBeer.quantityOnHand(beer.getQuantityOnHand());
+            }
+            if (beer.getBeerStyle() != null) {
+                patchedBeer.beerStyle(beer.getBeerStyle());
+            }
+            return patchedBeer.build();
+        });
+    }
+
+    // full parallel scan of one snapshot
+    @Override
+    public InventoryAggregates recomputeInventoryAggregates() {
+        try (Stream<Beer> beers = this.beerStore.snapshot()) {
+            return InventoryAggregator.recompute(beers);
         }
-        if (beer.getPrice() != null) {
-            existingBeer.setPrice(beer.getPrice());
+    }
+
+    // post
+    @Override
+    public Beer saveNewBeer(final Beer beer) {
+        return this.beerStore.insert(BeerServiceImpl.newBeer(beer));
+    }
+
+    // bulk import
+    @Override
+    public List<Beer> saveNewBeers(final List<Beer> beers) {
+        final List<Beer> savedBeers = new ArrayList<>(beers.size());
+        for (final Beer beer : beers) {
+            savedBeers.add(BeerServiceImpl.newBeer(beer));
         }
-        if (beer.getUpc() != null) {
-            existingBeer.setUpc(beer.getUpc());
+        this.beerStore.insertAll(savedBeers);
+
+        return savedBeers;
+    }
+
+    private void applyBatchOperation(final BeerBatchOperation operation, final BeerBatchResult.BeerBatchResultBuilder result) {
+        if (operation == null || operation.getAction() == null) {
+            throw new IllegalArgumentException("Missing action");
         }
-        if (beer.getQuantityOnHand() != null) {
-            existingBeer.setQuantityOnHand(beer.getQuantityOnHand());
+
+        switch (operation.getAction()) {
+            case CREATE -> {
+                BeerServiceImpl.requireArgument(operation.getBeer() != null, "Missing beer");
+                result.beerId(this.saveNewBeer(operation.getBeer()).getId()).status(HttpStatus.CREATED.value());
+            }
+            case UPDATE -> {
+                BeerServiceImpl.requireArgument(operation.getBeerId() != null && operation.getBeer() != null,
+                                "Missing beerId or beer");
+                result.beerId(operation.getBeerId());
+                this.updateBeerById(operation.getBeerId(), operation.getBeer());
+                result.status(HttpStatus.NO_CONTENT.value());
+            }
+            case DELETE -> {
+                BeerServiceImpl.requireArgument(operation.getBeerId() != null, "Missing beerId");
+                result.beerId(operation.getBeerId());
+                this.deleteBeerById(operation.getBeerId());
+                result.status(HttpStatus.NO_CONTENT.value());
+            }
         }
-        if (beer.getBeerStyle() != null) {
-            existingBeer.setBeerStyle(beer.getBeerStyle());
+    }
+
+    private List<Beer> findIndexed(final BeerStyle beerStyle, final String upc, final String namePrefix) {
+        final List<Beer> beers = new ArrayList<>();
+        for (final UUID id : this.beerIndexes.candidates(beerStyle, upc, namePrefix)) {
+            final Beer beer = this.beerStore.get(id);
+            if (beer != null && BeerIndexes.matches(beer, beerStyle, upc, namePrefix)) {
+                beers.add(beer);
+            }
         }
+
+        return beers;
     }
 
-    // post
-    @Override
-    public Beer saveNewBeer(final Beer beer) {
-        // mimicking database operation
-        final Beer savedBeer = Beer.builder().id(UUID.randomUUID()).version(1).beerName(beer.getBeerName())
+    // mimicking database operation
+    private static Beer newBeer(final Beer beer) {
+        final LocalDateTime now = LocalDateTime.now();
+
+        return Beer.builder().id(UUID.randomUUID()).version(1).beerName(beer.getBeerName())
                         .beerStyle(beer.getBeerStyle()).upc(beer.getUpc()).price(beer.getPrice())
-                        .quantityOnHand(beer.getQuantityOnHand()).createdDate(LocalDateTime.now())
-                        .updatedDate(LocalDateTime.now()).build();
+                        .quantityOnHand(beer.getQuantityOnHand()).createdDate(now).updatedDate(now).build();
+    }
 
-        this.beerMap.put(savedBeer.getId(), savedBeer);
+    private static void requireArgument(final boolean condition, final String message) {
+        if (!condition) {
+            throw new IllegalArgumentException(message);
+        }
+    }
 
-        return savedBeer;
+    // stream all, as of one point in time
+    @Override
+    public Stream<Beer> streamBeers() {
+        return this.beerStore.snapshot();
+    }
+
+    // deleted ones
+    @Override
+    public Stream<Tombstone> streamBeerTombstones() {
+        return this.beerStore.tombstones();
     }
 
     // put
     @Override
     public void updateBeerById(final UUID beerId, final Beer beer) {
-        final Beer existingBeer = this.beerMap.get(beerId);
-        // set all the properties that could change
-        existingBeer.setBeerName(beer.getBeerName());
-        existingBeer.setPrice(beer.getPrice());
-        existingBeer.setUpc(beer.getUpc());
-        existingBeer.setQuantityOnHand(beer.getQuantityOnHand());
-        existingBeer.setBeerStyle(beer.getBeerStyle());
+        // set all the properties that could change, on a copy of the stored beer
+        this.beerStore.update(beerId, beer.getVersion(),
+                        existingBeer -> existingBeer.toBuilder().beerName(beer.getBeerName()).price(beer.getPrice())
+                                        .upc(beer.getUpc()).quantityOnHand(beer.getQuantityOnHand())
+                                        .beerStyle(beer.getBeerStyle()).build());
     }
 
+    @FunctionalInterface
+    private interface BeerFinder {
+
+        List<Beer> find(BeerStyle beerStyle, String upc, String namePrefix);
+    }
 }
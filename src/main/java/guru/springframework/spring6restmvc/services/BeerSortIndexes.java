@@ -0,0 +1,168 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Function;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+
+// beers kept sorted on name, price and quantity on hand, kept in step by listening to every write so a top-n or
+// range query never sorts the catalog. per sort key one tree of every beer and one per style, so narrowing down to
+// a style costs the same as not. a beer without a value for a key is left out of its trees. the trees hold only
+// the key and the id, the beers are read from the store and checked against the key. every tree is lock free on
+// its own, a write that leaves the keys and the style of a beer alone does not touch them at all
+class BeerSortIndexes implements EntityStoreListener<Beer> {
+
+    private final Map<SortKey, SortedBeerKeys>                 byKey   = new EnumMap<>(SortKey.class);
+
+    private final Map<SortKey, Map<BeerStyle, SortedBeerKeys>> byStyle = new EnumMap<>(SortKey.class);
+
+    BeerSortIndexes() {
+        for (final SortKey sortKey : SortKey.values()) {
+            this.byKey.put(sortKey, new SortedBeerKeys());
+            final Map<BeerStyle, SortedBeerKeys> styles = new EnumMap<>(BeerStyle.class);
+            for (final BeerStyle beerStyle : BeerStyle.values()) {
+                styles.put(beerStyle, new SortedBeerKeys());
+            }
+            this.byStyle.put(sortKey, styles);
+        }
+    }
+
+    // offset and limit count beers in the requested order, min and max bound the key inclusively and may be null.
+    // a beer whose key or style changed since its id was read is left out, so a page written to meanwhile may
+    // come out short
+    List<Beer> find(final String sortBy, final boolean descending, final String min, final String max,
+                    final BeerStyle beerStyle, final int offset, final int limit, final Function<UUID, Beer> store) {
+        final SortKey sortKey = SortKey.of(sortBy);
+        final Comparable<?> lower = min == null ? null : sortKey.parse(min);
+        final Comparable<?> upper = max == null ? null : sortKey.parse(max);
+
+        final SortedBeerKeys keys = beerStyle == null ? this.byKey.get(sortKey)
+                        : this.byStyle.get(sortKey).get(beerStyle);
+        final List<Beer> beers = new ArrayList<>();
+        for (final SortedBeerKeys.Key key : keys.range(lower, upper, offset, limit, descending)) {
+            final Beer beer = store.apply(key.id());
+            if (beer != null && key.value().equals(sortKey.key(beer))
+                            && (beerStyle == null || beerStyle == beer.getBeerStyle())) {
+                beers.add(beer);
+            }
+        }
+
+        return beers;
+    }
+
+    // every tree takes its ids sorted, which builds it in one pass
+    @Override
+    public void onLoad(final Collection<Beer> loaded) {
+        for (final SortKey sortKey : SortKey.values()) {
+            final List<Keyed> keyed = new ArrayList<>(loaded.size());
+            for (final Beer beer : loaded) {
+                final Comparable<?> key = sortKey.key(beer);
+                if (key != null) {
+                    keyed.add(new Keyed(new SortedBeerKeys.Key(key, beer.getId()), beer.getBeerStyle()));
+                }
+            }
+            keyed.sort(Keyed.ORDER);
+
+            this.byKey.get(sortKey).addAll(keyed.stream().map(Keyed::key).toList());
+            for (final Map.Entry<BeerStyle, SortedBeerKeys> style : this.byStyle.get(sortKey).entrySet()) {
+                style.getValue().addAll(keyed.stream().filter(k -> k.beerStyle() == style.getKey()).map(Keyed::key)
+                                .toList());
+            }
+        }
+    }
+
+    // runs in write order for each beer, see EntityStoreListener, so the moves of one beer never cross
+    @Override
+    public void onChange(final Beer previous, final Beer current) {
+        final UUID id = current == null ? previous.getId() : current.getId();
+        final BeerStyle oldStyle = previous == null ? null : previous.getBeerStyle();
+        final BeerStyle newStyle = current == null ? null : current.getBeerStyle();
+        for (final SortKey sortKey : SortKey.values()) {
+            final Comparable<?> oldKey = previous == null ? null : sortKey.key(previous);
+            final Comparable<?> newKey = current == null ? null : sortKey.key(current);
+            final boolean moved = !Objects.equals(oldKey, newKey);
+            if (moved) {
+                this.byKey.get(sortKey).move(oldKey, newKey, id);
+            }
+
+            final Map<BeerStyle, SortedBeerKeys> styles = this.byStyle.get(sortKey);
+            if (oldStyle != newStyle) {
+                if (oldKey != null && oldStyle != null) {
+                    styles.get(oldStyle).move(oldKey, null, id);
+                }
+                if (newKey != null && newStyle != null) {
+                    styles.get(newStyle).move(null, newKey, id);
+                }
+            } else if (moved && newStyle != null) {
+                styles.get(newStyle).move(oldKey, newKey, id);
+            }
+        }
+    }
+
+    // the sortBy values are the property names. names sort case insensitively
+    enum SortKey {
+
+        BEER_NAME("beerName", beer -> beer.getBeerName() == null ? null
+                        : beer.getBeerName().toLowerCase(Locale.ROOT), value -> value.toLowerCase(Locale.ROOT)),
+
+        PRICE("price", Beer::getPrice, BigDecimal::new),
+
+        QUANTITY_ON_HAND("quantityOnHand", Beer::getQuantityOnHand, Integer::valueOf);
+
+        private final Function<Beer, Comparable<?>>   key;
+
+        private final Function<String, Comparable<?>> parser;
+
+        private final String                          property;
+
+        SortKey(final String property, final Function<Beer, Comparable<?>> key,
+                        final Function<String, Comparable<?>> parser) {
+            this.property = property;
+            this.key = key;
+            this.parser = parser;
+        }
+
+        static SortKey of(final String sortBy) {
+            for (final SortKey sortKey : SortKey.values()) {
+                if (sortKey.property.equals(sortBy)) {
+                    return sortKey;
+                }
+            }
+
+            throw new InvalidSortException("Cannot sort by " + sortBy, null);
+        }
+
+        Comparable<?> key(final Beer beer) {
+            return this.key.apply(beer);
+        }
+
+        Comparable<?> parse(final String value) {
+            try {
+                return this.parser.apply(value.strip());
+            } catch (final NumberFormatException e) {
+                throw new InvalidSortException("Invalid " + this.property + " bound " + value, e);
+            }
+        }
+    }
+
+    private record Keyed(SortedBeerKeys.Key key, BeerStyle beerStyle) {
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        static final Comparator<Keyed> ORDER = (keyed, other) -> {
+            final int comparison = ((Comparable) keyed.key().value()).compareTo(other.key().value());
+
+            return comparison != 0 ? comparison : keyed.key().id().compareTo(other.key().id());
+        };
+    }
+}
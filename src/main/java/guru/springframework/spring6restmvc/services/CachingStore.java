@@ -0,0 +1,146 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import guru.springframework.spring6restmvc.model.CacheStats;
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.Tombstone;
+import guru.springframework.spring6restmvc.model.VersionedEntity;
+
+// read-through TinyLfuCache of get in front of a slower store, everything else goes straight to the backend.
+// every write made through this store drops the cached entity once the backend has it, so the writer reads its
+// own write and other readers see it right after. writes made to the backend directly are only picked up when
+// the cached entity expires
+public class CachingStore<T extends VersionedEntity> implements VersionedStore<T> {
+
+    private final VersionedStore<T>     backend;
+
+    private final TinyLfuCache<UUID, T> cache;
+
+    public CachingStore(final VersionedStore<T> backend, final int maximumSize, final Duration ttl) {
+        this.backend = backend;
+        this.cache = new TinyLfuCache<>(maximumSize, ttl);
+    }
+
+    @Override
+    public void addListener(final EntityStoreListener<T> listener) {
+        this.backend.addListener(listener);
+    }
+
+    @Override
+    public boolean applyReplicated(final UUID id, final T current, final Tombstone deleted) {
+        try {
+            return this.backend.applyReplicated(id, current, deleted);
+        } finally {
+            this.cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public void awaitWritesInFlight() {
+        this.backend.awaitWritesInFlight();
+    }
+
+    @Override
+    public T delete(final UUID id) {
+        try {
+            return this.backend.delete(id);
+        } finally {
+            this.cache.invalidate(id);
+        }
+    }
+
+    // concurrent misses of one id make a single backend call
+    @Override
+    public T get(final UUID id) {
+        return this.cache.get(id, this.backend::get);
+    }
+
+    @Override
+    public T insert(final T entity) {
+        try {
+            return this.backend.insert(entity);
+        } finally {
+            this.cache.invalidate(entity.getId());
+        }
+    }
+
+    @Override
+    public void insertAll(final List<T> entities) {
+        try {
+            this.backend.insertAll(entities);
+        } finally {
+            for (final T entity : entities) {
+                this.cache.invalidate(entity.getId());
+            }
+        }
+    }
+
+    @Override
+    public void load(final List<T> loaded) {
+        this.backend.load(loaded);
+    }
+
+    @Override
+    public long modificationCount() {
+        return this.backend.modificationCount();
+    }
+
+    @Override
+    public CursorPage<T> page(final String cursor, final Integer pageSize) {
+        return this.backend.page(cursor, pageSize);
+    }
+
+    @Override
+    public void replay(final UUID id, final T current) {
+        try {
+            this.backend.replay(id, current);
+        } finally {
+            this.cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.backend.size();
+    }
+
+    @Override
+    public Stream<T> snapshot() {
+        return this.backend.snapshot();
+    }
+
+    @Override
+    public Stream<Tombstone> tombstones() {
+        return this.backend.tombstones();
+    }
+
+    public CacheStats stats() {
+        return this.cache.stats();
+    }
+
+    @Override
+    public T update(final UUID id, final Integer expectedVersion, final UnaryOperator<T> change) {
+        try {
+            return this.backend.update(id, expectedVersion, change);
+        } finally {
+            this.cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public Collection<T> values() {
+        return this.backend.values();
+    }
+
+    @Override
+    public Iterable<T> valuesInIdOrder() {
+        return this.backend.valuesInIdOrder();
+    }
+}
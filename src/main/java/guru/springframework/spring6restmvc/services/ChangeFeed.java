@@ -0,0 +1,107 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import guru.springframework.spring6restmvc.model.ChangeAction;
+import guru.springframework.spring6restmvc.model.ChangeEvent;
+import guru.springframework.spring6restmvc.model.Tombstone;
+import guru.springframework.spring6restmvc.model.VersionedEntity;
+
+// the last writes to the stores in a bounded ring, for subscribers that follow them by sequence number.
+// a writer claims a sequence with one atomic increment and stores its event with one compare and set, it never
+// waits for a reader. a reader that falls more than the capacity behind has lost events and is told so
+public class ChangeFeed {
+
+    // set on the thread of a write from another node, which is published as replicated
+    private static final ThreadLocal<Boolean>       REPLICATING  = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final int                               capacity;
+
+    private final long                              mask;
+
+    // the sequence the next write claims, sequences start at 1
+    private final AtomicLong                        nextSequence = new AtomicLong(1);
+
+    // the event of sequence s sits at s & mask, until a write capacity sequences later replaces it
+    private final AtomicReferenceArray<ChangeEvent> ring;
+
+    // capacity is rounded up to a power of two
+    public ChangeFeed(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Change feed capacity must be between 1 and 2^30: " + capacity);
+        }
+        this.capacity = Integer.bitCount(capacity) == 1 ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.mask = this.capacity - 1;
+        this.ring = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    // publishes every write of the store it is added to, see addChangeListener on the services
+    public <T extends VersionedEntity> EntityStoreListener<T> listener(final String entityType) {
+        return (previous, current) -> {
+            final ChangeAction action = previous == null ? ChangeAction.CREATED
+                            : current == null ? ChangeAction.DELETED : ChangeAction.UPDATED;
+            this.publish(ChangeEvent.builder().action(action).deleted(current == null ? Tombstone.of(previous) : null)
+                            .entity(current).entityId(current == null ? previous.getId() : current.getId())
+                            .entityType(entityType).replicated(ChangeFeed.REPLICATING.get()));
+        };
+    }
+
+    // runs writes that came from another node, so that they are not sent on to other nodes again
+    public static void replicating(final Runnable writes) {
+        ChangeFeed.REPLICATING.set(Boolean.TRUE);
+        try {
+            writes.run();
+        } finally {
+            ChangeFeed.REPLICATING.set(Boolean.FALSE);
+        }
+    }
+
+    // the sequence the next write will get, a subscriber that starts here sees only new writes
+    public long nextSequence() {
+        return this.nextSequence.get();
+    }
+
+    // up to limit events from the given sequence on, in sequence order. stops early at a sequence that is
+    // claimed but not stored yet, so no event is ever skipped. a sequence that has been overwritten already,
+    // or one that was never handed out, sets missed and reading restarts at the oldest event still held
+    public Batch read(final long from, final int limit) {
+        final long published = this.nextSequence.get();
+        final long oldest = Math.max(1, published - this.capacity);
+
+        final boolean missed = from < oldest || from > published;
+        long next = missed ? oldest : from;
+        final List<ChangeEvent> events = new ArrayList<>(Math.min(limit, (int) Math.min(published - next, 1024)));
+        while (events.size() < limit && next < published) {
+            final ChangeEvent event = this.ring.get((int) (next & this.mask));
+            // an older or no event is a write still in progress, a newer one means the ring lapped this reader,
+            // which the next read reports as missed
+            if (event == null || event.getSequence() != next) {
+                break;
+            }
+            events.add(event);
+            next++;
+        }
+
+        return new Batch(events, next, missed);
+    }
+
+    private void publish(final ChangeEvent.ChangeEventBuilder event) {
+        final long sequence = this.nextSequence.getAndIncrement();
+        // a writer that claimed this slot a lap later may have stored already, its event stays
+        this.ring.accumulateAndGet((int) (sequence & this.mask), event.sequence(sequence).build(),
+                        (stored, published) -> stored == null || stored.getSequence() < published.getSequence()
+                                        ? published : stored);
+    }
+
+    // next is the sequence to read from next time, missed is set if events were lost before the first one
+    public record Batch(List<ChangeEvent> events, long next, boolean missed) {
+    }
+}
@@ -0,0 +1,185 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import guru.springframework.spring6restmvc.model.ChangeSet;
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.VersionedEntity;
+
+// which entities were written after a given point, kept in step by listening to every write so a sync costs
+// O(changes) whatever the size of the store. every write takes the next value of a clock that never runs
+// behind wall time in microseconds, so a timestamp maps onto a sequence. only the latest write of an entity is
+// indexed, a delete leaves a tombstone until it is older than the retention. the index starts empty when the
+// service starts, a client asking from before that gets a reset with the whole store, one page at a time
+class ChangeIndex<T extends VersionedEntity> implements EntityStoreListener<T> {
+
+    static final Duration                            TOMBSTONE_RETENTION = Duration.ofDays(7);
+
+    private final ConcurrentSkipListMap<Long, Entry> changes             = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong                         clock               = new AtomicLong();
+
+    // writes at or before it may be missing from the index
+    private volatile long                            horizon;
+
+    // latest sequence by id, for the entries in changes
+    private final ConcurrentMap<UUID, Long>          latest              = new ConcurrentHashMap<>();
+
+    private final VersionedStore<T>                  store;
+
+    private final Duration                           tombstoneRetention;
+
+    // the deletes among the changes, so purging them does not walk the live entries
+    private final ConcurrentSkipListMap<Long, UUID>  tombstones          = new ConcurrentSkipListMap<>();
+
+    ChangeIndex(final VersionedStore<T> store) {
+        this(store, ChangeIndex.TOMBSTONE_RETENTION);
+    }
+
+    ChangeIndex(final VersionedStore<T> store, final Duration tombstoneRetention) {
+        this.store = store;
+        this.tombstoneRetention = tombstoneRetention;
+        this.horizon = this.tick();
+    }
+
+    // a sequence from an earlier change set, or an ISO timestamp with or without offset for everything written at
+    // or after it. a timestamp without offset is in the zone of the server, like updatedDate
+    static long parseChangedSince(final String changedSince) {
+        try {
+            if (!changedSince.isEmpty() && changedSince.chars().allMatch(Character::isDigit)) {
+                return Long.parseLong(changedSince);
+            }
+            Instant instant;
+            try {
+                instant = OffsetDateTime.parse(changedSince).toInstant();
+            } catch (final DateTimeParseException e) {
+                instant = LocalDateTime.parse(changedSince).atZone(ZoneId.systemDefault()).toInstant();
+            }
+
+            return ChangeIndex.micros(instant) - 1;
+        } catch (final DateTimeException | ArithmeticException | NumberFormatException e) {
+            throw new InvalidChangedSinceException("Invalid changedSince " + changedSince, e);
+        }
+    }
+
+    // the entries are read after every write numbered up to the returned sequence has finished, an entity that
+    // changes again meanwhile is returned as it is now and once more in the next set. a cursor continues a reset,
+    // pageSize is the number of entities on each page of one and up to PageCursor.MAX_PAGE_SIZE if null
+    ChangeSet<T> changesSince(final long since, final String cursor, final Integer pageSize) {
+        final int resetPageSize = PageCursor.clampPageSize(pageSize == null ? PageCursor.MAX_PAGE_SIZE : pageSize);
+        final long sequence = this.clock.get();
+        this.store.awaitWritesInFlight();
+        this.purgeTombstones();
+
+        if (cursor != null && since >= this.horizon) {
+            // every page of a reset has the sequence of its first, everything written after that comes in the
+            // change set asked for with it once the reset is complete
+            return this.reset(since, cursor, resetPageSize);
+        }
+        if (since > sequence) {
+            // asked from ahead of the clock, nothing to report up to there yet
+            return ChangeSet.<T> builder().changed(List.of()).deleted(List.of()).sequence(since).build();
+        }
+        if (since < this.horizon) {
+            // also a reset that took so long the deletes since it started are no longer known, it starts over
+            return this.reset(sequence, null, resetPageSize);
+        }
+
+        final List<T> changed = new ArrayList<>();
+        final List<UUID> deleted = new ArrayList<>();
+        for (final Entry entry : this.changes.subMap(since, false, sequence, true).values()) {
+            final T current = entry.deleted() ? null : this.store.get(entry.id());
+            if (current == null) {
+                deleted.add(entry.id());
+            } else {
+                changed.add(current);
+            }
+        }
+
+        // a tombstone purged while walking may have been missed
+        if (since < this.horizon) {
+            return this.reset(sequence, null, resetPageSize);
+        }
+
+        return ChangeSet.<T> builder().changed(changed).deleted(deleted).sequence(sequence).build();
+    }
+
+    // calls for one id come one at a time, so its new entry is in before the one it replaces goes
+    @Override
+    public void onChange(final T previous, final T current) {
+        final UUID id = current == null ? previous.getId() : current.getId();
+        final long sequence = this.tick();
+
+        this.changes.put(sequence, new Entry(id, current == null));
+        if (current == null) {
+            this.tombstones.put(sequence, id);
+        }
+        final Long replaced = this.latest.put(id, sequence);
+        if (replaced != null) {
+            this.changes.remove(replaced);
+            this.tombstones.remove(replaced);
+        }
+
+        if (current == null) {
+            this.purgeTombstones();
+        }
+    }
+
+    private void purgeTombstones() {
+        final long cutoff = ChangeIndex.micros(Instant.now().minus(this.tombstoneRetention));
+
+        Map.Entry<Long, UUID> oldest;
+        while ((oldest = this.tombstones.firstEntry()) != null && oldest.getKey() < cutoff) {
+            // the horizon moves first, a reader that still finds the tombstone gone sees the new horizon
+            this.raiseHorizon(oldest.getKey());
+            if (this.tombstones.remove(oldest.getKey(), oldest.getValue())) {
+                this.changes.remove(oldest.getKey());
+                this.latest.remove(oldest.getValue(), oldest.getKey());
+            }
+        }
+    }
+
+    private synchronized void raiseHorizon(final long sequence) {
+        if (sequence > this.horizon) {
+            this.horizon = sequence;
+        }
+    }
+
+    // a page of every entity by id, the client replaces what it has with the pages up to the one without a
+    // nextCursor, then asks for what changed since the sequence
+    private ChangeSet<T> reset(final long sequence, final String cursor, final int pageSize) {
+        final CursorPage<T> page = this.store.page(cursor, pageSize);
+
+        return ChangeSet.<T> builder().changed(page.getContent()).deleted(List.of()).nextCursor(page.getNextCursor())
+                        .reset(true).sequence(sequence).build();
+    }
+
+    private long tick() {
+        final long now = ChangeIndex.micros(Instant.now());
+
+        return this.clock.updateAndGet(last -> Math.max(last + 1, now));
+    }
+
+    private static long micros(final Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1_000);
+    }
+
+    // id and whether the latest write of it was a delete
+    private record Entry(UUID id, boolean deleted) {
+    }
+}
@@ -0,0 +1,854 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.Tombstone;
+
+// beer store that keeps every field in a primitive column instead of an object graph per beer: the id as two
+// longs, the price as an unscaled long and a scale, quantity and version as ints, timestamps as epoch nanos and
+// the style as its ordinal. every beer owns one slot across all columns, Beer objects are only built for the
+// caller on the way out and never kept.
+// one lock guards all columns, readers share it and a writer takes it alone. with a journal every write is
+// durable before the call returns, the flush happens after the lock is released so writers share it.
+// every write of a slot takes the next commit number. while a snapshot is open the state a slot had before a write
+// is kept as a beer for the snapshots that may still read it, so a snapshot costs only the slots written while it
+// is open, never a copy of the columns
+public class ColumnarBeerStore implements VersionedStore<Beer> {
+
+    // beers per locked step of a walk in id order
+    private static final int                      BATCH_SIZE       = 256;
+
+    // scale of a price that does not fit a long, it is kept in bigPrices instead
+    private static final byte                     BIG_PRICE        = Byte.MIN_VALUE;
+
+    private static final int                      INITIAL_CAPACITY = 16;
+
+    private static final long                     NANOS_PER_SECOND = 1_000_000_000L;
+
+    private static final BeerStyle[]              STYLES           = BeerStyle.values();
+
+    // bits of the flags column, names and upcs are null references when absent
+    private static final int                      LIVE             = 1;
+
+    private static final int                      HAS_PRICE        = 2;
+
+    private static final int                      HAS_QUANTITY     = 4;
+
+    private static final int                      HAS_VERSION      = 8;
+
+    private static final int                      HAS_CREATED      = 16;
+
+    private static final int                      HAS_UPDATED      = 32;
+
+    // null keeps the store in memory only
+    private final EntityStoreJournal<Beer>        journal;
+
+    private final List<EntityStoreListener<Beer>> listeners        = new CopyOnWriteArrayList<>();
+
+    private final StampedLock                     lock             = new StampedLock();
+
+    // open snapshots by the commit they were registered at, with how many were registered there
+    private final NavigableMap<Long, Integer>     readers          = new ConcurrentSkipListMap<>();
+
+    private volatile long                         modificationCount;
+
+    // guarded by lock from here on
+    private long[]                                mostBits         = new long[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private long[]                                leastBits        = new long[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private byte[]                                flags            = new byte[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private String[]                              names            = new String[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private byte[]                                styles           = new byte[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private String[]                              upcs             = new String[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private long[]                                prices           = new long[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private byte[]                                priceScales      = new byte[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private int[]                                 quantities       = new int[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private int[]                                 versions         = new int[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private long[]                                createdNanos     = new long[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private long[]                                updatedNanos     = new long[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    // the commit of the last write of each slot, 0 for one never written
+    private long[]                                commits          = new long[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private long                                  commitClock;
+
+    // the earlier states of the slots written while a snapshot was open, newest first, as far back as the
+    // oldest open snapshot reads
+    private final Map<Integer, Retained>          retained         = new HashMap<>();
+
+    // prices with more than 63 bits of unscaled value, by slot
+    private final Map<Integer, BigDecimal>        bigPrices        = new HashMap<>();
+
+    // open addressing from id to slot + 1, 0 is empty. at most half full, the keys live in the id columns
+    private int[]                                 table            = new int[2 * ColumnarBeerStore.INITIAL_CAPACITY];
+
+    // ids in a stable order for keyset pagination
+    private final SortedUuids                     orderedIds       = new SortedUuids();
+
+    // by id, written with the write lock held and read without it. kept for as long as the store lives
+    private final Map<UUID, Tombstone>            tombstones       = new ConcurrentHashMap<>();
+
+    // slots freed by deletes are handed out again before the columns grow
+    private int[]                                 freeSlots        = new int[ColumnarBeerStore.INITIAL_CAPACITY];
+
+    private int                                   freeCount;
+
+    // slots ever handed out, the live ones are below this
+    private int                                   slotCount;
+
+    private int                                   size;
+
+    // constructor
+    public ColumnarBeerStore() {
+        this(null);
+    }
+
+    public ColumnarBeerStore(final EntityStoreJournal<Beer> journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public void addListener(final EntityStoreListener<Beer> listener) {
+        this.listeners.add(listener);
+    }
+
+    // every write holds the lock until it is visible, so getting the lock once is enough
+    @Override
+    public void awaitWritesInFlight() {
+        this.lock.unlockWrite(this.lock.writeLock());
+    }
+
+    @Override
+    public boolean applyReplicated(final UUID id, final Beer current, final Tombstone deleted) {
+        final long stamp = this.lock.writeLock();
+        try {
+            final int slot = this.slotOf(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            final Beer previous = slot < 0 ? null : this.read(slot);
+            final Tombstone tombstone = this.tombstones.get(id);
+            if (current == null && previous == null) {
+                // nothing to delete, the newer tombstone keeps older writes of the id from bringing it back
+                if (tombstone == null || deleted.supersedes(tombstone)) {
+                    this.tombstones.put(id, deleted);
+                }
+                return false;
+            }
+            if (current == null ? !deleted.supersedes(previous)
+                            : previous != null ? !VersionedStore.supersedes(current, previous)
+                                            : tombstone != null && !tombstone.supersededBy(current)) {
+                return false;
+            }
+            if (current == null) {
+                this.free(slot);
+                this.tombstones.put(id, deleted);
+            } else if (slot < 0) {
+                this.allocate(current);
+            } else {
+                this.write(slot, current);
+            }
+            this.recordChange(id, previous, current);
+            this.modificationCount++;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+        this.sync();
+
+        return true;
+    }
+
+    @Override
+    public Beer delete(final UUID id) {
+        final Beer current;
+        final long stamp = this.lock.writeLock();
+        try {
+            final int slot = this.slotOf(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (slot < 0) {
+                return null;
+            }
+            current = this.read(slot);
+            this.free(slot);
+            this.tombstones.put(id, Tombstone.of(current));
+            this.recordChange(id, current, null);
+            this.modificationCount++;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+        this.sync();
+
+        return current;
+    }
+
+    // scans the columns and builds only the beers that match, any argument may be null. the name prefix is
+    // matched ignoring case
+    public List<Beer> find(final BeerStyle beerStyle, final String upc, final String namePrefix) {
+        final byte style = beerStyle == null ? 0 : (byte) (beerStyle.ordinal() + 1);
+        final List<Beer> beers = new ArrayList<>();
+
+        final long stamp = this.lock.readLock();
+        try {
+            for (int slot = 0; slot < this.slotCount; slot++) {
+                // cheapest column first
+                if ((this.flags[slot] & ColumnarBeerStore.LIVE) == 0 || style != 0 && this.styles[slot] != style
+                                || upc != null && !upc.equals(this.upcs[slot])) {
+                    continue;
+                }
+                if (namePrefix != null && (this.names[slot] == null
+                                || !this.names[slot].regionMatches(true, 0, namePrefix, 0, namePrefix.length()))) {
+                    continue;
+                }
+                beers.add(this.read(slot));
+            }
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+
+        return beers;
+    }
+
+    @Override
+    public Beer get(final UUID id) {
+        final long stamp = this.lock.readLock();
+        try {
+            final int slot = this.slotOf(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            return slot < 0 ? null : this.read(slot);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Beer insert(final Beer entity) {
+        this.insertAll(List.of(entity));
+
+        return entity;
+    }
+
+    // the whole batch under one hold of the lock, so readers see it at once. keep batches small enough not to
+    // stall them
+    @Override
+    public void insertAll(final List<Beer> entities) {
+        final long stamp = this.lock.writeLock();
+        try {
+            for (final Beer entity : entities) {
+                final UUID id = entity.getId();
+                if (this.slotOf(id.getMostSignificantBits(), id.getLeastSignificantBits()) >= 0) {
+                    throw new ConflictException("Entity already exists: " + id);
+                }
+                this.allocate(entity);
+                this.recordChange(id, null, entity);
+                this.modificationCount++;
+            }
+        } finally {
+            this.lock.unlockWrite(stamp);
+            this.sync();
+        }
+    }
+
+    @Override
+    public void load(final List<Beer> loaded) {
+        final long stamp = this.lock.writeLock();
+        try {
+            if (this.size != 0) {
+                throw new IllegalStateException("Only an empty store can be loaded");
+            }
+            for (final Beer beer : loaded) {
+                this.allocate(beer);
+            }
+            for (final EntityStoreListener<Beer> listener : this.listeners) {
+                listener.onLoad(loaded);
+            }
+            this.modificationCount += loaded.size();
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long modificationCount() {
+        return this.modificationCount;
+    }
+
+    // seeks straight to the id after the cursor, so every page costs O(log n + pageSize)
+    @Override
+    public CursorPage<Beer> page(final String cursor, final Integer pageSize) {
+        final UUID after = PageCursor.decode(cursor);
+        final int limit = PageCursor.clampPageSize(pageSize);
+
+        // one more than asked for tells whether there is a next page
+        final List<Beer> content = this.readInIdOrder(after, limit + 1);
+        String nextCursor = null;
+        if (content.size() > limit) {
+            content.remove(limit);
+            nextCursor = PageCursor.encode(content.get(limit - 1).getId());
+        }
+
+        return CursorPage.<Beer>builder().content(content).nextCursor(nextCursor).pageSize(limit).build();
+    }
+
+    @Override
+    public void replay(final UUID id, final Beer current) {
+        final long stamp = this.lock.writeLock();
+        try {
+            final int slot = this.slotOf(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            final Beer previous = slot < 0 ? null : this.read(slot);
+            if (current == null) {
+                if (slot >= 0) {
+                    this.free(slot);
+                    this.tombstones.put(id, Tombstone.of(previous));
+                }
+            } else if (slot < 0) {
+                this.allocate(current);
+            } else {
+                this.write(slot, current);
+            }
+            this.fireChange(previous, current);
+            this.modificationCount++;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    // slots with earlier states kept for open snapshots
+    int retainedSlots() {
+        final long stamp = this.lock.readLock();
+        try {
+            return this.retained.size();
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    // slots ever handed out, what the columns hold whatever the size
+    int slotCount() {
+        final long stamp = this.lock.readLock();
+        try {
+            return this.slotCount;
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        final long stamp = this.lock.readLock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    // registers while holding the read lock, so no write is half done and every later one keeps what it
+    // overwrites. the beers are built slot by slot as the stream is read, close it to let go of the kept states
+    @Override
+    public Stream<Beer> snapshot() {
+        final long at;
+        final int slots;
+        final long stamp = this.lock.readLock();
+        try {
+            at = this.commitClock;
+            slots = this.slotCount;
+            this.readers.merge(at, 1, Integer::sum);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new SlotIterator(at, slots),
+                        Spliterator.NONNULL | Spliterator.ORDERED), false).onClose(() -> this.release(at));
+    }
+
+    @Override
+    public Stream<Tombstone> tombstones() {
+        return this.tombstones.values().stream();
+    }
+
+    // the change runs while the lock is held, so it is never lost to a concurrent writer
+    @Override
+    public Beer update(final UUID id, final Integer expectedVersion, final UnaryOperator<Beer> change) {
+        final Beer updated;
+        final long stamp = this.lock.writeLock();
+        try {
+            final int slot = this.slotOf(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (slot < 0) {
+                throw new NotFoundException("Entity not found: " + id);
+            }
+            final Beer current = this.read(slot);
+            if (expectedVersion != null && !expectedVersion.equals(current.getVersion())) {
+                throw new ConflictException("Expected version " + expectedVersion + " but was " + current.getVersion());
+            }
+
+            updated = change.apply(current);
+            updated.setVersion(current.getVersion() == null ? 1 : current.getVersion() + 1);
+            updated.setUpdatedDate(LocalDateTime.now());
+            this.write(slot, updated);
+            this.recordChange(id, current, updated);
+            this.modificationCount++;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+        this.sync();
+
+        return updated;
+    }
+
+    // walks the slots and builds one beer per step, holding the read lock only for that step
+    @Override
+    public Collection<Beer> values() {
+        return new AbstractCollection<>() {
+
+            @Override
+            public Iterator<Beer> iterator() {
+                return new SlotIterator(Long.MAX_VALUE, Integer.MAX_VALUE);
+            }
+
+            @Override
+            public int size() {
+                return ColumnarBeerStore.this.size();
+            }
+        };
+    }
+
+    // builds a batch of beers per locked step
+    @Override
+    public Iterable<Beer> valuesInIdOrder() {
+        return () -> new Iterator<>() {
+
+            private Iterator<Beer> batch = Collections.emptyIterator();
+
+            private UUID           after;
+
+            private boolean        exhausted;
+
+            @Override
+            public boolean hasNext() {
+                while (!this.batch.hasNext() && !this.exhausted) {
+                    final List<Beer> next = ColumnarBeerStore.this.readInIdOrder(this.after,
+                                    ColumnarBeerStore.BATCH_SIZE);
+                    this.exhausted = next.size() < ColumnarBeerStore.BATCH_SIZE;
+                    if (!next.isEmpty()) {
+                        this.after = next.get(next.size() - 1).getId();
+                    }
+                    this.batch = next.iterator();
+                }
+
+                return this.batch.hasNext();
+            }
+
+            @Override
+            public Beer next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return this.batch.next();
+            }
+        };
+    }
+
+    // called with the write lock held, takes a free slot or a new one at the end. the slot is only taken once
+    // the beer is written to it, a beer that cannot be stored leaves it free
+    private void allocate(final Beer beer) {
+        final boolean reused = this.freeCount > 0;
+        if (!reused && this.slotCount == this.flags.length) {
+            this.growColumns();
+        }
+        final int slot = reused ? this.freeSlots[this.freeCount - 1] : this.slotCount;
+
+        this.write(slot, beer);
+        if (reused) {
+            this.freeCount--;
+        } else {
+            this.slotCount++;
+        }
+        this.mostBits[slot] = beer.getId().getMostSignificantBits();
+        this.leastBits[slot] = beer.getId().getLeastSignificantBits();
+        if (2 * (this.size + 1) > this.table.length) {
+            this.rehash(2 * this.table.length);
+        }
+        this.addToTable(slot);
+        this.orderedIds.add(this.mostBits[slot], this.leastBits[slot]);
+        this.tombstones.remove(beer.getId());
+        this.size++;
+    }
+
+    private void addToTable(final int slot) {
+        final int mask = this.table.length - 1;
+        int index = ColumnarBeerStore.hash(this.mostBits[slot], this.leastBits[slot]) & mask;
+        while (this.table[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        this.table[index] = slot + 1;
+    }
+
+    private void free(final int slot) {
+        this.retain(slot);
+        this.removeFromTable(slot);
+        this.orderedIds.remove(this.mostBits[slot], this.leastBits[slot]);
+        if (this.priceScales[slot] == ColumnarBeerStore.BIG_PRICE) {
+            this.bigPrices.remove(slot);
+        }
+        // let go of the strings
+        this.flags[slot] = 0;
+        this.names[slot] = null;
+        this.upcs[slot] = null;
+
+        if (this.freeCount == this.freeSlots.length) {
+            this.freeSlots = Arrays.copyOf(this.freeSlots, 2 * this.freeSlots.length);
+        }
+        this.freeSlots[this.freeCount++] = slot;
+        this.size--;
+    }
+
+    private void growColumns() {
+        final int capacity = this.flags.length + (this.flags.length >> 1);
+        this.mostBits = Arrays.copyOf(this.mostBits, capacity);
+        this.leastBits = Arrays.copyOf(this.leastBits, capacity);
+        this.flags = Arrays.copyOf(this.flags, capacity);
+        this.names = Arrays.copyOf(this.names, capacity);
+        this.styles = Arrays.copyOf(this.styles, capacity);
+        this.upcs = Arrays.copyOf(this.upcs, capacity);
+        this.prices = Arrays.copyOf(this.prices, capacity);
+        this.priceScales = Arrays.copyOf(this.priceScales, capacity);
+        this.quantities = Arrays.copyOf(this.quantities, capacity);
+        this.versions = Arrays.copyOf(this.versions, capacity);
+        this.createdNanos = Arrays.copyOf(this.createdNanos, capacity);
+        this.updatedNanos = Arrays.copyOf(this.updatedNanos, capacity);
+        this.commits = Arrays.copyOf(this.commits, capacity);
+    }
+
+    // builds the beer in the slot, called with the lock held
+    private Beer read(final int slot) {
+        final int present = this.flags[slot];
+        final Beer.BeerBuilder beer = Beer.builder().id(new UUID(this.mostBits[slot], this.leastBits[slot]))
+                        .beerName(this.names[slot]).upc(this.upcs[slot]);
+
+        if (this.styles[slot] != 0) {
+            beer.beerStyle(ColumnarBeerStore.STYLES[this.styles[slot] - 1]);
+        }
+        if ((present & ColumnarBeerStore.HAS_PRICE) != 0) {
+            beer.price(this.priceScales[slot] == ColumnarBeerStore.BIG_PRICE ? this.bigPrices.get(slot)
+                            : BigDecimal.valueOf(this.prices[slot], this.priceScales[slot]));
+        }
+        if ((present & ColumnarBeerStore.HAS_QUANTITY) != 0) {
+            beer.quantityOnHand(this.quantities[slot]);
+        }
+        if ((present & ColumnarBeerStore.HAS_VERSION) != 0) {
+            beer.version(this.versions[slot]);
+        }
+        if ((present & ColumnarBeerStore.HAS_CREATED) != 0) {
+            beer.createdDate(ColumnarBeerStore.fromEpochNanos(this.createdNanos[slot]));
+        }
+        if ((present & ColumnarBeerStore.HAS_UPDATED) != 0) {
+            beer.updatedDate(ColumnarBeerStore.fromEpochNanos(this.updatedNanos[slot]));
+        }
+
+        return beer.build();
+    }
+
+    // the beer in the slot as a snapshot registered at the given commit sees it, null if there was none. called
+    // with the lock held
+    private Beer readAt(final int slot, final long at) {
+        if (this.commits[slot] <= at) {
+            return (this.flags[slot] & ColumnarBeerStore.LIVE) == 0 ? null : this.read(slot);
+        }
+        Retained state = this.retained.get(slot);
+        while (state != null && state.commit() > at) {
+            state = state.previous();
+        }
+
+        return state == null ? null : state.beer();
+    }
+
+    private List<Beer> readInIdOrder(final UUID after, final int limit) {
+        final List<Beer> beers = new ArrayList<>(Math.min(limit, ColumnarBeerStore.BATCH_SIZE));
+
+        final long stamp = this.lock.readLock();
+        try {
+            this.orderedIds.forEachAfter(after, (most, least) -> {
+                beers.add(this.read(this.slotOf(most, least)));
+                return beers.size() < limit;
+            });
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+
+        return beers;
+    }
+
+    // runs with the write lock held, which keeps journal records and listener calls in write order
+    private void recordChange(final UUID id, final Beer previous, final Beer current) {
+        if (this.journal != null) {
+            this.journal.append(id, current);
+        }
+        this.fireChange(previous, current);
+    }
+
+    private void fireChange(final Beer previous, final Beer current) {
+        if (previous == null && current == null) {
+            return;
+        }
+        for (final EntityStoreListener<Beer> listener : this.listeners) {
+            listener.onChange(previous, current);
+        }
+    }
+
+    // the last snapshot to close drops the states kept for them, unless a new one opened meanwhile
+    private void release(final long registeredAt) {
+        this.readers.computeIfPresent(registeredAt, (key, count) -> count == 1 ? null : count - 1);
+        if (!this.readers.isEmpty()) {
+            return;
+        }
+
+        final long stamp = this.lock.writeLock();
+        try {
+            if (this.readers.isEmpty()) {
+                this.retained.clear();
+            }
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    // runs with the write lock held, right before the slot changes. gives the slot the next commit and keeps its
+    // state until then for the open snapshots registered before it. a state is read by snapshots from its own
+    // commit up to the one that overwrote it, older ones are dropped once the oldest open snapshot is past them
+    private void retain(final int slot) {
+        final long written = this.commits[slot];
+        this.commits[slot] = ++this.commitClock;
+        final Map.Entry<Long, Integer> oldest = this.readers.firstEntry();
+        final Map.Entry<Long, Integer> newest = this.readers.lastEntry();
+        final Retained earlier = oldest == null ? null
+                        : ColumnarBeerStore.prune(this.retained.get(slot), written, oldest.getKey());
+        // a snapshot that finds no state sees the slot free, so a free one is kept only in front of older ones
+        final Beer beer = newest == null || newest.getKey() < written
+                        || (this.flags[slot] & ColumnarBeerStore.LIVE) == 0 ? null : this.read(slot);
+        if (beer == null && earlier == null) {
+            this.retained.remove(slot);
+        } else {
+            this.retained.put(slot, new Retained(beer, written, earlier));
+        }
+    }
+
+    private void rehash(final int capacity) {
+        this.table = new int[capacity];
+        for (int slot = 0; slot < this.slotCount; slot++) {
+            if ((this.flags[slot] & ColumnarBeerStore.LIVE) != 0) {
+                this.addToTable(slot);
+            }
+        }
+    }
+
+    // linear probing without tombstones: later entries of the probe run move back into the gap, so a lookup
+    // never stops early
+    private void removeFromTable(final int slot) {
+        final int mask = this.table.length - 1;
+        int gap = ColumnarBeerStore.hash(this.mostBits[slot], this.leastBits[slot]) & mask;
+        while (this.table[gap] != slot + 1) {
+            gap = (gap + 1) & mask;
+        }
+        this.table[gap] = 0;
+
+        for (int index = (gap + 1) & mask; this.table[index] != 0; index = (index + 1) & mask) {
+            final int moved = this.table[index] - 1;
+            final int home = ColumnarBeerStore.hash(this.mostBits[moved], this.leastBits[moved]) & mask;
+            // movable if the gap lies between its home and where it is now
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                this.table[gap] = this.table[index];
+                this.table[index] = 0;
+                gap = index;
+            }
+        }
+    }
+
+    // -1 if there is no beer with the id
+    private int slotOf(final long most, final long least) {
+        final int mask = this.table.length - 1;
+        for (int index = ColumnarBeerStore.hash(most, least) & mask;; index = (index + 1) & mask) {
+            final int slot = this.table[index] - 1;
+            if (slot < 0 || this.mostBits[slot] == most && this.leastBits[slot] == least) {
+                return slot;
+            }
+        }
+    }
+
+    // waits outside the lock, so concurrent writers share one flush of the journal
+    private void sync() {
+        if (this.journal != null) {
+            this.journal.sync();
+        }
+    }
+
+    // stores every field but the id. all values are converted before the first column changes, so one that
+    // does not fit leaves the slot as it was
+    private void write(final int slot, final Beer beer) {
+        final BigDecimal price = beer.getPrice();
+        final boolean bigPrice = price != null && (price.unscaledValue().bitLength() > 63
+                        || price.scale() <= ColumnarBeerStore.BIG_PRICE || price.scale() > Byte.MAX_VALUE);
+        final long created = beer.getCreatedDate() == null ? 0 : ColumnarBeerStore.toEpochNanos(beer.getCreatedDate());
+        final long updated = beer.getUpdatedDate() == null ? 0 : ColumnarBeerStore.toEpochNanos(beer.getUpdatedDate());
+
+        this.retain(slot);
+        if (this.priceScales[slot] == ColumnarBeerStore.BIG_PRICE) {
+            this.bigPrices.remove(slot);
+        }
+        if (price == null) {
+            this.priceScales[slot] = 0;
+        } else if (bigPrice) {
+            this.bigPrices.put(slot, price);
+            this.priceScales[slot] = ColumnarBeerStore.BIG_PRICE;
+        } else {
+            this.prices[slot] = price.unscaledValue().longValue();
+            this.priceScales[slot] = (byte) price.scale();
+        }
+
+        this.names[slot] = beer.getBeerName();
+        this.styles[slot] = beer.getBeerStyle() == null ? 0 : (byte) (beer.getBeerStyle().ordinal() + 1);
+        this.upcs[slot] = beer.getUpc();
+        this.quantities[slot] = beer.getQuantityOnHand() == null ? 0 : beer.getQuantityOnHand();
+        this.versions[slot] = beer.getVersion() == null ? 0 : beer.getVersion();
+        this.createdNanos[slot] = created;
+        this.updatedNanos[slot] = updated;
+        this.flags[slot] = (byte) (ColumnarBeerStore.LIVE | (price == null ? 0 : ColumnarBeerStore.HAS_PRICE)
+                        | (beer.getQuantityOnHand() == null ? 0 : ColumnarBeerStore.HAS_QUANTITY)
+                        | (beer.getVersion() == null ? 0 : ColumnarBeerStore.HAS_VERSION)
+                        | (beer.getCreatedDate() == null ? 0 : ColumnarBeerStore.HAS_CREATED)
+                        | (beer.getUpdatedDate() == null ? 0 : ColumnarBeerStore.HAS_UPDATED));
+    }
+
+    // the states from state on that a snapshot registered at oldest or later may read, state was overwritten at
+    // supersededAt. a state is read by snapshots from its own commit up to the one that overwrote it
+    private static Retained prune(final Retained state, final long supersededAt, final long oldest) {
+        final List<Retained> kept = new ArrayList<>();
+        long overwrittenAt = supersededAt;
+        for (Retained earlier = state; earlier != null && overwrittenAt > oldest; earlier = earlier.previous()) {
+            kept.add(earlier);
+            overwrittenAt = earlier.commit();
+        }
+        if (kept.isEmpty()) {
+            return null;
+        }
+        if (kept.get(kept.size() - 1).previous() == null) {
+            return state;
+        }
+
+        // copies the ones kept, the states in the chain are shared with snapshots reading it
+        Retained rebuilt = null;
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            rebuilt = new Retained(kept.get(i).beer(), kept.get(i).commit(), rebuilt);
+        }
+
+        return rebuilt;
+    }
+
+    private static LocalDateTime fromEpochNanos(final long nanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, ColumnarBeerStore.NANOS_PER_SECOND),
+                        (int) Math.floorMod(nanos, ColumnarBeerStore.NANOS_PER_SECOND), ZoneOffset.UTC);
+    }
+
+    // random ids are well spread already, the multiply only guards against ids that are not
+    private static int hash(final long most, final long least) {
+        final long mixed = (most ^ least) * 0x9E3779B97F4A7C15L;
+
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    // a long of nanos covers the years 1677 to 2262
+    private static long toEpochNanos(final LocalDateTime dateTime) {
+        try {
+            return Math.addExact(Math.multiplyExact(dateTime.toEpochSecond(ZoneOffset.UTC),
+                            ColumnarBeerStore.NANOS_PER_SECOND), dateTime.getNano());
+        } catch (final ArithmeticException e) {
+            throw new IllegalArgumentException("Date out of range: " + dateTime, e);
+        }
+    }
+
+    // walks the slots below end in order, as a snapshot registered at the given commit sees them. at
+    // Long.MAX_VALUE it reads what the slots hold now, a beer written behind the iterator after it started is not
+    // seen
+    private final class SlotIterator implements Iterator<Beer> {
+
+        private final long at;
+
+        private final int  end;
+
+        private Beer       next;
+
+        private int        slot;
+
+        SlotIterator(final long at, final int end) {
+            this.at = at;
+            this.end = end;
+            this.advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public Beer next() {
+            if (this.next == null) {
+                throw new NoSuchElementException();
+            }
+            final Beer current = this.next;
+            this.advance();
+
+            return current;
+        }
+
+        private void advance() {
+            this.next = null;
+            final long stamp = ColumnarBeerStore.this.lock.readLock();
+            try {
+                final int slots = Math.min(this.end, ColumnarBeerStore.this.slotCount);
+                while (this.next == null && this.slot < slots) {
+                    this.next = ColumnarBeerStore.this.readAt(this.slot, this.at);
+                    this.slot++;
+                }
+            } finally {
+                ColumnarBeerStore.this.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    // the state of a slot from its commit on, beer is null for a free one
+    private record Retained(Beer beer, long commit, Retained previous) {
+    }
+}
@@ -0,0 +1,17 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// thrown when a write was based on a stale version of the entity
+@ResponseStatus(value = HttpStatus.CONFLICT, reason = "Version Conflict")
+public class ConflictException extends RuntimeException {
+
+    public ConflictException() {
+    }
+
+    public ConflictException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,162 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// reads rfc 4180 csv from a channel one record at a time, through one fixed buffer, so memory stays the same
+// whatever the size of the input. fields may be quoted, with "" for a quote and line breaks inside the quotes,
+// records end with LF or CRLF. utf-8 only, the delimiters are ascii and never part of a multi byte character so
+// the bytes are split before decoding. lenient like most readers: a quote inside an unquoted field and text after
+// a closing quote are kept as they are
+final class CsvReader implements Closeable {
+
+    static final int                  BUFFER_SIZE      = 1 << 16;
+
+    // a longer field or a record with more fields fails the whole input, an unclosed quote would otherwise
+    // gather the rest of the file into one field
+    static final int                  MAX_FIELD_LENGTH = 1 << 16;
+
+    static final int                  MAX_FIELDS       = 1024;
+
+    private final ByteBuffer          buffer           = ByteBuffer.allocate(CsvReader.BUFFER_SIZE);
+
+    private final byte[]              bytes            = this.buffer.array();
+
+    private final ReadableByteChannel channel;
+
+    private boolean                   endOfInput;
+
+    // the field being read, decoded once it is complete
+    private byte[]                    field            = new byte[256];
+
+    private int                       fieldLength;
+
+    private final List<String>        fields           = new ArrayList<>();
+
+    // of the next byte, and where the last record returned started
+    private long                      line             = 1;
+
+    // end of the bytes read into the buffer
+    private int                       limit;
+
+    // of the next byte in the buffer
+    private int                       position;
+
+    private long                      recordLine;
+
+    private boolean                   started;
+
+    CsvReader(final ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    // the fields of the next record, empty ones as empty strings, or null at the end of the input. the list is
+    // reused by the next call
+    List<String> next() throws IOException {
+        this.fields.clear();
+        this.fieldLength = 0;
+        this.recordLine = this.line;
+
+        boolean quoted = false;
+        boolean empty = true;
+        while (true) {
+            if (this.position == this.limit && !this.fill()) {
+                if (empty) {
+                    return null;
+                }
+                this.endField();
+                return this.fields;
+            }
+            final byte b = this.bytes[this.position++];
+            empty = false;
+
+            if (quoted) {
+                if (b != '"') {
+                    if (b == '\n') {
+                        this.line++;
+                    }
+                    this.append(b);
+                } else if ((this.position < this.limit || this.fill()) && this.bytes[this.position] == '"') {
+                    // an escaped quote
+                    this.position++;
+                    this.append(b);
+                } else {
+                    quoted = false;
+                }
+            } else if (b == ',') {
+                this.endField();
+            } else if (b == '\n') {
+                this.line++;
+                this.endField();
+                return this.fields;
+            } else if (b == '"' && this.fieldLength == 0) {
+                quoted = true;
+            } else if (b != '\r') {
+                this.append(b);
+            }
+        }
+    }
+
+    // line the last record returned started on, counting from 1
+    long recordLine() {
+        return this.recordLine;
+    }
+
+    private void append(final byte b) {
+        if (this.fieldLength == this.field.length) {
+            if (this.fieldLength == CsvReader.MAX_FIELD_LENGTH) {
+                throw new InvalidCsvException("Field longer than " + CsvReader.MAX_FIELD_LENGTH
+                                + " bytes in the record starting on line " + this.recordLine);
+            }
+            this.field = Arrays.copyOf(this.field, Math.min(2 * this.field.length,
+                            CsvReader.MAX_FIELD_LENGTH));
+        }
+        this.field[this.fieldLength++] = b;
+    }
+
+    private void endField() {
+        if (this.fields.size() == CsvReader.MAX_FIELDS) {
+            throw new InvalidCsvException("More than " + CsvReader.MAX_FIELDS + " fields in the record on line "
+                            + this.recordLine);
+        }
+        this.fields.add(new String(this.field, 0, this.fieldLength, StandardCharsets.UTF_8));
+        this.fieldLength = 0;
+    }
+
+    // refills the buffer once it is used up, false at the end of the input. skips a byte order mark at the start
+    private boolean fill() throws IOException {
+        if (this.endOfInput) {
+            return false;
+        }
+        this.buffer.clear();
+        int read;
+        do {
+            read = this.channel.read(this.buffer);
+        } while (read == 0 || read > 0 && !this.started && this.buffer.position() < 3);
+        this.endOfInput = read < 0;
+        this.position = 0;
+        this.limit = this.buffer.position();
+
+        if (!this.started) {
+            this.started = true;
+            if (this.limit >= 3 && this.bytes[0] == (byte) 0xEF && this.bytes[1] == (byte) 0xBB
+                            && this.bytes[2] == (byte) 0xBF) {
+                this.position = 3;
+            }
+        }
+
+        return this.position < this.limit;
+    }
+}
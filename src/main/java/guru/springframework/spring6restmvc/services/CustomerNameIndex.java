@@ -0,0 +1,544 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import guru.springframework.spring6restmvc.model.Customer;
+
+// trigram index over customer names for partial name search, kept in step by listening to every write.
+// every indexed name gets the next document number, so a posting list stays sorted just by appending to it.
+// a rename or delete leaves the old document dead, searches skip it and a compaction drops the dead documents
+// once they outnumber the live ones. searches take no lock, a posting list only ever grows at its end and a
+// search reads its size before its documents, so a writer never waits for one. writes of names take turns for
+// the few appends they make, a compaction builds a new generation of the index next to the one searches use
+class CustomerNameIndex implements EntityStoreListener<Customer> {
+
+    // queries are cut to this many characters, which bounds the posting lists a search walks
+    static final int                 MAX_QUERY_LENGTH = 64;
+
+    // shorter queries have no trigram
+    static final int                 MIN_QUERY_LENGTH = 2;
+
+    // dead documents tolerated before a compaction is considered at all
+    private static final int         MIN_COMPACTION   = 1024;
+
+    // share of the query trigrams a name must contain, below one so a name with a typo still matches
+    private static final double      MIN_COVERAGE     = 0.5;
+
+    // characters packed into a prefix
+    private static final int         PREFIX_LENGTH    = 4;
+
+    private static final Pattern     WHITESPACE       = Pattern.compile("\\s+");
+
+    // under writeLock, as is everything below that is not volatile
+    private int                      deadCount;
+
+    // live documents only
+    private final Map<UUID, Integer> documentOf       = new HashMap<>();
+
+    private volatile Generation      generation       = new Generation(16, new ConcurrentHashMap<>());
+
+    private final Object             writeLock        = new Object();
+
+    // lower case with single spaces, what both names and queries are indexed and compared as
+    static String normalize(final String name) {
+        return name == null ? null
+                        : CustomerNameIndex.WHITESPACE.matcher(name.strip()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void onLoad(final Collection<Customer> loaded) {
+        synchronized (this.writeLock) {
+            for (final Customer customer : loaded) {
+                this.add(customer.getId(), customer.getName());
+            }
+        }
+    }
+
+    @Override
+    public void onChange(final Customer previous, final Customer current) {
+        if (previous != null && current != null && Objects.equals(previous.getName(), current.getName())) {
+            return;
+        }
+
+        synchronized (this.writeLock) {
+            if (previous != null) {
+                this.kill(previous.getId());
+            }
+            if (current != null) {
+                this.add(current.getId(), current.getName());
+            }
+            final int documentCount = this.generation.count;
+            if (this.deadCount > CustomerNameIndex.MIN_COMPACTION && this.deadCount > documentCount / 2) {
+                this.compact();
+            }
+        }
+    }
+
+    // ids of the best matches, best first. exact names come before names starting with the query, then names with
+    // a word starting with it, then names containing it, then names sharing enough trigrams to be a near miss.
+    // within each group closer trigram similarity, which favours shorter names, comes first. names written while
+    // it runs may or may not be found
+    List<UUID> search(final String query, final int limit) {
+        String normalized = CustomerNameIndex.normalize(query);
+        if (normalized.length() > CustomerNameIndex.MAX_QUERY_LENGTH) {
+            normalized = normalized.substring(0, CustomerNameIndex.MAX_QUERY_LENGTH);
+        }
+        final Set<String> trigrams = CustomerNameIndex.queryTrigrams(normalized);
+        if (trigrams.isEmpty() || limit < 1) {
+            return List.of();
+        }
+
+        return new Search(this.generation, normalized, trigrams, limit).run();
+    }
+
+    // under writeLock. the name goes into the arrays before the count moves past it, and that before its document
+    // goes into the posting lists, so a search that finds the document also finds the name
+    private void add(final UUID id, final String name) {
+        final String normalized = CustomerNameIndex.normalize(name);
+        if (normalized == null || normalized.isEmpty()) {
+            return;
+        }
+
+        Generation current = this.generation;
+        final int document = current.count;
+        if (document == current.ids.length) {
+            current = current.grow(document + (document >> 1));
+            this.generation = current;
+        }
+        current.ids[document] = id;
+        current.lengths[document] = normalized.length();
+        current.names[document] = normalized;
+        current.prefixes[document] = CustomerNameIndex.prefix(normalized);
+        current.count = document + 1;
+        this.documentOf.put(id, document);
+
+        // padded so the start and end of the name have trigrams of their own
+        final String padded = " " + normalized + " ";
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            current.postings.computeIfAbsent(padded.substring(i, i + 3), trigram -> new Postings()).add(document);
+        }
+    }
+
+    // renumbers the live documents in their current order into a new generation, so every posting list stays
+    // sorted. searches still on the old one finish there
+    private void compact() {
+        final Generation old = this.generation;
+        final int[] renumbered = new int[old.count];
+        final Generation compacted = new Generation(Math.max(16, old.count - this.deadCount),
+                        new ConcurrentHashMap<>());
+        int live = 0;
+        for (int document = 0; document < old.count; document++) {
+            if (old.ids[document] == null) {
+                renumbered[document] = -1;
+                continue;
+            }
+            renumbered[document] = live;
+            compacted.ids[live] = old.ids[document];
+            compacted.lengths[live] = old.lengths[document];
+            compacted.names[live] = old.names[document];
+            compacted.prefixes[live] = old.prefixes[document];
+            this.documentOf.put(old.ids[document], live);
+            live++;
+        }
+        compacted.count = live;
+
+        for (final Map.Entry<String, Postings> entry : old.postings.entrySet()) {
+            final Postings list = entry.getValue().renumber(renumbered);
+            if (list != null) {
+                compacted.postings.put(entry.getKey(), list);
+            }
+        }
+        this.deadCount = 0;
+        this.generation = compacted;
+    }
+
+    // a search that has already read the name may still rank it
+    private void kill(final UUID id) {
+        final Integer document = this.documentOf.remove(id);
+        if (document != null) {
+            final Generation current = this.generation;
+            current.ids[document] = null;
+            current.names[document] = null;
+            this.deadCount++;
+        }
+    }
+
+    // the first PREFIX_LENGTH characters, 16 bits each with the first one highest, zero filled
+    private static long prefix(final String text) {
+        long prefix = 0;
+        for (int i = 0; i < CustomerNameIndex.PREFIX_LENGTH; i++) {
+            prefix = prefix << 16 | (i < text.length() ? text.charAt(i) : 0);
+        }
+
+        return prefix;
+    }
+
+    // the query is not padded, so it matches anywhere in a name. two characters only have the trigram of a word
+    // starting with them
+    private static Set<String> queryTrigrams(final String query) {
+        final Set<String> trigrams = new LinkedHashSet<>();
+        if (query.length() < CustomerNameIndex.MIN_QUERY_LENGTH) {
+            return trigrams;
+        }
+
+        final String padded = query.length() < 3 ? " " + query : query;
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+
+        return trigrams;
+    }
+
+    // the first position from the given one holding target or a larger document, size if there is none.
+    // gallops ahead before the binary search, the lists are usually far longer than the steps taken
+    private static int seek(final int[] documents, final int size, final int from, final int target) {
+        if (from == size || documents[from] >= target) {
+            return from;
+        }
+        int step = 1;
+        while (from + step < size && documents[from + step] < target) {
+            step <<= 1;
+        }
+        final int found = Arrays.binarySearch(documents, from + (step >> 1), Math.min(from + step, size), target);
+
+        return found >= 0 ? found : -found - 1;
+    }
+
+    // a document and its score for one search
+    private record Match(int document, double score) {
+    }
+
+    // the documents of a posting list up to the size a search read
+    private record Posted(int[] documents, int size) {
+    }
+
+    // the documents and posting lists one search reads, replaced as a whole when the arrays grow or a compaction
+    // renumbers the documents
+    private static final class Generation {
+
+        // documents numbered below it are completely written
+        private volatile int                          count;
+
+        // by document, null once dead
+        private final UUID[]                          ids;
+
+        // length and prefix of each name, by document. a search bounds the score of a document from these before
+        // it reads the name itself, which on a large index is a cache miss or two
+        private final int[]                           lengths;
+
+        // normalized, by document, null once dead
+        private final String[]                        names;
+
+        // shared with the generations the arrays grow into, not with a compacted one
+        private final ConcurrentMap<String, Postings> postings;
+
+        private final long[]                          prefixes;
+
+        Generation(final int capacity, final ConcurrentMap<String, Postings> postings) {
+            this.ids = new UUID[capacity];
+            this.lengths = new int[capacity];
+            this.names = new String[capacity];
+            this.postings = postings;
+            this.prefixes = new long[capacity];
+        }
+
+        Generation grow(final int capacity) {
+            final Generation grown = new Generation(capacity, this.postings);
+            System.arraycopy(this.ids, 0, grown.ids, 0, this.count);
+            System.arraycopy(this.lengths, 0, grown.lengths, 0, this.count);
+            System.arraycopy(this.names, 0, grown.names, 0, this.count);
+            System.arraycopy(this.prefixes, 0, grown.prefixes, 0, this.count);
+            grown.count = this.count;
+
+            return grown;
+        }
+    }
+
+    // documents holding one trigram, ascending. only the writer holding writeLock adds to it, and only past the
+    // size searches have read
+    private static final class Postings {
+
+        // a grown copy is published before the size that needs it
+        private volatile int[] documents = new int[4];
+
+        private volatile int   size;
+
+        // a name holding the trigram twice adds its document once
+        void add(final int document) {
+            final int current = this.size;
+            int[] list = this.documents;
+            if (current > 0 && list[current - 1] == document) {
+                return;
+            }
+            if (current == list.length) {
+                list = Arrays.copyOf(list, current * 2);
+                this.documents = list;
+            }
+            list[current] = document;
+            this.size = current + 1;
+        }
+
+        // a new list without the dead documents, renumbered holds -1 for them. null if none is left
+        Postings renumber(final int[] renumbered) {
+            final Postings renumberedList = new Postings();
+            for (int i = 0; i < this.size; i++) {
+                final int document = renumbered[this.documents[i]];
+                if (document >= 0) {
+                    renumberedList.add(document);
+                }
+            }
+
+            return renumberedList.size == 0 ? null : renumberedList;
+        }
+    }
+
+    // one search, on the generation current when it starts. walks the posting lists of the query trigrams together
+    // in document order, counting for each document how many of them hold it. once the best matches so far all
+    // contain the query only names holding every trigram can still get in, and the walk turns into an intersection
+    // that gallops over the rest
+    private static final class Search {
+
+        // ties go to the document indexed first, which keeps the ranking stable between calls
+        private final Comparator<Match>    better = Comparator.comparingDouble(Match::score).reversed()
+                        .thenComparingInt(Match::document);
+
+        // the worst of them on top
+        private final PriorityQueue<Match> best;
+
+        // posting lists of the query trigrams the index knows, shortest first
+        private final int[][]              documents;
+
+        // the arrays of the generation
+        private final UUID[]               ids;
+
+        private final int[]                lengths;
+
+        private final int                  limit;
+
+        private final int                  needed;
+
+        private final String[]             names;
+
+        private final int[]                positions;
+
+        private final long                 prefix;
+
+        private final long[]               prefixes;
+
+        // covers the part of a prefix the query fills
+        private final long                 prefixMask;
+
+        private final String               query;
+
+        private final int[]                sizes;
+
+        private final int                  trigramCount;
+
+        private final String               wordStart;
+
+        Search(final Generation generation, final String query, final Set<String> trigrams, final int limit) {
+            // the size of each list before its documents, then the count. a document a writer appended after the
+            // arrays grew into the next generation is past the count and left out
+            final List<Posted> lists = new ArrayList<>(trigrams.size());
+            for (final String trigram : trigrams) {
+                final Postings list = generation.postings.get(trigram);
+                if (list != null) {
+                    final int size = list.size;
+                    lists.add(new Posted(list.documents, size));
+                }
+            }
+            final int count = generation.count;
+            for (int i = 0; i < lists.size(); i++) {
+                final Posted list = lists.get(i);
+                if (list.size() > 0 && list.documents()[list.size() - 1] >= count) {
+                    lists.set(i, new Posted(list.documents(), CustomerNameIndex.seek(list.documents(), list.size(),
+                                    0, count)));
+                }
+            }
+            lists.sort(Comparator.comparingInt(Posted::size));
+
+            this.best = new PriorityQueue<>(limit + 1, this.better.reversed());
+            this.documents = new int[lists.size()][];
+            this.ids = generation.ids;
+            this.lengths = generation.lengths;
+            this.names = generation.names;
+            this.prefixes = generation.prefixes;
+            this.sizes = new int[lists.size()];
+            for (int i = 0; i < lists.size(); i++) {
+                this.documents[i] = lists.get(i).documents();
+                this.sizes[i] = lists.get(i).size();
+            }
+            this.limit = limit;
+            this.needed = Math.max(1, (int) Math.ceil(trigrams.size() * CustomerNameIndex.MIN_COVERAGE));
+            this.positions = new int[lists.size()];
+            this.prefix = CustomerNameIndex.prefix(query);
+            this.prefixMask = -1L << 16 * Math.max(0, CustomerNameIndex.PREFIX_LENGTH - query.length());
+            this.query = query;
+            this.trigramCount = trigrams.size();
+            this.wordStart = " " + query;
+        }
+
+        List<UUID> run() {
+            if (this.documents.length < this.needed) {
+                return List.of();
+            }
+
+            while (true) {
+                final boolean containingOnly = this.best.size() == this.limit && this.best.peek().score() >= 1;
+                if (containingOnly && this.documents.length < this.trigramCount) {
+                    break;
+                }
+                final long next = containingOnly ? this.nextInAll() : this.nextInAny();
+                if (next < 0) {
+                    break;
+                }
+                this.consider((int) (next >>> 32), (int) next);
+            }
+
+            final List<Match> ranked = new ArrayList<>(this.best);
+            ranked.sort(this.better);
+            final List<UUID> ids = new ArrayList<>(ranked.size());
+            for (final Match match : ranked) {
+                // dead since it was scored
+                final UUID id = this.ids[match.document()];
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+
+            return ids;
+        }
+
+        // the highest score the document can have, without reading its name. only a name holding every query
+        // trigram can contain the query, only one of the same length can equal it and only one with the same
+        // prefix can start with it
+        private double bound(final int document, final int shared) {
+            final int length = this.lengths[document];
+            final int group;
+            if (shared < this.trigramCount) {
+                group = 0;
+            } else if (length == this.query.length()) {
+                group = 4;
+            } else {
+                group = (this.prefixes[document] & this.prefixMask) == this.prefix ? 3 : 2;
+            }
+
+            return group + (double) shared / (this.trigramCount + length - shared);
+        }
+
+        // documents come in ascending order, so a later one never wins a tie
+        private void consider(final int document, final int shared) {
+            // read once, a writer may kill the document meanwhile
+            final String name = this.names[document];
+            if (shared < this.needed || name == null) {
+                return;
+            }
+            final boolean full = this.best.size() == this.limit;
+            if (full && this.bound(document, shared) <= this.best.peek().score()) {
+                return;
+            }
+            final double score = this.score(name, shared);
+            if (full && score <= this.best.peek().score()) {
+                return;
+            }
+
+            this.best.add(new Match(document, score));
+            if (this.best.size() > this.limit) {
+                this.best.poll();
+            }
+        }
+
+        // the next document held by every list as document << 32 | number of lists, -1 once a list runs out
+        private long nextInAll() {
+            int target = 0;
+            for (int i = 0; i < this.positions.length; i++) {
+                if (this.positions[i] == this.sizes[i]) {
+                    return -1;
+                }
+                target = Math.max(target, this.documents[i][this.positions[i]]);
+            }
+
+            boolean aligned = false;
+            while (!aligned) {
+                aligned = true;
+                for (int i = 0; i < this.positions.length; i++) {
+                    this.positions[i] = CustomerNameIndex.seek(this.documents[i], this.sizes[i], this.positions[i],
+                                    target);
+                    if (this.positions[i] == this.sizes[i]) {
+                        return -1;
+                    }
+                    if (this.documents[i][this.positions[i]] > target) {
+                        target = this.documents[i][this.positions[i]];
+                        aligned = false;
+                    }
+                }
+            }
+            for (int i = 0; i < this.positions.length; i++) {
+                this.positions[i]++;
+            }
+
+            return (long) target << 32 | this.positions.length;
+        }
+
+        // the smallest document left in any list as document << 32 | number of lists holding it, -1 once too few
+        // lists are left for a document to be held by enough of them
+        private long nextInAny() {
+            int smallest = Integer.MAX_VALUE;
+            int remaining = 0;
+            for (int i = 0; i < this.positions.length; i++) {
+                if (this.positions[i] < this.sizes[i]) {
+                    smallest = Math.min(smallest, this.documents[i][this.positions[i]]);
+                    remaining++;
+                }
+            }
+            if (remaining < this.needed) {
+                return -1;
+            }
+
+            int holding = 0;
+            for (int i = 0; i < this.positions.length; i++) {
+                if (this.positions[i] < this.sizes[i] && this.documents[i][this.positions[i]] == smallest) {
+                    this.positions[i]++;
+                    holding++;
+                }
+            }
+
+            return (long) smallest << 32 | holding;
+        }
+
+        // the group is the whole part, trigram similarity the fraction
+        private double score(final String name, final int shared) {
+            final int group;
+            if (name.equals(this.query)) {
+                group = 4;
+            } else if (name.startsWith(this.query)) {
+                group = 3;
+            } else if (name.contains(this.wordStart)) {
+                group = 2;
+            } else if (name.contains(this.query)) {
+                group = 1;
+            } else {
+                group = 0;
+            }
+
+            // a padded name of n characters has n trigrams
+            return group + (double) shared / (this.trigramCount + name.length() - shared);
+        }
+    }
+}
@@ -3,19 +3,52 @@ package guru.springframework.spring6restmvc.services;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
+import guru.springframework.spring6restmvc.model.ChangeSet;
 import guru.springframework.spring6restmvc.model.Customer;
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.Tombstone;
 
 public interface CustomerService {
+
+    // called for every write from now on, see EntityStoreListener
+    void addChangeListener(EntityStoreListener<Customer> listener);
+
+    // a write made on another node, customer is null for a delete and deleted set instead. see
+    // VersionedStore.applyReplicated
+    boolean applyReplicatedCustomer(UUID customerId, Customer customer, Tombstone deleted);
+
     void deleteCustomerById(UUID customerId);
 
     Customer getCustomerById(UUID customerId);
 
+    int getCustomerCount();
+
+    // changes on every write, cheap to read, used to tag whole list responses
+    long getModificationCount();
+
+    // customers inserted, updated or deleted after changedSince, see BeerService.listBeerChanges
+    ChangeSet<Customer> listCustomerChanges(String changedSince, String cursor, Integer pageSize);
+
+    // every customer as of one point in time, see BeerService.listBeers
     List<Customer> listCustomers();
 
+    CursorPage<Customer> listCustomers(String cursor, Integer pageSize);
+
     void patchCustomerById(UUID customerId, Customer customer);
 
     Customer saveNewCustomer(Customer customer);
 
+    // lazily walks one snapshot of the store, see BeerService.streamBeers. close it when done
+    Stream<Customer> streamCustomers();
+
+    // the tombstone of every customer deleted since the service started, see VersionedStore.tombstones
+    Stream<Tombstone> streamCustomerTombstones();
+
+    // customers whose name contains the query or comes close to it, best match first and at most limit of them.
+    // served from an index kept up to date on every write, so the cost does not grow with the number of customers
+    List<Customer> searchCustomers(String query, int limit);
+
     void updateCustomerById(UUID customerId, Customer customer);
 }
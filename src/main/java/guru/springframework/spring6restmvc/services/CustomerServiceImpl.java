@@ -3,23 +3,56 @@ package guru.springframework.spring6restmvc.services;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import guru.springframework.spring6restmvc.model.ChangeSet;
+import guru.springframework.spring6restmvc.model.CursorPage;
 import guru.springframework.spring6restmvc.model.Customer;
+import guru.springframework.spring6restmvc.model.Tombstone;
+import guru.springframework.spring6restmvc.persistence.CustomerSnapshotCodec;
+import guru.springframework.spring6restmvc.persistence.DataDirectory;
 
 @Service
 public class CustomerServiceImpl implements CustomerService {
 
-    private final Map<UUID, Customer> customerMap;
+    private final ChangeIndex<Customer> changeIndex;
 
-    // constructor
+    private final CustomerNameIndex     customerNameIndex = new CustomerNameIndex();
+
+    private final EntityStore<Customer> customerStore;
+
+    // constructor, in memory only
     public CustomerServiceImpl() {
-        this.customerMap = new HashMap<>();
+        this((DataDirectory) null);
+    }
+
+    // there is a data directory only with app.data.directory set
+    @Autowired
+    public CustomerServiceImpl(final ObjectProvider<DataDirectory> dataDirectory) {
+        this(dataDirectory.getIfAvailable());
+    }
+
+    // restores the store if there is a data directory, seeds only a store that has never been written
+    public CustomerServiceImpl(final DataDirectory dataDirectory) {
+        this.customerStore = new EntityStore<>(dataDirectory == null ? null : dataDirectory.journal("customer"));
+        this.customerStore.addListener(this.customerNameIndex);
+
+        if (dataDirectory != null) {
+            dataDirectory.restore("customer", Customer.class, new CustomerSnapshotCodec(), this.customerStore);
+        }
+        // after the restore, which would otherwise index every restored customer
+        this.changeIndex = new ChangeIndex<>(this.customerStore);
+        this.customerStore.addListener(this.changeIndex);
+        if (this.customerStore.modificationCount() > 0) {
+            return;
+        }
 
         final Customer customer1 = Customer.builder().id(UUID.randomUUID()).version(1).name("Tom")
                         .createdDate(LocalDateTime.now()).updatedDate(LocalDateTime.now()).build();
@@ -28,38 +61,77 @@ public class CustomerServiceImpl implements CustomerService {
         final Customer customer3 = Customer.builder().id(UUID.randomUUID()).version(1).name("May")
                         .createdDate(LocalDateTime.now()).updatedDate(LocalDateTime.now()).build();
 
-        this.customerMap.put(customer1.getId(), customer1);
-        this.customerMap.put(customer2.getId(), customer2);
-        this.customerMap.put(customer3.getId(), customer3);
+        this.customerStore.insert(customer1);
+        this.customerStore.insert(customer2);
+        this.customerStore.insert(customer3);
+    }
+
+    // listener
+    @Override
+    public void addChangeListener(final EntityStoreListener<Customer> listener) {
+        this.customerStore.addListener(listener);
+    }
+
+    // replication
+    @Override
+    public boolean applyReplicatedCustomer(final UUID customerId, final Customer customer, final Tombstone deleted) {
+        return this.customerStore.applyReplicated(customerId, customer, deleted);
     }
 
     // delete
     @Override
     public void deleteCustomerById(final UUID customerId) {
-        this.customerMap.remove(customerId);
+        this.customerStore.delete(customerId);
     }
 
     // get one
     @Override
     public Customer getCustomerById(final UUID customerId) {
-        return this.customerMap.get(customerId);
+        return this.customerStore.get(customerId);
+    }
+
+    // size of the store
+    @Override
+    public int getCustomerCount() {
+        return this.customerStore.size();
+    }
+
+    // store wide write counter
+    @Override
+    public long getModificationCount() {
+        return this.customerStore.modificationCount();
+    }
+
+    // delta sync
+    @Override
+    public ChangeSet<Customer> listCustomerChanges(final String changedSince, final String cursor, final Integer pageSize) {
+        return this.changeIndex.changesSince(ChangeIndex.parseChangedSince(changedSince), cursor, pageSize);
     }
 
     // get all
     @Override
     public List<Customer> listCustomers() {
-        return new ArrayList<>(this.customerMap.values());
+        try (Stream<Customer> customers = this.customerStore.snapshot()) {
+            return customers.collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    // get one page, keyset pagination
+    @Override
+    public CursorPage<Customer> listCustomers(final String cursor, final Integer pageSize) {
+        return this.customerStore.page(cursor, pageSize);
     }
 
     // patch
     @Override
     public void patchCustomerById(final UUID customerId, final Customer customer) {
-        final Customer exisitingCustomer = this.customerMap.get(customerId);
-
-        if (exisitingCustomer.getName() != null) {
-            exisitingCustomer.setName(customer.getName());
-        }
-
+        this.customerStore.update(customerId, customer.getVersion(), existingCustomer -> {
+            final Customer.CustomerBuilder patchedCustomer = existingCustomer.toBuilder();
+            if (customer.getName() != null) {
+                patchedCustomer.name(customer.getName());
+            }
+            return patchedCustomer.build();
+        });
     }
 
     // post
@@ -67,16 +139,43 @@ public class CustomerServiceImpl implements CustomerService {
     public Customer saveNewCustomer(final Customer customer) {
         final Customer newCustomer = Customer.builder().id(UUID.randomUUID()).version(1).name(customer.getName())
                         .createdDate(LocalDateTime.now()).updatedDate(LocalDateTime.now()).build();
-        this.customerMap.put(newCustomer.getId(), newCustomer);
+        this.customerStore.insert(newCustomer);
 
         return newCustomer;
     }
 
+    // ranked partial name search over the trigram index, the customers are read back from the store
+    @Override
+    public List<Customer> searchCustomers(final String query, final int limit) {
+        final List<Customer> customers = new ArrayList<>();
+        for (final UUID id : this.customerNameIndex.search(query, limit)) {
+            final Customer customer = this.customerStore.get(id);
+            // deleted since the search
+            if (customer != null) {
+                customers.add(customer);
+            }
+        }
+
+        return customers;
+    }
+
+    // stream all, as of one point in time
+    @Override
+    public Stream<Customer> streamCustomers() {
+        return this.customerStore.snapshot();
+    }
+
+    // deleted ones
+    @Override
+    public Stream<Tombstone> streamCustomerTombstones() {
+        return this.customerStore.tombstones();
+    }
+
     // put
     @Override
     public void updateCustomerById(final UUID customerId, final Customer customer) {
-        final Customer existingCustomer = this.customerMap.get(customerId);
-        existingCustomer.setName(customer.getName());
+        this.customerStore.update(customerId, customer.getVersion(),
+                        existingCustomer -> existingCustomer.toBuilder().name(customer.getName()).build());
     }
 
 }
@@ -0,0 +1,521 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.time.LocalDateTime;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.Tombstone;
+import guru.springframework.spring6restmvc.model.VersionedEntity;
+
+// thread safe in memory store, entities are never changed in place. every write builds a new copy
+// and swaps it in only if the stored instance is still the one the copy was made from.
+// with a journal every write is durable before the call returns.
+// every write takes the next commit number. while a snapshot is open the versions it may still read are kept
+// behind the current one and dropped by the next write of the id once no snapshot needs them, or all at once when
+// the last snapshot closes. a deleted entity leaves its tombstone, which replicated writes are ordered against.
+// tombstones are kept for as long as the store lives, a few dozen bytes per deleted id
+public class EntityStore<T extends VersionedEntity> implements VersionedStore<T> {
+
+    private final AtomicLong                           commitClock       = new AtomicLong();
+
+    // the latest version of each id, a tombstone for a deleted one
+    private final ConcurrentMap<UUID, Version<T>>      entities          = new ConcurrentHashMap<>();
+
+    // null keeps the store in memory only
+    private final EntityStoreJournal<T>                journal;
+
+    // ids in a stable order for keyset pagination, updates never change an id so only insert and delete touch it
+    private final ConcurrentSkipListSet<UUID>          orderedIds        = new ConcurrentSkipListSet<>();
+
+    private final List<EntityStoreListener<T>>         listeners         = new CopyOnWriteArrayList<>();
+
+    // bumped after every write has become visible, a reader that sees the same count twice saw the same store
+    private final AtomicLong                           modificationCount = new AtomicLong();
+
+    // open snapshots by the commit they were registered at, with how many were registered there
+    private final ConcurrentSkipListMap<Long, Integer> readers           = new ConcurrentSkipListMap<>();
+
+    // set when a write kept older versions for a snapshot, they are swept once the last snapshot closes
+    private volatile boolean                           retainedVersions;
+
+    // entities, not counting tombstones
+    private final AtomicInteger                        size              = new AtomicInteger();
+
+    // writers register with the current epoch until their write is published, see awaitWritesInFlight
+    private final AtomicLong                           writeEpoch        = new AtomicLong();
+
+    // writers in flight by the epoch they registered with, drained epochs are removed by awaitWritesInFlight
+    private final NavigableMap<Long, LongAdder>        activeWriters     = new ConcurrentSkipListMap<>();
+
+    // constructor
+    public EntityStore() {
+        this(null);
+    }
+
+    public EntityStore(final EntityStoreJournal<T> journal) {
+        this.journal = journal;
+    }
+
+    // register before the first write, earlier writes are not replayed
+    @Override
+    public void addListener(final EntityStoreListener<T> listener) {
+        this.listeners.add(listener);
+    }
+
+    // the decision and the write happen under the lock of the id's bin, so a local write cannot slip in between
+    @Override
+    public boolean applyReplicated(final UUID id, final T current, final Tombstone deleted) {
+        final boolean[] applied = { false };
+        final boolean[] previousPresent = { false };
+        final LongAdder writers = this.beginWrite();
+        try {
+            this.entities.compute(id, (key, value) -> {
+                final T previous = EntityStore.entity(value);
+                final Tombstone tombstone = EntityStore.tombstone(value);
+                if (current == null && previous == null) {
+                    // nothing to delete, the newer tombstone keeps older writes of the id from bringing it back
+                    return tombstone != null && !deleted.supersedes(tombstone) ? value
+                                    : this.publish(null, deleted, value);
+                }
+                if (current == null ? !deleted.supersedes(previous)
+                                : previous != null ? !VersionedStore.supersedes(current, previous)
+                                                : tombstone != null && !tombstone.supersededBy(current)) {
+                    return value;
+                }
+                this.recordChange(key, previous, current);
+                applied[0] = true;
+                previousPresent[0] = previous != null;
+                return this.publish(current, deleted, value);
+            });
+            if (applied[0]) {
+                if (current == null) {
+                    this.orderedIds.remove(id);
+                    this.size.decrementAndGet();
+                } else {
+                    this.orderedIds.add(id);
+                    if (!previousPresent[0]) {
+                        this.size.incrementAndGet();
+                    }
+                }
+                this.modificationCount.incrementAndGet();
+            }
+        } finally {
+            writers.decrement();
+        }
+        if (applied[0]) {
+            this.sync();
+        }
+
+        return applied[0];
+    }
+
+    // returns once every write that started before the call is visible to readers, later writes are not waited
+    // for. a checkpoint uses it to know that its snapshot sees everything the journal has before it.
+    // waits on every epoch up to the one it closes, not just the last: a writer registered before an earlier call
+    // moved the epoch on may still be in flight
+    @Override
+    public void awaitWritesInFlight() {
+        final long epoch = this.writeEpoch.getAndIncrement();
+        for (final Map.Entry<Long, LongAdder> writers : this.activeWriters.headMap(epoch, true).entrySet()) {
+            while (writers.getValue().sum() != 0) {
+                Thread.yield();
+            }
+            // a writer that registers here later sees the epoch moved on and leaves again
+            this.activeWriters.remove(writers.getKey(), writers.getValue());
+        }
+    }
+
+    // unconditional, returns the removed entity or null if there was none
+    @Override
+    public T delete(final UUID id) {
+        while (true) {
+            final T current = this.get(id);
+            if (current == null) {
+                return null;
+            }
+
+            final boolean[] deleted = { false };
+            final LongAdder writers = this.beginWrite();
+            try {
+                this.entities.computeIfPresent(id, (key, value) -> {
+                    if (value.entity() != current) {
+                        return value;
+                    }
+                    this.recordChange(id, current, null);
+                    deleted[0] = true;
+                    return this.publish(null, Tombstone.of(current), value);
+                });
+                if (deleted[0]) {
+                    this.orderedIds.remove(id);
+                    this.size.decrementAndGet();
+                    this.modificationCount.incrementAndGet();
+                }
+            } finally {
+                writers.decrement();
+            }
+            if (deleted[0]) {
+                this.sync();
+                return current;
+            }
+            // replaced in the meantime, delete the newer one
+        }
+    }
+
+    @Override
+    public T get(final UUID id) {
+        return EntityStore.entity(this.entities.get(id));
+    }
+
+    // stores a brand new entity, id and version are expected to be set already
+    @Override
+    public T insert(final T entity) {
+        this.insertUnsynced(entity);
+        this.sync();
+
+        return entity;
+    }
+
+    // each entity is its own write, readers may see part of the batch
+    @Override
+    public void insertAll(final List<T> entities) {
+        try {
+            for (final T entity : entities) {
+                this.insertUnsynced(entity);
+            }
+        } finally {
+            this.sync();
+        }
+    }
+
+    // fills an empty store without journaling, as a snapshot load does. entities in id order only ever append
+    // to the ordered ids and every listener gets them in one call, which is far cheaper than one write each
+    @Override
+    public void load(final List<T> loaded) {
+        if (!this.entities.isEmpty()) {
+            throw new IllegalStateException("Only an empty store can be loaded");
+        }
+
+        final long commit = this.commitClock.incrementAndGet();
+        for (final T entity : loaded) {
+            this.entities.put(entity.getId(), new Version<>(entity, null, commit, null));
+            this.orderedIds.add(entity.getId());
+        }
+        this.size.addAndGet(loaded.size());
+        for (final EntityStoreListener<T> listener : this.listeners) {
+            listener.onLoad(loaded);
+        }
+        this.modificationCount.addAndGet(loaded.size());
+    }
+
+    @Override
+    public long modificationCount() {
+        return this.modificationCount.get();
+    }
+
+    // seeks straight to the entry after the cursor, so every page costs O(log n + pageSize)
+    @Override
+    public CursorPage<T> page(final String cursor, final Integer pageSize) {
+        final UUID after = PageCursor.decode(cursor);
+        final int limit = PageCursor.clampPageSize(pageSize);
+        final NavigableSet<UUID> remaining = after == null ? this.orderedIds : this.orderedIds.tailSet(after, false);
+
+        final List<T> content = new ArrayList<>(Math.min(limit, this.size()));
+        String nextCursor = null;
+        for (final UUID id : remaining) {
+            if (content.size() == limit) {
+                nextCursor = PageCursor.encode(content.get(limit - 1).getId());
+                break;
+            }
+            // the id may have been deleted after we saw it in the index
+            final T entity = this.get(id);
+            if (entity != null) {
+                content.add(entity);
+            }
+        }
+
+        return CursorPage.<T>builder().content(content).nextCursor(nextCursor).pageSize(limit).build();
+    }
+
+    // applies a write read back from the journal, without journaling it again or touching its version
+    @Override
+    public void replay(final UUID id, final T current) {
+        final boolean[] previousPresent = { false };
+        this.entities.compute(id, (key, value) -> {
+            final T previous = EntityStore.entity(value);
+            this.fireChange(previous, current);
+            previousPresent[0] = previous != null;
+            return this.publish(current, current != null ? null
+                            : previous != null ? Tombstone.of(previous) : EntityStore.tombstone(value), value);
+        });
+        if (current == null) {
+            this.orderedIds.remove(id);
+        } else {
+            this.orderedIds.add(id);
+        }
+        this.size.addAndGet((current == null ? 0 : 1) - (previousPresent[0] ? 1 : 0));
+        this.modificationCount.incrementAndGet();
+    }
+
+    @Override
+    public int size() {
+        return this.size.get();
+    }
+
+    // registers before it reads the clock, so a writer that did not see the registration took a commit the
+    // snapshot includes. writes that took one but are not stored yet are waited for, later ones never wait
+    @Override
+    public Stream<T> snapshot() {
+        final long registeredAt = this.commitClock.get();
+        this.readers.merge(registeredAt, 1, Integer::sum);
+        final long at = this.commitClock.get();
+        this.awaitWritesInFlight();
+
+        return this.entities.values().stream().map(version -> EntityStore.visible(version, at))
+                        .filter(Objects::nonNull).onClose(() -> this.release(registeredAt));
+    }
+
+    @Override
+    public Stream<Tombstone> tombstones() {
+        return this.entities.values().stream().map(Version::deleted).filter(Objects::nonNull);
+    }
+
+    // expectedVersion is the version the client last saw, null skips the check. without one a write that lands
+    // in between is not a conflict, the change is applied again on top of it as delete does
+    @Override
+    public T update(final UUID id, final Integer expectedVersion, final UnaryOperator<T> change) {
+        while (true) {
+            final T current = this.get(id);
+
+            if (current == null) {
+                throw new NotFoundException("Entity not found: " + id);
+            }
+            if (expectedVersion != null && !expectedVersion.equals(current.getVersion())) {
+                throw new ConflictException("Expected version " + expectedVersion + " but was "
+                                + current.getVersion());
+            }
+
+            // change must return a new instance, the current one may be read by other threads
+            final T updated = change.apply(current);
+            updated.setVersion(EntityStore.nextVersion(current.getVersion()));
+            updated.setUpdatedDate(LocalDateTime.now());
+
+            // compare and swap on the stored instance, only the bin of this id is locked
+            final boolean[] swapped = { false };
+            final LongAdder writers = this.beginWrite();
+            try {
+                this.entities.computeIfPresent(id, (key, value) -> {
+                    if (value.entity() != current) {
+                        return value;
+                    }
+                    this.recordChange(id, current, updated);
+                    swapped[0] = true;
+                    return this.publish(updated, null, value);
+                });
+                if (swapped[0]) {
+                    this.modificationCount.incrementAndGet();
+                }
+            } finally {
+                writers.decrement();
+            }
+            if (swapped[0]) {
+                this.sync();
+                return updated;
+            }
+            if (expectedVersion != null) {
+                throw new ConflictException("Concurrent update of " + id);
+            }
+            // replaced in the meantime, change the newer one
+        }
+    }
+
+    // weakly consistent view, never throws ConcurrentModificationException
+    @Override
+    public Collection<T> values() {
+        return new AbstractCollection<>() {
+
+            @Override
+            public Iterator<T> iterator() {
+                return EntityStore.this.entities.values().stream().map(Version::entity).filter(Objects::nonNull)
+                                .iterator();
+            }
+
+            @Override
+            public int size() {
+                return EntityStore.this.size();
+            }
+        };
+    }
+
+    // weakly consistent too, in id order. loading entities in this order only ever appends to the ordered ids,
+    // which is several times cheaper than inserting at random places
+    @Override
+    public Iterable<T> valuesInIdOrder() {
+        return () -> this.orderedIds.stream().map(this::get).filter(Objects::nonNull).iterator();
+    }
+
+    private void insertUnsynced(final T entity) {
+        final LongAdder writers = this.beginWrite();
+        try {
+            this.entities.compute(entity.getId(), (key, value) -> {
+                if (EntityStore.entity(value) != null) {
+                    throw new ConflictException("Entity already exists: " + key);
+                }
+                this.recordChange(key, null, entity);
+                return this.publish(entity, null, value);
+            });
+            this.orderedIds.add(entity.getId());
+            this.size.incrementAndGet();
+            this.modificationCount.incrementAndGet();
+        } finally {
+            writers.decrement();
+        }
+    }
+
+    // the new latest version of an id, a tombstone if deleted is set. runs while the bin of the id is locked, so
+    // the commits of one id increase along its versions. the older ones are kept only as far back as the oldest
+    // open snapshot reads
+    private Version<T> publish(final T entity, final Tombstone deleted, final Version<T> previous) {
+        final long commit = this.commitClock.incrementAndGet();
+        final Map.Entry<Long, Integer> oldest = this.readers.firstEntry();
+        final Version<T> retained = oldest == null ? null : EntityStore.retained(previous, commit, oldest.getKey());
+        if (retained != null) {
+            this.retainedVersions = true;
+        }
+
+        return new Version<>(entity, deleted, commit, retained);
+    }
+
+    // the last snapshot to close drops the versions kept for them, unless a new one opened meanwhile
+    private void release(final long registeredAt) {
+        this.readers.computeIfPresent(registeredAt, (key, count) -> count == 1 ? null : count - 1);
+        if (!this.readers.isEmpty() || !this.retainedVersions) {
+            return;
+        }
+
+        this.retainedVersions = false;
+        for (final Map.Entry<UUID, Version<T>> entry : this.entities.entrySet()) {
+            final Version<T> version = entry.getValue();
+            if (version.previous() == null) {
+                continue;
+            }
+            this.entities.computeIfPresent(entry.getKey(), (key, value) -> {
+                if (!this.readers.isEmpty()) {
+                    this.retainedVersions = true;
+                    return value;
+                }
+                return new Version<>(value.entity(), value.deleted(), value.commit(), null);
+            });
+        }
+    }
+
+    // runs while the bin of the id is locked, which keeps journal records and listener calls for one id in write order
+    private void recordChange(final UUID id, final T previous, final T current) {
+        if (this.journal != null) {
+            this.journal.append(id, current);
+        }
+        this.fireChange(previous, current);
+    }
+
+    private void fireChange(final T previous, final T current) {
+        if (previous == null && current == null) {
+            return;
+        }
+        for (final EntityStoreListener<T> listener : this.listeners) {
+            listener.onChange(previous, current);
+        }
+    }
+
+    // registers in the current epoch, retries if the epoch moved on before the registration became visible
+    private LongAdder beginWrite() {
+        while (true) {
+            final long epoch = this.writeEpoch.get();
+            LongAdder writers = this.activeWriters.get(epoch);
+            if (writers == null) {
+                writers = this.activeWriters.computeIfAbsent(epoch, key -> new LongAdder());
+            }
+            writers.increment();
+            if (this.writeEpoch.get() == epoch) {
+                return writers;
+            }
+            writers.decrement();
+        }
+    }
+
+    // waits outside the bin lock, so concurrent writers share one flush of the journal
+    private void sync() {
+        if (this.journal != null) {
+            this.journal.sync();
+        }
+    }
+
+    private static <T> T entity(final Version<T> version) {
+        return version == null ? null : version.entity();
+    }
+
+    private static Tombstone tombstone(final Version<?> version) {
+        return version == null ? null : version.deleted();
+    }
+
+    private static int nextVersion(final Integer version) {
+        return version == null ? 1 : version + 1;
+    }
+
+    // the versions from previous on a snapshot registered at oldest or later may read. a version is read by
+    // snapshots from its own commit up to the one that superseded it, previous was superseded at commit
+    private static <T> Version<T> retained(final Version<T> previous, final long commit, final long oldest) {
+        final List<Version<T>> kept = new ArrayList<>();
+        long supersededAt = commit;
+        for (Version<T> version = previous; version != null && supersededAt > oldest; version = version.previous()) {
+            kept.add(version);
+            supersededAt = version.commit();
+        }
+        if (kept.isEmpty()) {
+            return null;
+        }
+        if (kept.get(kept.size() - 1).previous() == null) {
+            return previous;
+        }
+
+        // copies the ones kept, the versions in the chain are shared with snapshots reading it
+        Version<T> rebuilt = null;
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            rebuilt = new Version<>(kept.get(i).entity(), kept.get(i).deleted(), kept.get(i).commit(), rebuilt);
+        }
+
+        return rebuilt;
+    }
+
+    // the entity a snapshot at the given commit sees, null if the id was missing or deleted then
+    private static <T> T visible(final Version<T> latest, final long at) {
+        Version<T> version = latest;
+        while (version != null && version.commit() > at) {
+            version = version.previous();
+        }
+
+        return EntityStore.entity(version);
+    }
+
+    // entity is null for a deleted id and deleted its tombstone
+    private record Version<T>(T entity, Tombstone deleted, long commit, Version<T> previous) {
+    }
+}
@@ -0,0 +1,15 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.UUID;
+
+// durable record of the writes to an EntityStore, see WriteAheadLog
+public interface EntityStoreJournal<T> {
+
+    // called while the store holds the lock of the id, which keeps the records of one id in write order.
+    // current is null for a delete
+    void append(UUID id, T current);
+
+    // blocks until everything appended before the call is durable
+    void sync();
+}
@@ -0,0 +1,19 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.Collection;
+
+// called for every write to an EntityStore. previous is null for an insert, current is null for a delete.
+// calls for the same id are made one at a time in write order, so listeners must be quick and must not
+// call back into the store
+public interface EntityStoreListener<T> {
+
+    // a bulk load into an empty store, listeners that can build their state faster in one go override this
+    default void onLoad(final Collection<T> loaded) {
+        for (final T entity : loaded) {
+            this.onChange(null, entity);
+        }
+    }
+
+    void onChange(T previous, T current);
+}
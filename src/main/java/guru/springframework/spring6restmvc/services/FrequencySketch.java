@@ -0,0 +1,82 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+// approximate access counts for TinyLfuCache, a count-min sketch of 4 bit counters, 16 to a long. a key counts in
+// four counters picked by differently seeded hashes and its frequency is the smallest of them, so collisions only
+// ever overestimate. once there have been ten increments per cached entry every counter is halved, which ages out
+// keys that were popular a while ago. not thread safe, the cache calls it under its lock
+final class FrequencySketch {
+
+    // per entry the cache holds, a few megabytes for a million entries
+    static final int            SAMPLE_FACTOR = 10;
+
+    private static final long   RESET_MASK    = 0x7777_7777_7777_7777L;
+
+    private static final long[] SEEDS         = { 0xc3a5_c85c_97cb_3127L, 0xb492_b66f_be98_f273L,
+                    0x9ae1_6a3b_2f90_404fL, 0xcbf2_9ce4_8422_2325L };
+
+    private int                 increments;
+
+    private final int           mask;
+
+    private final int           sampleSize;
+
+    private final long[]        table;
+
+    // sized for a cache of maximumSize entries
+    FrequencySketch(final int maximumSize) {
+        final int length = Integer.highestOneBit(Math.max(2, maximumSize) - 1) << 1;
+        this.table = new long[length];
+        this.mask = length - 1;
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE, (long) FrequencySketch.SAMPLE_FACTOR * maximumSize);
+    }
+
+    // at most 15
+    int frequency(final int hash) {
+        int frequency = 15;
+        for (int i = 0; i < FrequencySketch.SEEDS.length; i++) {
+            final long h = FrequencySketch.hash(hash, i);
+            frequency = Math.min(frequency, (int) (this.table[this.index(h)] >>> FrequencySketch.shift(h)) & 15);
+        }
+
+        return frequency;
+    }
+
+    void increment(final int hash) {
+        boolean incremented = false;
+        for (int i = 0; i < FrequencySketch.SEEDS.length; i++) {
+            final long h = FrequencySketch.hash(hash, i);
+            final int index = this.index(h);
+            final int shift = FrequencySketch.shift(h);
+            if ((this.table[index] >>> shift & 15) != 15) {
+                this.table[index] += 1L << shift;
+                incremented = true;
+            }
+        }
+        if (incremented && ++this.increments == this.sampleSize) {
+            this.reset();
+        }
+    }
+
+    private static long hash(final int hash, final int i) {
+        final long h = (hash + FrequencySketch.SEEDS[i]) * FrequencySketch.SEEDS[i];
+
+        return h ^ h >>> 32;
+    }
+
+    // one of the 16 counters in the long
+    private static int shift(final long h) {
+        return ((int) h & 15) << 2;
+    }
+
+    private int index(final long h) {
+        return (int) (h >>> 40) & this.mask;
+    }
+
+    private void reset() {
+        for (int i = 0; i < this.table.length; i++) {
+            this.table[i] = this.table[i] >>> 1 & FrequencySketch.RESET_MASK;
+        }
+        this.increments /= 2;
+    }
+}
@@ -0,0 +1,13 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.BAD_REQUEST, reason = "Invalid CSV")
+public class InvalidCsvException extends RuntimeException {
+
+    public InvalidCsvException(final String message) {
+        super(message);
+    }
+}
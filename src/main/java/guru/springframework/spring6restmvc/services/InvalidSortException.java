@@ -0,0 +1,13 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.BAD_REQUEST, reason = "Invalid sort")
+public class InvalidSortException extends RuntimeException {
+
+    public InvalidSortException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
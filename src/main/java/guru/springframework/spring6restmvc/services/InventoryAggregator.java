@@ -0,0 +1,201 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.model.InventoryAggregate;
+import guru.springframework.spring6restmvc.model.InventoryAggregates;
+
+// stock totals per beer style, kept in step by listening to every write so reading them costs
+// O(number of styles) whatever the size of the catalog. each style has its own lock, a beer that moves to
+// another style leaves the old one before it arrives in the new one
+class InventoryAggregator implements EntityStoreListener<Beer> {
+
+    private static final BeerStyle[] STYLES = BeerStyle.values();
+
+    // one per style by ordinal, the last one for beers without a style
+    private final StyleTotals[]      totals = new StyleTotals[InventoryAggregator.STYLES.length + 1];
+
+    InventoryAggregator() {
+        for (int i = 0; i < this.totals.length; i++) {
+            this.totals[i] = new StyleTotals();
+        }
+    }
+
+    // the slow path, walks every beer in parallel. used to verify the incremental totals
+    static InventoryAggregates recompute(final Stream<Beer> beers) {
+        return beers.parallel()
+                        .collect(InventoryAggregator::new, (aggregator, beer) -> aggregator.onChange(null, beer),
+                                        InventoryAggregator::merge)
+                        .aggregates();
+    }
+
+    // each style is read under its own lock in O(log distinct prices), nothing is copied
+    InventoryAggregates aggregates() {
+        final List<InventoryAggregate> byStyle = new ArrayList<>(InventoryAggregator.STYLES.length);
+        Figures catalog = Figures.NONE;
+
+        for (int i = 0; i < this.totals.length; i++) {
+            final Figures figures;
+            synchronized (this.totals[i]) {
+                figures = this.totals[i].figures();
+            }
+            if (i < InventoryAggregator.STYLES.length) {
+                byStyle.add(figures.toAggregate(InventoryAggregator.STYLES[i]));
+            }
+            catalog = catalog.plus(figures);
+        }
+
+        return InventoryAggregates.builder().byStyle(byStyle).total(catalog.toAggregate(null)).build();
+    }
+
+    @Override
+    public void onChange(final Beer previous, final Beer current) {
+        final StyleTotals before = previous == null ? null : this.totalsOf(previous);
+        final StyleTotals after = current == null ? null : this.totalsOf(current);
+
+        if (before != null && before == after) {
+            // same style, one step so a reader never sees the beer missing
+            synchronized (before) {
+                before.add(previous, -1);
+                before.add(current, 1);
+            }
+            return;
+        }
+        if (before != null) {
+            synchronized (before) {
+                before.add(previous, -1);
+            }
+        }
+        if (after != null) {
+            synchronized (after) {
+                after.add(current, 1);
+            }
+        }
+    }
+
+    // only called on instances no other thread can see
+    private void merge(final InventoryAggregator other) {
+        for (int i = 0; i < this.totals.length; i++) {
+            this.totals[i].merge(other.totals[i]);
+        }
+    }
+
+    private StyleTotals totalsOf(final Beer beer) {
+        return this.totals[beer.getBeerStyle() == null ? InventoryAggregator.STYLES.length
+                        : beer.getBeerStyle().ordinal()];
+    }
+
+    // the same amount can come in with different scales, 12.99 and 12.990, so every figure handed out is cut
+    // down to its significant digits but keeps at least cents
+    private static BigDecimal normalize(final BigDecimal value) {
+        if (value == null) {
+            return null;
+        }
+        final BigDecimal stripped = value.stripTrailingZeros();
+
+        return stripped.scale() < 2 ? stripped.setScale(2) : stripped;
+    }
+
+    // running totals, guarded by their own monitor once shared
+    private static final class StyleTotals {
+
+        private long                            beerCount;
+
+        private long                            pricedCount;
+
+        private BigDecimal                      priceSum   = BigDecimal.ZERO;
+
+        // number of beers per price, min and max are the first and last key
+        private final TreeMap<BigDecimal, Long> prices     = new TreeMap<>();
+
+        private BigDecimal                      stockValue = BigDecimal.ZERO;
+
+        private long                            unitCount;
+
+        // sign is 1 to add the beer and -1 to take it out again, a null beer is ignored
+        void add(final Beer beer, final int sign) {
+            if (beer == null) {
+                return;
+            }
+
+            this.beerCount += sign;
+            if (beer.getQuantityOnHand() != null) {
+                this.unitCount += sign * (long) beer.getQuantityOnHand();
+            }
+            if (beer.getPrice() != null) {
+                this.pricedCount += sign;
+                this.priceSum = sign > 0 ? this.priceSum.add(beer.getPrice()) : this.priceSum.subtract(beer.getPrice());
+                this.countPrice(beer.getPrice(), sign);
+                if (beer.getQuantityOnHand() != null) {
+                    final BigDecimal value = beer.getPrice().multiply(BigDecimal.valueOf(beer.getQuantityOnHand()));
+                    this.stockValue = sign > 0 ? this.stockValue.add(value) : this.stockValue.subtract(value);
+                }
+            }
+        }
+
+        void merge(final StyleTotals other) {
+            this.beerCount += other.beerCount;
+            this.pricedCount += other.pricedCount;
+            this.priceSum = this.priceSum.add(other.priceSum);
+            for (final Map.Entry<BigDecimal, Long> price : other.prices.entrySet()) {
+                this.countPrice(price.getKey(), price.getValue());
+            }
+            this.stockValue = this.stockValue.add(other.stockValue);
+            this.unitCount += other.unitCount;
+        }
+
+        Figures figures() {
+            return new Figures(this.beerCount, this.unitCount, this.stockValue, this.pricedCount, this.priceSum,
+                            this.prices.isEmpty() ? null : this.prices.firstKey(),
+                            this.prices.isEmpty() ? null : this.prices.lastKey());
+        }
+
+        // keys compare by value, so 12.99 and 12.990 share one count
+        private void countPrice(final BigDecimal price, final long delta) {
+            this.prices.merge(price, delta, (count, added) -> count + added == 0 ? null : count + added);
+        }
+    }
+
+    // what a reader takes out of the totals of one style, min and max are null without a priced beer
+    private record Figures(long beerCount, long unitCount, BigDecimal stockValue, long pricedCount,
+                    BigDecimal priceSum, BigDecimal minPrice, BigDecimal maxPrice) {
+
+        static final Figures NONE = new Figures(0, 0, BigDecimal.ZERO, 0, BigDecimal.ZERO, null, null);
+
+        Figures plus(final Figures other) {
+            return new Figures(this.beerCount + other.beerCount, this.unitCount + other.unitCount,
+                            this.stockValue.add(other.stockValue), this.pricedCount + other.pricedCount,
+                            this.priceSum.add(other.priceSum), Figures.pick(this.minPrice, other.minPrice, -1),
+                            Figures.pick(this.maxPrice, other.maxPrice, 1));
+        }
+
+        InventoryAggregate toAggregate(final BeerStyle beerStyle) {
+            return InventoryAggregate.builder().beerStyle(beerStyle).beerCount(this.beerCount)
+                            .unitCount(this.unitCount).stockValue(InventoryAggregator.normalize(this.stockValue))
+                            .minPrice(InventoryAggregator.normalize(this.minPrice))
+                            .maxPrice(InventoryAggregator.normalize(this.maxPrice))
+                            .averagePrice(this.pricedCount == 0 ? null : InventoryAggregator.normalize(
+                                            this.priceSum.divide(BigDecimal.valueOf(this.pricedCount),
+                                                            MathContext.DECIMAL64)))
+                            .build();
+        }
+
+        // the smaller one for direction -1, the larger one for 1, ignoring nulls
+        private static BigDecimal pick(final BigDecimal price, final BigDecimal other, final int direction) {
+            if (price == null || other == null) {
+                return price == null ? other : price;
+            }
+
+            return Integer.signum(other.compareTo(price)) == direction ? other : price;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.Tombstone;
+import guru.springframework.spring6restmvc.model.VersionedEntity;
+
+// stand-in for a remote system of record: every call that would be a round trip to it waits the given latency
+// before it goes to the in memory store underneath. listeners, counters and the snapshot load stay local and
+// fast. a batch insert is one round trip
+public class LatencyStore<T extends VersionedEntity> implements VersionedStore<T> {
+
+    private final VersionedStore<T> backend;
+
+    private final long              latencyNanos;
+
+    public LatencyStore(final VersionedStore<T> backend, final Duration latency) {
+        this.backend = backend;
+        this.latencyNanos = latency.toNanos();
+    }
+
+    @Override
+    public void addListener(final EntityStoreListener<T> listener) {
+        this.backend.addListener(listener);
+    }
+
+    @Override
+    public boolean applyReplicated(final UUID id, final T current, final Tombstone deleted) {
+        this.roundTrip();
+
+        return this.backend.applyReplicated(id, current, deleted);
+    }
+
+    @Override
+    public void awaitWritesInFlight() {
+        this.backend.awaitWritesInFlight();
+    }
+
+    @Override
+    public T delete(final UUID id) {
+        this.roundTrip();
+
+        return this.backend.delete(id);
+    }
+
+    @Override
+    public T get(final UUID id) {
+        this.roundTrip();
+
+        return this.backend.get(id);
+    }
+
+    @Override
+    public T insert(final T entity) {
+        this.roundTrip();
+
+        return this.backend.insert(entity);
+    }
+
+    @Override
+    public void insertAll(final List<T> entities) {
+        this.roundTrip();
+        this.backend.insertAll(entities);
+    }
+
+    @Override
+    public void load(final List<T> loaded) {
+        this.backend.load(loaded);
+    }
+
+    @Override
+    public long modificationCount() {
+        return this.backend.modificationCount();
+    }
+
+    @Override
+    public CursorPage<T> page(final String cursor, final Integer pageSize) {
+        this.roundTrip();
+
+        return this.backend.page(cursor, pageSize);
+    }
+
+    @Override
+    public void replay(final UUID id, final T current) {
+        this.backend.replay(id, current);
+    }
+
+    @Override
+    public int size() {
+        return this.backend.size();
+    }
+
+    @Override
+    public Stream<T> snapshot() {
+        this.roundTrip();
+
+        return this.backend.snapshot();
+    }
+
+    @Override
+    public Stream<Tombstone> tombstones() {
+        this.roundTrip();
+
+        return this.backend.tombstones();
+    }
+
+    @Override
+    public T update(final UUID id, final Integer expectedVersion, final UnaryOperator<T> change) {
+        this.roundTrip();
+
+        return this.backend.update(id, expectedVersion, change);
+    }
+
+    @Override
+    public Collection<T> values() {
+        this.roundTrip();
+
+        return this.backend.values();
+    }
+
+    @Override
+    public Iterable<T> valuesInIdOrder() {
+        this.roundTrip();
+
+        return this.backend.valuesInIdOrder();
+    }
+
+    // parks rather than spins, so a virtual thread gives up its carrier meanwhile
+    private void roundTrip() {
+        final long deadline = System.nanoTime() + this.latencyNanos;
+        for (long remaining = this.latencyNanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
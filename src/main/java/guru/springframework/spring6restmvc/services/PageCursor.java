@@ -0,0 +1,50 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.UUID;
+
+// cursors are the url safe base64 of the last id on a page, clients must treat them as opaque
+public final class PageCursor {
+
+    public static final int DEFAULT_PAGE_SIZE = 25;
+
+    public static final int MAX_PAGE_SIZE     = 1000;
+
+    private PageCursor() {
+    }
+
+    public static int clampPageSize(final Integer pageSize) {
+        if (pageSize == null || pageSize < 1) {
+            return PageCursor.DEFAULT_PAGE_SIZE;
+        }
+
+        return Math.min(pageSize, PageCursor.MAX_PAGE_SIZE);
+    }
+
+    // null or blank cursor means start from the beginning
+    public static UUID decode(final String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+            final UUID id = new UUID(buffer.getLong(), buffer.getLong());
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes in cursor");
+            }
+            return id;
+        } catch (final RuntimeException e) {
+            throw new InvalidCursorException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    public static String encode(final UUID id) {
+        final ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+}
@@ -0,0 +1,244 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+// beer ids sorted on a key and then id, as a treap where every node also counts the nodes below it. the counts find
+// the n-th id or the rank of a key in O(log n), so a page at any offset costs O(log n + page size) instead of
+// walking past the offset. random priorities keep the tree balanced whatever order ids come in.
+// thread safe without a lock: nodes never change, a write copies the path to the nodes it changes and swaps in the
+// new root, retrying if another write swapped first. a reader works on the root it started with, so it never
+// waits for a writer and a writer never waits for it
+final class SortedBeerKeys {
+
+    private final AtomicReference<Node> root = new AtomicReference<>();
+
+    // inserts into an empty tree take the sorted ids in one go, building the tree in O(n)
+    void addAll(final List<Key> keys) {
+        if (this.root.get() != null) {
+            for (final Key key : keys) {
+                this.move(null, key.value(), key.id());
+            }
+            return;
+        }
+
+        // a cartesian tree on the priorities, the right spine is the stack
+        final int[] priorities = new int[keys.size()];
+        final int[] lefts = new int[keys.size()];
+        final int[] rights = new int[keys.size()];
+        final int[] spine = new int[keys.size()];
+        int spineSize = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            priorities[i] = ThreadLocalRandom.current().nextInt();
+            rights[i] = -1;
+            int popped = -1;
+            while (spineSize > 0 && priorities[spine[spineSize - 1]] < priorities[i]) {
+                popped = spine[--spineSize];
+            }
+            lefts[i] = popped;
+            if (spineSize > 0) {
+                rights[spine[spineSize - 1]] = i;
+            }
+            spine[spineSize++] = i;
+        }
+        if (spineSize > 0) {
+            final Node built = SortedBeerKeys.build(keys, priorities, lefts, rights, spine[0]);
+            if (!this.root.compareAndSet(null, built)) {
+                // written to meanwhile
+                this.addAll(keys);
+            }
+        }
+    }
+
+    // moves the id from oldKey to newKey in one step, a null oldKey adds it and a null newKey removes it
+    void move(final Comparable<?> oldKey, final Comparable<?> newKey, final UUID id) {
+        final int priority = ThreadLocalRandom.current().nextInt();
+        this.root.updateAndGet(root -> {
+            final Node removed = oldKey == null ? root : SortedBeerKeys.delete(root, oldKey, id);
+            return newKey == null ? removed
+                            : SortedBeerKeys.insert(removed, new Node(newKey, id, priority, null, null));
+        });
+    }
+
+    // the keys from lower to upper, both inclusive and either may be null, skipping offset and taking at most limit
+    // of them. counted from upper down if descending, and in that order
+    List<Key> range(final Comparable<?> lower, final Comparable<?> upper, final int offset, final int limit,
+                    final boolean descending) {
+        final Node root = this.root.get();
+        final int start = lower == null ? 0 : SortedBeerKeys.rank(root, lower, false);
+        final int end = upper == null ? SortedBeerKeys.size(root) : SortedBeerKeys.rank(root, upper, true);
+        final int count = Math.max(0, Math.min(end - start - offset, limit));
+        final int from = descending ? end - offset - count : start + offset;
+
+        final List<Key> keys = new ArrayList<>(count);
+        SortedBeerKeys.collect(root, 0, from, from + count, keys);
+        if (descending) {
+            Collections.reverse(keys);
+        }
+
+        return keys;
+    }
+
+    private static Node build(final List<Key> keys, final int[] priorities, final int[] lefts, final int[] rights,
+                    final int index) {
+        if (index < 0) {
+            return null;
+        }
+
+        return new Node(keys.get(index).value(), keys.get(index).id(), priorities[index],
+                        SortedBeerKeys.build(keys, priorities, lefts, rights, lefts[index]),
+                        SortedBeerKeys.build(keys, priorities, lefts, rights, rights[index]));
+    }
+
+    // in order, skipping subtrees that lie wholly outside the ranks
+    private static void collect(final Node node, final int offset, final int from, final int to,
+                    final List<Key> keys) {
+        if (node == null || offset >= to || offset + node.size <= from) {
+            return;
+        }
+        SortedBeerKeys.collect(node.left, offset, from, to, keys);
+        final int rank = offset + SortedBeerKeys.size(node.left);
+        if (rank >= from && rank < to) {
+            keys.add(new Key(node.key, new UUID(node.mostBits, node.leastBits)));
+        }
+        SortedBeerKeys.collect(node.right, rank + 1, from, to, keys);
+    }
+
+    private static int compare(final Comparable<?> key, final long mostBits, final long leastBits, final Node node) {
+        final int comparison = SortedBeerKeys.compareKeys(key, node.key);
+        if (comparison != 0) {
+            return comparison;
+        }
+
+        // as UUID.compareTo does
+        return mostBits != node.mostBits ? Long.compare(mostBits, node.mostBits)
+                        : Long.compare(leastBits, node.leastBits);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static int compareKeys(final Comparable key, final Comparable other) {
+        return key.compareTo(other);
+    }
+
+    private static Node delete(final Node node, final Comparable<?> key, final UUID id) {
+        if (node == null) {
+            return null;
+        }
+        final int comparison = SortedBeerKeys.compare(key, id.getMostSignificantBits(), id.getLeastSignificantBits(),
+                        node);
+        if (comparison == 0) {
+            return SortedBeerKeys.merge(node.left, node.right);
+        }
+        if (comparison < 0) {
+            final Node left = SortedBeerKeys.delete(node.left, key, id);
+            return left == node.left ? node : node.with(left, node.right);
+        }
+        final Node right = SortedBeerKeys.delete(node.right, key, id);
+
+        return right == node.right ? node : node.with(node.left, right);
+    }
+
+    // rotates the inserted node up while its priority is higher, on copies of the path
+    private static Node insert(final Node node, final Node inserted) {
+        if (node == null) {
+            return inserted;
+        }
+        if (SortedBeerKeys.compare(inserted.key, inserted.mostBits, inserted.leastBits, node) < 0) {
+            final Node left = SortedBeerKeys.insert(node.left, inserted);
+            if (left.priority > node.priority) {
+                return left.with(left.left, node.with(left.right, node.right));
+            }
+            return node.with(left, node.right);
+        }
+        final Node right = SortedBeerKeys.insert(node.right, inserted);
+        if (right.priority > node.priority) {
+            return right.with(node.with(node.left, right.left), right.right);
+        }
+
+        return node.with(node.left, right);
+    }
+
+    // every node of left sorts before every node of right
+    private static Node merge(final Node left, final Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.with(left.left, SortedBeerKeys.merge(left.right, right));
+        }
+
+        return right.with(SortedBeerKeys.merge(left, right.left), right.right);
+    }
+
+    // the number of ids with a key below bound, or not above it if inclusive
+    private static int rank(final Node root, final Comparable<?> bound, final boolean inclusive) {
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            final int comparison = SortedBeerKeys.compareKeys(node.key, bound);
+            if (comparison < 0 || inclusive && comparison == 0) {
+                rank += SortedBeerKeys.size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+
+        return rank;
+    }
+
+    private static int size(final Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    // a key of a beer and its id
+    record Key(Comparable<?> value, UUID id) {
+    }
+
+    // the id as two longs, which saves a UUID object per node
+    private static final class Node {
+
+        private final Comparable<?> key;
+
+        private final long          leastBits;
+
+        private final Node          left;
+
+        private final long          mostBits;
+
+        private final int           priority;
+
+        private final Node          right;
+
+        // this node and every node below it
+        private final int           size;
+
+        Node(final Comparable<?> key, final UUID id, final int priority, final Node left, final Node right) {
+            this(key, id.getMostSignificantBits(), id.getLeastSignificantBits(), priority, left, right);
+        }
+
+        private Node(final Comparable<?> key, final long mostBits, final long leastBits, final int priority,
+                        final Node left, final Node right) {
+            this.key = key;
+            this.mostBits = mostBits;
+            this.leastBits = leastBits;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = SortedBeerKeys.size(left) + SortedBeerKeys.size(right) + 1;
+        }
+
+        // a copy with other children
+        Node with(final Node left, final Node right) {
+            return new Node(this.key, this.mostBits, this.leastBits, this.priority, left, right);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// sorted set of ids in UUID order, kept as chunks of primitive longs instead of one node per id.
+// an insert or remove binary searches the chunk and shifts within it, a full chunk is split in two.
+// not thread safe, callers lock
+final class SortedUuids {
+
+    // pairs per chunk, a shift moves at most this many pairs
+    private static final int  CHUNK_SIZE = 512;
+
+    // never holds an empty chunk
+    private final List<Chunk> chunks     = new ArrayList<>();
+
+    private int               size;
+
+    // false if the id was already there
+    boolean add(final long most, final long least) {
+        if (this.chunks.isEmpty()) {
+            this.chunks.add(new Chunk());
+        }
+        final int chunkIndex = this.chunkFor(most, least);
+        final Chunk chunk = this.chunks.get(chunkIndex);
+        final int position = chunk.search(most, least);
+        if (position >= 0) {
+            return false;
+        }
+
+        chunk.insert(-position - 1, most, least);
+        if (chunk.size == SortedUuids.CHUNK_SIZE) {
+            this.chunks.add(chunkIndex + 1, chunk.splitOffUpperHalf());
+        }
+        this.size++;
+
+        return true;
+    }
+
+    // visits ids after the given one, or from the start for null, until the visitor returns false
+    void forEachAfter(final UUID after, final IdVisitor visitor) {
+        if (this.chunks.isEmpty()) {
+            return;
+        }
+
+        int chunkIndex = 0;
+        int position = 0;
+        if (after != null) {
+            chunkIndex = this.chunkFor(after.getMostSignificantBits(), after.getLeastSignificantBits());
+            final int found = this.chunks.get(chunkIndex).search(after.getMostSignificantBits(),
+                            after.getLeastSignificantBits());
+            position = found >= 0 ? found + 1 : -found - 1;
+        }
+
+        for (; chunkIndex < this.chunks.size(); chunkIndex++, position = 0) {
+            final Chunk chunk = this.chunks.get(chunkIndex);
+            for (; position < chunk.size; position++) {
+                if (!visitor.visit(chunk.ids[2 * position], chunk.ids[2 * position + 1])) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // false if the id was not there
+    boolean remove(final long most, final long least) {
+        if (this.chunks.isEmpty()) {
+            return false;
+        }
+        final int chunkIndex = this.chunkFor(most, least);
+        final Chunk chunk = this.chunks.get(chunkIndex);
+        final int position = chunk.search(most, least);
+        if (position < 0) {
+            return false;
+        }
+
+        chunk.remove(position);
+        if (chunk.size == 0) {
+            this.chunks.remove(chunkIndex);
+        }
+        this.size--;
+
+        return true;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    // the last chunk whose first id is not greater than the given one, or the first chunk
+    private int chunkFor(final long most, final long least) {
+        int low = 1;
+        int high = this.chunks.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final Chunk chunk = this.chunks.get(middle);
+            if (SortedUuids.compare(chunk.ids[0], chunk.ids[1], most, least) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low - 1;
+    }
+
+    // same order as UUID.compareTo
+    private static int compare(final long most, final long least, final long otherMost, final long otherLeast) {
+        final int byMost = Long.compare(most, otherMost);
+
+        return byMost != 0 ? byMost : Long.compare(least, otherLeast);
+    }
+
+    @FunctionalInterface
+    interface IdVisitor {
+
+        boolean visit(long most, long least);
+    }
+
+    // most and least significant bits of each id next to each other
+    private static final class Chunk {
+
+        private final long[] ids = new long[2 * SortedUuids.CHUNK_SIZE];
+
+        private int          size;
+
+        void insert(final int position, final long most, final long least) {
+            System.arraycopy(this.ids, 2 * position, this.ids, 2 * position + 2, 2 * (this.size - position));
+            this.ids[2 * position] = most;
+            this.ids[2 * position + 1] = least;
+            this.size++;
+        }
+
+        void remove(final int position) {
+            System.arraycopy(this.ids, 2 * position + 2, this.ids, 2 * position, 2 * (this.size - position - 1));
+            this.size--;
+        }
+
+        // the position of the id, or -(insertion point) - 1 like Arrays.binarySearch
+        int search(final long most, final long least) {
+            int low = 0;
+            int high = this.size - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int comparison = SortedUuids.compare(this.ids[2 * middle], this.ids[2 * middle + 1], most, least);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+
+            return -low - 1;
+        }
+
+        Chunk splitOffUpperHalf() {
+            final Chunk upper = new Chunk();
+            final int keep = this.size / 2;
+            upper.size = this.size - keep;
+            System.arraycopy(this.ids, 2 * keep, upper.ids, 0, 2 * upper.size);
+            this.size = keep;
+
+            return upper;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.StockLevel;
+
+// atomic stock adjustments, floored at zero. an adjustment first tries a plain compare and set write of the beer,
+// which is all it takes while nobody else writes the same beer. once one loses that race the beer is hot and its
+// adjustments are combined: every caller queues its delta and whichever caller finds nobody combining takes over,
+// drains the queue, applies the deltas in queue order, writes the beer once and hands each caller its own
+// outcome while the others wait. a beer hit by thousands of threads then costs one write, journal record and
+// round of listener calls per batch instead of a storm of failed compare and sets
+final class StockCombiner {
+
+    // waiting callers yield this many times before they park, a batch is often done by then
+    private static final int                SPINS = 16;
+
+    private final VersionedStore<Beer>      beerStore;
+
+    // only hot beers with adjustments in flight, a slot goes when its queue runs empty
+    private final ConcurrentMap<UUID, Slot> slots = new ConcurrentHashMap<>();
+
+    StockCombiner(final VersionedStore<Beer> beerStore) {
+        this.beerStore = beerStore;
+    }
+
+    StockLevel adjust(final UUID beerId, final int delta) {
+        final Adjustment adjustment = new Adjustment(delta, Thread.currentThread());
+        if (!this.slots.containsKey(beerId)) {
+            try {
+                this.write(beerId, List.of(adjustment));
+                return adjustment.result();
+            } catch (final ConflictException e) {
+                // contended, combine
+            }
+        }
+
+        final Slot slot = this.slots.computeIfAbsent(beerId, id -> new Slot());
+        slot.pending.add(adjustment);
+        for (int spins = 0; adjustment.outcome == null; spins++) {
+            if (slot.combining.compareAndSet(false, true)) {
+                try {
+                    this.combine(beerId, slot);
+                } finally {
+                    slot.combining.set(false);
+                }
+                // queued while the combiner was finishing, its caller may already be parked
+                final Adjustment next = slot.pending.peek();
+                if (next != null) {
+                    LockSupport.unpark(next.caller);
+                } else {
+                    // a caller that still got hold of a removed slot combines in it itself
+                    this.slots.remove(beerId, slot);
+                }
+            } else if (spins < StockCombiner.SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.park(this);
+            }
+        }
+
+        return adjustment.result();
+    }
+
+    private void combine(final UUID beerId, final Slot slot) {
+        final List<Adjustment> batch = new ArrayList<>();
+        for (Adjustment adjustment = slot.pending.poll(); adjustment != null; adjustment = slot.pending.poll()) {
+            batch.add(adjustment);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // a conflict is a plain patch or put, or an uncombined adjustment, landing in between. the batch is
+        // applied again on top of it
+        RuntimeException failure = null;
+        while (true) {
+            try {
+                this.write(beerId, batch);
+                break;
+            } catch (final ConflictException e) {
+                // read again
+            } catch (final RuntimeException e) {
+                failure = e;
+                break;
+            }
+        }
+
+        for (final Adjustment adjustment : batch) {
+            adjustment.outcome = failure != null ? failure : adjustment;
+            LockSupport.unpark(adjustment.caller);
+        }
+    }
+
+    // one compare and set write of the whole batch, fills in each adjustment but does not publish it. the write
+    // expects the version read here, so one landing in between is a conflict rather than retried by the store
+    private void write(final UUID beerId, final List<Adjustment> batch) {
+        final Beer read = this.beerStore.get(beerId);
+        final Beer updated = this.beerStore.update(beerId, read == null ? null : read.getVersion(), current -> {
+            long quantity = current.getQuantityOnHand() == null ? 0 : current.getQuantityOnHand();
+            for (final Adjustment adjustment : batch) {
+                final long adjusted = Math.min(Integer.MAX_VALUE, Math.max(0, quantity + adjustment.delta));
+                adjustment.applied = (int) (adjusted - quantity);
+                adjustment.quantity = (int) adjusted;
+                quantity = adjusted;
+            }
+            return current.toBuilder().quantityOnHand((int) quantity).build();
+        });
+
+        for (final Adjustment adjustment : batch) {
+            adjustment.beerId = beerId;
+            adjustment.version = updated.getVersion();
+        }
+    }
+
+    private static final class Adjustment {
+
+        private int             applied;
+
+        private UUID            beerId;
+
+        private final Thread    caller;
+
+        private final int       delta;
+
+        // the adjustment itself once written or the RuntimeException the write failed with, set once by the
+        // combiner, which publishes the fields above
+        private volatile Object outcome;
+
+        private int             quantity;
+
+        private int             version;
+
+        Adjustment(final int delta, final Thread caller) {
+            this.delta = delta;
+            this.caller = caller;
+        }
+
+        StockLevel result() {
+            if (this.outcome instanceof final RuntimeException e) {
+                throw e;
+            }
+
+            return StockLevel.builder().appliedDelta(this.applied).beerId(this.beerId).quantityOnHand(this.quantity)
+                            .version(this.version).build();
+        }
+    }
+
+    private static final class Slot {
+
+        private final AtomicBoolean     combining = new AtomicBoolean();
+
+        private final Queue<Adjustment> pending   = new ConcurrentLinkedQueue<>();
+    }
+}
@@ -0,0 +1,343 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import guru.springframework.spring6restmvc.model.CacheStats;
+
+// bounded read-through cache with w-tinylfu eviction. a new entry goes into a small lru window. when it falls out
+// of the window it only gets into the main space if FrequencySketch has seen its key more often than the key it
+// would evict there. so a scan or a burst of one-off keys passes through the window and leaves the keys that are
+// asked for again and again alone. the main space is segmented lru: probation for entries that came in from the
+// window, protected for the ones hit since. entries also expire a fixed time after they were loaded.
+// concurrent misses of one key share a single load. reads only take the lock if it is free, writes always do
+final class TinyLfuCache<K, V> {
+
+    // of maximumSize
+    static final int                                     WINDOW_PERCENT     = 1;
+
+    // of the main space
+    static final int                                     PROTECTED_PERCENT  = 80;
+
+    private static final int                             GENERATION_STRIPES = 64;
+
+    private static final byte                            WINDOW             = 0;
+
+    private static final byte                            PROBATION          = 1;
+
+    private static final byte                            PROTECTED          = 2;
+
+    private static final byte                            REMOVED            = 3;
+
+    private final LongAdder                              coalescedLoadCount = new LongAdder();
+
+    private final ConcurrentMap<K, Node<K, V>>           data               = new ConcurrentHashMap<>();
+
+    private final LongAdder                              evictionCount      = new LongAdder();
+
+    // bumped by every invalidate of a key in the stripe, a load only caches its value if its stripe was not
+    // bumped while it ran
+    private final AtomicLongArray                        generations        = new AtomicLongArray(
+                    TinyLfuCache.GENERATION_STRIPES);
+
+    private final LongAdder                              hitCount           = new LongAdder();
+
+    private final LongAdder                              loadCount          = new LongAdder();
+
+    // one per key being loaded, later misses of the key wait for it
+    private final ConcurrentMap<K, CompletableFuture<V>> loads              = new ConcurrentHashMap<>();
+
+    // guards the queues and the sketch
+    private final ReentrantLock                          lock               = new ReentrantLock();
+
+    private final int                                    maximumSize;
+
+    private final LongAdder                              missCount          = new LongAdder();
+
+    private final Node<K, V>                             probationQueue     = new Node<>();
+
+    private final int                                    protectedMaximum;
+
+    private final Node<K, V>                             protectedQueue     = new Node<>();
+
+    private int                                          protectedSize;
+
+    private final FrequencySketch                        sketch;
+
+    private final LongSupplier                           ticker;
+
+    private final LongAdder                              totalLoadNanos     = new LongAdder();
+
+    private final long                                   ttlNanos;
+
+    private final int                                    windowMaximum;
+
+    private final Node<K, V>                             windowQueue        = new Node<>();
+
+    private int                                          windowSize;
+
+    TinyLfuCache(final int maximumSize, final Duration ttl) {
+        this(maximumSize, ttl, System::nanoTime);
+    }
+
+    // ticker reads nanoseconds, for the expiry and the load times
+    TinyLfuCache(final int maximumSize, final Duration ttl, final LongSupplier ticker) {
+        if (maximumSize < 1 || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Cache needs a positive size and ttl, not " + maximumSize + " and "
+                            + ttl);
+        }
+        this.maximumSize = maximumSize;
+        this.windowMaximum = Math.max(1, maximumSize / 100 * TinyLfuCache.WINDOW_PERCENT);
+        this.protectedMaximum = (int) ((long) (maximumSize - this.windowMaximum) * TinyLfuCache.PROTECTED_PERCENT
+                        / 100);
+        this.sketch = new FrequencySketch(maximumSize);
+        this.ticker = ticker;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    private static int hash(final Object key) {
+        final int h = key.hashCode() * 0x9e37_79b9;
+
+        return h ^ h >>> 16;
+    }
+
+    // every caller gets the exception of the load it waited for
+    private static <V> V join(final CompletableFuture<V> load) {
+        try {
+            return load.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof final RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof final Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // the cached value, otherwise the one loader returns. null is returned but not cached, a key the backend
+    // does not have is loaded again every time
+    V get(final K key, final Function<? super K, ? extends V> loader) {
+        final Node<K, V> node = this.data.get(key);
+        if (node != null) {
+            if (this.ticker.getAsLong() - node.expiresAt < 0) {
+                this.hitCount.increment();
+                this.recordHit(node);
+                return node.value;
+            }
+            this.expire(node);
+        }
+        this.missCount.increment();
+
+        return this.load(key, loader);
+    }
+
+    // call once a write of the key is visible in the backend. drops the entry and keeps loads that started
+    // before from caching what they read
+    void invalidate(final K key) {
+        this.lock.lock();
+        try {
+            this.generations.incrementAndGet(TinyLfuCache.hash(key) & TinyLfuCache.GENERATION_STRIPES - 1);
+            final Node<K, V> node = this.data.remove(key);
+            if (node != null) {
+                this.unlink(node);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    CacheStats stats() {
+        return CacheStats.builder().coalescedLoadCount(this.coalescedLoadCount.sum())
+                        .evictionCount(this.evictionCount.sum()).hitCount(this.hitCount.sum())
+                        .loadCount(this.loadCount.sum()).missCount(this.missCount.sum())
+                        .size(this.data.size()).totalLoadNanos(this.totalLoadNanos.sum()).build();
+    }
+
+    private void append(final byte queue, final Node<K, V> node) {
+        final Node<K, V> head;
+        if (queue == TinyLfuCache.WINDOW) {
+            head = this.windowQueue;
+            this.windowSize++;
+        } else if (queue == TinyLfuCache.PROTECTED) {
+            head = this.protectedQueue;
+            this.protectedSize++;
+        } else {
+            head = this.probationQueue;
+        }
+        node.queue = queue;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    // the window overflows into probation. then, while the cache is too big, the entry that just came in from the
+    // window and the lru entry of probation compete and the one the sketch has seen less often goes. a tie keeps
+    // the one already there, a key that is new and a key that was never asked for again are worth the same
+    private void evict() {
+        while (this.windowSize > this.windowMaximum) {
+            final Node<K, V> candidate = this.windowQueue.next;
+            this.unlink(candidate);
+            this.append(TinyLfuCache.PROBATION, candidate);
+        }
+        while (this.data.size() > this.maximumSize) {
+            final Node<K, V> candidate = this.probationQueue.prev;
+            final Node<K, V> victim = this.probationQueue.next;
+            final Node<K, V> evicted = candidate == victim
+                            || this.sketch.frequency(candidate.hash) > this.sketch.frequency(victim.hash) ? victim
+                                            : candidate;
+            this.data.remove(evicted.key, evicted);
+            this.unlink(evicted);
+            this.evictionCount.increment();
+        }
+    }
+
+    private void expire(final Node<K, V> node) {
+        this.lock.lock();
+        try {
+            if (this.data.remove(node.key, node)) {
+                this.unlink(node);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void install(final K key, final V value, final int hash, final long generation, final long loaded) {
+        this.lock.lock();
+        try {
+            if (this.generations.get(hash & TinyLfuCache.GENERATION_STRIPES - 1) != generation) {
+                return;
+            }
+            this.sketch.increment(hash);
+            final Node<K, V> node = new Node<>(key, value, hash, loaded + this.ttlNanos);
+            final Node<K, V> previous = this.data.put(key, node);
+            if (previous != null) {
+                this.unlink(previous);
+            }
+            this.append(TinyLfuCache.WINDOW, node);
+            this.evict();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private V load(final K key, final Function<? super K, ? extends V> loader) {
+        final CompletableFuture<V> load = new CompletableFuture<>();
+        final CompletableFuture<V> inFlight = this.loads.putIfAbsent(key, load);
+        if (inFlight != null) {
+            this.coalescedLoadCount.increment();
+            return TinyLfuCache.join(inFlight);
+        }
+
+        try {
+            // a load that finished between the miss and putIfAbsent
+            final Node<K, V> node = this.data.get(key);
+            if (node != null && this.ticker.getAsLong() - node.expiresAt < 0) {
+                load.complete(node.value);
+                return node.value;
+            }
+
+            final int hash = TinyLfuCache.hash(key);
+            final long generation = this.generations.get(hash & TinyLfuCache.GENERATION_STRIPES - 1);
+            final long start = this.ticker.getAsLong();
+            final V value;
+            try {
+                value = loader.apply(key);
+            } catch (final RuntimeException | Error e) {
+                load.completeExceptionally(e);
+                throw e;
+            } finally {
+                this.loadCount.increment();
+                this.totalLoadNanos.add(this.ticker.getAsLong() - start);
+            }
+            if (value != null) {
+                this.install(key, value, hash, generation, start);
+            }
+            load.complete(value);
+
+            return value;
+        } finally {
+            this.loads.remove(key, load);
+        }
+    }
+
+    // lossy, a hit while another thread holds the lock counts neither towards the frequency nor the lru order.
+    // under contention that costs a little precision instead of making every reader queue up
+    private void recordHit(final Node<K, V> node) {
+        if (!this.lock.tryLock()) {
+            return;
+        }
+        try {
+            this.sketch.increment(node.hash);
+            if (node.queue == TinyLfuCache.REMOVED) {
+                return;
+            }
+            final byte queue = node.queue == TinyLfuCache.WINDOW ? TinyLfuCache.WINDOW : TinyLfuCache.PROTECTED;
+            this.unlink(node);
+            this.append(queue, node);
+            while (this.protectedSize > this.protectedMaximum) {
+                final Node<K, V> demoted = this.protectedQueue.next;
+                this.unlink(demoted);
+                this.append(TinyLfuCache.PROBATION, demoted);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void unlink(final Node<K, V> node) {
+        if (node.queue == TinyLfuCache.WINDOW) {
+            this.windowSize--;
+        } else if (node.queue == TinyLfuCache.PROTECTED) {
+            this.protectedSize--;
+        }
+        node.queue = TinyLfuCache.REMOVED;
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+    // an entry, linked into one of the queues with the lru end first. the links and queue only change under the
+    // lock, a new load makes a new node
+    private static final class Node<K, V> {
+
+        final long expiresAt;
+
+        final int  hash;
+
+        final K    key;
+
+        Node<K, V> next;
+
+        Node<K, V> prev;
+
+        byte       queue;
+
+        final V    value;
+
+        // the head of a queue
+        Node() {
+            this(null, null, 0, 0);
+        }
+
+        Node(final K key, final V value, final int hash, final long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+            this.expiresAt = expiresAt;
+            this.next = this;
+            this.prev = this;
+        }
+    }
+}
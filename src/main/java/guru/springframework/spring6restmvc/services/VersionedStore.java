@@ -0,0 +1,79 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.Tombstone;
+import guru.springframework.spring6restmvc.model.VersionedEntity;
+
+// thread safe store of versioned entities, see EntityStore and ColumnarBeerStore.
+// entities handed out are never changed by the store, every write stores a new state
+public interface VersionedStore<T extends VersionedEntity> {
+
+    // whether a write made on another node wins over the stored state: a higher version, or the same version
+    // written later. two nodes that update one entity at the same time both end up with the later update
+    static boolean supersedes(final VersionedEntity incoming, final VersionedEntity stored) {
+        return Tombstone.supersedes(Tombstone.version(incoming), incoming.getUpdatedDate(), Tombstone.version(stored),
+                        stored.getUpdatedDate());
+    }
+
+    // register before the first write, earlier writes are not replayed
+    void addListener(EntityStoreListener<T> listener);
+
+    // stores a write made on another node as it is, version included, if it supersedes the stored state: the
+    // live entity, or the tombstone of the id once it is deleted. exactly one of current and deleted is set, a
+    // delete that comes before anything it could delete is kept as the tombstone. journaled like a local write,
+    // returns whether the entity changed
+    boolean applyReplicated(UUID id, T current, Tombstone deleted);
+
+    // returns once every write that started before the call is visible to readers
+    void awaitWritesInFlight();
+
+    // unconditional, returns the removed entity or null if there was none
+    T delete(UUID id);
+
+    T get(UUID id);
+
+    // stores a brand new entity, id and version are expected to be set already
+    T insert(T entity);
+
+    // stores brand new entities in order with one journal sync for all of them, a conflict stops at that entity
+    // and keeps the ones before it
+    void insertAll(List<T> entities);
+
+    // fills an empty store without journaling, as a snapshot load does
+    void load(List<T> loaded);
+
+    // bumped after every write has become visible, a reader that sees the same count twice saw the same store
+    long modificationCount();
+
+    // keyset pagination in id order
+    CursorPage<T> page(String cursor, Integer pageSize);
+
+    // applies a write read back from the journal, without journaling it again or touching its version
+    void replay(UUID id, T current);
+
+    int size();
+
+    // every entity as of one point in time, however long the stream is read and whatever is written meanwhile.
+    // writers do not wait for it, close it to let go of the versions it holds on to
+    Stream<T> snapshot();
+
+    // the tombstone of every id deleted since the store was loaded, weakly consistent
+    Stream<Tombstone> tombstones();
+
+    // expectedVersion is the version the client last saw, null skips the check. change must return a new
+    // instance
+    T update(UUID id, Integer expectedVersion, UnaryOperator<T> change);
+
+    // weakly consistent view, never throws ConcurrentModificationException
+    Collection<T> values();
+
+    // weakly consistent too, in id order
+    Iterable<T> valuesInIdOrder();
+}
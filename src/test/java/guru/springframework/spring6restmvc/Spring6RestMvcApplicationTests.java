@@ -1,13 +1,55 @@
 package guru.springframework.spring6restmvc;
 
+import java.nio.file.Path;
+import java.util.UUID;
+
+import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import guru.springframework.spring6restmvc.config.ServiceMetricsInterceptor;
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.services.BeerService;
+import guru.springframework.spring6restmvc.services.NotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @SpringBootTest
 class Spring6RestMvcApplicationTests {
 
+    @TempDir
+    static Path   dataDirectory;
+
+    @Autowired
+    BeerService   beerService;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @DynamicPropertySource
+    static void dataDirectoryProperty(final DynamicPropertyRegistry registry) {
+        registry.add("app.data.directory", () -> Spring6RestMvcApplicationTests.dataDirectory.toString());
+    }
+
     @Test
     void contextLoads() {
     }
 
+    @Test
+    void serviceCallsAreTimed() {
+        this.beerService.listBeers();
+        this.beerService.listBeers();
+        Assertions.assertThatThrownBy(() -> this.beerService.patchBeerById(UUID.randomUUID(), Beer.builder().build()))
+                        .isInstanceOf(NotFoundException.class);
+
+        Assertions.assertThat(this.meterRegistry.get(ServiceMetricsInterceptor.TIMER_METRIC).tag("method", "listBeers")
+                        .timer().count()).isGreaterThanOrEqualTo(2);
+        Assertions.assertThat(this.meterRegistry.get(ServiceMetricsInterceptor.ERRORS_METRIC).tag("method", "patchBeerById")
+                        .tag("exception", "NotFoundException").counter().count()).isEqualTo(1);
+        Assertions.assertThat(this.meterRegistry.get("store.size").tag("store", "beer").gauge().value()).isPositive();
+    }
+
 }
@@ -2,6 +2,7 @@
 package guru.springframework.spring6restmvc.controller;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -17,16 +18,28 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerBatchAction;
+import guru.springframework.spring6restmvc.model.BeerBatchOperation;
+import guru.springframework.spring6restmvc.model.BeerBatchResult;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.model.ChangeSet;
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.InventoryAggregates;
+import guru.springframework.spring6restmvc.model.StockAdjustment;
+import guru.springframework.spring6restmvc.model.StockLevel;
 import guru.springframework.spring6restmvc.services.BeerService;
 import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+import guru.springframework.spring6restmvc.services.ConflictException;
 
 @WebMvcTest(BeerController.class) // test splice, limit test to just this
 class BeerControllerTest {
@@ -72,6 +85,47 @@ class BeerControllerTest {
 
     }
 
+    @Test // post and get as cbor instead of json
+    void testAddAndGetBeerAsCbor() throws Exception {
+        final ObjectMapper cborMapper = WireFormat.CBOR.mapper(this.objectMapper);
+        final Beer testBeer = this.beerServiceImpl.listBeers().get(0);
+        BDDMockito.given(this.beerService.saveNewBeer(ArgumentMatchers.any(Beer.class))).willReturn(testBeer);
+        BDDMockito.given(this.beerService.getBeerById(testBeer.getId())).willReturn(testBeer);
+
+        this.mockMvc.perform(MockMvcRequestBuilders.post(BeerController.BEER_PATH)
+                        .contentType(MediaType.APPLICATION_CBOR).content(cborMapper.writeValueAsBytes(testBeer)))
+                        .andExpect(MockMvcResultMatchers.status().isCreated());
+        Mockito.verify(this.beerService).saveNewBeer(testBeer);
+
+        final MvcResult result = this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH_ID,
+                        testBeer.getId()).accept(MediaType.APPLICATION_CBOR))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_CBOR)).andReturn();
+        Assertions.assertThat(cborMapper.readValue(result.getResponse().getContentAsByteArray(), Beer.class))
+                        .isEqualTo(testBeer);
+    }
+
+    @Test // post batch
+    void testApplyBatch() throws Exception {
+        final Beer testBeer = this.beerServiceImpl.listBeers().get(0);
+        final List<BeerBatchOperation> operations = List.of(
+                        BeerBatchOperation.builder().action(BeerBatchAction.CREATE).beer(testBeer).build(),
+                        BeerBatchOperation.builder().action(BeerBatchAction.DELETE).beerId(testBeer.getId()).build());
+
+        BDDMockito.given(this.beerService.applyBatch(ArgumentMatchers.anyList()))
+                        .willReturn(List.of(BeerBatchResult.builder().index(0).status(201).beerId(UUID.randomUUID()).build(),
+                                        BeerBatchResult.builder().index(1).status(204).beerId(testBeer.getId()).build()));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.post(BeerController.BEER_BATCH_PATH).accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON).content(this.objectMapper.writeValueAsString(operations)))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.length()", Is.is(2)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$[1].status", Is.is(204)));
+
+        Mockito.verify(this.beerService).applyBatch(ArgumentMatchers.argThat(list -> list.size() == 2
+                        && list.get(1).getAction() == BeerBatchAction.DELETE && testBeer.getId().equals(list.get(1).getBeerId())));
+    }
+
     @Test // delete
     void testDeleteBeer() throws Exception {
         final Beer testBeer = this.beerServiceImpl.listBeers().get(0);
@@ -98,6 +152,181 @@ class BeerControllerTest {
                         .andExpect(MockMvcResultMatchers.jsonPath("$.length()", Is.is(3)));
     }
 
+    @Test // get only some fields
+    void testGetAllBeersWithFields() throws Exception {
+        BDDMockito.given(this.beerService.listBeers()).willReturn(this.beerServiceImpl.listBeers());
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("fields", "beerName,id")
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.length()", Is.is(3)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$[0].length()", Is.is(2)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$[0].beerName").exists())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$[0].price").doesNotExist());
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("fields", "id,secret")
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test // conditional get of the list
+    void testGetAllBeersNotModified() throws Exception {
+        BDDMockito.given(this.beerService.getModificationCount()).willReturn(42L);
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).accept(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"beers-42-json\""))
+                        .andExpect(MockMvcResultMatchers.status().isNotModified())
+                        .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, "\"beers-42-json\""))
+                        .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.VARY,
+                                        HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING))
+                        .andExpect(MockMvcResultMatchers.content().string(""));
+
+        // list is never loaded when the tag matches
+        Mockito.verify(this.beerService, Mockito.never()).listBeers();
+
+        // the tag of the json list does not stand for the cbor one
+        BDDMockito.given(this.beerService.listBeers()).willReturn(this.beerServiceImpl.listBeers());
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).accept(MediaType.APPLICATION_CBOR)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"beers-42-json\""))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, "\"beers-42-cbor\""))
+                        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_CBOR));
+    }
+
+    @Test // get with query parameters
+    void testGetBeersByStyle() throws Exception {
+        BDDMockito.given(this.beerService.findBeers(BeerStyle.IPA, null, "sun"))
+                        .willReturn(this.beerServiceImpl.findBeers(BeerStyle.IPA, null, null));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("beerStyle", "IPA")
+                        .queryParam("namePrefix", "sun").accept(MediaType.APPLICATION_JSON))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.length()", Is.is(1)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$[0].beerStyle", Is.is("IPA")));
+    }
+
+    @Test // get sorted, range and top-n
+    void testGetSortedBeers() throws Exception {
+        BDDMockito.given(this.beerService.listBeersSorted("price", true, "10", "15", BeerStyle.PALE_ALE, 1, 20))
+                        .willReturn(this.beerServiceImpl.listBeersSorted("price", true, null, null, null, 0, 2));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("sortBy", "price")
+                        .queryParam("descending", "true").queryParam("min", "10").queryParam("max", "15")
+                        .queryParam("beerStyle", "PALE_ALE").queryParam("offset", "1").queryParam("limit", "20")
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.length()", Is.is(2)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$[0].price", Is.is(13.99)));
+    }
+
+    @Test // get as ndjson stream
+    void testExportBeers() throws Exception {
+        BDDMockito.given(this.beerService.streamBeers()).willReturn(this.beerServiceImpl.listBeers().stream());
+
+        final MvcResult result = this.mockMvc
+                        .perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).accept(MediaType.APPLICATION_NDJSON))
+                        .andExpect(MockMvcResultMatchers.request().asyncStarted()).andReturn();
+
+        final String body = this.mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_NDJSON)).andReturn()
+                        .getResponse().getContentAsString();
+
+        // one complete json document per line
+        final String[] lines = body.split("\n");
+        Assertions.assertThat(body).endsWith("\n");
+        Assertions.assertThat(lines).hasSize(3);
+        Assertions.assertThat(this.objectMapper.readValue(lines[2], Beer.class).getId())
+                        .isEqualTo(this.beerServiceImpl.listBeers().get(2).getId());
+    }
+
+    @Test // get one page
+    void testGetBeerPage() throws Exception {
+        final CursorPage<Beer> page = CursorPage.<Beer>builder().content(this.beerServiceImpl.listBeers().subList(0, 2))
+                        .nextCursor("next").pageSize(2).build();
+        BDDMockito.given(this.beerService.listBeers(null, 2)).willReturn(page);
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("pageSize", "2")
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()", Is.is(2)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.nextCursor", Is.is("next")));
+    }
+
+    @Test // get what changed since a sequence
+    void testGetBeerChanges() throws Exception {
+        final Beer testBeer = this.beerServiceImpl.listBeers().get(0);
+        final UUID deletedId = UUID.randomUUID();
+        BDDMockito.given(this.beerService.listBeerChanges("42", null, null)).willReturn(ChangeSet.<Beer>builder()
+                        .changed(List.of(testBeer)).deleted(List.of(deletedId)).sequence(43).build());
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("changedSince", "42")
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.changed[0].id", Is.is(testBeer.getId().toString())))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.deleted[0]", Is.is(deletedId.toString())))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.reset", Is.is(false)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.sequence", Is.is(43)));
+    }
+
+    @Test // parameters of different kinds of list query together
+    void testGetBeersWithUnsupportedParameters() throws Exception {
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("changedSince", "42")
+                        .queryParam("sortBy", "price").accept(MediaType.APPLICATION_JSON))
+                        .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("sortBy", "price")
+                        .queryParam("pageSize", "2").accept(MediaType.APPLICATION_JSON))
+                        .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("pageSize", "2")
+                        .queryParam("upc", "123").accept(MediaType.APPLICATION_JSON))
+                        .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("limit", "2")
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isBadRequest());
+
+        // a reset page is the one combination changedSince takes
+        BDDMockito.given(this.beerService.listBeerChanges("42", "next", 2)).willReturn(ChangeSet.<Beer>builder()
+                        .changed(List.of()).deleted(List.of()).reset(true).sequence(42).build());
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).queryParam("changedSince", "42")
+                        .queryParam("cursor", "next").queryParam("pageSize", "2").accept(MediaType.APPLICATION_JSON))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.reset", Is.is(true)));
+        // the rejected ones never reached the service
+        Mockito.verify(this.beerService).listBeerChanges("42", "next", 2);
+        Mockito.verifyNoMoreInteractions(this.beerService);
+    }
+
+    @Test // post a stock adjustment
+    void testAdjustStock() throws Exception {
+        final Beer testBeer = this.beerServiceImpl.listBeers().get(0);
+        BDDMockito.given(this.beerService.adjustStock(testBeer.getId(), -3)).willReturn(StockLevel.builder()
+                        .beerId(testBeer.getId()).appliedDelta(-3).quantityOnHand(119).version(2).build());
+
+        this.mockMvc.perform(MockMvcRequestBuilders.post(BeerController.BEER_STOCK_PATH, testBeer.getId())
+                        .accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content(this.objectMapper.writeValueAsString(StockAdjustment.builder().delta(-3).build())))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.appliedDelta", Is.is(-3)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.quantityOnHand", Is.is(119)));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.post(BeerController.BEER_STOCK_PATH, testBeer.getId())
+                        .contentType(MediaType.APPLICATION_JSON).content("{}"))
+                        .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void testGetInventoryAggregates() throws Exception {
+        final InventoryAggregates aggregates = this.beerServiceImpl.getInventoryAggregates();
+        BDDMockito.given(this.beerService.getInventoryAggregates()).willReturn(aggregates);
+        BDDMockito.given(this.beerService.recomputeInventoryAggregates()).willReturn(aggregates);
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_AGGREGATES_PATH)
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.header().exists(HttpHeaders.ETAG))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.total.beerCount", Is.is(3)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.byStyle.length()",
+                                        Is.is(BeerStyle.values().length)));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_AGGREGATES_PATH)
+                        .queryParam("recompute", "true").accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isOk());
+        Mockito.verify(this.beerService).recomputeInventoryAggregates();
+    }
+
     @Test // get
     void testGetBeerById() throws Exception { // mockito perform can throw exception
         // give it a mock beer object (json) for it to return
@@ -112,6 +341,34 @@ class BeerControllerTest {
                         .andExpect(MockMvcResultMatchers.jsonPath("$.beerName", Is.is(testBeer.getBeerName())));
     }
 
+    @Test // conditional get
+    void testGetBeerByIdNotModified() throws Exception {
+        final Beer testBeer = this.beerServiceImpl.listBeers().get(0);
+        BDDMockito.given(this.beerService.getBeerById(testBeer.getId())).willReturn(testBeer);
+        final String eTag = "\"" + testBeer.getId() + "-" + testBeer.getVersion() + "-json\"";
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH_ID, testBeer.getId())
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, eTag))
+                        .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH_ID, testBeer.getId())
+                        .accept(MediaType.APPLICATION_CBOR).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_CBOR));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH_ID, testBeer.getId())
+                        .accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                        .andExpect(MockMvcResultMatchers.status().isNotModified())
+                        .andExpect(MockMvcResultMatchers.content().string(""));
+    }
+
+    @Test // get missing
+    void testGetBeerByIdNotFound() throws Exception {
+        this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH_ID, UUID.randomUUID())
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+
     @Test // patch
     void testPatchBeerById() throws Exception {
         final Beer testBeer = this.beerServiceImpl.listBeers().get(0);
@@ -132,6 +389,19 @@ class BeerControllerTest {
         Assertions.assertThat(this.beerArgumentCaptor.getValue().getBeerName()).isEqualTo(beerMap.get("beerName"));
     }
 
+    @Test // patch with stale version
+    void testPatchBeerByIdConflict() throws Exception {
+        final Beer testBeer = this.beerServiceImpl.listBeers().get(0);
+
+        BDDMockito.willThrow(new ConflictException()).given(this.beerService)
+                        .patchBeerById(ArgumentMatchers.any(UUID.class), ArgumentMatchers.any(Beer.class));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.patch(BeerController.BEER_PATH_ID, testBeer.getId())
+                        .accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON)
+                        .content(this.objectMapper.writeValueAsString(testBeer)))
+                        .andExpect(MockMvcResultMatchers.status().isConflict()); // 409 status
+    }
+
     @Test // put
     void testUpdateBeerById() throws Exception {
         final Beer testBeer = this.beerServiceImpl.listBeers().get(0);
@@ -0,0 +1,49 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import java.nio.file.Path;
+
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNull;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import guru.springframework.spring6restmvc.services.BeerCsvImporter;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+
+@WebMvcTest(BeerImportController.class)
+class BeerImportControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    void testImportBeers() throws Exception {
+        this.mockMvc.perform(MockMvcRequestBuilders.post(BeerImportController.BEER_IMPORT_PATH)
+                        .contentType("text/csv").content("beerName,beerStyle,upc,price\nImported,IPA,987,3.99\n")
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.importedCount", Is.is(1)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.errorFile", IsNull.nullValue()));
+
+        // without the required columns nothing is imported
+        this.mockMvc.perform(MockMvcRequestBuilders.post(BeerImportController.BEER_IMPORT_PATH)
+                        .contentType("text/csv").content("name\nImported\n"))
+                        .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @TestConfiguration
+    static class Importer {
+
+        @Bean
+        BeerCsvImporter beerCsvImporter() {
+            return new BeerCsvImporter(new BeerServiceImpl(), Path.of(System.getProperty("java.io.tmpdir")));
+        }
+    }
+}
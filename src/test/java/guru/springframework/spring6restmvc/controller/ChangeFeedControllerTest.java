@@ -0,0 +1,71 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.Customer;
+import guru.springframework.spring6restmvc.services.ChangeFeed;
+import guru.springframework.spring6restmvc.services.EntityStoreListener;
+
+@WebMvcTest(ChangeFeedController.class)
+class ChangeFeedControllerTest {
+
+    @Autowired
+    ChangeFeed changeFeed;
+
+    @Autowired
+    MockMvc    mockMvc;
+
+    @Test
+    void testStreamChangesResumesAfterLastEventId() throws Exception {
+        final EntityStoreListener<Beer> beers = this.changeFeed.listener("beer");
+        final EntityStoreListener<Customer> customers = this.changeFeed.listener("customer");
+        final Beer beer = Beer.builder().id(UUID.randomUUID()).version(1).beerName("Streamed").build();
+        final long first = this.changeFeed.nextSequence();
+        beers.onChange(null, Beer.builder().id(UUID.randomUUID()).version(1).beerName("Seen before").build());
+        beers.onChange(null, beer);
+        customers.onChange(null, Customer.builder().id(UUID.randomUUID()).version(1).name("Ann").build());
+
+        final MvcResult result = this.mockMvc.perform(MockMvcRequestBuilders.get(ChangeFeedController.CHANGES_PATH)
+                        .header("Last-Event-ID", first).queryParam("type", "beer").accept(MediaType.TEXT_EVENT_STREAM))
+                        .andExpect(MockMvcResultMatchers.request().asyncStarted()).andReturn();
+        // written while subscribed
+        beers.onChange(beer, null);
+
+        final String deleted = "id:" + (first + 3) + "\nevent:change\n";
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!result.getResponse().getContentAsString().contains(deleted) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        result.getRequest().getAsyncContext().complete();
+
+        final String stream = result.getResponse().getContentAsString();
+        Assertions.assertThat(result.getResponse().getContentType()).startsWith(MediaType.TEXT_EVENT_STREAM_VALUE);
+        Assertions.assertThat(stream).startsWith("id:" + (first + 1) + "\nevent:change\ndata:{")
+                        .contains("\"beerName\":\"Streamed\"", "\"action\":\"DELETED\"", deleted)
+                        .doesNotContain("Seen before", "Ann", "overrun");
+    }
+
+    @TestConfiguration
+    static class Feed {
+
+        @Bean
+        ChangeFeed changeFeed() {
+            return new ChangeFeed(16);
+        }
+    }
+}
@@ -2,6 +2,7 @@
 package guru.springframework.spring6restmvc.controller;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -17,6 +18,7 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
@@ -24,6 +26,7 @@ import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import guru.springframework.spring6restmvc.model.CursorPage;
 import guru.springframework.spring6restmvc.model.Customer;
 import guru.springframework.spring6restmvc.services.CustomerService;
 import guru.springframework.spring6restmvc.services.CustomerServiceImpl;
@@ -89,6 +92,38 @@ class CustomerControllerTest {
                         .andExpect(MockMvcResultMatchers.jsonPath("$.length()", Is.is(3)));
     }
 
+    @Test // search by partial name
+    void testSearchCustomers() throws Exception {
+        final Customer testCustomer = this.customerServiceImpl.listCustomers().get(0);
+        BDDMockito.given(this.customerService.searchCustomers("sal", 5)).willReturn(List.of(testCustomer));
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(CustomerController.CUSTOMER_PATH).queryParam("search", "sal")
+                        .queryParam("limit", "5").accept(MediaType.APPLICATION_JSON))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$[0].id", Is.is(testCustomer.getId().toString())));
+
+        // too short to have a trigram
+        this.mockMvc.perform(MockMvcRequestBuilders.get(CustomerController.CUSTOMER_PATH).queryParam("search", "s")
+                        .accept(MediaType.APPLICATION_JSON)).andExpect(MockMvcResultMatchers.status().isBadRequest());
+        // a search is not paged
+        this.mockMvc.perform(MockMvcRequestBuilders.get(CustomerController.CUSTOMER_PATH).queryParam("search", "sal")
+                        .queryParam("pageSize", "5").accept(MediaType.APPLICATION_JSON))
+                        .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test // get one page
+    void testGetCustomerPage() throws Exception {
+        final CursorPage<Customer> page = CursorPage.<Customer>builder()
+                        .content(this.customerServiceImpl.listCustomers().subList(0, 1)).nextCursor("next").pageSize(1).build();
+        BDDMockito.given(this.customerService.listCustomers("abc", 1)).willReturn(page);
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(CustomerController.CUSTOMER_PATH).queryParam("pageSize", "1")
+                        .queryParam("cursor", "abc").accept(MediaType.APPLICATION_JSON))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()", Is.is(1)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.nextCursor", Is.is("next")));
+    }
+
     @Test // get
     void testGetCustomerById() throws Exception {
         final Customer testCustomer = this.customerServiceImpl.listCustomers().get(0);
@@ -101,6 +136,31 @@ class CustomerControllerTest {
                         .andExpect(MockMvcResultMatchers.jsonPath("$.name", Is.is(testCustomer.getName())));
     }
 
+    @Test // get only some fields, the entity tag stays the same
+    void testGetCustomerByIdWithFields() throws Exception {
+        final Customer testCustomer = this.customerServiceImpl.listCustomers().get(0);
+        BDDMockito.given(this.customerService.getCustomerById(testCustomer.getId())).willReturn(testCustomer);
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(CustomerController.CUSTOMER_PATH_ID, testCustomer.getId())
+                        .queryParam("fields", "name").accept(MediaType.APPLICATION_JSON))
+                        .andExpect(MockMvcResultMatchers.status().isOk())
+                        .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG,
+                                        ETags.forEntity(testCustomer, WireFormat.JSON)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.length()", Is.is(1)))
+                        .andExpect(MockMvcResultMatchers.jsonPath("$.name", Is.is(testCustomer.getName())));
+    }
+
+    @Test // conditional get
+    void testGetCustomerByIdNotModified() throws Exception {
+        final Customer testCustomer = this.customerServiceImpl.listCustomers().get(0);
+        BDDMockito.given(this.customerService.getCustomerById(testCustomer.getId())).willReturn(testCustomer);
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get(CustomerController.CUSTOMER_PATH_ID, testCustomer.getId())
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"" + testCustomer.getId() + "-1-json\""))
+                        .andExpect(MockMvcResultMatchers.status().isNotModified());
+    }
+
     @Test // patch
     void testPatchCustomerById() throws Exception {
         final Customer testCustomer = this.customerServiceImpl.listCustomers().get(0);
@@ -0,0 +1,226 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.controller;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+
+class ListResponseCacheTest {
+
+    BeerController  beerController;
+
+    BeerServiceImpl beerService;
+
+    MockMvc         mockMvc;
+
+    ObjectMapper    objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        this.beerService = new BeerServiceImpl();
+        for (int i = 0; i < 50; i++) {
+            this.beerService.saveNewBeer(Beer.builder().beerName("Cached " + i).quantityOnHand(i).build());
+        }
+        this.objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        this.beerController = new BeerController(this.beerService, this.objectMapper);
+        this.mockMvc = MockMvcBuilders.standaloneSetup(this.beerController).build();
+    }
+
+    @Test
+    void testAcceptsGzip() {
+        Assertions.assertThat(ListResponseCache.acceptsGzip("gzip, deflate, br")).isTrue();
+        Assertions.assertThat(ListResponseCache.acceptsGzip("br;q=1.0, GZIP;q=0.5")).isTrue();
+        Assertions.assertThat(ListResponseCache.acceptsGzip("gzip;q=0")).isFalse();
+        Assertions.assertThat(ListResponseCache.acceptsGzip("identity")).isFalse();
+        Assertions.assertThat(ListResponseCache.acceptsGzip(null)).isFalse();
+    }
+
+    @Test
+    void testBodyIsSerializedOncePerWrite() {
+        final ListResponseCache cache = new ListResponseCache("beers");
+        final AtomicInteger serializations = new AtomicInteger();
+        final ListResponseCache.Serializer serializer = () -> new byte[] { (byte) serializations.incrementAndGet() };
+
+        final ListResponseCache.Body first = cache.get("", 1, () -> 1, serializer);
+        Assertions.assertThat(cache.get("", 1, () -> 1, serializer)).isSameAs(first);
+        // a request that read an older count takes the newer body
+        Assertions.assertThat(cache.get("", 0, () -> 1, serializer)).isSameAs(first);
+
+        final ListResponseCache.Body second = cache.get("", 2, () -> 3, serializer);
+        Assertions.assertThat(second.modificationCount()).isEqualTo(3);
+        Assertions.assertThat(second.content()).containsExactly(2);
+        Assertions.assertThat(cache.get("", 3, () -> 3, serializer)).isSameAs(second);
+        Assertions.assertThat(serializations).hasValue(2);
+    }
+
+    // with only patches every write adds one to the sum of versions, so a body tagged with count m has to hold at
+    // least that many versions or it missed a write that was visible before the count was read
+    @Test
+    void testConcurrentWritesNeverServeStaleList() throws Exception {
+        final List<Beer> beers = this.beerService.listBeers();
+        final long startCount = this.beerService.getModificationCount();
+        final long startVersions = beers.stream().mapToLong(Beer::getVersion).sum();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicInteger checkedResponses = new AtomicInteger();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            final List<Future<?>> writers = new ArrayList<>();
+            // each writer patches its own half of the beers, unconditional patches of one beer can still conflict
+            for (int i = 0; i < 2; i++) {
+                final int half = i;
+                writers.add(executor.submit(() -> {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int j = 0; j < 5_000; j++) {
+                        this.beerService.patchBeerById(beers.get(2 * random.nextInt(beers.size() / 2) + half).getId(),
+                                        Beer.builder().quantityOnHand(random.nextInt(1000)).build());
+                    }
+                }));
+            }
+            final List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                readers.add(executor.submit(() -> {
+                    long lastCount = 0;
+                    while (writing.get()) {
+                        final ResponseEntity<?> response = this.beerController.getAllBeers(null, null, null, null, null,
+                                        null, null, null, null, null, null, null, null,
+                                        new ServletWebRequest(new MockHttpServletRequest()));
+                        final long count = Long.parseLong(response.getHeaders().getETag().replaceAll("\\D", ""));
+                        final long versions = this.parse((byte[]) response.getBody()).stream()
+                                        .mapToLong(Beer::getVersion).sum();
+                        Assertions.assertThat(count).isGreaterThanOrEqualTo(lastCount);
+                        Assertions.assertThat(versions).isGreaterThanOrEqualTo(startVersions + count - startCount);
+                        lastCount = count;
+                        checkedResponses.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            try {
+                for (final Future<?> writer : writers) {
+                    writer.get();
+                }
+            } finally {
+                writing.set(false);
+            }
+            for (final Future<?> reader : readers) {
+                reader.get();
+            }
+        }
+
+        // once the writes stop the cached body is exactly the store, as served over http
+        final MockHttpServletResponse response = this.get(null);
+        Assertions.assertThat(checkedResponses).doesNotHaveValue(0);
+        Assertions.assertThat(response.getHeader(HttpHeaders.ETAG))
+                        .isEqualTo(ETags.forCollection("beers", this.beerService.getModificationCount(),
+                                        WireFormat.JSON, false));
+        Assertions.assertThat(this.parse(response.getContentAsByteArray()))
+                        .containsExactlyInAnyOrderElementsOf(this.beerService.listBeers());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyServed() {
+        final ListResponseCache cache = new ListResponseCache("beers", 2_500);
+        final ListResponseCache.Serializer serializer = () -> new byte[1_000];
+
+        final ListResponseCache.Body first = cache.get("first", 1, () -> 1, serializer);
+        final ListResponseCache.Body second = cache.get("second", 1, () -> 1, serializer);
+        Assertions.assertThat(cache.get("first", 1, () -> 1, serializer)).isSameAs(first);
+        // over budget, second was served longest ago
+        cache.get("third", 1, () -> 1, serializer);
+        Assertions.assertThat(cache.cachedBytes()).isEqualTo(2_000);
+        Assertions.assertThat(cache.get("first", 1, () -> 1, serializer)).isSameAs(first);
+        Assertions.assertThat(cache.get("second", 1, () -> 1, serializer)).isNotSameAs(second);
+
+        // gzipped copies count too, and a body bigger than the budget is never kept
+        first.gzipped();
+        Assertions.assertThat(cache.cachedBytes()).isLessThanOrEqualTo(2_500);
+        final ListResponseCache.Body huge = cache.get("huge", 1, () -> 1, () -> new byte[3_000]);
+        Assertions.assertThat(cache.get("huge", 1, () -> 1, serializer)).isNotSameAs(huge);
+        Assertions.assertThat(cache.cachedBytes()).isLessThanOrEqualTo(2_500);
+    }
+
+    @Test
+    void testGzippedWhenAccepted() throws Exception {
+        final MockHttpServletResponse plain = this.get(null);
+        final MockHttpServletResponse gzipped = this.get("gzip");
+
+        Assertions.assertThat(plain.getContentAsByteArray().length).isGreaterThan(ListResponseCache.MIN_GZIP_SIZE);
+        Assertions.assertThat(plain.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        Assertions.assertThat(gzipped.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        Assertions.assertThat(gzipped.getHeader(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT_ENCODING);
+        // different bytes, so a different tag
+        Assertions.assertThat(gzipped.getHeader(HttpHeaders.ETAG)).isNotEqualTo(plain.getHeader(HttpHeaders.ETAG));
+        try (GZIPInputStream inflated = new GZIPInputStream(new ByteArrayInputStream(gzipped.getContentAsByteArray()))) {
+            Assertions.assertThat(inflated.readAllBytes()).isEqualTo(plain.getContentAsByteArray());
+        }
+    }
+
+    @Test
+    void testListInEachWireFormat() throws Exception {
+        for (final WireFormat format : WireFormat.values()) {
+            final MockHttpServletResponse response = this.mockMvc.perform(MockMvcRequestBuilders
+                            .get(BeerController.BEER_PATH).accept(format.mediaType())).andReturn().getResponse();
+
+            Assertions.assertThat(response.getContentType()).isEqualTo(format.mediaType().toString());
+            Assertions.assertThat(response.getHeader(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT);
+            Assertions.assertThat(format.mapper(this.objectMapper).readValue(response.getContentAsByteArray(),
+                            new TypeReference<List<Beer>>() {
+                            })).containsExactlyInAnyOrderElementsOf(this.beerService.listBeers());
+        }
+    }
+
+    @Test
+    void testNegotiateWireFormat() {
+        Assertions.assertThat(WireFormat.negotiate(null)).isEqualTo(WireFormat.JSON);
+        Assertions.assertThat(WireFormat.negotiate("*/*")).isEqualTo(WireFormat.JSON);
+        Assertions.assertThat(WireFormat.negotiate("application/cbor")).isEqualTo(WireFormat.CBOR);
+        Assertions.assertThat(WireFormat.negotiate("*/*, application/cbor")).isEqualTo(WireFormat.CBOR);
+        Assertions.assertThat(WireFormat.negotiate("application/json;q=0.5, application/x-jackson-smile"))
+                        .isEqualTo(WireFormat.SMILE);
+        Assertions.assertThat(WireFormat.negotiate("application/cbor;q=0, */*")).isEqualTo(WireFormat.JSON);
+        Assertions.assertThat(WireFormat.negotiate("text/html")).isEqualTo(WireFormat.JSON);
+        Assertions.assertThat(WireFormat.negotiate("not a media type")).isEqualTo(WireFormat.JSON);
+    }
+
+    private MockHttpServletResponse get(final String acceptEncoding) throws Exception {
+        final HttpHeaders headers = new HttpHeaders();
+        if (acceptEncoding != null) {
+            headers.set(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+
+        return this.mockMvc.perform(MockMvcRequestBuilders.get(BeerController.BEER_PATH).headers(headers)
+                        .accept(MediaType.APPLICATION_JSON)).andReturn().getResponse();
+    }
+
+    private List<Beer> parse(final byte[] json) throws Exception {
+        return this.objectMapper.readValue(json, new TypeReference<List<Beer>>() {
+        });
+    }
+}
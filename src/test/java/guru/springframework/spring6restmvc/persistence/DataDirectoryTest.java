@@ -0,0 +1,198 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.persistence;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.model.Customer;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+import guru.springframework.spring6restmvc.services.ConflictException;
+import guru.springframework.spring6restmvc.services.CustomerServiceImpl;
+import guru.springframework.spring6restmvc.services.EntityStore;
+import guru.springframework.spring6restmvc.services.EntityStoreJournal;
+
+class DataDirectoryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testCheckpointUnderConcurrentWritesLosesNothing() throws Exception {
+        final List<Beer> expected;
+
+        try (DataDirectory dataDirectory = new DataDirectory(this.directory, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            final BeerServiceImpl beerService = new BeerServiceImpl(dataDirectory);
+            final List<UUID> ids = beerService.listBeers().stream().map(Beer::getId).toList();
+            final AtomicBoolean running = new AtomicBoolean(true);
+
+            try (ExecutorService writers = Executors.newFixedThreadPool(4)) {
+                final List<Future<?>> results = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    results.add(writers.submit(() -> {
+                        while (running.get()) {
+                            final ThreadLocalRandom random = ThreadLocalRandom.current();
+                            try {
+                                beerService.patchBeerById(ids.get(random.nextInt(ids.size())),
+                                                Beer.builder().quantityOnHand(random.nextInt(1000)).build());
+                            } catch (final ConflictException e) {
+                                // lost a race with another writer
+                            }
+                            beerService.saveNewBeer(Beer.builder().beerName("Concurrent").build());
+                        }
+                    }));
+                }
+
+                // snapshots are taken while the writers keep going, each one fuzzy
+                for (int i = 0; i < 5; i++) {
+                    Thread.sleep(50);
+                    dataDirectory.checkpoint();
+                }
+                running.set(false);
+                for (final Future<?> result : results) {
+                    result.get();
+                }
+            }
+            expected = beerService.listBeers();
+        }
+
+        try (DataDirectory dataDirectory = new DataDirectory(this.directory, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            Assertions.assertThat(new BeerServiceImpl(dataDirectory).listBeers())
+                            .containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+
+    @Test
+    void testCheckpointWaitsForWritesASnapshotIsWaitingFor() throws Exception {
+        final Beer beer = Beer.builder().id(UUID.randomUUID()).beerName("Before").version(1).build();
+
+        try (DataDirectory dataDirectory = new DataDirectory(this.directory, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            final EntityStoreJournal<Beer> journal = dataDirectory.journal("beer");
+            final CountDownLatch logged = new CountDownLatch(1);
+            final CountDownLatch publish = new CountDownLatch(1);
+            final EntityStore<Beer> store = new EntityStore<>(new EntityStoreJournal<>() {
+
+                @Override
+                public void append(final UUID id, final Beer current) {
+                    journal.append(id, current);
+                    if (current.getVersion() == 2) {
+                        // logged but not published until the checkpoint has rotated the log
+                        logged.countDown();
+                        try {
+                            publish.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+
+                @Override
+                public void sync() {
+                    journal.sync();
+                }
+            });
+            dataDirectory.restore("beer", Beer.class, new BeerSnapshotCodec(), store);
+            store.insert(beer);
+
+            try (ExecutorService threads = Executors.newFixedThreadPool(3)) {
+                final Future<?> write = threads.submit(() -> store.update(beer.getId(), null,
+                                current -> current.toBuilder().beerName("After").build()));
+                logged.await();
+                // a snapshot opened now waits for the write, and a checkpoint after it must wait too
+                final Future<?> snapshot = threads.submit(() -> store.snapshot().close());
+                Thread.sleep(50);
+                final Future<?> checkpoint = threads.submit(() -> {
+                    dataDirectory.checkpoint();
+                    return null;
+                });
+                Thread.sleep(50);
+                publish.countDown();
+                write.get();
+                snapshot.get();
+                checkpoint.get();
+            }
+        }
+
+        try (DataDirectory dataDirectory = new DataDirectory(this.directory, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            final EntityStore<Beer> store = new EntityStore<>();
+            dataDirectory.restore("beer", Beer.class, new BeerSnapshotCodec(), store);
+            Assertions.assertThat(store.get(beer.getId()).getBeerName()).isEqualTo("After");
+        }
+    }
+
+    @Test
+    void testRestoreMapsSnapshotAndReplaysTheRest() throws Exception {
+        final List<Beer> beers;
+        final List<Customer> customers;
+
+        try (DataDirectory dataDirectory = new DataDirectory(this.directory, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            final BeerServiceImpl beerService = new BeerServiceImpl(dataDirectory);
+            final CustomerServiceImpl customerService = new CustomerServiceImpl(dataDirectory);
+            beerService.saveNewBeer(Beer.builder().beerName("Snapshot").beerStyle(BeerStyle.GOSE).upc("1")
+                            .price(new BigDecimal("123456789012345678901234567890.123")).quantityOnHand(-1).build());
+            dataDirectory.checkpoint();
+
+            // after the checkpoint, only in the log
+            beerService.saveNewBeer(Beer.builder().beerName("Logged").build());
+            // one of the seeded beers, the list is in id order
+            beerService.deleteBeerById(beerService.findBeers(null, "123456", null).get(0).getId());
+            customerService.saveNewCustomer(Customer.builder().name("Logged").build());
+
+            beers = beerService.listBeers();
+            customers = customerService.listCustomers();
+        }
+        try (Stream<Path> files = Files.list(this.directory)) {
+            Assertions.assertThat(files.map(file -> file.getFileName().toString())).containsExactlyInAnyOrder(
+                            "beer.snapshot", "customer.snapshot", "wal-0000000000000000002.log");
+        }
+
+        try (DataDirectory dataDirectory = new DataDirectory(this.directory, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            final BeerServiceImpl beerService = new BeerServiceImpl(dataDirectory);
+            Assertions.assertThat(beerService.listBeers()).containsExactlyInAnyOrderElementsOf(beers);
+            // the indexes are built from the snapshot as well
+            Assertions.assertThat(beerService.findBeers(null, null, "snap")).extracting(Beer::getUpc)
+                            .containsExactly("1");
+            Assertions.assertThat(beerService.findBeers(BeerStyle.GOSE, "1", null)).hasSize(1);
+            Assertions.assertThat(beerService.listBeersSorted("price", true, null, null, null, null, null))
+                            .extracting(Beer::getBeerName).containsExactly("Snapshot", "Sunshine City", "Crank");
+            Assertions.assertThat(new CustomerServiceImpl(dataDirectory).listCustomers())
+                            .containsExactlyInAnyOrderElementsOf(customers);
+        }
+    }
+
+    @Test
+    void testSnapshotKeepsNullFields() throws Exception {
+        final Beer sparse = Beer.builder().id(UUID.randomUUID()).build();
+        final Beer full = Beer.builder().id(UUID.randomUUID()).beerName("Ünïcödé").beerStyle(BeerStyle.WHEAT).upc("")
+                        .price(new BigDecimal("0.00")).quantityOnHand(0).version(Integer.MAX_VALUE)
+                        .createdDate(LocalDateTime.of(1900, 1, 1, 0, 0, 0, 1)).updatedDate(LocalDateTime.now()).build();
+
+        try (DataDirectory dataDirectory = new DataDirectory(this.directory, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            final EntityStore<Beer> store = new EntityStore<>();
+            dataDirectory.restore("beer", Beer.class, new BeerSnapshotCodec(), store);
+            store.insert(sparse);
+            store.insert(full);
+            dataDirectory.checkpoint();
+        }
+
+        Assertions.assertThat(SnapshotFile.read(this.directory.resolve("beer.snapshot"), new BeerSnapshotCodec())
+                        .entities()).containsExactlyInAnyOrder(sparse, full);
+    }
+}
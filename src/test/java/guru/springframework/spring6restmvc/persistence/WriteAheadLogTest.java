@@ -0,0 +1,177 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.persistence;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+
+class WriteAheadLogTest {
+
+    static final ObjectMapper OBJECT_MAPPER = JsonMapper.builder().findAndAddModules().build();
+
+    @TempDir
+    Path                      directory;
+
+    @Test
+    void testReplayRestoresEveryWrite() throws Exception {
+        final Path path = this.directory.resolve("data");
+        final List<Beer> expected;
+
+        try (DataDirectory dataDirectory = new DataDirectory(path, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            final BeerServiceImpl beerService = new BeerServiceImpl(dataDirectory);
+            final Beer saved = beerService
+                            .saveNewBeer(Beer.builder().beerName("Durable").beerStyle(BeerStyle.STOUT).build());
+            final List<Beer> seeded = beerService.listBeers().stream()
+                            .filter(beer -> !beer.getId().equals(saved.getId())).toList();
+
+            beerService.patchBeerById(saved.getId(), Beer.builder().quantityOnHand(7).build());
+            beerService.updateBeerById(seeded.get(1).getId(), seeded.get(1).toBuilder().beerName("Renamed").build());
+            beerService.deleteBeerById(seeded.get(2).getId());
+            expected = beerService.listBeers();
+        }
+
+        try (DataDirectory dataDirectory = new DataDirectory(path, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            final BeerServiceImpl beerService = new BeerServiceImpl(dataDirectory);
+
+            Assertions.assertThat(beerService.listBeers()).containsExactlyInAnyOrderElementsOf(expected);
+            // replay feeds the indexes too and does not reseed
+            Assertions.assertThat(beerService.findBeers(BeerStyle.STOUT, null, null))
+                            .extracting(Beer::getQuantityOnHand).containsExactly(7);
+            Assertions.assertThat(beerService.getBeerCount()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    void testTornTailIsCutOff() throws Exception {
+        final Path path = this.directory.resolve("data");
+        try (DataDirectory dataDirectory = new DataDirectory(path, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            new BeerServiceImpl(dataDirectory).saveNewBeer(Beer.builder().beerName("Last").build());
+        }
+        final Path segment = WriteAheadLogTest.onlySegment(path);
+        final long complete = Files.size(segment);
+
+        // a crash can stop the last write anywhere, every cut must recover the three seeded beers
+        for (long cut = 1; cut < 120; cut++) {
+            final Path torn = Files.createDirectory(this.directory.resolve("torn-" + cut));
+            final Path tornSegment = Files.copy(segment, torn.resolve(segment.getFileName()));
+            try (RandomAccessFile file = new RandomAccessFile(tornSegment.toFile(), "rw")) {
+                file.setLength(complete - cut);
+            }
+
+            try (DataDirectory dataDirectory = new DataDirectory(torn, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+                final BeerServiceImpl beerService = new BeerServiceImpl(dataDirectory);
+                Assertions.assertThat(beerService.listBeers()).extracting(Beer::getBeerName).doesNotContain("Last")
+                                .hasSize(3);
+                // and the log takes new writes after the cut
+                beerService.saveNewBeer(Beer.builder().beerName("After").build());
+            }
+            try (DataDirectory dataDirectory = new DataDirectory(torn, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+                Assertions.assertThat(new BeerServiceImpl(dataDirectory).listBeers()).extracting(Beer::getBeerName)
+                                .contains("After").hasSize(4);
+            }
+        }
+    }
+
+    @Test
+    void testCorruptRecordStopsReplay() throws Exception {
+        final Path path = this.directory.resolve("data");
+        try (DataDirectory dataDirectory = new DataDirectory(path, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            new BeerServiceImpl(dataDirectory).saveNewBeer(Beer.builder().beerName("Corrupt").build());
+        }
+        try (RandomAccessFile file = new RandomAccessFile(WriteAheadLogTest.onlySegment(path).toFile(), "rw")) {
+            file.seek(file.length() - 10);
+            file.write('#');
+        }
+
+        try (DataDirectory dataDirectory = new DataDirectory(path, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            Assertions.assertThat(new BeerServiceImpl(dataDirectory).listBeers()).extracting(Beer::getBeerName)
+                            .doesNotContain("Corrupt").hasSize(3);
+        }
+    }
+
+    @Test
+    void testKilledWriterLosesNoAcknowledgedWrite() throws Exception {
+        final Path path = this.directory.resolve("data");
+        final Process writer = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"), CrashingWriter.class.getName(), path.toString())
+                                        .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+
+        // every printed id was acknowledged, kill the writer while its threads are in the middle of batches
+        final List<UUID> acknowledged = new ArrayList<>();
+        try (BufferedReader output = new BufferedReader(
+                        new InputStreamReader(writer.getInputStream(), StandardCharsets.US_ASCII))) {
+            String line;
+            while (acknowledged.size() < 2000 && (line = output.readLine()) != null) {
+                // the writer's log output goes to stdout as well
+                if (line.startsWith(CrashingWriter.ACKNOWLEDGED)) {
+                    acknowledged.add(UUID.fromString(line.substring(CrashingWriter.ACKNOWLEDGED.length())));
+                }
+            }
+            writer.destroyForcibly();
+        }
+        Assertions.assertThat(writer.waitFor(30, TimeUnit.SECONDS)).isTrue();
+        Assertions.assertThat(acknowledged).hasSize(2000);
+
+        try (DataDirectory dataDirectory = new DataDirectory(path, WriteAheadLogTest.OBJECT_MAPPER, null)) {
+            final BeerServiceImpl beerService = new BeerServiceImpl(dataDirectory);
+            for (final UUID beerId : acknowledged) {
+                Assertions.assertThat(beerService.getBeerById(beerId)).as(beerId.toString()).isNotNull();
+            }
+        }
+    }
+
+    static Path onlySegment(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            final List<Path> segments = files.filter(file -> file.getFileName().toString().endsWith(".log")).toList();
+            Assertions.assertThat(segments).hasSize(1);
+            return segments.get(0);
+        }
+    }
+
+    // runs in its own jvm, saves beers from several threads until killed and prints each id once it is durable
+    public static class CrashingWriter {
+
+        static final String ACKNOWLEDGED = "acknowledged ";
+
+        public static void main(final String[] args) throws Exception {
+            final BeerServiceImpl beerService = new BeerServiceImpl(
+                            new DataDirectory(Path.of(args[0]), WriteAheadLogTest.OBJECT_MAPPER, null));
+
+            try (ExecutorService writers = Executors.newFixedThreadPool(8)) {
+                for (int i = 0; i < 8; i++) {
+                    writers.submit(() -> {
+                        while (true) {
+                            final Beer saved = beerService.saveNewBeer(Beer.builder().beerName("Crash").build());
+                            synchronized (System.out) {
+                                System.out.println(CrashingWriter.ACKNOWLEDGED + saved.getId());
+                                System.out.flush();
+                            }
+                        }
+                    });
+                }
+            }
+        }
+    }
+}
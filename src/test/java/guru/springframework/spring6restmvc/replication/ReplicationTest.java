@@ -0,0 +1,316 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.replication;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import guru.springframework.spring6restmvc.controller.WireFormat;
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.ChangeEvent;
+import guru.springframework.spring6restmvc.model.Customer;
+import guru.springframework.spring6restmvc.services.BeerServiceImpl;
+import guru.springframework.spring6restmvc.services.ChangeFeed;
+import guru.springframework.spring6restmvc.services.CustomerServiceImpl;
+
+// nodes on loopback, each with its own stores, change feed and replication server, following each other
+class ReplicationTest {
+
+    // like the application mapper a plain ObjectMapper, a JsonMapper cannot be copied for another format
+    static final ObjectMapper OBJECT_MAPPER = WireFormat.SMILE.derive(new ObjectMapper().findAndRegisterModules());
+
+    // the server only checks the host of a peer
+    static final List<String> PEERS         = List.of("localhost:0");
+
+    static final String       SECRET        = "secret";
+
+    private final List<AutoCloseable> closeables = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (final AutoCloseable closeable : this.closeables) {
+            closeable.close();
+        }
+    }
+
+    @Test
+    void testConcurrentUpdatesOfOneBeerConverge() throws Exception {
+        final Node a = this.node();
+        final Node b = this.node();
+        a.follow(b);
+        b.follow(a);
+        final UUID beerId = a.beerService.saveNewBeer(Beer.builder().beerName("Beer").build()).getId();
+        ReplicationTest.await(() -> b.beerService.getBeerById(beerId) != null);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            final List<Future<?>> results = new ArrayList<>();
+            for (final Node node : List.of(a, b)) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        node.beerService.patchBeerById(beerId, Beer.builder().beerName("Beer " + i).upc(node.server
+                                        .port() + "").build());
+                    }
+                }));
+            }
+            for (final Future<?> result : results) {
+                result.get();
+            }
+        }
+
+        ReplicationTest.await(() -> a.beerService.getBeerById(beerId).equals(b.beerService.getBeerById(beerId)));
+    }
+
+    @Test
+    void testGapStartsOverWithSnapshot() throws Exception {
+        final UUID beerId = UUID.randomUUID();
+        final List<ReplicationFrame> hellos = new CopyOnWriteArrayList<>();
+        final ServerSocket serverSocket = new ServerSocket(0);
+        this.closeables.add(serverSocket);
+        // a snapshot that ends at sequence 5, then a frame from 7
+        Thread.ofVirtual().start(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                final DataInputStream in = new DataInputStream(socket.getInputStream());
+                final OutputStream out = socket.getOutputStream();
+                new ReplicationHandshake(ReplicationTest.SECRET).accept(in, out);
+                hellos.add(ReplicationFrame.read(in, ReplicationTest.OBJECT_MAPPER));
+                new ReplicationFrame("epoch", 0, 5, true, System.currentTimeMillis(), List.of())
+                                .write(out, ReplicationTest.OBJECT_MAPPER);
+                new ReplicationFrame("epoch", 7, 8, false, System.currentTimeMillis(), List.of(ChangeEvent
+                                .builder().entity(Beer.builder().id(beerId).beerName("Beer").version(1).build())
+                                .entityId(beerId).entityType("beer").build())).write(out,
+                                                ReplicationTest.OBJECT_MAPPER);
+                try (Socket again = serverSocket.accept()) {
+                    final DataInputStream againIn = new DataInputStream(again.getInputStream());
+                    new ReplicationHandshake(ReplicationTest.SECRET).accept(againIn, again.getOutputStream());
+                    hellos.add(ReplicationFrame.read(againIn, ReplicationTest.OBJECT_MAPPER));
+                }
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        final Node node = this.node();
+        final ReplicationClient client = node.follow(serverSocket.getLocalPort());
+
+        ReplicationTest.await(() -> hellos.size() == 2);
+        Assertions.assertThat(client.gapCount()).isEqualTo(1);
+        Assertions.assertThat(client.snapshotCount()).isEqualTo(1);
+        Assertions.assertThat(node.beerService.getBeerById(beerId)).isNull();
+        Assertions.assertThat(hellos.get(0).epoch()).isNull();
+        // after a gap the client has nothing to go on from
+        Assertions.assertThat(hellos.get(1).epoch()).isNull();
+    }
+
+    @Test
+    void testLateJoinerGetsSnapshot() throws Exception {
+        final Node a = this.node();
+        final List<UUID> beerIds = a.beerService.saveNewBeers(IntStream.range(0, 2_500)
+                        .mapToObj(i -> Beer.builder().beerName("Beer " + i).build()).toList()).stream()
+                        .map(Beer::getId).toList();
+        final UUID customerId = a.customerService.saveNewCustomer(Customer.builder().name("Customer").build())
+                        .getId();
+
+        final Node b = this.node();
+        final ReplicationClient client = b.follow(a);
+        ReplicationTest.await(() -> client.snapshotCount() == 1);
+        Assertions.assertThat(beerIds).allMatch(beerId -> b.beerService.getBeerById(beerId) != null);
+        Assertions.assertThat(b.customerService.getCustomerById(customerId)).isNotNull();
+
+        // and carries on with the writes made since
+        final UUID beerId = a.beerService.saveNewBeer(Beer.builder().beerName("Beer").build()).getId();
+        ReplicationTest.await(() -> b.beerService.getBeerById(beerId) != null);
+        Assertions.assertThat(client.snapshotCount()).isEqualTo(1);
+        Assertions.assertThat(client.gapCount()).isZero();
+    }
+
+    @Test
+    void testPeerWithoutTheSecretIsRefused() throws Exception {
+        final Node a = this.node();
+        final Node b = this.node("guessed", ReplicationTest.PEERS);
+        a.beerService.saveNewBeer(Beer.builder().beerName("Beer").build());
+        b.beerService.saveNewBeer(Beer.builder().beerName("Beer").build());
+        final ReplicationClient fromA = b.follow(a);
+        final ReplicationClient fromB = a.follow(b);
+        Thread.sleep(500);
+
+        Assertions.assertThat(fromA.snapshotCount()).isZero();
+        Assertions.assertThat(fromB.snapshotCount()).isZero();
+        Assertions.assertThat(a.beerService.listBeers()).hasSize(b.beerService.listBeers().size());
+    }
+
+    // a server that cannot prove it knows the secret is not followed, whatever it sends
+    @Test
+    void testServerWithoutTheSecretIsNotFollowed() throws Exception {
+        final UUID beerId = UUID.randomUUID();
+        final ServerSocket serverSocket = new ServerSocket(0);
+        this.closeables.add(serverSocket);
+        Thread.ofVirtual().start(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                final DataInputStream in = new DataInputStream(socket.getInputStream());
+                final OutputStream out = socket.getOutputStream();
+                out.write(new byte[32]);
+                in.readFully(new byte[64]);
+                out.write(new byte[32]);
+                new ReplicationFrame("epoch", 0, 1, true, System.currentTimeMillis(), List.of(ChangeEvent
+                                .builder().entity(Beer.builder().id(beerId).beerName("Beer").version(1).build())
+                                .entityId(beerId).entityType("beer").build())).write(out,
+                                                ReplicationTest.OBJECT_MAPPER);
+            } catch (final IOException e) {
+                // the client hung up
+            }
+        });
+        final Node node = this.node();
+        final ReplicationClient client = node.follow(serverSocket.getLocalPort());
+        Thread.sleep(500);
+
+        Assertions.assertThat(client.receivedCount()).isZero();
+        Assertions.assertThat(node.beerService.getBeerById(beerId)).isNull();
+    }
+
+    @Test
+    void testUnlistedPeerIsRefused() throws Exception {
+        // a documentation address, never the loopback the test connects from
+        final Node a = this.node(ReplicationTest.SECRET, List.of("192.0.2.1:7070"));
+        final Node b = this.node();
+        final ReplicationClient client = b.follow(a);
+        Thread.sleep(500);
+
+        Assertions.assertThat(client.snapshotCount()).isZero();
+        Assertions.assertThat(b.beerService.listBeers()).extracting(Beer::getId).doesNotContainAnyElementsOf(a
+                        .beerService.listBeers().stream().map(Beer::getId).toList());
+    }
+
+    @Test
+    void testReplicatedWritesAreNotSentBack() throws Exception {
+        final Node a = this.node();
+        final Node b = this.node();
+        final ReplicationClient fromB = a.follow(b);
+        final ReplicationClient fromA = b.follow(a);
+        ReplicationTest.await(() -> fromA.snapshotCount() == 1 && fromB.snapshotCount() == 1);
+        final long received = fromB.receivedCount();
+
+        final UUID beerId = a.beerService.saveNewBeer(Beer.builder().beerName("Beer").build()).getId();
+        ReplicationTest.await(() -> b.beerService.getBeerById(beerId) != null);
+        // long enough for b to send a heartbeat covering the write it applied
+        Thread.sleep(ReplicationServer.HEARTBEAT_NANOS / 1_000_000 + 500);
+
+        Assertions.assertThat(fromB.receivedCount()).isEqualTo(received);
+    }
+
+    // a follower that missed deletes while it was away gets them with the snapshot, its own writes stay
+    @Test
+    void testSnapshotCarriesDeletes() throws Exception {
+        final Node a = this.node();
+        final Node b = this.node();
+        final Beer beer = a.beerService.saveNewBeer(Beer.builder().beerName("Beer").build());
+        final Customer customer = a.customerService.saveNewCustomer(Customer.builder().name("Customer").build());
+        b.beerService.applyReplicatedBeer(beer.getId(), beer, null);
+        b.customerService.applyReplicatedCustomer(customer.getId(), customer, null);
+        final Beer own = b.beerService.saveNewBeer(Beer.builder().beerName("Own").build());
+        a.beerService.deleteBeerById(beer.getId());
+        a.customerService.deleteCustomerById(customer.getId());
+
+        final ReplicationClient client = b.follow(a);
+        ReplicationTest.await(() -> client.snapshotCount() == 1);
+        Assertions.assertThat(b.beerService.getBeerById(beer.getId())).isNull();
+        Assertions.assertThat(b.customerService.getCustomerById(customer.getId())).isNull();
+        Assertions.assertThat(b.beerService.getBeerById(own.getId())).isEqualTo(own);
+    }
+
+    @Test
+    void testWritesConvergeBothWays() throws Exception {
+        final Node a = this.node();
+        final Node b = this.node();
+        a.follow(b);
+        b.follow(a);
+
+        final Beer saved = a.beerService.saveNewBeer(Beer.builder().beerName("Beer").upc("123").build());
+        ReplicationTest.await(() -> b.beerService.getBeerById(saved.getId()) != null);
+        Assertions.assertThat(b.beerService.getBeerById(saved.getId())).isEqualTo(saved);
+        Assertions.assertThat(b.beerService.findBeers(null, "123", null)).containsExactly(saved);
+
+        b.beerService.patchBeerById(saved.getId(), Beer.builder().beerName("Renamed").build());
+        ReplicationTest.await(() -> "Renamed".equals(a.beerService.getBeerById(saved.getId()).getBeerName()));
+        Assertions.assertThat(a.beerService.getBeerById(saved.getId()).getVersion()).isEqualTo(2);
+
+        final Customer customer = b.customerService.saveNewCustomer(Customer.builder().name("Customer").build());
+        ReplicationTest.await(() -> a.customerService.getCustomerById(customer.getId()) != null);
+
+        a.beerService.deleteBeerById(saved.getId());
+        b.customerService.deleteCustomerById(customer.getId());
+        ReplicationTest.await(() -> b.beerService.getBeerById(saved.getId()) == null
+                        && a.customerService.getCustomerById(customer.getId()) == null);
+    }
+
+    private Node node() throws IOException {
+        return this.node(ReplicationTest.SECRET, ReplicationTest.PEERS);
+    }
+
+    private Node node(final String secret, final List<String> peers) throws IOException {
+        final Node node = new Node(this, secret, peers);
+        this.closeables.add(node.server);
+
+        return node;
+    }
+
+    static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    static final class Node {
+
+        final BeerServiceImpl     beerService     = new BeerServiceImpl();
+
+        final ChangeFeed          changeFeed      = new ChangeFeed(1 << 16);
+
+        final CustomerServiceImpl customerService = new CustomerServiceImpl();
+
+        private final String          secret;
+
+        final ReplicationServer   server;
+
+        private final ReplicationTest test;
+
+        Node(final ReplicationTest test, final String secret, final List<String> peers) throws IOException {
+            this.test = test;
+            this.secret = secret;
+            this.beerService.addChangeListener(this.changeFeed.listener("beer"));
+            this.customerService.addChangeListener(this.changeFeed.listener("customer"));
+            this.server = new ReplicationServer(InetAddress.getLoopbackAddress(), 0, peers, secret, this.changeFeed,
+                            this.beerService, this.customerService, ReplicationTest.OBJECT_MAPPER);
+        }
+
+        ReplicationClient follow(final int port) {
+            final ReplicationClient client = new ReplicationClient(List.of("localhost:" + port), this.secret,
+                            this.beerService, this.customerService, ReplicationTest.OBJECT_MAPPER);
+            this.test.closeables.add(client);
+
+            return client;
+        }
+
+        ReplicationClient follow(final Node node) {
+            return this.follow(node.server.port());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerImportReport;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+
+class BeerCsvImporterTest {
+
+    BeerCsvImporter beerCsvImporter;
+
+    BeerServiceImpl beerService;
+
+    @TempDir
+    Path            errorDirectory;
+
+    @BeforeEach
+    void setUp() {
+        this.beerService = new BeerServiceImpl();
+        this.beerCsvImporter = new BeerCsvImporter(this.beerService, this.errorDirectory);
+    }
+
+    // quoting, crlf, a byte order mark, columns in another order and an extra one
+    @Test
+    void testImportCsv() throws Exception {
+        final String csv = "\uFEFFUPC,Beer Name,notes,price,beer_style,quantityOnHand\r\n"
+                        + "111,\"Hop, Skip \"\"and\"\" Jump\",,4.50,IPA,12\r\n"
+                        + "222,\"Two\nLines\",\"say \"\"hi\"\"\",5,pale ale,\r\n"
+                        + "333,Stout Fellow,x,6.99,STOUT,0";
+        final int before = this.beerService.getBeerCount();
+
+        final BeerImportReport report = this.importCsv(csv);
+
+        Assertions.assertThat(report.getRowCount()).isEqualTo(3);
+        Assertions.assertThat(report.getImportedCount()).isEqualTo(3);
+        Assertions.assertThat(report.getErrorFile()).isNull();
+        Assertions.assertThat(this.beerService.getBeerCount()).isEqualTo(before + 3);
+        final Beer hop = this.beerService.findBeers(null, "111", null).get(0);
+        Assertions.assertThat(hop.getBeerName()).isEqualTo("Hop, Skip \"and\" Jump");
+        Assertions.assertThat(hop.getPrice()).isEqualTo(new BigDecimal("4.50"));
+        Assertions.assertThat(hop.getQuantityOnHand()).isEqualTo(12);
+        final Beer twoLines = this.beerService.findBeers(null, "222", null).get(0);
+        Assertions.assertThat(twoLines.getBeerName()).isEqualTo("Two\nLines");
+        Assertions.assertThat(twoLines.getBeerStyle()).isEqualTo(BeerStyle.PALE_ALE);
+        Assertions.assertThat(twoLines.getQuantityOnHand()).isNull();
+        Assertions.assertThat(this.beerService.findBeers(null, "333", null).get(0).getVersion()).isEqualTo(1);
+    }
+
+    // more rows than one batch and one read buffer, the bad ones end up in the error file with their line
+    @Test
+    void testRejectedRowsGoToErrorFile() throws Exception {
+        final StringBuilder csv = new StringBuilder("beerName,beerStyle,upc,price\n");
+        for (int i = 0; i < 5_000; i++) {
+            csv.append(i == 10 ? "\"Multi\nLine\"" : "Beer " + i).append(',')
+                            .append(i % 1_000 == 7 ? "CIDER" : "LAGER").append(',').append(i).append(',')
+                            .append(i == 20 ? "-1" : "2.5").append('\n');
+        }
+        csv.append("short,row\n\n");
+
+        final BeerImportReport report = this.importCsv(csv.toString());
+
+        Assertions.assertThat(report.getRowCount()).isEqualTo(5_001);
+        Assertions.assertThat(report.getRejectedCount()).isEqualTo(7);
+        Assertions.assertThat(report.getImportedCount()).isEqualTo(4_994);
+        Assertions.assertThat(this.beerService.findBeers(BeerStyle.LAGER, null, null)).hasSize(4_994);
+        // the row with a line break moves every later one down a line
+        final List<String> errors = Files.readAllLines(Path.of(report.getErrorFile()));
+        Assertions.assertThat(errors).hasSize(8).startsWith("line,error,beerName,beerStyle,upc,price",
+                        "9,Unknown beerStyle CIDER,Beer 7,CIDER,7,2.5", "23,Invalid price -1,Beer 20,LAGER,20,-1");
+        Assertions.assertThat(errors.get(7)).isEqualTo("5003,\"Expected 4 fields, found 2\",short,row");
+    }
+
+    @Test
+    void testMissingColumnFailsBeforeImporting() {
+        final int before = this.beerService.getBeerCount();
+
+        Assertions.assertThatThrownBy(() -> this.importCsv("beerName,upc,price\nOne,1,1.00\n"))
+                        .isInstanceOf(InvalidCsvException.class).hasMessageContaining("beerstyle");
+        Assertions.assertThat(this.beerService.getBeerCount()).isEqualTo(before);
+    }
+
+    private BeerImportReport importCsv(final String csv) throws Exception {
+        return this.beerCsvImporter.importCsv(Channels.newChannel(new ByteArrayInputStream(csv.getBytes(
+                        StandardCharsets.UTF_8))), "test");
+    }
+}
@@ -0,0 +1,619 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerBatchAction;
+import guru.springframework.spring6restmvc.model.BeerBatchOperation;
+import guru.springframework.spring6restmvc.model.BeerBatchResult;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.model.ChangeSet;
+import guru.springframework.spring6restmvc.model.CursorPage;
+import guru.springframework.spring6restmvc.model.InventoryAggregate;
+import guru.springframework.spring6restmvc.model.InventoryAggregates;
+import guru.springframework.spring6restmvc.model.StockLevel;
+import guru.springframework.spring6restmvc.model.Tombstone;
+
+class BeerServiceImplTest {
+
+    BeerServiceImpl beerService;
+
+    @BeforeEach
+    void setUp() {
+        this.beerService = new BeerServiceImpl();
+    }
+
+    @Test
+    void testAdjustStock() {
+        final Beer beer = this.beerService.saveNewBeer(Beer.builder().beerName("Stocked").quantityOnHand(10).build());
+
+        final StockLevel added = this.beerService.adjustStock(beer.getId(), 5);
+        Assertions.assertThat(added.getAppliedDelta()).isEqualTo(5);
+        Assertions.assertThat(added.getQuantityOnHand()).isEqualTo(15);
+        Assertions.assertThat(added.getVersion()).isEqualTo(2);
+
+        // the floor of zero cuts the delta short
+        final StockLevel emptied = this.beerService.adjustStock(beer.getId(), -20);
+        Assertions.assertThat(emptied.getAppliedDelta()).isEqualTo(-15);
+        Assertions.assertThat(emptied.getQuantityOnHand()).isZero();
+        Assertions.assertThat(this.beerService.getBeerById(beer.getId()).getQuantityOnHand()).isZero();
+
+        Assertions.assertThatThrownBy(() -> this.beerService.adjustStock(UUID.randomUUID(), 1))
+                        .isInstanceOf(NotFoundException.class);
+    }
+
+    // many more threads than cores on one beer, every adjustment has to land exactly once and the floor has to
+    // hold: the 500 decrements can only take off what is there
+    @Test
+    void testConcurrentStockAdjustmentsAreNotLost() throws Exception {
+        final UUID beerId = this.beerService.saveNewBeer(Beer.builder().beerName("Hot").quantityOnHand(100).build())
+                        .getId();
+        final List<Future<StockLevel>> results = new ArrayList<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 2_000; i++) {
+                final int delta = i < 500 ? -1 : 1;
+                results.add(executor.submit(() -> this.beerService.adjustStock(beerId, delta)));
+            }
+        }
+
+        int appliedDecrements = 0;
+        int appliedSum = 0;
+        for (final Future<StockLevel> result : results) {
+            final StockLevel level = result.get();
+            appliedDecrements += level.getAppliedDelta() < 0 ? 1 : 0;
+            appliedSum += level.getAppliedDelta();
+            Assertions.assertThat(level.getQuantityOnHand()).isNotNegative();
+        }
+        final Beer beer = this.beerService.getBeerById(beerId);
+        Assertions.assertThat(beer.getQuantityOnHand()).isEqualTo(100 + appliedSum).isNotNegative();
+        Assertions.assertThat(appliedSum).isEqualTo(1_500 - appliedDecrements);
+        // batching writes several adjustments at once, never more writes than adjustments
+        Assertions.assertThat(beer.getVersion()).isBetween(2, 2_001);
+    }
+
+    @Test
+    void testApplyBatch() {
+        final Beer existing = this.beerService.listBeers().get(0);
+        final UUID missing = UUID.randomUUID();
+
+        final List<BeerBatchResult> results = this.beerService.applyBatch(List.of(
+                        BeerBatchOperation.builder().action(BeerBatchAction.CREATE).beer(Beer.builder().beerName("New").build())
+                                        .build(),
+                        BeerBatchOperation.builder().action(BeerBatchAction.UPDATE).beerId(existing.getId())
+                                        .beer(existing.toBuilder().beerName("Renamed").build()).build(),
+                        BeerBatchOperation.builder().action(BeerBatchAction.UPDATE).beerId(missing)
+                                        .beer(Beer.builder().build()).build(),
+                        BeerBatchOperation.builder().action(BeerBatchAction.DELETE).beerId(existing.getId()).build(),
+                        BeerBatchOperation.builder().action(BeerBatchAction.DELETE).build()));
+
+        Assertions.assertThat(results).extracting(BeerBatchResult::getStatus).containsExactly(201, 204, 404, 204, 400);
+        Assertions.assertThat(results).extracting(BeerBatchResult::getIndex).containsExactly(0, 1, 2, 3, 4);
+        Assertions.assertThat(this.beerService.getBeerById(results.get(0).getBeerId()).getBeerName()).isEqualTo("New");
+        Assertions.assertThat(this.beerService.getBeerById(existing.getId())).isNull();
+    }
+
+    // a replicated write of a deleted beer is weighed against its tombstone: one from before the delete is
+    // dropped, one made on another node from the state that was deleted wins
+    @Test
+    void testApplyReplicatedAfterDelete() {
+        final Beer saved = this.beerService.saveNewBeer(Beer.builder().beerName("Beer").build());
+        this.beerService.deleteBeerById(saved.getId());
+        Assertions.assertThat(this.beerService.streamBeerTombstones()).containsExactly(Tombstone.of(saved));
+
+        Assertions.assertThat(this.beerService.applyReplicatedBeer(saved.getId(), saved, null)).isFalse();
+        Assertions.assertThat(this.beerService.getBeerById(saved.getId())).isNull();
+
+        final Beer updated = saved.toBuilder().beerName("Renamed").version(2).updatedDate(saved.getUpdatedDate()
+                        .plusSeconds(1)).build();
+        Assertions.assertThat(this.beerService.applyReplicatedBeer(saved.getId(), updated, null)).isTrue();
+        Assertions.assertThat(this.beerService.getBeerById(saved.getId())).isEqualTo(updated);
+        Assertions.assertThat(this.beerService.streamBeerTombstones()).isEmpty();
+        // which the delete loses against when it arrives later
+        Assertions.assertThat(this.beerService.applyReplicatedBeer(saved.getId(), null, Tombstone.of(saved)))
+                        .isFalse();
+        Assertions.assertThat(this.beerService.getBeerById(saved.getId())).isEqualTo(updated);
+
+        // a delete that arrives before the write it deleted is kept until then
+        final Beer early = Beer.builder().id(UUID.randomUUID()).beerName("Early").version(1).updatedDate(saved
+                        .getUpdatedDate()).build();
+        Assertions.assertThat(this.beerService.applyReplicatedBeer(early.getId(), null, Tombstone.of(early)))
+                        .isFalse();
+        Assertions.assertThat(this.beerService.applyReplicatedBeer(early.getId(), early, null)).isFalse();
+        Assertions.assertThat(this.beerService.getBeerById(early.getId())).isNull();
+    }
+
+    @Test
+    void testConcurrentPatchesAreNotLost() throws Exception {
+        final UUID beerId = this.beerService.listBeers().get(0).getId();
+        final int threads = 8;
+        final int patchesPerThread = 500;
+        final AtomicInteger applied = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int i = 0; i < threads; i++) {
+            executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < patchesPerThread; j++) {
+                    // optimistic retry loop, like a well behaved client would do after a 409
+                    while (true) {
+                        final Beer current = this.beerService.getBeerById(beerId);
+                        try {
+                            this.beerService.patchBeerById(beerId, Beer.builder().version(current.getVersion())
+                                            .quantityOnHand(current.getQuantityOnHand() + 1).build());
+                            applied.incrementAndGet();
+                            break;
+                        } catch (final ConflictException e) {
+                            // someone else won, read again
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+
+        final int startQuantity = this.beerService.getBeerById(beerId).getQuantityOnHand();
+        start.countDown();
+        executor.shutdown();
+        Assertions.assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        final Beer result = this.beerService.getBeerById(beerId);
+        Assertions.assertThat(applied.get()).isEqualTo(threads * patchesPerThread);
+        Assertions.assertThat(result.getQuantityOnHand()).isEqualTo(startQuantity + threads * patchesPerThread);
+        Assertions.assertThat(result.getVersion()).isEqualTo(1 + threads * patchesPerThread);
+    }
+
+    @Test
+    void testConcurrentUnconditionalPatchesNeverConflict() throws Exception {
+        final UUID beerId = this.beerService.listBeers().get(0).getId();
+        final int threads = 8;
+        final int patchesPerThread = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> results = new ArrayList<>();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < patchesPerThread; j++) {
+                        // no version, so losing a race is no conflict
+                        this.beerService.patchBeerById(beerId, Beer.builder().beerName("Patch " + j).build());
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        }
+
+        Assertions.assertThat(this.beerService.getBeerById(beerId).getVersion())
+                        .isEqualTo(1 + threads * patchesPerThread);
+    }
+
+    @Test
+    void testFindBeersFollowsWrites() {
+        final Beer saved = this.beerService.saveNewBeer(
+                        Beer.builder().beerName("Hoppy Day").beerStyle(BeerStyle.IPA).upc("999").build());
+
+        Assertions.assertThat(this.beerService.findBeers(BeerStyle.IPA, null, null)).hasSize(2);
+        Assertions.assertThat(this.beerService.findBeers(null, "999", null)).extracting(Beer::getId)
+                        .containsExactly(saved.getId());
+        Assertions.assertThat(this.beerService.findBeers(null, null, "hop")).extracting(Beer::getId)
+                        .containsExactly(saved.getId());
+
+        this.beerService.patchBeerById(saved.getId(), Beer.builder().beerStyle(BeerStyle.STOUT).upc("1000").build());
+        Assertions.assertThat(this.beerService.findBeers(BeerStyle.IPA, null, null)).hasSize(1);
+        Assertions.assertThat(this.beerService.findBeers(BeerStyle.STOUT, "1000", "HOPPY")).hasSize(1);
+        Assertions.assertThat(this.beerService.findBeers(null, "999", null)).isEmpty();
+
+        this.beerService.updateBeerById(saved.getId(), Beer.builder().beerName("Dark Day").beerStyle(BeerStyle.STOUT).build());
+        Assertions.assertThat(this.beerService.findBeers(null, null, "Hoppy")).isEmpty();
+        Assertions.assertThat(this.beerService.findBeers(null, null, "Dark")).hasSize(1);
+
+        this.beerService.deleteBeerById(saved.getId());
+        Assertions.assertThat(this.beerService.findBeers(BeerStyle.STOUT, null, null)).isEmpty();
+        Assertions.assertThat(this.beerService.findBeers(null, null, "Dark")).isEmpty();
+    }
+
+    @Test
+    void testInventoryAggregatesFollowWrites() throws Exception {
+        final InventoryAggregate paleAle = this.beerService.getInventoryAggregates().getByStyle()
+                        .get(BeerStyle.PALE_ALE.ordinal());
+        Assertions.assertThat(paleAle).isEqualTo(InventoryAggregate.builder().beerStyle(BeerStyle.PALE_ALE).beerCount(2)
+                        .unitCount(514).stockValue(new BigDecimal("6284.86")).minPrice(new BigDecimal("11.99"))
+                        .maxPrice(new BigDecimal("12.99")).averagePrice(new BigDecimal("12.49")).build());
+
+        // random writes from several threads, including style changes, missing fields and odd scales
+        final BeerStyle[] styles = BeerStyle.values();
+        try (ExecutorService writers = Executors.newFixedThreadPool(4)) {
+            final List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(writers.submit(() -> {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int j = 0; j < 300; j++) {
+                        final Beer saved = this.beerService.saveNewBeer(Beer.builder().beerName("Aggregated")
+                                        .beerStyle(random.nextBoolean() ? null : styles[random.nextInt(styles.length)])
+                                        .price(random.nextInt(5) == 0 ? null
+                                                        : BigDecimal.valueOf(random.nextInt(3000), random.nextInt(4)))
+                                        .quantityOnHand(random.nextInt(5) == 0 ? null : random.nextInt(500)).build());
+                        this.beerService.patchBeerById(saved.getId(), Beer.builder()
+                                        .beerStyle(styles[random.nextInt(styles.length)]).price(new BigDecimal("7.50"))
+                                        .build());
+                        if (random.nextInt(3) == 0) {
+                            this.beerService.deleteBeerById(saved.getId());
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> result : results) {
+                result.get();
+            }
+        }
+
+        final InventoryAggregates aggregates = this.beerService.getInventoryAggregates();
+        Assertions.assertThat(aggregates).isEqualTo(this.beerService.recomputeInventoryAggregates());
+        Assertions.assertThat(aggregates.getTotal().getBeerCount()).isEqualTo(this.beerService.getBeerCount());
+    }
+
+    @Test
+    void testListBeerChanges() {
+        // a client without a sequence starts from a reset
+        final ChangeSet<Beer> initial = this.beerService.listBeerChanges("0", null, null);
+        Assertions.assertThat(initial.isReset()).isTrue();
+        Assertions.assertThat(initial.getChanged()).hasSize(this.beerService.getBeerCount());
+
+        final Beer kept = this.beerService.listBeers().get(0);
+        final Beer dropped = this.beerService.listBeers().get(1);
+        final Beer added = this.beerService.saveNewBeer(Beer.builder().beerName("Added").build());
+        this.beerService.patchBeerById(kept.getId(), Beer.builder().quantityOnHand(1).build());
+        this.beerService.patchBeerById(kept.getId(), Beer.builder().quantityOnHand(2).build());
+        this.beerService.deleteBeerById(dropped.getId());
+
+        // only what was written after the sequence, each entity once as it is now
+        final ChangeSet<Beer> changes = this.beerService.listBeerChanges(String.valueOf(initial.getSequence()),
+                        null, null);
+        Assertions.assertThat(changes.isReset()).isFalse();
+        Assertions.assertThat(changes.getChanged()).extracting(Beer::getId).containsExactly(added.getId(),
+                        kept.getId());
+        Assertions.assertThat(changes.getChanged().get(1).getQuantityOnHand()).isEqualTo(2);
+        Assertions.assertThat(changes.getDeleted()).containsExactly(dropped.getId());
+        Assertions.assertThat(changes.getSequence()).isGreaterThan(initial.getSequence());
+
+        Assertions.assertThat(this.beerService.listBeerChanges(String.valueOf(changes.getSequence()), null, null)
+                        .getChanged()).isEmpty();
+        // a timestamp from before the service started cannot be answered from the index
+        Assertions.assertThat(this.beerService.listBeerChanges("2020-01-01T00:00:00Z", null, null).isReset()).isTrue();
+        Assertions.assertThatThrownBy(() -> this.beerService.listBeerChanges("yesterday", null, null))
+                        .isInstanceOf(InvalidChangedSinceException.class);
+    }
+
+    @Test
+    void testListBeerChangesResetInPages() {
+        final List<UUID> before = this.beerService.listBeers().stream().map(Beer::getId).toList();
+        final Set<UUID> ids = new HashSet<>();
+        ChangeSet<Beer> page = this.beerService.listBeerChanges("0", null, 2);
+        final long sequence = page.getSequence();
+        // written while the reset is paged, comes in the change set after it
+        final Beer added = this.beerService.saveNewBeer(Beer.builder().beerName("During reset").build());
+        while (true) {
+            Assertions.assertThat(page.isReset()).isTrue();
+            Assertions.assertThat(page.getSequence()).isEqualTo(sequence);
+            Assertions.assertThat(page.getChanged()).hasSizeLessThanOrEqualTo(2);
+            page.getChanged().forEach(beer -> ids.add(beer.getId()));
+            if (page.getNextCursor() == null) {
+                break;
+            }
+            page = this.beerService.listBeerChanges(String.valueOf(sequence), page.getNextCursor(), 2);
+        }
+
+        Assertions.assertThat(ids).containsAll(before);
+        final ChangeSet<Beer> changes = this.beerService.listBeerChanges(String.valueOf(sequence), null, null);
+        Assertions.assertThat(changes.isReset()).isFalse();
+        Assertions.assertThat(changes.getChanged()).extracting(Beer::getId).containsExactly(added.getId());
+    }
+
+    @Test
+    void testPurgedTombstonesForceReset() throws Exception {
+        final EntityStore<Beer> store = new EntityStore<>(null);
+        final ChangeIndex<Beer> changeIndex = new ChangeIndex<>(store, Duration.ZERO);
+        store.addListener(changeIndex);
+        final long start = changeIndex.changesSince(0, null, null).getSequence();
+
+        final Beer beer = store.insert(Beer.builder().id(UUID.randomUUID()).version(1).beerName("Gone").build());
+        Assertions.assertThat(changeIndex.changesSince(start, null, null).getChanged()).containsExactly(beer);
+
+        // the tombstone expires at once, a client from before it can no longer learn about the delete
+        store.delete(beer.getId());
+        Thread.sleep(2);
+        final ChangeSet<Beer> changes = changeIndex.changesSince(start, null, null);
+        Assertions.assertThat(changes.isReset()).isTrue();
+        Assertions.assertThat(changes.getChanged()).isEmpty();
+        Assertions.assertThat(changeIndex.changesSince(changes.getSequence(), null, null).isReset()).isFalse();
+    }
+
+    @Test
+    void testInvalidCursor() {
+        Assertions.assertThatThrownBy(() -> this.beerService.listBeers("not a cursor", 10))
+                        .isInstanceOf(InvalidCursorException.class);
+    }
+
+    @Test
+    void testListBeersPageWalk() {
+        for (int i = 0; i < 20; i++) {
+            this.beerService.saveNewBeer(Beer.builder().beerName("Beer " + i).build());
+        }
+
+        final List<UUID> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            final CursorPage<Beer> page = this.beerService.listBeers(cursor, 4);
+            Assertions.assertThat(page.getContent()).hasSizeLessThanOrEqualTo(4);
+            page.getContent().forEach(beer -> seen.add(beer.getId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        // every beer exactly once, in id order
+        Assertions.assertThat(seen).hasSize(23).doesNotHaveDuplicates().isSorted();
+    }
+
+    @Test
+    void testListBeersSorted() {
+        final Beer cheap = this.beerService.saveNewBeer(Beer.builder().beerName("cheap").beerStyle(BeerStyle.PALE_ALE)
+                        .price(new BigDecimal("9.50")).quantityOnHand(7).build());
+        final Beer unpriced = this.beerService.saveNewBeer(Beer.builder().beerName("Unpriced").quantityOnHand(7)
+                        .build());
+        // the seeded beers cost 11.99, 12.99 and 13.99
+        Assertions.assertThat(this.beerService.listBeersSorted("price", false, null, null, null, null, 2))
+                        .extracting(Beer::getBeerName).containsExactly("cheap", "Crank");
+        Assertions.assertThat(this.beerService.listBeersSorted("price", true, "10", "13", null, null, null))
+                        .extracting(Beer::getBeerName).containsExactly("Galaxy Cat", "Crank");
+        Assertions.assertThat(this.beerService.listBeersSorted("price", false, null, null, BeerStyle.PALE_ALE, 1,
+                        null)).extracting(Beer::getBeerName).containsExactly("Crank", "Galaxy Cat");
+        Assertions.assertThat(this.beerService.listBeersSorted("price", true, null, null, null, 3, 5))
+                        .containsExactly(cheap);
+        Assertions.assertThat(this.beerService.listBeersSorted("price", false, "20", null, null, null, null))
+                        .isEmpty();
+        // case insensitive, the id breaks the tie of equal quantities
+        Assertions.assertThat(this.beerService.listBeersSorted("beerName", false, "c", "s", null, null, null))
+                        .extracting(Beer::getBeerName).containsExactly("cheap", "Crank", "Galaxy Cat");
+        Assertions.assertThat(this.beerService.listBeersSorted("quantityOnHand", false, null, "7", null, null, null))
+                        .extracting(Beer::getId).isSorted().containsExactlyInAnyOrder(cheap.getId(), unpriced.getId());
+
+        // every write moves the beer
+        this.beerService.patchBeerById(cheap.getId(), Beer.builder().price(new BigDecimal("20")).build());
+        this.beerService.patchBeerById(unpriced.getId(), Beer.builder().price(new BigDecimal("1")).build());
+        Assertions.assertThat(this.beerService.listBeersSorted("price", true, null, null, null, null, 1)).singleElement()
+                        .satisfies(beer -> Assertions.assertThat(beer.getVersion()).isEqualTo(2))
+                        .extracting(Beer::getId).isEqualTo(cheap.getId());
+        this.beerService.deleteBeerById(unpriced.getId());
+        Assertions.assertThat(this.beerService.listBeersSorted("price", false, null, null, null, null, null))
+                        .extracting(Beer::getBeerName).containsExactly("Crank", "Galaxy Cat", "Sunshine City", "cheap");
+
+        Assertions.assertThatThrownBy(() -> this.beerService.listBeersSorted("upc", false, null, null, null, null,
+                        null)).isInstanceOf(InvalidSortException.class);
+        Assertions.assertThatThrownBy(() -> this.beerService.listBeersSorted("price", false, "ten", null, null,
+                        null, null)).isInstanceOf(InvalidSortException.class);
+    }
+
+    // random writes of every kind, every page has to match sorting a full read of the store
+    @Test
+    void testListBeersSortedFollowsWrites() {
+        final List<UUID> beerIds = new ArrayList<>();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 2_000; i++) {
+            final int action = beerIds.isEmpty() ? 0 : random.nextInt(6);
+            final Beer beer = Beer.builder().beerName("Beer " + random.nextInt(100))
+                            .beerStyle(random.nextInt(5) == 0 ? null : BeerStyle.values()[random.nextInt(3)])
+                            .price(random.nextInt(10) == 0 ? null : BigDecimal.valueOf(random.nextInt(500), 2))
+                            .quantityOnHand(random.nextInt(50)).build();
+            switch (action) {
+                case 0, 1, 2 -> beerIds.add(this.beerService.saveNewBeer(beer).getId());
+                case 3 -> this.beerService.deleteBeerById(beerIds.remove(random.nextInt(beerIds.size())));
+                case 4 -> this.beerService.patchBeerById(beerIds.get(random.nextInt(beerIds.size())), beer);
+                default -> this.beerService.adjustStock(beerIds.get(random.nextInt(beerIds.size())), 1);
+            }
+        }
+        this.beerService.saveNewBeers(List.of(Beer.builder().beerName("Bulk").price(BigDecimal.ONE).build()));
+
+        final Comparator<Beer> byPrice = Comparator.comparing(Beer::getPrice).thenComparing(Beer::getId);
+        final List<Beer> ales = this.beerService.listBeers().stream().filter(beer -> beer.getPrice() != null)
+                        .filter(beer -> beer.getBeerStyle() == BeerStyle.ALE).sorted(byPrice.reversed()).toList();
+        Assertions.assertThat(this.beerService.listBeersSorted("price", true, null, null, BeerStyle.ALE, 10, 50))
+                        .isEqualTo(ales.subList(Math.min(10, ales.size()), Math.min(60, ales.size())));
+
+        final List<Beer> ranged = this.beerService.listBeers().stream().filter(beer -> beer.getPrice() != null)
+                        .filter(beer -> beer.getPrice().compareTo(BigDecimal.ONE) >= 0
+                                        && beer.getPrice().compareTo(new BigDecimal("2.5")) <= 0)
+                        .sorted(byPrice).toList();
+        Assertions.assertThat(this.beerService.listBeersSorted("price", false, "1", "2.5", null, 5, 1_000))
+                        .isEqualTo(ranged.subList(Math.min(5, ranged.size()), ranged.size()));
+
+        final List<Beer> byQuantity = this.beerService.listBeers().stream()
+                        .sorted(Comparator.comparing(Beer::getQuantityOnHand, Comparator.nullsLast(Comparator
+                                        .naturalOrder())).thenComparing(Beer::getId))
+                        .filter(beer -> beer.getQuantityOnHand() != null).limit(100).toList();
+        Assertions.assertThat(this.beerService.listBeersSorted("quantityOnHand", false, null, null, null, 0, 100))
+                        .isEqualTo(byQuantity);
+    }
+
+    // writers on different beers and a reader paging deep into the index at the same time: every page the reader
+    // gets is in order, and once the writers are done the index matches sorting a full read of the store
+    @Test
+    void testListBeersSortedUnderConcurrentWrites() throws Exception {
+        final List<UUID> beerIds = this.beerService.saveNewBeers(IntStream.range(0, 2_000).mapToObj(i -> Beer
+                        .builder().beerName("Beer " + i).beerStyle(BeerStyle.values()[i % 3]).quantityOnHand(i)
+                        .build()).toList()).stream().map(Beer::getId).toList();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(5)) {
+            final List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < 4; w++) {
+                final List<UUID> own = beerIds.subList(w * 500, (w + 1) * 500);
+                writers.add(executor.submit(() -> {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 5_000; i++) {
+                        final UUID beerId = own.get(random.nextInt(own.size()));
+                        if (random.nextBoolean()) {
+                            this.beerService.adjustStock(beerId, random.nextInt(-50, 50));
+                        } else {
+                            this.beerService.patchBeerById(beerId, Beer.builder().beerStyle(BeerStyle.values()[random
+                                            .nextInt(3)]).build());
+                        }
+                    }
+                }));
+            }
+            final Future<?> reader = executor.submit(() -> {
+                while (writing.get()) {
+                    final List<Beer> page = this.beerService.listBeersSorted("quantityOnHand", false, null, null,
+                                    BeerStyle.ALE, 200, 100);
+                    Assertions.assertThat(page).extracting(Beer::getQuantityOnHand).isSorted();
+                    Assertions.assertThat(page).extracting(Beer::getBeerStyle).containsOnly(BeerStyle.ALE);
+                }
+            });
+            for (final Future<?> writer : writers) {
+                writer.get();
+            }
+            writing.set(false);
+            reader.get();
+        }
+
+        final List<Beer> ales = this.beerService.listBeers().stream().filter(beer -> beer
+                        .getBeerStyle() == BeerStyle.ALE).sorted(Comparator.comparing(Beer::getQuantityOnHand)
+                                        .thenComparing(Beer::getId)).toList();
+        Assertions.assertThat(this.beerService.listBeersSorted("quantityOnHand", false, null, null, BeerStyle.ALE, 0,
+                        1_000)).isEqualTo(ales.subList(0, Math.min(1_000, ales.size())));
+    }
+
+    @Test
+    void testPatchDoesNotMutateReadCopy() {
+        final Beer before = this.beerService.listBeers().get(0);
+
+        this.beerService.patchBeerById(before.getId(), Beer.builder().beerName("Patched").build());
+
+        Assertions.assertThat(before.getBeerName()).isNotEqualTo("Patched");
+        Assertions.assertThat(before.getVersion()).isEqualTo(1);
+        Assertions.assertThat(this.beerService.getBeerById(before.getId()).getBeerName()).isEqualTo("Patched");
+        Assertions.assertThat(this.beerService.getBeerById(before.getId()).getVersion()).isEqualTo(2);
+    }
+
+    // one writer moves the quantities along while readers list the beers, some of them slowly. the quantities
+    // are always count consecutive numbers, a read that saw some beers before a write and some after would miss
+    // one of them
+    @Test
+    void testSnapshotReadsAreNotTorn() throws Exception {
+        final int count = 500;
+        for (int i = 0; i < count; i++) {
+            this.beerService.saveNewBeer(Beer.builder().beerName("Stress " + i).quantityOnHand(i).build());
+        }
+        final List<UUID> beerIds = this.beerService.listBeers().stream()
+                        .filter(beer -> beer.getBeerName().startsWith("Stress "))
+                        .sorted(Comparator.comparing(Beer::getQuantityOnHand)).map(Beer::getId).toList();
+        final AtomicBoolean done = new AtomicBoolean();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            final Future<?> writer = executor.submit(() -> {
+                for (int k = count; !done.get(); k++) {
+                    this.beerService.patchBeerById(beerIds.get(k % count), Beer.builder().quantityOnHand(k).build());
+                }
+            });
+            final List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                final boolean slow = r == 0;
+                readers.add(executor.submit(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        final List<Integer> quantities;
+                        if (slow) {
+                            try (Stream<Beer> beers = this.beerService.streamBeers()) {
+                                final AtomicInteger read = new AtomicInteger();
+                                quantities = beers.peek(beer -> {
+                                    if (read.incrementAndGet() % 50 == 0) {
+                                        Thread.yield();
+                                    }
+                                }).filter(beer -> beer.getBeerName().startsWith("Stress "))
+                                                .map(Beer::getQuantityOnHand).toList();
+                            }
+                        } else {
+                            quantities = this.beerService.listBeers().stream()
+                                            .filter(beer -> beer.getBeerName().startsWith("Stress "))
+                                            .map(Beer::getQuantityOnHand).toList();
+                        }
+                        Assertions.assertThat(quantities).hasSize(count).doesNotHaveDuplicates();
+                        Assertions.assertThat(Collections.max(quantities) - Collections.min(quantities))
+                                        .isEqualTo(count - 1);
+                    }
+                    return null;
+                }));
+            }
+            try {
+                for (final Future<?> reader : readers) {
+                    reader.get();
+                }
+            } finally {
+                done.set(true);
+            }
+            writer.get();
+        }
+    }
+
+    @Test
+    void testStaleVersionIsRejected() {
+        final Beer beer = this.beerService.listBeers().get(0);
+        this.beerService.patchBeerById(beer.getId(), Beer.builder().beerName("First").version(1).build());
+
+        Assertions.assertThatThrownBy(() -> this.beerService
+                        .updateBeerById(beer.getId(), beer.toBuilder().beerName("Second").version(1).build()))
+                        .isInstanceOf(ConflictException.class);
+        Assertions.assertThat(this.beerService.getBeerById(beer.getId()).getBeerName()).isEqualTo("First");
+    }
+
+    // a stream opened before the writes keeps seeing the store as it was, a read after them sees the writes
+    @Test
+    void testStreamBeersIsPointInTime() {
+        final List<Beer> before = this.beerService.listBeers();
+        final Beer patched = before.get(0);
+        final Beer deleted = before.get(1);
+
+        try (Stream<Beer> beers = this.beerService.streamBeers()) {
+            this.beerService.patchBeerById(patched.getId(), Beer.builder().beerName("Patched").build());
+            this.beerService.deleteBeerById(deleted.getId());
+            final Beer saved = this.beerService.saveNewBeer(Beer.builder().beerName("Saved").build());
+
+            Assertions.assertThat(beers.toList()).containsExactlyInAnyOrderElementsOf(before);
+            Assertions.assertThat(this.beerService.listBeers()).hasSameSizeAs(before).contains(saved)
+                            .doesNotContain(patched, deleted)
+                            .anyMatch(beer -> "Patched".equals(beer.getBeerName()));
+        }
+    }
+
+    @Test
+    void testUpdateMissingBeer() {
+        Assertions.assertThatThrownBy(() -> this.beerService.updateBeerById(UUID.randomUUID(), Beer.builder().build()))
+                        .isInstanceOf(NotFoundException.class);
+    }
+}
@@ -0,0 +1,74 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.CacheStats;
+import guru.springframework.spring6restmvc.persistence.DataDirectory;
+
+// every BeerServiceImplTest again, reading beers by id through the cache
+class CachedBeerServiceImplTest extends BeerServiceImplTest {
+
+    @Override
+    @BeforeEach
+    void setUp() {
+        this.beerService = new BeerServiceImpl((DataDirectory) null, false, Duration.ZERO, 16,
+                        Duration.ofMinutes(1));
+    }
+
+    // a cold hot key, every request arrives while the first one is still waiting on the backend
+    @Test
+    void testConcurrentMissesShareOneBackendRead() throws Exception {
+        final BeerServiceImpl beerService = new BeerServiceImpl((DataDirectory) null, false,
+                        Duration.ofMillis(200), 16, Duration.ofMinutes(1));
+        final UUID id = beerService.saveNewBeer(Beer.builder().beerName("Hot").build()).getId();
+        final int threads = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Beer>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return beerService.getBeerById(id);
+                }));
+            }
+            start.countDown();
+            for (final Future<Beer> result : results) {
+                Assertions.assertThat(result.get().getBeerName()).isEqualTo("Hot");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final CacheStats stats = beerService.getBeerCacheStats();
+        Assertions.assertThat(stats.getLoadCount()).isEqualTo(1);
+        Assertions.assertThat(stats.getHitCount() + stats.getCoalescedLoadCount()).isEqualTo(threads - 1);
+        Assertions.assertThat(stats.meanLoadNanos()).isGreaterThanOrEqualTo(Duration.ofMillis(200).toNanos());
+    }
+
+    @Test
+    void testReadsOwnWrites() {
+        final Beer saved = this.beerService.saveNewBeer(Beer.builder().beerName("Before").build());
+        Assertions.assertThat(this.beerService.getBeerById(saved.getId()).getBeerName()).isEqualTo("Before");
+
+        this.beerService.patchBeerById(saved.getId(), Beer.builder().beerName("After").build());
+        Assertions.assertThat(this.beerService.getBeerById(saved.getId()).getBeerName()).isEqualTo("After");
+
+        this.beerService.deleteBeerById(saved.getId());
+        Assertions.assertThat(this.beerService.getBeerById(saved.getId())).isNull();
+        Assertions.assertThat(this.beerService.getBeerCacheStats().getHitCount()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,112 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.ChangeAction;
+import guru.springframework.spring6restmvc.model.ChangeEvent;
+import guru.springframework.spring6restmvc.model.Customer;
+
+class ChangeFeedTest {
+
+    @Test
+    void testConcurrentWritesArePublishedWithoutGaps() throws Exception {
+        final ChangeFeed changeFeed = new ChangeFeed(1 << 16);
+        final BeerServiceImpl beerService = new BeerServiceImpl();
+        beerService.addChangeListener(changeFeed.listener("beer"));
+        final int writers = 4;
+        final int writesPerWriter = 2_000;
+
+        // a reader follows along while the writers run and has to see every sequence exactly once
+        final List<ChangeEvent> seen = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(writers + 1)) {
+            final List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < writesPerWriter; j++) {
+                        beerService.saveNewBeer(Beer.builder().beerName("Beer " + j).build());
+                    }
+                }));
+            }
+            final Future<?> reader = executor.submit(() -> {
+                long next = 1;
+                while (seen.size() < writers * writesPerWriter) {
+                    final ChangeFeed.Batch batch = changeFeed.read(next, 100);
+                    Assertions.assertThat(batch.missed()).isFalse();
+                    seen.addAll(batch.events());
+                    next = batch.next();
+                }
+            });
+            for (final Future<?> result : results) {
+                result.get();
+            }
+            reader.get();
+        }
+
+        Assertions.assertThat(seen).extracting(ChangeEvent::getSequence)
+                        .containsExactlyElementsOf(LongStream.rangeClosed(1, writers * writesPerWriter).boxed().toList());
+        Assertions.assertThat(seen).extracting(ChangeEvent::getEntityId).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void testOverrunIsReported() {
+        final ChangeFeed changeFeed = new ChangeFeed(5);
+        final CustomerServiceImpl customerService = new CustomerServiceImpl();
+        customerService.addChangeListener(changeFeed.listener("customer"));
+        for (int i = 0; i < 20; i++) {
+            customerService.saveNewCustomer(Customer.builder().name("Customer " + i).build());
+        }
+
+        // rounded up to 8, so 13 to 20 are still held
+        Assertions.assertThat(changeFeed.capacity()).isEqualTo(8);
+        final ChangeFeed.Batch lapped = changeFeed.read(3, 100);
+        Assertions.assertThat(lapped.missed()).isTrue();
+        Assertions.assertThat(lapped.events()).extracting(ChangeEvent::getSequence)
+                        .containsExactly(13L, 14L, 15L, 16L, 17L, 18L, 19L, 20L);
+
+        // a sequence from before a restart is further ahead than the feed
+        Assertions.assertThat(changeFeed.read(500, 100).missed()).isTrue();
+        Assertions.assertThat(changeFeed.read(changeFeed.nextSequence(), 100).events()).isEmpty();
+    }
+
+    @Test
+    void testWritesArePublishedInOrder() {
+        final ChangeFeed changeFeed = new ChangeFeed(16);
+        final BeerServiceImpl beerService = new BeerServiceImpl();
+        final CustomerServiceImpl customerService = new CustomerServiceImpl();
+        beerService.addChangeListener(changeFeed.listener("beer"));
+        customerService.addChangeListener(changeFeed.listener("customer"));
+
+        final Beer beer = beerService.saveNewBeer(Beer.builder().beerName("Feed").build());
+        beerService.patchBeerById(beer.getId(), Beer.builder().quantityOnHand(7).build());
+        final Customer customer = customerService.saveNewCustomer(Customer.builder().name("Ann").build());
+        beerService.deleteBeerById(beer.getId());
+
+        final ChangeFeed.Batch batch = changeFeed.read(1, 100);
+        Assertions.assertThat(batch.missed()).isFalse();
+        Assertions.assertThat(batch.next()).isEqualTo(5);
+        Assertions.assertThat(batch.events()).extracting(ChangeEvent::getSequence).containsExactly(1L, 2L, 3L, 4L);
+        Assertions.assertThat(batch.events()).extracting(ChangeEvent::getAction).containsExactly(ChangeAction.CREATED,
+                        ChangeAction.UPDATED, ChangeAction.CREATED, ChangeAction.DELETED);
+        Assertions.assertThat(batch.events()).extracting(ChangeEvent::getEntityType).containsExactly("beer", "beer",
+                        "customer", "beer");
+        Assertions.assertThat(batch.events()).extracting(ChangeEvent::getEntityId).containsExactly(beer.getId(),
+                        beer.getId(), customer.getId(), beer.getId());
+        Assertions.assertThat(((Beer) batch.events().get(1).getEntity()).getQuantityOnHand()).isEqualTo(7);
+        Assertions.assertThat(batch.events().get(3).getEntity()).isNull();
+
+        // resuming after the second event
+        final UUID customerId = changeFeed.read(3, 1).events().get(0).getEntityId();
+        Assertions.assertThat(customerId).isEqualTo(customer.getId());
+    }
+}
@@ -0,0 +1,150 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import guru.springframework.spring6restmvc.model.Beer;
+import guru.springframework.spring6restmvc.model.BeerStyle;
+import guru.springframework.spring6restmvc.persistence.DataDirectory;
+
+// every BeerServiceImplTest again, against the columnar store
+class ColumnarBeerServiceImplTest extends BeerServiceImplTest {
+
+    @TempDir
+    Path directory;
+
+    @Override
+    @BeforeEach
+    void setUp() {
+        this.beerService = new BeerServiceImpl(null, true);
+    }
+
+    @Test
+    void testColumnsKeepEveryField() {
+        final ColumnarBeerStore store = new ColumnarBeerStore();
+        final Beer sparse = Beer.builder().id(UUID.randomUUID()).build();
+        final Beer full = Beer.builder().id(UUID.randomUUID()).beerName("Ünïcödé").beerStyle(BeerStyle.WHEAT).upc("")
+                        .price(new BigDecimal("12.990")).quantityOnHand(-3).version(Integer.MAX_VALUE)
+                        .createdDate(LocalDateTime.of(1900, 1, 1, 0, 0, 0, 1)).updatedDate(LocalDateTime.now()).build();
+        final Beer bigPrice = Beer.builder().id(UUID.randomUUID()).price(new BigDecimal("123456789012345678901234567890.1"))
+                        .build();
+
+        store.insert(sparse);
+        store.insert(full);
+        store.insert(bigPrice);
+
+        Assertions.assertThat(store.get(sparse.getId())).isEqualTo(sparse);
+        Assertions.assertThat(store.get(full.getId())).isEqualTo(full);
+        Assertions.assertThat(store.get(bigPrice.getId())).isEqualTo(bigPrice);
+        Assertions.assertThat(store.values()).containsExactlyInAnyOrder(sparse, full, bigPrice);
+    }
+
+    @Test
+    void testFreedSlotsAreReused() {
+        final ColumnarBeerStore store = new ColumnarBeerStore();
+        final List<UUID> live = new ArrayList<>();
+
+        // grows the columns and the id table several times and deletes along the way, which moves table entries
+        for (int i = 0; i < 5000; i++) {
+            final Beer beer = Beer.builder().id(UUID.randomUUID()).beerName("Beer " + i).version(1).build();
+            store.insert(beer);
+            live.add(beer.getId());
+            if (i % 3 == 0) {
+                Assertions.assertThat(store.delete(live.remove(live.size() / 2))).isNotNull();
+            }
+        }
+
+        Assertions.assertThat(store.size()).isEqualTo(live.size());
+        for (final UUID id : live) {
+            Assertions.assertThat(store.get(id)).as(id.toString()).isNotNull();
+        }
+        final Set<UUID> inIdOrder = new HashSet<>();
+        store.valuesInIdOrder().forEach(beer -> inIdOrder.add(beer.getId()));
+        Assertions.assertThat(inIdOrder).containsExactlyInAnyOrderElementsOf(live);
+    }
+
+    // a beer whose fields do not fit the columns is turned down before it takes a slot, new or freed
+    @Test
+    void testRejectedWritesTakeNoSlot() {
+        final ColumnarBeerStore store = new ColumnarBeerStore();
+        final Beer kept = Beer.builder().id(UUID.randomUUID()).beerName("Kept").build();
+        store.insert(kept);
+        store.delete(store.insert(Beer.builder().id(UUID.randomUUID()).build()).getId());
+
+        for (int i = 0; i < 100; i++) {
+            final Beer outOfRange = Beer.builder().id(UUID.randomUUID()).createdDate(LocalDateTime.of(3000, 1, 1, 0,
+                            0)).build();
+            Assertions.assertThatThrownBy(() -> store.insert(outOfRange)).isInstanceOf(IllegalArgumentException.class);
+            Assertions.assertThat(store.get(outOfRange.getId())).isNull();
+        }
+
+        Assertions.assertThat(store.slotCount()).isEqualTo(2);
+        Assertions.assertThat(store.size()).isOne();
+        // the freed slot is still there for the next beer
+        store.insert(Beer.builder().id(UUID.randomUUID()).build());
+        Assertions.assertThat(store.slotCount()).isEqualTo(2);
+        Assertions.assertThat(store.get(kept.getId())).isEqualTo(kept);
+    }
+
+    // a snapshot keeps what a write overwrites, only for the slots written while it is open and only until it is
+    // closed. a freed slot handed out again still reads as its old beer
+    @Test
+    void testSnapshotKeepsOnlyWrittenSlots() {
+        final ColumnarBeerStore store = new ColumnarBeerStore();
+        final List<Beer> beers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            beers.add(store.insert(Beer.builder().id(UUID.randomUUID()).beerName("Beer " + i).version(1).build()));
+        }
+
+        try (Stream<Beer> snapshot = store.snapshot()) {
+            store.update(beers.get(0).getId(), null, beer -> beer.toBuilder().beerName("Renamed").build());
+            store.update(beers.get(0).getId(), null, beer -> beer.toBuilder().beerName("Renamed again").build());
+            store.delete(beers.get(1).getId());
+            store.insert(Beer.builder().id(UUID.randomUUID()).beerName("New").build());
+
+            Assertions.assertThat(store.slotCount()).isEqualTo(1000);
+            Assertions.assertThat(store.retainedSlots()).isEqualTo(2);
+            Assertions.assertThat(store.values()).extracting(Beer::getBeerName).contains("Renamed again", "New")
+                            .doesNotContain("Beer 0", "Beer 1");
+            Assertions.assertThat(snapshot).containsExactlyInAnyOrderElementsOf(beers);
+        }
+        Assertions.assertThat(store.retainedSlots()).isZero();
+
+        store.update(beers.get(2).getId(), null, beer -> beer.toBuilder().beerName("Renamed").build());
+        Assertions.assertThat(store.retainedSlots()).isZero();
+    }
+
+    @Test
+    void testRestoreFromDataDirectory() throws Exception {
+        final List<Beer> expected;
+        try (DataDirectory dataDirectory = new DataDirectory(this.directory, JsonMapper.builder().findAndAddModules()
+                        .build(), null)) {
+            final BeerServiceImpl beerService = new BeerServiceImpl(dataDirectory, true);
+            beerService.saveNewBeer(Beer.builder().beerName("Snapshot").build());
+            dataDirectory.checkpoint();
+            beerService.saveNewBeer(Beer.builder().beerName("Logged").build());
+            expected = beerService.listBeers();
+        }
+
+        try (DataDirectory dataDirectory = new DataDirectory(this.directory, JsonMapper.builder().findAndAddModules()
+                        .build(), null)) {
+            Assertions.assertThat(new BeerServiceImpl(dataDirectory, true).listBeers())
+                            .containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+}
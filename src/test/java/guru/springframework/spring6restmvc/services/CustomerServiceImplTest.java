@@ -0,0 +1,129 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import guru.springframework.spring6restmvc.model.Customer;
+
+class CustomerServiceImplTest {
+
+    CustomerServiceImpl customerService;
+
+    @BeforeEach
+    void setUp() {
+        this.customerService = new CustomerServiceImpl();
+    }
+
+    @Test
+    void testSearchCustomersRanksMatches() {
+        final UUID smith = this.save("Smith");
+        final UUID johnSmith = this.save("John  SMITH");
+        final UUID blacksmith = this.save("Anna Blacksmith");
+        final UUID smithers = this.save("Smithers");
+        final UUID smyth = this.save("Waylon Smyth");
+        this.save("Brown");
+
+        // exact, then prefix, then word prefix, then substring
+        Assertions.assertThat(this.search("smith", 10)).containsExactly(smith, smithers, johnSmith, blacksmith);
+        Assertions.assertThat(this.search("smith", 2)).containsExactly(smith, smithers);
+        // a typo still finds the near misses, after the real matches
+        Assertions.assertThat(this.search("smyth jr", 10)).startsWith(smyth);
+        // two characters only match the start of a word
+        Assertions.assertThat(this.search("bl", 10)).containsExactly(blacksmith);
+        Assertions.assertThat(this.search("x", 10)).isEmpty();
+        Assertions.assertThat(this.search("zzz", 10)).isEmpty();
+    }
+
+    @Test
+    void testSearchFollowsWrites() {
+        final UUID id = this.save("Margaret");
+        Assertions.assertThat(this.search("marg", 10)).containsExactly(id);
+
+        this.customerService.patchCustomerById(id, Customer.builder().name("Peggy").build());
+        Assertions.assertThat(this.search("marg", 10)).isEmpty();
+        Assertions.assertThat(this.search("peg", 10)).containsExactly(id);
+
+        this.customerService.deleteCustomerById(id);
+        Assertions.assertThat(this.search("peg", 10)).isEmpty();
+    }
+
+    // enough renames to compact the index several times, every customer is found under its latest name only
+    @Test
+    void testSearchAfterCompaction() {
+        final List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(this.save("Customer " + i));
+        }
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < ids.size(); i++) {
+                this.customerService.patchCustomerById(ids.get(i),
+                                Customer.builder().name("Renamed " + round + " " + i).build());
+            }
+        }
+
+        Assertions.assertThat(this.search("customer", 100)).isEmpty();
+        Assertions.assertThat(this.search("renamed 49 17", 1)).containsExactly(ids.get(17));
+        // older names only come back as near misses of the current ones
+        Assertions.assertThat(this.customerService.searchCustomers("renamed 48", 100)).extracting(Customer::getName)
+                        .allMatch(name -> name.startsWith("Renamed 49 "));
+        Assertions.assertThat(this.search("renamed 49", 100)).hasSize(100).doesNotHaveDuplicates();
+    }
+
+    // searches take no lock, while renames grow and compact the index under them each one still finds the
+    // customers nobody renames
+    @Test
+    void testSearchDuringRenames() throws Exception {
+        final UUID kept = this.save("Constance Keeper");
+        final List<UUID> renamed = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            renamed.add(this.save("Customer " + i));
+        }
+        final AtomicBoolean renaming = new AtomicBoolean(true);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            final Future<?> writer = executor.submit(() -> {
+                try {
+                    for (int round = 0; round < 30; round++) {
+                        for (int i = 0; i < renamed.size(); i++) {
+                            this.customerService.patchCustomerById(renamed.get(i),
+                                            Customer.builder().name("Renamed " + round + " " + i).build());
+                        }
+                    }
+                } finally {
+                    renaming.set(false);
+                }
+            });
+            final Future<Integer> reader = executor.submit(() -> {
+                int searches = 0;
+                while (renaming.get()) {
+                    Assertions.assertThat(this.search("constance keeper", 5)).containsExactly(kept);
+                    Assertions.assertThat(this.search("renamed", 20)).hasSizeLessThanOrEqualTo(20);
+                    searches++;
+                }
+                return searches;
+            });
+            writer.get();
+            Assertions.assertThat(reader.get()).isPositive();
+        }
+
+        Assertions.assertThat(this.search("renamed 29 7", 1)).containsExactly(renamed.get(7));
+    }
+
+    private List<UUID> search(final String query, final int limit) {
+        return this.customerService.searchCustomers(query, limit).stream().map(Customer::getId).toList();
+    }
+
+    private UUID save(final String name) {
+        return this.customerService.saveNewCustomer(Customer.builder().name(name).build()).getId();
+    }
+}
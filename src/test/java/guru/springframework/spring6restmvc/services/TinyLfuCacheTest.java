@@ -0,0 +1,145 @@
+/* Copyright Alcon 2023 */
+package guru.springframework.spring6restmvc.services;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import guru.springframework.spring6restmvc.model.CacheStats;
+
+class TinyLfuCacheTest {
+
+    final AtomicInteger loads = new AtomicInteger();
+
+    // keys asked for again and again stay cached among a stream of far more one-off keys than the cache holds.
+    // an lru cache of the same size would lose them all, each hot key comes round again only after 160 others
+    @Test
+    void testFrequentKeysSurviveScan() {
+        final TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100, Duration.ofMinutes(1));
+        for (int round = 0; round < 3; round++) {
+            for (int key = 0; key < 80; key++) {
+                cache.get(key, this::load);
+            }
+        }
+        this.loads.set(0);
+
+        for (int i = 0; i < 10_000; i++) {
+            cache.get(1_000 + i, this::load);
+            cache.get(i % 80, this::load);
+        }
+
+        // the one-off keys only
+        Assertions.assertThat(this.loads).hasValue(10_000);
+        final CacheStats stats = cache.stats();
+        Assertions.assertThat(stats.getSize()).isEqualTo(100);
+        Assertions.assertThat(stats.getHitCount()).isEqualTo(10_160);
+        Assertions.assertThat(stats.getMissCount()).isEqualTo(10_080);
+        Assertions.assertThat(stats.getEvictionCount()).isEqualTo(9_980);
+    }
+
+    @Test
+    void testEntriesExpire() {
+        final AtomicLong now = new AtomicLong();
+        final TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(10, Duration.ofSeconds(5), now::get);
+        cache.get(1, this::load);
+
+        now.set(TimeUnit.SECONDS.toNanos(5) - 1);
+        cache.get(1, this::load);
+        Assertions.assertThat(this.loads).hasValue(1);
+
+        now.incrementAndGet();
+        cache.get(1, this::load);
+        Assertions.assertThat(this.loads).hasValue(2);
+        Assertions.assertThat(cache.stats().getSize()).isEqualTo(1);
+    }
+
+    // a miss while the key is loading waits for that load, and a failed load fails every caller waiting for it
+    @Test
+    void testConcurrentMissesShareOneLoad() throws Exception {
+        final TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(10, Duration.ofMinutes(1));
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> cache.get(1, key -> {
+                    loading.countDown();
+                    TinyLfuCacheTest.await(release);
+                    return this.load(key);
+                })));
+            }
+            loading.await();
+            // every other thread has to have joined the load before it is released
+            while (cache.stats().getCoalescedLoadCount() < threads - 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (final Future<String> result : results) {
+                Assertions.assertThat(result.get()).isEqualTo("value 1");
+            }
+            Assertions.assertThat(this.loads).hasValue(1);
+            Assertions.assertThat(cache.stats().getLoadCount()).isEqualTo(1);
+
+            final CountDownLatch failing = new CountDownLatch(1);
+            final CountDownLatch fail = new CountDownLatch(1);
+            final Future<String> first = executor.submit(() -> cache.get(2, key -> {
+                failing.countDown();
+                TinyLfuCacheTest.await(fail);
+                throw new IllegalStateException("backend down");
+            }));
+            failing.await();
+            final Future<String> second = executor.submit(() -> cache.get(2, this::load));
+            while (cache.stats().getCoalescedLoadCount() < threads) {
+                Thread.sleep(1);
+            }
+            fail.countDown();
+            Assertions.assertThatThrownBy(first::get).hasRootCauseMessage("backend down");
+            Assertions.assertThatThrownBy(second::get).hasRootCauseMessage("backend down");
+            Assertions.assertThat(cache.get(2, this::load)).isEqualTo("value 2");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // the load read the key before a write the invalidate stands for, caching it would serve the old value
+    @Test
+    void testInvalidateDuringLoadIsNotCached() {
+        final TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(10, Duration.ofMinutes(1));
+
+        Assertions.assertThat(cache.get(1, key -> {
+            cache.invalidate(key);
+            return "stale";
+        })).isEqualTo("stale");
+
+        Assertions.assertThat(cache.get(1, this::load)).isEqualTo("value 1");
+        Assertions.assertThat(cache.get(1, this::load)).isEqualTo("value 1");
+        Assertions.assertThat(this.loads).hasValue(1);
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String load(final Integer key) {
+        this.loads.incrementAndGet();
+
+        return "value " + key;
+    }
+}